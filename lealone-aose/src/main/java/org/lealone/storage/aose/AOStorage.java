@@ -37,6 +37,9 @@ import org.lealone.storage.PageOperationHandlerFactory;
 import org.lealone.storage.StorageBase;
 import org.lealone.storage.StorageCommand;
 import org.lealone.storage.StorageMap;
+import org.lealone.storage.aose.btree.AsyncPageReader;
+import org.lealone.storage.aose.btree.BTreeCompactor;
+import org.lealone.storage.aose.btree.OffHeapPageCache;
 import org.lealone.storage.aose.btree.BTreeMap;
 import org.lealone.storage.aose.btree.BTreeMapBuilder;
 import org.lealone.storage.aose.btree.DistributedBTreeMap;
@@ -59,6 +62,9 @@ public class AOStorage extends StorageBase {
 
     private final IDatabase db;
     private final PageOperationHandlerFactory pohFactory;
+    private BTreeCompactor compactor;
+    private OffHeapPageCache offHeapPageCache;
+    private AsyncPageReader pageReader;
 
     AOStorage(Map<String, Object> config, PageOperationHandlerFactory pohFactory) {
         super(config);
@@ -81,6 +87,48 @@ public class AOStorage extends StorageBase {
         return pohFactory;
     }
 
+    public synchronized BTreeCompactor getCompactor() {
+        if (compactor == null) {
+            compactor = new BTreeCompactor(config);
+            compactor.start();
+        }
+        return compactor;
+    }
+
+    // 没有设置offHeapCacheSize时返回null
+    public synchronized OffHeapPageCache getOffHeapPageCache() {
+        if (offHeapPageCache == null && OffHeapPageCache.isEnabled(config)) {
+            offHeapPageCache = new OffHeapPageCache(config);
+        }
+        return offHeapPageCache;
+    }
+
+    // pageReadThreads设为0时返回null
+    public synchronized AsyncPageReader getPageReader() {
+        if (pageReader == null && AsyncPageReader.isEnabled(config)) {
+            pageReader = new AsyncPageReader(config);
+        }
+        return pageReader;
+    }
+
+    @Override
+    public void closeImmediately() {
+        super.closeImmediately();
+        BTreeCompactor compactor;
+        synchronized (this) {
+            compactor = this.compactor;
+            this.compactor = null;
+            offHeapPageCache = null;
+            if (pageReader != null) {
+                pageReader.close();
+                pageReader = null;
+            }
+        }
+        // 等待压缩线程结束时不持有锁
+        if (compactor != null)
+            compactor.close();
+    }
+
     @Override
     public <K, V> StorageMap<K, V> openMap(String name, StorageDataType keyType, StorageDataType valueType,
             Map<String, String> parameters) {
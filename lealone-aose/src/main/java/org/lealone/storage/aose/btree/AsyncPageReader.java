@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lealone.common.concurrent.DebuggableThreadPoolExecutor;
+import org.lealone.common.exceptions.DbException;
+import org.lealone.sql.SQLStatementExecutor;
+
+/**
+ * 在专用的I/O线程池中读取page，避免冷page的读取阻塞调度线程.
+ *
+ * <p>
+ * 调度线程(SQLStatementExecutor)提交读请求后不会阻塞，而是转去执行其他语句，
+ * 读完后通过回调唤醒调度线程。同一个AOStorage中的所有BTreeStorage共用一个线程池，
+ * 通过pageReadThreads设置线程数，默认是CPU核数，设为0时在调用线程中同步读取。
+ */
+public class AsyncPageReader {
+
+    // 等待page时会在当前线程中执行其他语句，这些语句也可能要等待page，限制嵌套的层数避免堆栈溢出
+    private static final int MAX_NESTED_WAITS = 3;
+
+    private static final ThreadLocal<int[]> nestedWaits = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final ExecutorService executor;
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong yieldCount = new AtomicLong();
+
+    public AsyncPageReader(Map<String, Object> config) {
+        executor = DebuggableThreadPoolExecutor.createWithFixedPoolSize(AsyncPageReader.class.getSimpleName(),
+                getThreadCount(config));
+    }
+
+    static int getThreadCount(Map<String, Object> config) {
+        Object value = config.get("pageReadThreads");
+        return value == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(value.toString());
+    }
+
+    public static boolean isEnabled(Map<String, Object> config) {
+        return getThreadCount(config) > 0;
+    }
+
+    public void close() {
+        executor.shutdown();
+    }
+
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * 调度线程在等待page时转去执行其他语句的次数
+     */
+    public long getYieldCount() {
+        return yieldCount.get();
+    }
+
+    PageReadFuture submit(Callable<BTreePage> task) {
+        PageReadFuture future = new PageReadFuture();
+        readCount.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call(), null);
+            } catch (Throwable t) {
+                future.complete(null, t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 等待page读完，如果当前线程是调度线程，等待期间执行其他语句.
+     */
+    BTreePage await(PageReadFuture future, SQLStatementExecutor sqlStatementExecutor) {
+        int[] depth = nestedWaits.get();
+        if (depth[0] < MAX_NESTED_WAITS && future.addWaiter(sqlStatementExecutor)) {
+            depth[0]++;
+            try {
+                while (!future.isDone()) {
+                    yieldCount.incrementAndGet();
+                    // 每次最多执行一个其他session的命令，page读完后马上回到当前语句
+                    sqlStatementExecutor.executeOneStatement();
+                }
+            } finally {
+                depth[0]--;
+            }
+        }
+        return future.get();
+    }
+
+    static class PageReadFuture {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final ArrayList<SQLStatementExecutor> waiters = new ArrayList<>(1);
+        private volatile BTreePage page;
+        private volatile Throwable cause;
+
+        private void complete(BTreePage page, Throwable cause) {
+            this.page = page;
+            this.cause = cause;
+            ArrayList<SQLStatementExecutor> list;
+            synchronized (this) {
+                latch.countDown();
+                list = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            for (SQLStatementExecutor waiter : list)
+                waiter.wakeUp();
+        }
+
+        // 已经读完时返回false
+        private synchronized boolean addWaiter(SQLStatementExecutor waiter) {
+            if (isDone())
+                return false;
+            waiters.add(waiter);
+            return true;
+        }
+
+        boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        BTreePage get() {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            }
+            if (cause != null)
+                throw DbException.convert(cause);
+            return page;
+        }
+    }
+}
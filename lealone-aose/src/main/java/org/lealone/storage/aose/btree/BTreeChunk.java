@@ -5,9 +5,11 @@
  */
 package org.lealone.storage.aose.btree;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.NavigableSet;
 
+import org.lealone.common.util.BitField;
 import org.lealone.common.util.DataUtils;
 import org.lealone.storage.fs.FileStorage;
 
@@ -54,11 +56,21 @@ public class BTreeChunk {
 
     public long sumOfLivePageLength;
 
-    public ArrayList<Long> pagePositions;
+    // 只有前pageCount个元素是有效的，按page的位置从小到大排序后才能用removedPageIndexes
+    public long[] pagePositions;
     public int pagePositionsOffset;
-    public ArrayList<Integer> pageLengths;
+    public int[] pageLengths;
     public int pageLengthsOffset;
 
+    // 被删除的page在pagePositions中的下标
+    private BitField removedPageIndexes;
+    private int removedPageCount;
+
+    // 已经写到chunk文件中的chunk body的字节数，page在chunk中的偏移要加上它
+    public int flushedLength;
+    // 写chunk header之前分批写入的次数
+    public int flushCount;
+
     public FileStorage fileStorage;
     public long mapSize;
 
@@ -66,6 +78,75 @@ public class BTreeChunk {
         this.id = id;
     }
 
+    void initPages() {
+        pagePositions = new long[64];
+        pageLengths = new int[64];
+    }
+
+    void addPage(long pos, int pageLength) {
+        if (pageCount == pagePositions.length) {
+            int newLength = pageCount * 2;
+            pagePositions = Arrays.copyOf(pagePositions, newLength);
+            pageLengths = Arrays.copyOf(pageLengths, newLength);
+        }
+        pagePositions[pageCount] = pos;
+        pageLengths[pageCount] = pageLength;
+        pageCount++;
+        sumOfPageLength += pageLength;
+    }
+
+    // 列存储模式下column page比所属的leaf page先写，所以page的位置不一定是有序的，
+    // 基本有序，用插入排序就够了
+    void sortPages() {
+        for (int i = 1; i < pageCount; i++) {
+            long pos = pagePositions[i];
+            int pageLength = pageLengths[i];
+            int j = i - 1;
+            while (j >= 0 && pagePositions[j] > pos) {
+                pagePositions[j + 1] = pagePositions[j];
+                pageLengths[j + 1] = pageLengths[j];
+                j--;
+            }
+            pagePositions[j + 1] = pos;
+            pageLengths[j + 1] = pageLength;
+        }
+    }
+
+    long getFirstPagePos() {
+        return (long) id << 39;
+    }
+
+    long getLastPagePos() {
+        return ((long) (id + 1) << 39) - 1;
+    }
+
+    /**
+     * Rebuild the liveness bitmap of this chunk.
+     * 
+     * @param removedPages all removed pages, only the pages of this chunk are used
+     */
+    void updateLiveness(NavigableSet<Long> removedPages) {
+        removedPageIndexes = new BitField();
+        removedPageCount = 0;
+        sumOfLivePageLength = sumOfPageLength;
+        for (long pos : removedPages.subSet(getFirstPagePos(), true, getLastPagePos(), true)) {
+            int index = Arrays.binarySearch(pagePositions, 0, pageCount, pos);
+            if (index >= 0 && !removedPageIndexes.get(index)) {
+                removedPageIndexes.set(index);
+                removedPageCount++;
+                sumOfLivePageLength -= pageLengths[index];
+            }
+        }
+    }
+
+    boolean isPageRemoved(int index) {
+        return removedPageIndexes != null && removedPageIndexes.get(index);
+    }
+
+    boolean isUnused() {
+        return removedPageCount >= pageCount;
+    }
+
     /**
      * Calculate the fill rate in %. 0 means empty, 100 means full.
      *
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lealone.common.logging.Logger;
+import org.lealone.common.logging.LoggerFactory;
+
+/**
+ * 在后台压缩BTreeStorage的chunk，不在save时执行，避免长时间占用BTreeStorage的锁.
+ *
+ * <p>
+ * 同一个AOStorage中的所有BTreeStorage共用一个压缩线程，
+ * 通过compactIoRateLimit(单位MB/秒)限制压缩时读取page的速度，默认不限制。
+ */
+public class BTreeCompactor extends Thread {
+
+    private static final Logger logger = LoggerFactory.getLogger(BTreeCompactor.class);
+
+    private static final long DEFAULT_LOOP_INTERVAL = 60 * 1000; // 1分钟
+
+    private final ConcurrentHashMap<BTreeStorage, BTreeStorage> pendingStorages = new ConcurrentHashMap<>();
+    private final Semaphore semaphore = new Semaphore(1);
+    private final long ioRateLimit; // 每秒允许读取的字节数，小于等于0表示不限制
+
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong pagesMoved = new AtomicLong();
+
+    private long ioWindowStart;
+    private long ioWindowBytes;
+    private volatile boolean isClosed;
+
+    public BTreeCompactor(Map<String, Object> config) {
+        super(BTreeCompactor.class.getSimpleName());
+        setDaemon(true);
+        Object value = config.get("compactIoRateLimit");
+        ioRateLimit = value == null ? 0 : Long.parseLong(value.toString()) * 1024 * 1024;
+    }
+
+    /**
+     * 把需要压缩的BTreeStorage放入队列，由后台线程异步执行压缩.
+     *
+     * @param storage the storage to compact
+     */
+    void schedule(BTreeStorage storage) {
+        if (isClosed)
+            return;
+        pendingStorages.put(storage, storage);
+        semaphore.release();
+    }
+
+    void cancel(BTreeStorage storage) {
+        pendingStorages.remove(storage);
+    }
+
+    /**
+     * 停止压缩线程并等待它结束，正在执行的压缩会在读下一个page之前退出.
+     */
+    public void close() {
+        if (!isClosed) {
+            isClosed = true;
+            pendingStorages.clear();
+            semaphore.release();
+            // 不能用interrupt，压缩线程读文件时被中断会关闭FileChannel，throttle最多等待1秒
+            if (Thread.currentThread() != this) {
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    // 忽略
+                }
+            }
+        }
+    }
+
+    boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     * 压缩时每读取一个page就调用一次，超过I/O预算时让压缩线程等待.
+     *
+     * @param bytes the number of bytes read
+     */
+    void throttle(long bytes) {
+        if (ioRateLimit <= 0)
+            return;
+        long now = System.currentTimeMillis();
+        if (now - ioWindowStart >= 1000) {
+            ioWindowStart = now;
+            ioWindowBytes = 0;
+        }
+        ioWindowBytes += bytes;
+        if (ioWindowBytes >= ioRateLimit) {
+            long wait = ioWindowStart + 1000 - now;
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    // 忽略
+                }
+            }
+            ioWindowStart = System.currentTimeMillis();
+            ioWindowBytes = 0;
+        }
+    }
+
+    void addBytesReclaimed(long bytes) {
+        bytesReclaimed.addAndGet(bytes);
+    }
+
+    void addPagesMoved(long pages) {
+        pagesMoved.addAndGet(pages);
+    }
+
+    public long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    public long getPagesMoved() {
+        return pagesMoved.get();
+    }
+
+    @Override
+    public void run() {
+        while (!isClosed) {
+            try {
+                semaphore.tryAcquire(DEFAULT_LOOP_INTERVAL, TimeUnit.MILLISECONDS);
+                semaphore.drainPermits();
+            } catch (InterruptedException e) {
+                break;
+            }
+            for (BTreeStorage storage : pendingStorages.keySet()) {
+                if (isClosed)
+                    break;
+                pendingStorages.remove(storage);
+                try {
+                    storage.compact();
+                } catch (Exception e) {
+                    logger.error("Failed to compact btree storage", e);
+                }
+            }
+        }
+    }
+}
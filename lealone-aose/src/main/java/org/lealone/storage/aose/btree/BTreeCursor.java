@@ -100,6 +100,8 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
                     currentValue = (V) pos.page.getValue(index, true);
                 else
                     currentValue = (V) pos.page.getValue(index, parameters.columnIndexes);
+                if (parameters.valueFilter != null && !parameters.valueFilter.test(currentValue))
+                    continue;
                 return;
             }
             pos = pos.parent;
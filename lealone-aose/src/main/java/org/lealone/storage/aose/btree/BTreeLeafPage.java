@@ -142,12 +142,9 @@ public class BTreeLeafPage extends BTreeLocalPage {
 
     @Override
     BTreeLeafPage split(int at) { // 小于split key的放在左边，大于等于split key放在右边
-        int a = at, b = keys.length - a;
-        Object[] aKeys = new Object[a];
-        Object[] bKeys = new Object[b];
-        System.arraycopy(keys, 0, aKeys, 0, a);
-        System.arraycopy(keys, a, bKeys, 0, b);
-        keys = aKeys;
+        int a = at, b = getKeyCount() - a;
+        BTreeLeafPage newPage = newLeafPage(map);
+        splitKeys(newPage, a, b);
 
         Object[] aValues = new Object[a];
         Object[] bValues = new Object[b];
@@ -156,17 +153,64 @@ public class BTreeLeafPage extends BTreeLocalPage {
         values = aValues;
 
         totalCount = a;
-        BTreeLeafPage newPage = create(map, bKeys, bValues, bKeys.length, 0);
+        newPage.values = bValues;
+        newPage.totalCount = b;
+        newPage.recalculateMemory();
         newPage.replicationHostIds = replicationHostIds;
         recalculateMemory();
         return newPage;
     }
 
+    // 以下几个方法是对keys的操作，子类可以用其他方式保存keys
+
+    // 前a个key留在当前page，后b个key放到newPage
+    protected void splitKeys(BTreeLeafPage newPage, int a, int b) {
+        Object[] aKeys = new Object[a];
+        Object[] bKeys = new Object[b];
+        System.arraycopy(keys, 0, aKeys, 0, a);
+        System.arraycopy(keys, a, bKeys, 0, b);
+        keys = aKeys;
+        newPage.keys = bKeys;
+    }
+
+    protected void setKeys(Object[] keys) {
+        this.keys = keys;
+    }
+
+    protected void copyKeys(BTreeLeafPage newPage) {
+        newPage.keys = keys;
+    }
+
+    protected void insertKey(int index, Object key) {
+        int len = keys.length + 1;
+        Object[] newKeys = new Object[len];
+        DataUtils.copyWithGap(keys, newKeys, len - 1, index);
+        keys = newKeys;
+        keys[index] = key;
+    }
+
+    protected int getKeyMemory(Object key) {
+        return map.getKeyType().getMemory(key);
+    }
+
+    protected void removeKey(int index) {
+        super.remove(index);
+    }
+
+    protected void readKeys(ByteBuffer buff, int keyLength) {
+        keys = new Object[keyLength];
+        map.getKeyType().read(buff, keys, keyLength);
+    }
+
+    protected void writeKeys(DataBuffer buff, int keyLength) {
+        map.getKeyType().write(buff, keys, keyLength);
+    }
+
     @Override
     @Deprecated
     public long getTotalCount() {
         if (ASSERT) {
-            long check = keys.length;
+            long check = getKeyCount();
             if (check != totalCount) {
                 throw DataUtils.newIllegalStateException(DataUtils.ERROR_INTERNAL, "Expected: {0} got: {1}", check,
                         totalCount);
@@ -179,18 +223,15 @@ public class BTreeLeafPage extends BTreeLocalPage {
     // 给数组预分配额外的空间能提升的性能并不大，已经测过
     @Override
     public void insertLeaf(int index, Object key, Object value) {
-        int len = keys.length + 1;
-        Object[] newKeys = new Object[len];
-        DataUtils.copyWithGap(keys, newKeys, len - 1, index);
-        keys = newKeys;
+        int len = values.length + 1;
+        insertKey(index, key);
         Object[] newValues = new Object[len];
         DataUtils.copyWithGap(values, newValues, len - 1, index);
         values = newValues;
-        keys[index] = key;
         values[index] = value;
         totalCount++;
         map.incrementSize();// 累加全局计数器
-        addMemory(map.getKeyType().getMemory(key) + map.getValueType().getMemory(value));
+        addMemory(getKeyMemory(key) + map.getValueType().getMemory(value));
     }
 
     @Override
@@ -200,8 +241,8 @@ public class BTreeLeafPage extends BTreeLocalPage {
 
     @Override
     public void remove(int index) {
-        int keyLength = keys.length;
-        super.remove(index);
+        int keyLength = getKeyCount();
+        removeKey(index);
         Object old = values[index];
         addMemory(-map.getValueType().getMemory(old));
         Object[] newValues = new Object[keyLength - 1];
@@ -222,13 +263,12 @@ public class BTreeLeafPage extends BTreeLocalPage {
         readCheckValue(buff, chunkId, offset, pageLength, disableCheck);
 
         int keyLength = DataUtils.readVarInt(buff);
-        keys = new Object[keyLength];
         int type = buff.get();
 
         ByteBuffer oldBuff = buff;
         buff = expandPage(buff, type, start, pageLength);
 
-        map.getKeyType().read(buff, keys, keyLength);
+        readKeys(buff, keyLength);
         values = new Object[keyLength];
         map.getValueType().read(buff, values, keyLength);
         totalCount = keyLength;
@@ -249,7 +289,6 @@ public class BTreeLeafPage extends BTreeLocalPage {
 
         int keyLength = DataUtils.readVarInt(buff);
         int columnCount = DataUtils.readVarInt(buff);
-        keys = new Object[keyLength];
         int type = buff.get();
         for (int i = 0; i < columnCount; i++) {
             buff.getLong();
@@ -258,7 +297,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         ByteBuffer oldBuff = buff;
         buff = expandPage(buff, type, start, pageLength);
 
-        map.getKeyType().read(buff, keys, keyLength);
+        readKeys(buff, keyLength);
         values = new Object[keyLength];
         StorageDataType valueType = map.getValueType();
         for (int row = 0; row < keyLength; row++) {
@@ -292,7 +331,6 @@ public class BTreeLeafPage extends BTreeLocalPage {
         int keyLength = DataUtils.readVarInt(buff);
         int columnCount = DataUtils.readVarInt(buff);
         columnPages = new ColumnPageReference[columnCount];
-        keys = new Object[keyLength];
         int type = buff.get();
         for (int i = 0; i < columnCount; i++) {
             long pos = buff.getLong();
@@ -302,7 +340,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         ByteBuffer oldBuff = buff;
         buff = expandPage(buff, type, start, pageLength);
 
-        map.getKeyType().read(buff, keys, keyLength);
+        readKeys(buff, keyLength);
         values = new Object[keyLength];
         StorageDataType valueType = map.getValueType();
         for (int row = 0; row < keyLength; row++) {
@@ -364,9 +402,10 @@ public class BTreeLeafPage extends BTreeLocalPage {
         if (!remote) {
             StorageDataType kt = map.getKeyType();
             StorageDataType vt = map.getValueType();
-            buff.putInt(keys.length);
-            for (int i = 0, len = keys.length; i < len; i++) {
-                kt.write(buff, keys[i]);
+            int len = getKeyCount();
+            buff.putInt(len);
+            for (int i = 0; i < len; i++) {
+                kt.write(buff, getKey(i));
                 vt.write(buff, values[i]);
             }
         }
@@ -398,7 +437,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
 
     int writeRowStorage(BTreeChunk chunk, DataBuffer buff, boolean replicatePage) {
         int start = buff.position();
-        int keyLength = keys.length;
+        int keyLength = getKeyCount();
         int type = PageUtils.PAGE_TYPE_LEAF;
         buff.putInt(0); // 回填pageLength
         buff.put((byte) map.pageStorageMode.ordinal());
@@ -407,7 +446,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         int typePos = buff.position();
         buff.put((byte) type);
         int compressStart = buff.position();
-        map.getKeyType().write(buff, keys, keyLength);
+        writeKeys(buff, keyLength);
         map.getValueType().write(buff, values, keyLength);
         writeReplicationHostIds(replicationHostIds, buff);
 
@@ -420,9 +459,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         // compressPage(buff, compressStart, type, typePos);
         // pageLength = buff.position() - start;
         buff.putInt(start, pageLength);
-        int chunkId = chunk.id;
-
-        writeCheckValue(buff, chunkId, start, pageLength, checkPos);
+        writeCheckValue(buff, chunk, start, pageLength, checkPos);
 
         if (replicatePage) {
             return typePos + 1;
@@ -453,7 +490,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
 
     int writeColumnStorageSinglePage(BTreeChunk chunk, DataBuffer buff, boolean replicatePage) {
         int start = buff.position();
-        int keyLength = keys.length;
+        int keyLength = getKeyCount();
         int type = PageUtils.PAGE_TYPE_LEAF;
         buff.putInt(0); // 回填pageLength
         buff.put((byte) map.pageStorageMode.ordinal());
@@ -468,7 +505,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
             buff.putLong(0);
         }
         // int compressStart0 = buff.position();
-        map.getKeyType().write(buff, keys, keyLength);
+        writeKeys(buff, keyLength);
         // valueType.write(buff, values, keyLength, 0);
         for (int row = 0; row < keyLength; row++) {
             valueType.writeMeta(buff, values[row]);
@@ -505,9 +542,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         // compressPage(buff, compressStart0, type, typePos);
         int pageLength = buff.position() - start;
         buff.putInt(start, pageLength);
-        int chunkId = chunk.id;
-
-        writeCheckValue(buff, chunkId, start, pageLength, checkPos);
+        writeCheckValue(buff, chunk, start, pageLength, checkPos);
 
         if (replicatePage) {
             return typePos + 1;
@@ -526,7 +561,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
 
     int writeColumnStorageMultiPages(BTreeChunk chunk, DataBuffer buff, boolean replicatePage) {
         int start = buff.position();
-        int keyLength = keys.length;
+        int keyLength = getKeyCount();
         int type = PageUtils.PAGE_TYPE_LEAF;
         buff.putInt(0); // 回填pageLength
         buff.put((byte) map.pageStorageMode.ordinal());
@@ -541,7 +576,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
             buff.putLong(0);
         }
         int compressStart = buff.position();
-        map.getKeyType().write(buff, keys, keyLength);
+        writeKeys(buff, keyLength);
         for (int row = 0; row < keyLength; row++) {
             valueType.writeMeta(buff, values[row]);
         }
@@ -550,9 +585,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
 
         int pageLength = buff.position() - start;
         buff.putInt(start, pageLength);
-        int chunkId = chunk.id;
-
-        writeCheckValue(buff, chunkId, start, pageLength, checkPos);
+        writeCheckValue(buff, chunk, start, pageLength, checkPos);
 
         long[] posArray = new long[columnCount];
         for (int col = 0; col < columnCount; col++) {
@@ -594,7 +627,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
     protected void recalculateMemory() {
         int mem = recalculateKeysMemory();
         StorageDataType valueType = map.getValueType();
-        for (int i = 0; i < keys.length; i++) {
+        for (int i = 0, len = getKeyCount(); i < len; i++) {
             mem += valueType.getMemory(values[i]);
         }
         addMemory(mem - memory);
@@ -606,7 +639,11 @@ public class BTreeLeafPage extends BTreeLocalPage {
     }
 
     private BTreeLeafPage copy(boolean removePage) {
-        BTreeLeafPage newPage = create(map, keys, values, totalCount, getMemory());
+        BTreeLeafPage newPage = newLeafPage(map);
+        copyKeys(newPage);
+        newPage.values = values;
+        newPage.totalCount = totalCount;
+        newPage.addMemory(getMemory());
         newPage.cachedCompare = cachedCompare;
         newPage.replicationHostIds = replicationHostIds;
         newPage.leafPageMovePlan = leafPageMovePlan;
@@ -622,6 +659,19 @@ public class BTreeLeafPage extends BTreeLocalPage {
         removePage();
     }
 
+    /**
+     * 按map的key类型创建leaf page，row key都是long类型时使用BTreeLongKeyLeafPage
+     * 
+     * @param map the map
+     * @return the new page
+     */
+    static BTreeLeafPage newLeafPage(BTreeMap<?, ?> map) {
+        if (map.getKeyType().isLongKeyType())
+            return new BTreeLongKeyLeafPage(map);
+        else
+            return new BTreeLeafPage(map);
+    }
+
     /**
      * Create a new, empty page.
      * 
@@ -633,9 +683,9 @@ public class BTreeLeafPage extends BTreeLocalPage {
     }
 
     static BTreeLeafPage create(BTreeMap<?, ?> map, Object[] keys, Object[] values, long totalCount, int memory) {
-        BTreeLeafPage p = new BTreeLeafPage(map);
+        BTreeLeafPage p = newLeafPage(map);
         // the position is 0
-        p.keys = keys;
+        p.setKeys(keys);
         p.values = values;
         p.totalCount = totalCount;
         if (memory == 0) {
@@ -663,12 +713,12 @@ public class BTreeLeafPage extends BTreeLocalPage {
 
     @Override
     protected void toString0(StringBuilder buff) {
-        for (int i = 0, len = keys.length; i <= len; i++) {
+        for (int i = 0, len = getKeyCount(); i <= len; i++) {
             if (i > 0) {
                 buff.append(" ");
             }
             if (i < len) {
-                buff.append(keys[i]);
+                buff.append(getKey(i));
                 if (values != null) {
                     buff.append(':');
                     buff.append(values[i]);
@@ -680,7 +730,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
     @Override
     protected void getPrettyPageInfoRecursive(StringBuilder buff, String indent, PrettyPageInfo info) {
         buff.append(indent).append("values: ");
-        for (int i = 0, len = keys.length; i < len; i++) {
+        for (int i = 0, len = getKeyCount(); i < len; i++) {
             if (i > 0)
                 buff.append(", ");
             buff.append(values[i]);
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.nio.ByteBuffer;
+
+import org.lealone.db.DataBuffer;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueLong;
+import org.lealone.storage.type.StorageDataType;
+
+/**
+ * 用long[]保存key的leaf page，用于row key都是long类型的map(比如表的primary index).
+ *
+ * <p>
+ * 二分查找时直接比较long值，不需要为每个key创建ValueLong对象，也减少了page的内存占用。
+ * 读写page时仍然使用map的key类型来序列化key，所以page的存储格式没有变化。
+ */
+public class BTreeLongKeyLeafPage extends BTreeLeafPage {
+
+    private static final long[] EMPTY_LONG_ARRAY = new long[0];
+    private static final int KEY_MEMORY = 8;
+
+    private long[] longKeys = EMPTY_LONG_ARRAY;
+
+    BTreeLongKeyLeafPage(BTreeMap<?, ?> map) {
+        super(map);
+    }
+
+    private static long toLong(Object key) {
+        if (key instanceof ValueLong)
+            return ((ValueLong) key).getLong();
+        return ((Value) key).getLong();
+    }
+
+    @Override
+    public Object[] getKeys() {
+        int len = longKeys.length;
+        Object[] keys = new Object[len];
+        for (int i = 0; i < len; i++) {
+            keys[i] = ValueLong.get(longKeys[i]);
+        }
+        return keys;
+    }
+
+    @Override
+    public Object getKey(int index) {
+        return ValueLong.get(longKeys[index]);
+    }
+
+    @Override
+    public int getKeyCount() {
+        return longKeys.length;
+    }
+
+    @Override
+    Object getLastKey() {
+        int len = longKeys.length;
+        if (len == 0)
+            return null;
+        else
+            return ValueLong.get(longKeys[len - 1]);
+    }
+
+    @Override
+    public int binarySearch(Object key) {
+        // 查询时可能传入null或其他类型的key，这时按key类型的规则比较
+        if (!(key instanceof ValueLong))
+            return binarySearchSlow(key);
+        long k = ((ValueLong) key).getLong();
+        long[] keys = longKeys;
+        int low = 0, high = keys.length - 1;
+        int x = cachedCompare - 1;
+        if (x < 0 || x > high) {
+            x = high >>> 1;
+        }
+        while (low <= high) {
+            long v = keys[x];
+            if (k > v) {
+                low = x + 1;
+            } else if (k < v) {
+                high = x - 1;
+            } else {
+                cachedCompare = x + 1;
+                return x;
+            }
+            x = (low + high) >>> 1;
+        }
+        cachedCompare = low;
+        return -(low + 1);
+    }
+
+    private int binarySearchSlow(Object key) {
+        StorageDataType keyType = map.getKeyType();
+        int low = 0, high = longKeys.length - 1;
+        while (low <= high) {
+            int x = (low + high) >>> 1;
+            int compare = keyType.compare(key, ValueLong.get(longKeys[x]));
+            if (compare > 0) {
+                low = x + 1;
+            } else if (compare < 0) {
+                high = x - 1;
+            } else {
+                return x;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public void setKey(int index, Object key) {
+        longKeys = longKeys.clone();
+        longKeys[index] = toLong(key);
+    }
+
+    @Override
+    protected void splitKeys(BTreeLeafPage newPage, int a, int b) {
+        long[] aKeys = new long[a];
+        long[] bKeys = new long[b];
+        System.arraycopy(longKeys, 0, aKeys, 0, a);
+        System.arraycopy(longKeys, a, bKeys, 0, b);
+        longKeys = aKeys;
+        ((BTreeLongKeyLeafPage) newPage).longKeys = bKeys;
+    }
+
+    @Override
+    protected void setKeys(Object[] keys) {
+        int len = keys.length;
+        long[] newKeys = new long[len];
+        for (int i = 0; i < len; i++) {
+            newKeys[i] = toLong(keys[i]);
+        }
+        longKeys = newKeys;
+    }
+
+    @Override
+    protected void copyKeys(BTreeLeafPage newPage) {
+        // longKeys只会整体替换，不会原地修改，所以可以共享
+        ((BTreeLongKeyLeafPage) newPage).longKeys = longKeys;
+    }
+
+    @Override
+    protected void insertKey(int index, Object key) {
+        int len = longKeys.length;
+        long[] newKeys = new long[len + 1];
+        System.arraycopy(longKeys, 0, newKeys, 0, index);
+        System.arraycopy(longKeys, index, newKeys, index + 1, len - index);
+        newKeys[index] = toLong(key);
+        longKeys = newKeys;
+    }
+
+    @Override
+    protected int getKeyMemory(Object key) {
+        return KEY_MEMORY;
+    }
+
+    @Override
+    protected void removeKey(int index) {
+        int keyLength = longKeys.length;
+        int keyIndex = index >= keyLength ? index - 1 : index;
+        addMemory(-KEY_MEMORY);
+        long[] newKeys = new long[keyLength - 1];
+        System.arraycopy(longKeys, 0, newKeys, 0, keyIndex);
+        System.arraycopy(longKeys, keyIndex + 1, newKeys, keyIndex, keyLength - keyIndex - 1);
+        longKeys = newKeys;
+    }
+
+    @Override
+    protected void readKeys(ByteBuffer buff, int keyLength) {
+        StorageDataType keyType = map.getKeyType();
+        long[] newKeys = new long[keyLength];
+        for (int i = 0; i < keyLength; i++) {
+            newKeys[i] = toLong(keyType.read(buff));
+        }
+        longKeys = newKeys;
+    }
+
+    @Override
+    protected void writeKeys(DataBuffer buff, int keyLength) {
+        StorageDataType keyType = map.getKeyType();
+        for (int i = 0; i < keyLength; i++) {
+            keyType.write(buff, ValueLong.get(longKeys[i]));
+        }
+    }
+
+    @Override
+    protected int recalculateKeysMemory() {
+        return PageUtils.PAGE_MEMORY + KEY_MEMORY * longKeys.length;
+    }
+}
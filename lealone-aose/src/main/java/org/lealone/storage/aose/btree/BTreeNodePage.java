@@ -292,9 +292,7 @@ public class BTreeNodePage extends BTreeLocalPage {
 
         int pageLength = buff.position() - start;
         buff.putInt(start, pageLength);
-        int chunkId = chunk.id;
-
-        writeCheckValue(buff, chunkId, start, pageLength, checkPos);
+        writeCheckValue(buff, chunk, start, pageLength, checkPos);
 
         if (replicatePage) {
             return typePos + 1;
@@ -323,23 +321,30 @@ public class BTreeNodePage extends BTreeLocalPage {
 
     @Override
     void writeUnsavedRecursive(BTreeChunk chunk, DataBuffer buff) {
-        if (pos != 0) {
-            // already stored before
-            return;
-        }
-        int patch = write(chunk, buff, false);
+        // 先写子page再写node page，这样node page写入时就已经知道子page的位置了，
+        // 不需要回填，写完一个子page后就可以把缓冲区中的数据写到chunk文件
+        BTreeStorage storage = map.getBTreeStorage();
+        boolean childrenChanged = false;
         for (int i = 0, len = children.length; i < len; i++) {
             BTreePage p = children[i].page;
             if (p != null) {
                 p.writeUnsavedRecursive(chunk, buff);
-                children[i] = new PageReference(p);
+                if (children[i].pos != p.getPos()) {
+                    children[i] = new PageReference(p);
+                    childrenChanged = true;
+                    storage.flushIfNeeded(chunk, buff);
+                }
             }
         }
+        if (pos != 0) {
+            // already stored before
+            if (!childrenChanged)
+                return;
+            // 子page的parentRef不一定指向当前page，所以不能只依赖写操作标记的脏页
+            markDirty();
+        }
         setChildrenPageKeys();
-        int old = buff.position();
-        buff.position(patch);
-        writeChildrenPositions(buff);
-        buff.position(old);
+        write(chunk, buff, false);
     }
 
     @Override
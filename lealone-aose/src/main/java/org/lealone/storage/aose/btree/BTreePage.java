@@ -167,11 +167,13 @@ public class BTreePage {
             p = p.dynamicInfo.redirect;
             BTreeLeafPage left = (BTreeLeafPage) p.getChildPage(0);
             BTreeLeafPage right = (BTreeLeafPage) p.getChildPage(1);
-            int length = left.keys.length + right.keys.length;
+            Object[] leftKeys = left.getKeys();
+            Object[] rightKeys = right.getKeys();
+            int length = leftKeys.length + rightKeys.length;
             Object[] keys = new Object[length];
             Object[] values = new Object[length];
-            System.arraycopy(left.keys, 0, keys, 0, left.keys.length);
-            System.arraycopy(right.keys, 0, keys, left.keys.length, right.keys.length);
+            System.arraycopy(leftKeys, 0, keys, 0, leftKeys.length);
+            System.arraycopy(rightKeys, 0, keys, leftKeys.length, rightKeys.length);
             System.arraycopy(left.getValues(), 0, values, 0, left.getValues().length);
             System.arraycopy(right.getValues(), 0, values, left.getValues().length, right.getValues().length);
             p = BTreeLeafPage.create(p.map, keys, values, length, left.getMemory() + right.getMemory());
@@ -518,6 +520,12 @@ public class BTreePage {
     static BTreePage read(FileStorage fileStorage, long pos, BTreeMap<?, ?> map, long filePos, long maxPos) {
         int maxLength = PageUtils.getPageMaxLength(pos);
         ByteBuffer buff = readPageBuff(fileStorage, maxLength, filePos, maxPos);
+        return read(buff, pos, map);
+    }
+
+    // buff中是从chunk文件读出的page的原始字节
+    static BTreePage read(ByteBuffer buff, long pos, BTreeMap<?, ?> map) {
+        int maxLength = PageUtils.getPageMaxLength(pos);
         int type = PageUtils.getPageType(pos);
         BTreePage p = create(map, type);
         p.pos = pos;
@@ -546,7 +554,7 @@ public class BTreePage {
     private static BTreePage create(BTreeMap<?, ?> map, int type) {
         BTreePage p;
         if (type == PageUtils.PAGE_TYPE_LEAF)
-            p = new BTreeLeafPage(map);
+            p = BTreeLeafPage.newLeafPage(map);
         else if (type == PageUtils.PAGE_TYPE_NODE)
             p = new BTreeNodePage(map);
         else if (type == PageUtils.PAGE_TYPE_COLUMN)
@@ -706,8 +714,8 @@ public class BTreePage {
         }
     }
 
-    static void writeCheckValue(DataBuffer buff, int chunkId, int start, int pageLength, int checkPos) {
-        int check = DataUtils.getCheckValue(chunkId) ^ DataUtils.getCheckValue(start)
+    static void writeCheckValue(DataBuffer buff, BTreeChunk chunk, int start, int pageLength, int checkPos) {
+        int check = DataUtils.getCheckValue(chunk.id) ^ DataUtils.getCheckValue(chunk.flushedLength + start)
                 ^ DataUtils.getCheckValue(pageLength);
         buff.putShort(checkPos, (short) check);
     }
@@ -773,11 +781,8 @@ public class BTreePage {
         if (pos != 0) {
             throw DataUtils.newIllegalStateException(DataUtils.ERROR_INTERNAL, "Page already stored");
         }
-        pos = PageUtils.getPagePos(chunk.id, start, pageLength, type);
-        chunk.pagePositions.add(pos);
-        chunk.pageLengths.add(pageLength);
-        chunk.sumOfPageLength += pageLength;
-        chunk.pageCount++;
+        pos = PageUtils.getPagePos(chunk.id, chunk.flushedLength + start, pageLength, type);
+        chunk.addPage(pos, pageLength);
 
         map.getBTreeStorage().cachePage(pos, this, getMemory());
 
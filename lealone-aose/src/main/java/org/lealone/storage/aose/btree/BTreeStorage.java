@@ -18,8 +18,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.lealone.common.compress.CompressDeflate;
 import org.lealone.common.compress.CompressLZF;
@@ -29,10 +29,10 @@ import org.lealone.common.util.BitField;
 import org.lealone.common.util.DataUtils;
 import org.lealone.common.util.MathUtils;
 import org.lealone.db.DataBuffer;
-import org.lealone.sql.SQLEngineManager;
 import org.lealone.sql.SQLStatementExecutor;
+import org.lealone.storage.PageOperationHandlerFactory;
 import org.lealone.storage.aose.AOStorage;
-import org.lealone.storage.aose.btree.PageOperations.CallableOperation;
+import org.lealone.storage.aose.btree.AsyncPageReader.PageReadFuture;
 import org.lealone.storage.cache.CacheLongKeyLIRS;
 import org.lealone.storage.fs.FileStorage;
 import org.lealone.storage.fs.FileUtils;
@@ -78,6 +78,7 @@ public class BTreeStorage {
 
     private final int pageSplitSize;
     private final int minFillRate;
+    private final int checkpointBatchSize;
     private final UncaughtExceptionHandler backgroundExceptionHandler;
 
     /**
@@ -87,6 +88,14 @@ public class BTreeStorage {
      */
     private final CacheLongKeyLIRS<BTreePage> cache;
 
+    /**
+     * 第二级缓存，在堆外内存中保存page的原始字节，默认不启用。
+     */
+    private final OffHeapPageCache.MapCache offHeapCache;
+
+    private final AsyncPageReader pageReader;
+    private final ConcurrentHashMap<Long, PageReadFuture> pendingReads = new ConcurrentHashMap<>();
+
     /**
      * The compression level for new pages (0 for disabled, 1 for fast, 2 for high).
      * Even if disabled, the storage may contain (old) compressed pages.
@@ -101,6 +110,17 @@ public class BTreeStorage {
 
     private volatile boolean hasUnsavedChanges;
 
+    private final BTreeCompactor compactor;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong compactionBytesWritten = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong pagesMoved = new AtomicLong();
+
+    private volatile long lastCheckpointDuration;
+    private volatile long lastCheckpointBytes;
+    private volatile int lastCheckpointBatchCount;
+    private volatile long lastCheckpointBatchBytes;
+
     /**
      * Create and open the storage.
      * 
@@ -117,6 +137,10 @@ public class BTreeStorage {
         value = config.get("minFillRate");
         minFillRate = value != null ? (Integer) value : 30;
 
+        // 保存时每积累这么多字节的脏页就写一次文件，单位KB，默认1M
+        value = config.get("checkpointBatchSize");
+        checkpointBatchSize = (value != null ? Integer.parseInt(value.toString()) : 1024) * 1024;
+
         backgroundExceptionHandler = (UncaughtExceptionHandler) config.get("backgroundExceptionHandler");
 
         value = config.get("cacheSize");
@@ -132,6 +156,11 @@ public class BTreeStorage {
         value = config.get("compress");
         compressionLevel = value == null ? 0 : (Integer) value;
 
+        compactor = ((AOStorage) map.getStorage()).getCompactor();
+        OffHeapPageCache offHeapPageCache = ((AOStorage) map.getStorage()).getOffHeapPageCache();
+        offHeapCache = offHeapPageCache == null ? null : offHeapPageCache.createMapCache();
+        pageReader = ((AOStorage) map.getStorage()).getPageReader();
+
         btreeStoragePath = map.getStorage().getStoragePath() + File.separator + map.getName();
         if (!FileUtils.exists(btreeStoragePath))
             FileUtils.createDirectories(btreeStoragePath);
@@ -242,7 +271,17 @@ public class BTreeStorage {
         return fileStorage;
     }
 
-    private synchronized BTreeChunk readChunkHeader(int chunkId) {
+    // 不使用BTreeStorage的锁，保存数据时读page不会被阻塞
+    private BTreeChunk readChunkHeader(int chunkId) {
+        synchronized (chunks) {
+            BTreeChunk c = chunks.get(chunkId);
+            if (c != null)
+                return c;
+            return readChunkHeader0(chunkId);
+        }
+    }
+
+    private BTreeChunk readChunkHeader0(int chunkId) {
         FileStorage fileStorage = getFileStorage(chunkId);
 
         BTreeChunk chunk = null;
@@ -354,43 +393,24 @@ public class BTreeStorage {
     }
 
     private BTreePage readLocalPageAsync(final long pos) {
-        final SQLStatementExecutor sqlStatementExecutor = SQLEngineManager.getInstance().getSQLStatementExecutor();
-        if (sqlStatementExecutor == null)
+        BTreePage p = getPageFromCache(pos);
+        if (p != null)
+            return p;
+        // 只有调度线程在为语句或游标等待page时可以转去执行其他语句，
+        // 其他线程以及正在执行PageOperation(比如put/remove)的调度线程直接同步读
+        Thread t = Thread.currentThread();
+        if (pageReader == null || !(t instanceof SQLStatementExecutor)
+                || PageOperationHandlerFactory.isRunningPageOperation())
             return readLocalPageSync(pos);
-        Callable<BTreePage> task = null;
-        boolean taskInQueue = false;
-        while (true) {
-            BTreePage p = getPageFromCache(pos);
-            if (p != null)
-                return p;
-
-            if (task == null) {
-                task = new Callable<BTreePage>() {
-                    @Override
-                    public BTreePage call() throws Exception {
-                        BTreePage p = readLocalPageSync(pos);
-                        if (sqlStatementExecutor != null)
-                            sqlStatementExecutor.wakeUp();
-                        return p;
-                    }
-                };
-            }
-
-            if (sqlStatementExecutor != null && (Thread.currentThread() == sqlStatementExecutor)) {
-                if (!taskInQueue) {
-                    map.pohFactory.addPageOperation(new CallableOperation(task));
-                    taskInQueue = true;
-                }
-                sqlStatementExecutor.executeNextStatement();
-                continue;
-            } else {
-                try {
-                    return task.call();
-                } catch (Exception e) {
-                    throw DbException.convert(e);
-                }
+        // 多个语句同时读同一个page时只提交一次读请求
+        PageReadFuture future = pendingReads.computeIfAbsent(pos, k -> pageReader.submit(() -> {
+            try {
+                return readLocalPageSync(pos);
+            } finally {
+                pendingReads.remove(pos);
             }
-        }
+        }));
+        return pageReader.await(future, (SQLStatementExecutor) t);
     }
 
     private BTreePage getPageFromCache(long pos) {
@@ -401,10 +421,29 @@ public class BTreeStorage {
         BTreePage p = getPageFromCache(pos);
         if (p != null)
             return p;
+        if (offHeapCache != null) {
+            ByteBuffer buff = offHeapCache.get(pos);
+            if (buff != null) {
+                p = BTreePage.read(buff, pos, map);
+                cachePage(pos, p, p.getMemory());
+                return p;
+            }
+        }
         BTreeChunk c = getChunk(pos);
         long filePos = getFilePos(PageUtils.getPageOffset(pos));
         long maxPos = c.blockCount * BLOCK_SIZE;
-        p = BTreePage.read(c.fileStorage, pos, map, filePos, maxPos);
+        int maxLength = PageUtils.getPageMaxLength(pos);
+        ByteBuffer buff = BTreePage.readPageBuff(c.fileStorage, maxLength, filePos, maxPos);
+        if (offHeapCache != null) {
+            // 读出的字节数是page长度的上限，只缓存page实际的长度
+            ByteBuffer pageBuff = buff.duplicate();
+            int pageLength = pageBuff.getInt(pageBuff.position());
+            if (pageLength > 0 && pageLength <= pageBuff.remaining()) {
+                pageBuff.limit(pageBuff.position() + pageLength);
+                offHeapCache.put(pos, pageBuff);
+            }
+        }
+        p = BTreePage.read(buff, pos, map);
         cachePage(pos, p, p.getMemory());
         return p;
     }
@@ -431,6 +470,9 @@ public class BTreeStorage {
             removedPages.add(pos);
         }
 
+        if (offHeapCache != null)
+            offHeapCache.remove(pos);
+
         if (cache != null) {
             if (PageUtils.isLeafPage(pos)) {
                 // keep nodes in the cache, because they are still used for
@@ -486,6 +528,18 @@ public class BTreeStorage {
         return (int) (cache.getMaxMemory() / 1024 / 1024);
     }
 
+    public long getOffHeapCacheHitCount() {
+        return offHeapCache == null ? 0 : offHeapCache.getHitCount();
+    }
+
+    public long getOffHeapCacheMissCount() {
+        return offHeapCache == null ? 0 : offHeapCache.getMissCount();
+    }
+
+    public long getOffHeapCacheEvictionCount() {
+        return offHeapCache == null ? 0 : offHeapCache.getEvictionCount();
+    }
+
     /**
      * Set the read cache size in MB.
      * 
@@ -544,6 +598,7 @@ public class BTreeStorage {
         }
         save();
         closed = true;
+        compactor.cancel(this);
         synchronized (this) {
             for (BTreeChunk c : chunks.values()) {
                 if (c.fileStorage != null)
@@ -555,6 +610,8 @@ public class BTreeStorage {
             // because of out of memory
             if (cache != null)
                 cache.clear();
+            if (offHeapCache != null)
+                offHeapCache.clear();
 
             try {
                 chunkMetaData.close();
@@ -593,7 +650,10 @@ public class BTreeStorage {
         }
 
         try {
-            executeCompact(executeSave(false));
+            TreeSet<Long> removedPages = executeSave(false);
+            // 压缩放到后台执行，不在持有锁的情况下重写chunk
+            if (!removedPages.isEmpty())
+                compactor.schedule(this);
         } catch (IllegalStateException e) {
             throw panic(e);
         }
@@ -604,13 +664,14 @@ public class BTreeStorage {
     }
 
     private TreeSet<Long> executeSave(boolean force) {
+        long start = System.currentTimeMillis();
         DataBuffer buff = getDataBuffer();
         int id = chunkIds.nextClearBit(1);
         chunkIds.set(id);
         BTreeChunk c = new BTreeChunk(id);
+        c.initPages();
+        c.fileStorage = getFileStorage(c.id);
         chunks.put(c.id, c);
-        c.pagePositions = new ArrayList<>();
-        c.pageLengths = new ArrayList<>();
 
         BTreePage p;
         TreeSet<Long> removedPages;
@@ -621,31 +682,32 @@ public class BTreeStorage {
         }
         // 如果不写，rootPagePos会是0，重新打开时会报错
         // if (p.getTotalCount() > 0 || force) {
+        // 脏页按批写入chunk文件，不需要把整个chunk都放到内存中
         p.writeUnsavedRecursive(c, buff);
         c.rootPagePos = p.getPos();
         // p.writeEnd();
         // }
 
-        c.pagePositionsOffset = buff.position();
-        for (long pos : c.pagePositions)
-            buff.putLong(pos);
-        c.pageLengthsOffset = buff.position();
-        for (int pos : c.pageLengths)
-            buff.putInt(pos);
+        c.sortPages();
+        c.pagePositionsOffset = c.flushedLength + buff.position();
+        for (int i = 0; i < c.pageCount; i++)
+            buff.putLong(c.pagePositions[i]);
+        c.pageLengthsOffset = c.flushedLength + buff.position();
+        for (int i = 0; i < c.pageCount; i++)
+            buff.putInt(c.pageLengths[i]);
 
-        int chunkBodyLength = buff.position();
+        int chunkBodyLength = c.flushedLength + buff.position();
         chunkBodyLength = MathUtils.roundUpInt(chunkBodyLength, BLOCK_SIZE);
-        buff.limit(chunkBodyLength);
+        buff.limit(chunkBodyLength - c.flushedLength);
         buff.position(0);
 
         c.blockCount = chunkBodyLength / BLOCK_SIZE + CHUNK_HEADER_BLOCKS; // include chunk header(2 blocks).
-        c.fileStorage = getFileStorage(c.id);
         c.mapSize = map.size();
 
+        // chunk body
+        write(c.fileStorage, CHUNK_HEADER_SIZE + c.flushedLength, buff.getBuffer());
         // chunk header
         writeChunkHeader(c);
-        // chunk body
-        write(c.fileStorage, CHUNK_HEADER_SIZE, buff.getBuffer());
         c.fileStorage.sync();
 
         removedPages.addAll(readRemovedPages());
@@ -653,9 +715,78 @@ public class BTreeStorage {
 
         releaseDataBuffer(buff);
         lastChunk = c;
+        long bytes = (long) c.blockCount * BLOCK_SIZE;
+        bytesWritten.addAndGet(bytes);
+        lastCheckpointBytes = bytes;
+        lastCheckpointBatchCount = c.flushCount;
+        lastCheckpointBatchBytes = c.flushedLength;
+        lastCheckpointDuration = System.currentTimeMillis() - start;
         return removedPages;
     }
 
+    /**
+     * Write the pages in the buffer to the chunk file if the buffer is larger than the batch size.
+     * Only whole blocks are written, the rest stays in the buffer.
+     * 
+     * @param chunk the chunk
+     * @param buff the buffer
+     */
+    void flushIfNeeded(BTreeChunk chunk, DataBuffer buff) {
+        int length = buff.position();
+        if (length < checkpointBatchSize || length < BLOCK_SIZE || chunk.fileStorage == null)
+            return;
+        int flushLength = length / BLOCK_SIZE * BLOCK_SIZE;
+        ByteBuffer buffer = buff.getBuffer();
+        buffer.position(0);
+        buffer.limit(flushLength);
+        write(chunk.fileStorage, CHUNK_HEADER_SIZE + chunk.flushedLength, buffer);
+        chunk.flushedLength += flushLength;
+        chunk.flushCount++;
+
+        byte[] remaining = new byte[length - flushLength];
+        buffer.limit(length);
+        buffer.position(flushLength);
+        buffer.get(remaining);
+        buff.clear();
+        buff.put(remaining);
+    }
+
+    /**
+     * Get the duration of the last save, in milliseconds.
+     * 
+     * @return the duration
+     */
+    public long getLastCheckpointDuration() {
+        return lastCheckpointDuration;
+    }
+
+    /**
+     * Get the number of bytes written by the last save.
+     * 
+     * @return the number of bytes
+     */
+    public long getLastCheckpointBytes() {
+        return lastCheckpointBytes;
+    }
+
+    /**
+     * Get the number of batches the last save wrote before the rest of the chunk body and the chunk header.
+     * 
+     * @return the number of batches
+     */
+    public int getLastCheckpointBatchCount() {
+        return lastCheckpointBatchCount;
+    }
+
+    /**
+     * Get the number of chunk body bytes the last save wrote in batches.
+     * 
+     * @return the number of bytes
+     */
+    public long getLastCheckpointBatchBytes() {
+        return lastCheckpointBatchBytes;
+    }
+
     /**
      * Get a buffer for writing. This caller must synchronize on the storage
      * before calling the method and until after using the buffer.
@@ -691,23 +822,38 @@ public class BTreeStorage {
      * Chunks with a low number of live items are re-written.
      * <p>
      * If the current fill rate is higher than the minimum fill rate, nothing is done.
+     * <p>
+     * This method is called by the compactor thread, live pages are re-written without holding the storage lock.
      */
-    private void executeCompact(TreeSet<Long> removedPages) {
-        if (removedPages.isEmpty())
-            return;
-
-        removeUnusedChunks(removedPages);
-
-        if (minFillRate <= 0)
+    void compact() {
+        List<BTreeChunk> old;
+        synchronized (this) {
+            if (closed)
+                return;
+            TreeSet<Long> removedPages = readRemovedPages();
+            if (removedPages.isEmpty())
+                return;
+            removeUnusedChunks(removedPages);
+            if (minFillRate <= 0 || removedPages.isEmpty())
+                return;
+            old = getOldChunks();
+        }
+        if (old.isEmpty())
             return;
 
-        if (!removedPages.isEmpty()) {
-            List<BTreeChunk> old = getOldChunks();
-            if (!old.isEmpty()) {
-                boolean saveIfNeeded = rewrite(old, removedPages);
-                if (saveIfNeeded) {
-                    removedPages = executeSave(false);
+        // 只有压缩线程会删除chunk文件，但是closeStorage会关闭chunk文件，所以每次读page时要短暂持有锁
+        long movedBytes = rewrite(old);
+        if (movedBytes > 0) {
+            synchronized (this) {
+                if (closed)
+                    return;
+                try {
+                    TreeSet<Long> removedPages = executeSave(false);
+                    // 新chunk中还有用户写入的脏页，只有被移动的page才算压缩写入的字节
+                    compactionBytesWritten.addAndGet(movedBytes);
                     removeUnusedChunks(removedPages);
+                } catch (IllegalStateException e) {
+                    throw panic(e);
                 }
             }
         }
@@ -716,11 +862,14 @@ public class BTreeStorage {
     private void removeUnusedChunks(TreeSet<Long> removedPages) {
         int size = removedPages.size();
         for (BTreeChunk c : findUnusedChunks(removedPages)) {
+            long chunkLength = (long) c.blockCount * BLOCK_SIZE;
             c.fileStorage.close();
             c.fileStorage.delete();
             chunks.remove(c.id);
             chunkIds.clear(c.id);
-            removedPages.removeAll(c.pagePositions);
+            removedPages.subSet(c.getFirstPagePos(), true, c.getLastPagePos(), true).clear();
+            bytesReclaimed.addAndGet(chunkLength);
+            compactor.addBytesReclaimed(chunkLength);
         }
 
         if (size > removedPages.size()) {
@@ -736,15 +885,8 @@ public class BTreeStorage {
         readAllChunks();
 
         for (BTreeChunk c : chunks.values()) {
-            c.sumOfLivePageLength = 0;
-            boolean unused = true;
-            for (int i = 0, size = c.pagePositions.size(); i < size; i++) {
-                if (!removedPages.contains(c.pagePositions.get(i))) {
-                    c.sumOfLivePageLength += c.pageLengths.get(i);
-                    unused = false;
-                }
-            }
-            if (unused)
+            c.updateLiveness(removedPages);
+            if (c.isUnused())
                 unusedChunks.add(c);
         }
         return unusedChunks;
@@ -765,17 +907,19 @@ public class BTreeStorage {
         int size = c.pageCount;
         if (c.pagePositions == null) {
             ByteBuffer buffer = c.fileStorage.readFully(getFilePos(c.pagePositionsOffset), size * 8);
-            c.pagePositions = new ArrayList<Long>(size);
+            long[] pagePositions = new long[size];
             for (int i = 0; i < size; i++) {
-                c.pagePositions.add(buffer.getLong());
+                pagePositions[i] = buffer.getLong();
             }
-        }
-        if (c.pageLengths == null) {
-            ByteBuffer buffer = c.fileStorage.readFully(getFilePos(c.pageLengthsOffset), size * 4);
-            c.pageLengths = new ArrayList<Integer>(size);
+            buffer = c.fileStorage.readFully(getFilePos(c.pageLengthsOffset), size * 4);
+            int[] pageLengths = new int[size];
             for (int i = 0; i < size; i++) {
-                c.pageLengths.add(buffer.getInt());
+                pageLengths[i] = buffer.getInt();
             }
+            c.pageLengths = pageLengths;
+            c.pagePositions = pagePositions;
+            // 旧格式的chunk没有按page的位置排序
+            c.sortPages();
         }
     }
 
@@ -809,28 +953,72 @@ public class BTreeStorage {
             if (bytes > maxBytesToWrite)
                 break;
         }
-        return index == size ? old : old.subList(0, index + 1);
+        return index == size ? old : new ArrayList<>(old.subList(0, index + 1));
     }
 
-    private boolean rewrite(List<BTreeChunk> old, TreeSet<Long> removedPages) {
-        boolean saveIfNeeded = false;
+    // 返回被移动的page在旧chunk中占用的字节数，返回0表示不需要保存
+    private long rewrite(List<BTreeChunk> old) {
+        long moved = 0;
+        long movedBytes = 0;
         for (BTreeChunk c : old) {
-            for (int i = 0, size = c.pagePositions.size(); i < size; i++) {
-                long pos = c.pagePositions.get(i);
-                if (PageUtils.isLeafPage(pos)) {
-                    if (!removedPages.contains(pos)) {
-                        BTreePage p = readPage(pos);
-                        if (p.getKeyCount() > 0) {
-                            Object key = p.getKey(0);
-                            Object value = map.get(key);
-                            if (value != null && map.replace(key, value, value))
-                                saveIfNeeded = true;
-                        }
+            for (int i = 0, size = c.pageCount; i < size; i++) {
+                long pos = c.pagePositions[i];
+                if (!PageUtils.isLeafPage(pos) || c.isPageRemoved(i))
+                    continue;
+                compactor.throttle(c.pageLengths[i]);
+                BTreePage p;
+                synchronized (this) {
+                    if (closed || compactor.isClosed())
+                        return 0;
+                    p = readPage(pos);
+                }
+                if (p.getKeyCount() > 0) {
+                    Object key = p.getKey(0);
+                    Object value = map.get(key);
+                    if (value != null && map.replace(key, value, value)) {
+                        moved++;
+                        movedBytes += c.pageLengths[i];
                     }
                 }
             }
         }
-        return saveIfNeeded;
+        pagesMoved.addAndGet(moved);
+        compactor.addPagesMoved(moved);
+        return movedBytes;
+    }
+
+    /**
+     * Get the number of bytes reclaimed by removing unused chunks.
+     * 
+     * @return the number of bytes
+     */
+    public long getCompactionBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * Get the number of live pages re-written by compaction.
+     * 
+     * @return the number of pages
+     */
+    public long getCompactionPagesMoved() {
+        return pagesMoved.get();
+    }
+
+    /**
+     * Get the write amplification, that is all bytes written to chunks
+     * divided by the bytes written by normal saves (excluding compaction).
+     * Only the pages moved by compaction are counted as compaction bytes,
+     * dirty pages saved together with them are counted as normal saves.
+     * 
+     * @return the write amplification, 1.0 if nothing was compacted
+     */
+    public double getWriteAmplification() {
+        long total = bytesWritten.get();
+        long compaction = compactionBytesWritten.get();
+        if (total <= compaction)
+            return 1.0;
+        return (double) total / (total - compaction);
     }
 
     // //////////////////////////////// Compact END /////////////////////////////////////
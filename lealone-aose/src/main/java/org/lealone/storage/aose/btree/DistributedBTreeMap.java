@@ -356,7 +356,7 @@ public class DistributedBTreeMap<K, V> extends BTreeMap<K, V> implements Distrib
     }
 
     private BTreePage readStreamPage(ByteBuffer buff) {
-        BTreePage p = new BTreeLeafPage(this);
+        BTreePage p = BTreeLeafPage.newLeafPage(this);
         int chunkId = 0;
         int offset = buff.position();
         p.read(buff, chunkId, offset, buff.limit(), true);
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在堆外内存中缓存page的原始字节(从chunk文件读出的内容，压缩过的page保持压缩)，
+ * 作为BTreeStorage中LIRS缓存的第二级缓存，LIRS缓存没有命中时先查这里再读文件.
+ *
+ * <p>
+ * 同一个AOStorage中的所有BTreeStorage共用一块堆外内存，通过offHeapCacheSize(单位MB)设置大小，
+ * 默认是0，表示不启用。堆外内存被分成多个segment，按环形日志的方式顺序写入，所以不会产生内存碎片。
+ * 写入位置是一个无锁的游标，每个segment有自己的锁，不同segment上的读写互不影响；
+ * 游标转一圈后再次进入一个segment时，淘汰这个segment中上一圈写入的所有page(按segment的FIFO)。
+ */
+public class OffHeapPageCache {
+
+    private static final int MAX_SEGMENT_SIZE = 256 * 1024 * 1024;
+    // segment越多锁的粒度越小，每次淘汰的page也越少
+    private static final int MIN_SEGMENT_COUNT = 16;
+
+    private final Segment[] segments;
+    private final int segmentSize;
+    private final long capacity;
+
+    // 从0开始一直递增的逻辑写入位置，对capacity取模后得到实际位置
+    private final AtomicLong writePos = new AtomicLong();
+
+    public OffHeapPageCache(Map<String, Object> config) {
+        Object value = config.get("offHeapCacheSize");
+        long size = value == null ? 0 : Long.parseLong(value.toString()) * 1024 * 1024;
+        // 按总大小平均分配各个segment，总共分配的内存最多比offHeapCacheSize多segmentCount-1个字节
+        int segmentCount = size <= 0 ? 0
+                : (int) Math.max(MIN_SEGMENT_COUNT, (size + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE);
+        segmentSize = segmentCount == 0 ? 0 : (int) ((size + segmentCount - 1) / segmentCount);
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(ByteBuffer.allocateDirect(segmentSize));
+        }
+        capacity = (long) segmentSize * segmentCount;
+    }
+
+    public static boolean isEnabled(Map<String, Object> config) {
+        Object value = config.get("offHeapCacheSize");
+        return value != null && Long.parseLong(value.toString()) > 0;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 为一个BTreeStorage创建独立的索引，每个map的命中率等统计信息也是独立的.
+     */
+    MapCache createMapCache() {
+        return new MapCache();
+    }
+
+    private void put(MapCache owner, long pos, ByteBuffer buff) {
+        int length = buff.remaining();
+        if (length > segmentSize)
+            return;
+        // 先无锁地分配写入位置，一个page不能跨越两个segment，剩余空间不够时跳到下一个segment的开头
+        long start, end;
+        while (true) {
+            long cur = writePos.get();
+            start = cur;
+            int offset = (int) (start % segmentSize);
+            if (offset + length > segmentSize)
+                start += segmentSize - offset;
+            end = start + length;
+            if (writePos.compareAndSet(cur, end))
+                break;
+        }
+        long base = start - start % segmentSize;
+        Segment segment = getSegment(start);
+        synchronized (segment) {
+            if (segment.base > base) {
+                // 写得太慢，游标已经又转了一圈进入这个segment，放弃这次写入
+                return;
+            } else if (segment.base < base) {
+                segment.evictAll();
+                segment.base = base;
+            }
+            Entry e = new Entry(owner, pos, start, length);
+            ByteBuffer dest = segment.buff.duplicate();
+            dest.position(getOffset(start));
+            dest.put(buff.duplicate());
+            segment.entries.add(e);
+            Entry old = owner.index.put(pos, e);
+            if (old != null)
+                old.evicted = true;
+        }
+    }
+
+    // 复制到堆内存中，避免被后面写入的page覆盖
+    private ByteBuffer get(Entry e) {
+        Segment segment = getSegment(e.start);
+        synchronized (segment) {
+            if (e.evicted)
+                return null;
+            ByteBuffer src = segment.buff.duplicate();
+            int offset = getOffset(e.start);
+            src.limit(offset + e.length).position(offset);
+            ByteBuffer buff = ByteBuffer.allocate(e.length);
+            buff.put(src);
+            buff.flip();
+            return buff;
+        }
+    }
+
+    private Segment getSegment(long logicalPos) {
+        return segments[(int) ((logicalPos % capacity) / segmentSize)];
+    }
+
+    private int getOffset(long logicalPos) {
+        return (int) (logicalPos % capacity % segmentSize);
+    }
+
+    private static class Segment {
+        final ByteBuffer buff;
+        // 在这个segment中写入的page，只在持有segment的锁时访问
+        final ArrayList<Entry> entries = new ArrayList<>();
+        // 当前这一圈在这个segment中的起始逻辑位置
+        long base = -1;
+
+        Segment(ByteBuffer buff) {
+            this.buff = buff;
+        }
+
+        void evictAll() {
+            for (Entry e : entries) {
+                e.evicted = true;
+                if (e.owner.index.remove(e.pos, e))
+                    e.owner.evictionCount.incrementAndGet();
+            }
+            entries.clear();
+        }
+    }
+
+    private static class Entry {
+        final MapCache owner;
+        final long pos;
+        final long start;
+        final int length;
+        volatile boolean evicted;
+
+        Entry(MapCache owner, long pos, long start, int length) {
+            this.owner = owner;
+            this.pos = pos;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 一个BTreeStorage在堆外缓存中的page索引，key是page的位置.
+     */
+    class MapCache {
+
+        private final ConcurrentHashMap<Long, Entry> index = new ConcurrentHashMap<>();
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+        private final AtomicLong evictionCount = new AtomicLong();
+
+        /**
+         * 返回page的原始字节，没有命中时返回null.
+         */
+        ByteBuffer get(long pos) {
+            Entry e = index.get(pos);
+            ByteBuffer buff = e == null ? null : OffHeapPageCache.this.get(e);
+            if (buff == null)
+                missCount.incrementAndGet();
+            else
+                hitCount.incrementAndGet();
+            return buff;
+        }
+
+        /**
+         * 缓存page的原始字节，buff的position和limit不会被修改.
+         */
+        void put(long pos, ByteBuffer buff) {
+            OffHeapPageCache.this.put(this, pos, buff);
+        }
+
+        void remove(long pos) {
+            Entry e = index.remove(pos);
+            if (e != null)
+                e.evicted = true;
+        }
+
+        // 占用的堆外内存等被覆盖时再回收
+        void clear() {
+            for (Entry e : index.values())
+                e.evicted = true;
+            index.clear();
+        }
+
+        long getHitCount() {
+            return hitCount.get();
+        }
+
+        long getMissCount() {
+            return missCount.get();
+        }
+
+        long getEvictionCount() {
+            return evictionCount.get();
+        }
+
+        int size() {
+            return index.size();
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package org.lealone.storage.aose.btree;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 import org.lealone.storage.IterationParameters;
 import org.lealone.storage.PageKey;
@@ -27,6 +28,7 @@ import org.lealone.storage.StorageMapCursor;
 class PageKeyCursor<K, V> implements StorageMapCursor<K, V> {
 
     private final List<PageKey> pageKeys;
+    private final Predicate<Object> valueFilter;
     private CursorPos pos;
     private K currentKey, lastKey;
     private V currentValue, lastValue;
@@ -34,6 +36,7 @@ class PageKeyCursor<K, V> implements StorageMapCursor<K, V> {
 
     PageKeyCursor(List<PageKey> pageKeys, BTreePage root, K from) {
         this.pageKeys = pageKeys;
+        this.valueFilter = null;
         // 提前fetch
         min(root, from);
         fetchNext();
@@ -41,6 +44,7 @@ class PageKeyCursor<K, V> implements StorageMapCursor<K, V> {
 
     PageKeyCursor(BTreePage root, IterationParameters<K> parameters) {
         this.pageKeys = parameters.pageKeys;
+        this.valueFilter = parameters.valueFilter;
         // 提前fetch
         min(root, parameters.from);
         fetchNext();
@@ -138,6 +142,8 @@ class PageKeyCursor<K, V> implements StorageMapCursor<K, V> {
                 int index = pos.index++;
                 currentKey = (K) pos.page.getKey(index);
                 currentValue = (V) pos.page.getValue(index);
+                if (valueFilter != null && !valueFilter.test(currentValue))
+                    continue;
                 return;
             }
             pos = pos.parent;
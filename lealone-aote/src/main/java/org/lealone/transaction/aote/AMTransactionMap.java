@@ -22,6 +22,7 @@ import java.util.LinkedList;
 import java.util.Map.Entry;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.DataUtils;
@@ -480,7 +481,33 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         return new Iterator<Entry<K, V>>() {
             private Entry<K, V> current;
             private K currentKey = parameters.from;
-            private StorageMapCursor<K, TransactionalValue> cursor = map.cursor(parameters);
+            private final Predicate<Object> valueFilter = parameters.valueFilter;
+            // 存储层已经判断过并且满足条件的值，不需要再判断一次
+            private TransactionalValue checkedValue;
+            private final IterationParameters<K> storageParameters = createStorageParameters();
+            private StorageMapCursor<K, TransactionalValue> cursor = map.cursor(storageParameters);
+
+            // 存储层的cursor拿到的是TransactionalValue，需要先找到当前事务可见的值再判断
+            private IterationParameters<K> createStorageParameters() {
+                if (valueFilter == null)
+                    return parameters;
+                IterationParameters<K> p = parameters.copy(parameters.from, parameters.to);
+                p.allColumns = parameters.allColumns;
+                p.valueFilter = v -> {
+                    TransactionalValue ref = (TransactionalValue) v;
+                    if (ref == null || ref.getRefValue() == null)
+                        return true;
+                    TransactionalValue tv = ref.getCommitted(transaction);
+                    // 需要读时撤销或者看不到的记录交给fetchNext处理
+                    if (tv == null || tv == TransactionalValue.SIGHTLESS || tv.getValue() == null)
+                        return true;
+                    if (!valueFilter.test(tv.getValue()))
+                        return false;
+                    checkedValue = tv;
+                    return true;
+                };
+                return p;
+            }
 
             {
                 fetchNext();
@@ -494,8 +521,8 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
                     } catch (IllegalStateException e) {
                         // TODO this is a bit ugly
                         if (DataUtils.getErrorCode(e.getMessage()) == DataUtils.ERROR_CHUNK_NOT_FOUND) {
-                            parameters.from = currentKey;
-                            cursor = map.cursor(parameters);
+                            storageParameters.from = currentKey;
+                            cursor = map.cursor(storageParameters);
                             // we (should) get the current key again,
                             // we need to ignore that one
                             if (!cursor.hasNext()) {
@@ -514,6 +541,8 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
                     TransactionalValue ref = cursor.getValue();
                     TransactionalValue data = getValue(key, ref);
                     if (data != null && data.getValue() != null) {
+                        if (valueFilter != null && data != checkedValue && !valueFilter.test(data.getValue()))
+                            continue;
                         @SuppressWarnings("unchecked")
                         final V value = (V) data.getValue();
                         current = new DataUtils.MapEntry<K, V>(key, value, ref);
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.transaction.aote.log;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 组提交: 把所有调度线程的事务提交合并到一次write+fsync中.
+ *
+ * <p>
+ * 日志同步线程被第一个事务唤醒后，会根据事务到达的速率和fsync的延迟计算一个等待窗口，
+ * 如果在一次fsync的时间内预计只有不到一个事务到达，就不等待，立即同步；
+ * 否则最多等待一次fsync的时间(不超过group_commit_max_delay微秒)，
+ * 或者等到积累了redo_log_record_sync_threshold条记录为止。
+ */
+class GroupCommitLogSyncService extends InstantLogSyncService {
+
+    private static final long DEFAULT_MAX_DELAY_MICROS = 2000;
+    private static final double ALPHA = 0.2;
+
+    private final long maxDelayNanos;
+
+    // 第一个到达的事务把它从false改成true并唤醒日志同步线程，日志同步线程开始取记录前再改回false，
+    // 不能用队列的大小来判断，多个事务同时加入记录时可能都看不到大小为1的时刻
+    private final AtomicBoolean syncPending = new AtomicBoolean();
+
+    // 下面的字段只在日志同步线程中使用
+    private double arrivalsPerNano; // 事务到达速率的指数移动平均值
+    private long lastSyncEndedAt = System.nanoTime();
+
+    GroupCommitLogSyncService(Map<String, String> config) {
+        super(config);
+        if (config.containsKey("group_commit_max_delay"))
+            maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(config.get("group_commit_max_delay")));
+        else
+            maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_MAX_DELAY_MICROS);
+    }
+
+    @Override
+    protected void wakeUp() {
+        // 只有一组中的第一个事务和达到阈值时才需要唤醒，避免日志同步线程在等待窗口内被频繁唤醒
+        if (syncPending.compareAndSet(false, true) || redoLog.size() >= redoLogRecordSyncThreshold)
+            haveWork.release();
+    }
+
+    @Override
+    protected void waitForNextSync(long syncStarted, int count) {
+        long now = System.nanoTime();
+        long interval = now - lastSyncEndedAt;
+        lastSyncEndedAt = now;
+        if (interval > 0)
+            arrivalsPerNano = arrivalsPerNano * (1 - ALPHA) + ((double) count / interval) * ALPHA;
+
+        try {
+            if (redoLog.size() == 0) {
+                haveWork.tryAcquire(syncIntervalMillis, TimeUnit.MILLISECONDS);
+                haveWork.drainPermits();
+            }
+            if (!running || redoLog.size() >= redoLogRecordSyncThreshold)
+                return;
+            long window = getWindowNanos();
+            if (window <= 0)
+                return;
+            long deadline = System.nanoTime() + window;
+            while (running && redoLog.size() < redoLogRecordSyncThreshold) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    break;
+                haveWork.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+            }
+            haveWork.drainPermits();
+        } catch (InterruptedException e) {
+            throw new AssertionError();
+        } finally {
+            // 在取记录之前清除，之后加入的记录会重新唤醒日志同步线程，之前加入的记录都会在这次同步
+            syncPending.set(false);
+        }
+    }
+
+    long getWindowNanos() {
+        double syncNanos = getStatistics().getSyncNanosEwma();
+        double expectedArrivals = arrivalsPerNano * syncNanos;
+        if (expectedArrivals < 1)
+            return 0;
+        double window = Math.min(syncNanos, maxDelayNanos);
+        // 达到阈值所需的时间
+        window = Math.min(window, redoLogRecordSyncThreshold / arrivalsPerNano);
+        return (long) window;
+    }
+}
@@ -39,7 +39,7 @@ class InstantLogSyncService extends LogSyncService {
 
     @Override
     public void maybeWaitForSync(RedoLogRecord r) {
-        haveWork.release();
+        wakeUp();
         if (!r.isSynced() && running) {
             while (true) {
                 WaitQueue.Signal signal = syncComplete.register();
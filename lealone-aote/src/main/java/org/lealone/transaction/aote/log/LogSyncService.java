@@ -31,6 +31,7 @@ public abstract class LogSyncService extends Thread {
     public static final String LOG_SYNC_TYPE_PERIODIC = "periodic";
     public static final String LOG_SYNC_TYPE_INSTANT = "instant";
     public static final String LOG_SYNC_TYPE_NO_SYNC = "no_sync";
+    public static final String LOG_SYNC_TYPE_GROUP_COMMIT = "group_commit";
 
     protected final Semaphore haveWork = new Semaphore(1);
     protected final WaitQueue syncComplete = new WaitQueue();
@@ -57,10 +58,19 @@ public abstract class LogSyncService extends Thread {
         return redoLog;
     }
 
+    public LogSyncStatistics getStatistics() {
+        return redoLog.getStatistics();
+    }
+
     public abstract void maybeWaitForSync(RedoLogRecord r);
 
     public void asyncCommit(AMTransaction t) {
         transactions.add(t);
+        wakeUp();
+    }
+
+    // 唤醒日志同步线程
+    protected void wakeUp() {
         haveWork.release();
     }
 
@@ -73,22 +83,10 @@ public abstract class LogSyncService extends Thread {
     public void run() {
         while (running) {
             long syncStarted = System.currentTimeMillis();
-            sync();
+            int count = sync();
             lastSyncedAt = syncStarted;
             syncComplete.signalAll();
-            if (redoLog.size() > redoLogRecordSyncThreshold)
-                continue;
-            long now = System.currentTimeMillis();
-            long sleep = syncStarted + syncIntervalMillis - now;
-            if (sleep < 0)
-                continue;
-
-            try {
-                haveWork.tryAcquire(sleep, TimeUnit.MILLISECONDS);
-                haveWork.drainPermits();
-            } catch (InterruptedException e) {
-                throw new AssertionError();
-            }
+            waitForNextSync(syncStarted, count);
         }
         // 结束前最后sync一次
         sync();
@@ -96,10 +94,34 @@ public abstract class LogSyncService extends Thread {
         redoLog.close();
     }
 
-    private void sync() {
+    /**
+     * 两次sync之间的等待，子类可以覆盖它来决定什么时候进行下一次sync.
+     *
+     * @param syncStarted 上一次sync开始的时间
+     * @param count 上一次sync同步的redo log记录数
+     */
+    protected void waitForNextSync(long syncStarted, int count) {
+        if (redoLog.size() > redoLogRecordSyncThreshold)
+            return;
+        long now = System.currentTimeMillis();
+        long sleep = syncStarted + syncIntervalMillis - now;
+        if (sleep < 0)
+            return;
+
+        try {
+            haveWork.tryAcquire(sleep, TimeUnit.MILLISECONDS);
+            haveWork.drainPermits();
+        } catch (InterruptedException e) {
+            throw new AssertionError();
+        }
+    }
+
+    private int sync() {
+        int count = 0;
         if (redoLog != null)
-            redoLog.save();
+            count = redoLog.save();
         notifyComplete();
+        return count;
     }
 
     private void notifyComplete() {
@@ -116,7 +138,7 @@ public abstract class LogSyncService extends Thread {
         redoLog.addRedoLogRecord(r);
         // 对于需要立即做同步的场景，及时唤醒日志同步线程
         if (isInstantSync())
-            haveWork.release();
+            wakeUp();
     }
 
     public void addAndMaybeWaitForSync(RedoLogRecord r) {
@@ -147,6 +169,8 @@ public abstract class LogSyncService extends Thread {
             logSyncService = new InstantLogSyncService(config);
         else if (LOG_SYNC_TYPE_NO_SYNC.equalsIgnoreCase(logSyncType))
             logSyncService = new NoLogSyncService(config);
+        else if (LOG_SYNC_TYPE_GROUP_COMMIT.equalsIgnoreCase(logSyncType))
+            logSyncService = new GroupCommitLogSyncService(config);
         else
             throw new IllegalArgumentException("Unknow log_sync_type: " + logSyncType);
         logSyncService.redoLog = new RedoLog(config);
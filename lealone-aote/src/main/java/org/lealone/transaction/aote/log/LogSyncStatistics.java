@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.transaction.aote.log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录redo log的同步统计信息，用于调整redo_log_record_sync_threshold等参数.
+ *
+ * <p>
+ * 提交延迟是从redo log记录加入队列到被fsync之间的时间，按2的幂(微秒)分桶，
+ * 所以百分位数返回的是所在桶的上界。
+ */
+public class LogSyncStatistics {
+
+    private static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray commitLatencyBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+    private final AtomicLong syncNanos = new AtomicLong();
+
+    // 下面的字段只在日志同步线程中更新
+    private long rateWindowStart = System.nanoTime();
+    private long rateWindowSyncCount;
+    private volatile double syncsPerSecond;
+    private volatile long lastSyncedAt;
+    private volatile double syncNanosEwma;
+
+    void recordSync(long nanos) {
+        long count = syncCount.incrementAndGet();
+        syncNanos.addAndGet(nanos);
+        syncNanosEwma = count == 1 ? nanos : syncNanosEwma * 0.8 + nanos * 0.2;
+        long now = System.nanoTime();
+        lastSyncedAt = now;
+        long elapsed = now - rateWindowStart;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            syncsPerSecond = (count - rateWindowSyncCount) * 1000_000_000D / elapsed;
+            rateWindowStart = now;
+            rateWindowSyncCount = count;
+        }
+    }
+
+    // fsync延迟的指数移动平均值
+    double getSyncNanosEwma() {
+        return syncNanosEwma;
+    }
+
+    void recordCommit(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        if (bucket >= BUCKET_COUNT)
+            bucket = BUCKET_COUNT - 1;
+        commitLatencyBuckets.incrementAndGet(bucket);
+        commitCount.incrementAndGet();
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * 最近一秒的fsync次数，超过两秒没有fsync时返回0.
+     */
+    public double getSyncsPerSecond() {
+        if (System.nanoTime() - lastSyncedAt > TimeUnit.SECONDS.toNanos(2))
+            return 0;
+        return syncsPerSecond;
+    }
+
+    public long getAverageSyncMicros() {
+        long count = syncCount.get();
+        return count == 0 ? 0 : syncNanos.get() / count / 1000;
+    }
+
+    /**
+     * 每次fsync平均同步的redo log记录数
+     */
+    public double getAverageGroupSize() {
+        long count = syncCount.get();
+        return count == 0 ? 0 : (double) commitCount.get() / count;
+    }
+
+    public long getCommitLatencyP50Micros() {
+        return getCommitLatencyMicros(0.50);
+    }
+
+    public long getCommitLatencyP99Micros() {
+        return getCommitLatencyMicros(0.99);
+    }
+
+    /**
+     * 返回提交延迟的百分位数(单位微秒)
+     *
+     * @param percentile 0到1之间的值，比如0.99
+     * @return 百分位数所在桶的上界，没有数据时返回0
+     */
+    public long getCommitLatencyMicros(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = commitLatencyBuckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0)
+            return 0;
+        long target = (long) Math.ceil(total * percentile);
+        long sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            sum += counts[i];
+            if (sum >= target)
+                return 1L << i;
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "LogSyncStatistics[syncs=" + getSyncCount() + ", syncsPerSecond=" + (long) getSyncsPerSecond()
+                + ", avgSyncMicros=" + getAverageSyncMicros() + ", avgGroupSize="
+                + (long) getAverageGroupSize() + ", commitP50Micros=" + getCommitLatencyP50Micros()
+                + ", commitP99Micros=" + getCommitLatencyP99Micros() + "]";
+    }
+}
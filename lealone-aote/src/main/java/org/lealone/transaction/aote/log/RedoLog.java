@@ -18,16 +18,37 @@
 package org.lealone.transaction.aote.log;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.lealone.common.concurrent.ConcurrentUtils;
+import org.lealone.common.exceptions.DbException;
+import org.lealone.common.logging.Logger;
+import org.lealone.common.logging.LoggerFactory;
 import org.lealone.db.Constants;
+import org.lealone.db.async.AsyncHandler;
+import org.lealone.db.async.AsyncResult;
+import org.lealone.storage.PageOperationHandler;
+import org.lealone.storage.PageOperationHandlerFactory;
 import org.lealone.storage.StorageMap;
 import org.lealone.storage.fs.FilePath;
+import org.lealone.storage.fs.FileStorage;
 import org.lealone.storage.fs.FileUtils;
 import org.lealone.storage.type.StorageDataType;
 import org.lealone.transaction.aote.TransactionalValue;
@@ -40,16 +61,43 @@ import org.lealone.transaction.aote.TransactionalValueType;
  */
 public class RedoLog {
 
+    private static final Logger logger = LoggerFactory.getLogger(RedoLog.class);
+
     private static final long DEFAULT_LOG_CHUNK_SIZE = 32 * 1024 * 1024;
 
     public static final char NAME_ID_SEPARATOR = Constants.NAME_SEPARATOR;
 
+    // 检查点之后不再需要的chunk文件不删除，改名后留给新的chunk重用，预分配的文件也放在这里
+    static final String RECYCLED_FILE_NAME_PREFIX = "recycledRedoLog" + NAME_ID_SEPARATOR;
+    private static final String PREALLOCATING_FILE_NAME = "preallocatingRedoLog";
+    private static final int DEFAULT_LOG_CHUNK_RECYCLE_COUNT = 2;
+    private static final int PREALLOCATE_BUFF_SIZE = 1024 * 1024;
+
     // key: mapName, value: map key/value ByteBuffer list
-    private final HashMap<String, List<ByteBuffer>> pendingRedoLog = new HashMap<>();
+    // 不同的map可能在不同的线程中打开，所以用ConcurrentHashMap
+    private final ConcurrentHashMap<String, List<ByteBuffer>> pendingRedoLog = new ConcurrentHashMap<>();
     private final Map<String, String> config;
     private final long logChunkSize;
+    private final LogSyncStatistics statistics = new LogSyncStatistics();
+    private final int logChunkRecycleCount;
+    private final boolean logChunkPreallocate;
+
+    // 可以重用的文件，只在synchronized方法中访问
+    private final ArrayDeque<String> recycledFiles = new ArrayDeque<>();
+    private int nextRecycledFileId;
+    private Thread preallocator;
 
-    private RedoLogChunk currentChunk;
+    // 所有chunk共用一个队列，切换chunk时不会丢失正在加入的记录
+    private final LinkedTransferQueue<RedoLogRecord> logQueue = new LinkedTransferQueue<>();
+    private final AtomicInteger logQueueSize = new AtomicInteger(0);
+    private volatile RedoLogChunk currentChunk;
+
+    // 重做统计
+    private final AtomicLong replayedKeyValues = new AtomicLong();
+    private final AtomicLong replayNanos = new AtomicLong();
+    private volatile int pendingMapCount;
+    // 正在重做的map个数，重做时可能还在读内存映射的chunk文件，这时不能回收chunk文件
+    private final AtomicInteger redoingMapCount = new AtomicInteger();
 
     RedoLog(Map<String, String> config) {
         this.config = config;
@@ -57,6 +105,14 @@ public class RedoLog {
             logChunkSize = Long.parseLong(config.get("log_chunk_size"));
         else
             logChunkSize = DEFAULT_LOG_CHUNK_SIZE;
+        if (config.containsKey("log_chunk_recycle_count"))
+            logChunkRecycleCount = Integer.parseInt(config.get("log_chunk_recycle_count"));
+        else
+            logChunkRecycleCount = DEFAULT_LOG_CHUNK_RECYCLE_COUNT;
+        if (config.containsKey("log_chunk_preallocate"))
+            logChunkPreallocate = Boolean.parseBoolean(config.get("log_chunk_preallocate"));
+        else
+            logChunkPreallocate = true;
 
         String baseDir = config.get("base_dir");
         String logDir = config.get("redo_log_dir");
@@ -76,6 +132,12 @@ public class RedoLog {
             if (fullName.startsWith(RedoLogChunk.CHUNK_FILE_NAME_PREFIX)) {
                 int id = Integer.parseInt(fullName.substring(prefixLength));
                 ids.add(id);
+            } else if (fullName.startsWith(RECYCLED_FILE_NAME_PREFIX)) {
+                int id = Integer.parseInt(fullName.substring(RECYCLED_FILE_NAME_PREFIX.length()));
+                nextRecycledFileId = Math.max(nextRecycledFileId, id + 1);
+                recycledFiles.add(getRecycledFileName(id));
+            } else if (fullName.equals(PREALLOCATING_FILE_NAME)) {
+                fp.delete(); // 上次没有完成的预分配
             }
         }
         Collections.sort(ids); // 必须排序，按id从小到大的顺序读取文件，才能正确的redo
@@ -83,16 +145,19 @@ public class RedoLog {
     }
 
     public long init() {
+        long start = System.nanoTime();
+        long bytes = 0;
         long lastTransactionId = 0;
         List<Integer> ids = getAllChunkIds();
         if (ids.isEmpty()) {
-            currentChunk = new RedoLogChunk(0, config);
+            currentChunk = createChunk(0);
         } else {
             int lastId = ids.get(ids.size() - 1);
             for (int id : ids) {
                 RedoLogChunk chunk = null;
                 try {
-                    chunk = new RedoLogChunk(id, config);
+                    chunk = new RedoLogChunk(id, config, this, false);
+                    bytes += chunk.getFileLength();
                     for (RedoLogRecord r : chunk.getAndResetRedoLogRecords()) {
                         lastTransactionId = r.initPendingRedoLog(pendingRedoLog, lastTransactionId);
                     }
@@ -105,47 +170,336 @@ public class RedoLog {
                         chunk.close();
                 }
             }
+            // 老格式的chunk文件不再追加，从一个新的chunk开始写；
+            // 有日志的chunk也不再追加，还没有打开的map的pendingRedoLog引用的是它的内存映射，不能覆盖
+            if (currentChunk.isLegacy() || !currentChunk.isEmpty()) {
+                currentChunk.close();
+                currentChunk = createChunk(lastId + 1);
+            }
+        }
+        pendingMapCount = pendingRedoLog.size();
+        if (pendingMapCount > 0) {
+            long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            logger.info("Read {} redo log chunks ({} bytes) in {} ms, {} maps need to redo", ids.size(), bytes, ms,
+                    pendingMapCount);
         }
         return lastTransactionId;
     }
 
-    // 第一次打开底层存储的map时调用这个方法，重新执行一次上次已经成功并且在检查点之后的事务操作
-    @SuppressWarnings("unchecked")
+    // 第一次打开底层存储的map时调用这个方法，重新执行一次上次已经成功并且在检查点之后的事务操作。
+    // 记录直接从内存映射的chunk中按顺序读出来，用异步API交给各个PageOperationHandler并行执行，
+    // 同一个key的操作要等上一个操作完成后再执行，所以不需要事先去重
     public <K> void redo(StorageMap<K, TransactionalValue> map) {
+        redoingMapCount.incrementAndGet();
+        try {
+            redo0(map);
+        } finally {
+            redoingMapCount.decrementAndGet();
+        }
+    }
+
+    private <K> void redo0(StorageMap<K, TransactionalValue> map) {
         List<ByteBuffer> pendingKeyValues = pendingRedoLog.remove(map.getName());
-        if (pendingKeyValues != null && !pendingKeyValues.isEmpty()) {
-            StorageDataType kt = map.getKeyType();
-            StorageDataType vt = ((TransactionalValueType) map.getValueType()).valueType;
-            for (ByteBuffer kv : pendingKeyValues) {
-                K key = (K) kt.read(kv);
-                if (kv.get() == 0)
-                    map.remove(key);
-                else {
-                    Object value = vt.read(kv);
-                    map.put(key, TransactionalValue.createCommitted(value));
+        if (pendingKeyValues == null || pendingKeyValues.isEmpty())
+            return;
+        long start = System.nanoTime();
+        StorageDataType kt = map.getKeyType();
+        StorageDataType vt = ((TransactionalValueType) map.getValueType()).valueType;
+        Thread t = Thread.currentThread();
+        if (!(t instanceof PageOperationHandler)) {
+            new MapRedoer<>(map, pendingKeyValues, kt, vt, null).redo();
+        } else if (PageOperationHandlerFactory.isRunningPageOperation()) {
+            // 正在执行PageOperation时不能再执行其他PageOperation，只能在当前线程中同步重做
+            redoSerially(map, pendingKeyValues, kt, vt);
+        } else {
+            // PageOperationHandler不能阻塞等待，交给一个新线程去提交异步操作，
+            // 等待期间继续执行自己队列中的PageOperation，移交到它这里的操作才能完成
+            PageOperationHandler handler = (PageOperationHandler) t;
+            MapRedoer<K> redoer = new MapRedoer<>(map, pendingKeyValues, kt, vt, handler);
+            ConcurrentUtils.submitTask("RedoLogReplayer-" + map.getName(), redoer::redo);
+            handler.runPageOperationsUntil(redoer::isDone);
+            redoer.checkError();
+        }
+        long nanos = System.nanoTime() - start;
+        long count = replayedKeyValues.addAndGet(pendingKeyValues.size());
+        long totalNanos = replayNanos.addAndGet(nanos);
+        if (logger.isDebugEnabled())
+            logger.debug("Redo map {}: {} records, {} ms", map.getName(), pendingKeyValues.size(),
+                    TimeUnit.NANOSECONDS.toMillis(nanos));
+        if (pendingRedoLog.isEmpty() && pendingMapCount > 0) {
+            long ms = TimeUnit.NANOSECONDS.toMillis(totalNanos);
+            logger.info("Redo finished: {} maps, {} records in {} ms, {} records/s", pendingMapCount, count, ms,
+                    ms == 0 ? count : count * 1000 / ms);
+            pendingMapCount = 0;
+        }
+    }
+
+    // 在非PageOperationHandler线程中按顺序提交一个map的所有记录，
+    // 最多只有MAX_PENDING_OPERATIONS个操作同时在执行，只记录这些操作的key，不需要把所有记录都读到堆内存中
+    private static class MapRedoer<K> {
+
+        private static final int MAX_PENDING_OPERATIONS = 1024;
+
+        private final StorageMap<K, TransactionalValue> map;
+        private final List<ByteBuffer> pendingKeyValues;
+        private final StorageDataType kt;
+        private final StorageDataType vt;
+        private final PageOperationHandler waiter;
+        private final ConcurrentHashMap<K, CountDownLatch> pendingKeys = new ConcurrentHashMap<>();
+        private final AtomicReference<Throwable> cause = new AtomicReference<>();
+        private Semaphore permits;
+        private int maxPending;
+        private volatile boolean done;
+
+        MapRedoer(StorageMap<K, TransactionalValue> map, List<ByteBuffer> pendingKeyValues, StorageDataType kt,
+                StorageDataType vt, PageOperationHandler waiter) {
+            this.map = map;
+            this.pendingKeyValues = pendingKeyValues;
+            this.kt = kt;
+            this.vt = vt;
+            this.waiter = waiter;
+        }
+
+        @SuppressWarnings("unchecked")
+        void redo() {
+            try {
+                for (ByteBuffer kv : pendingKeyValues) {
+                    if (cause.get() != null)
+                        break;
+                    kv.rewind();
+                    K key = (K) kt.read(kv);
+                    if (permits == null) {
+                        // 数组没有按内容实现equals，无法判断是不是同一个key，只能一个一个执行
+                        maxPending = key.getClass().isArray() ? 1 : MAX_PENDING_OPERATIONS;
+                        permits = new Semaphore(maxPending);
+                    }
+                    CountDownLatch previous = pendingKeys.get(key);
+                    if (previous != null)
+                        previous.await();
+                    permits.acquire();
+                    CountDownLatch latch = new CountDownLatch(1);
+                    pendingKeys.put(key, latch);
+                    AsyncHandler<AsyncResult<TransactionalValue>> handler = ar -> {
+                        if (ar.isFailed())
+                            cause.compareAndSet(null, ar.getCause());
+                        pendingKeys.remove(key, latch);
+                        latch.countDown();
+                        permits.release();
+                    };
+                    if (kv.get() == 0)
+                        map.remove(key, handler);
+                    else
+                        map.put(key, TransactionalValue.createCommitted(vt.read(kv)), handler);
                 }
+                if (permits != null)
+                    permits.acquire(maxPending); // 等待所有操作完成
+            } catch (Throwable e) {
+                cause.compareAndSet(null, e);
+            } finally {
+                done = true;
+                if (waiter != null)
+                    waiter.wakeUp();
+            }
+            if (waiter == null)
+                checkError();
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        void checkError() {
+            if (cause.get() != null)
+                throw DbException.convert(cause.get());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K> void redoSerially(StorageMap<K, TransactionalValue> map, List<ByteBuffer> pendingKeyValues,
+            StorageDataType kt, StorageDataType vt) {
+        for (ByteBuffer kv : pendingKeyValues) {
+            kv.rewind();
+            K key = (K) kt.read(kv);
+            if (kv.get() == 0)
+                map.remove(key);
+            else {
+                Object value = vt.read(kv);
+                map.put(key, TransactionalValue.createCommitted(value));
             }
         }
     }
 
+    public long getReplayedRecordCount() {
+        return replayedKeyValues.get();
+    }
+
+    public long getReplayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(replayNanos.get());
+    }
+
     int size() {
-        return currentChunk.size();
+        return logQueueSize.get();
     }
 
     void addRedoLogRecord(RedoLogRecord r) {
-        currentChunk.addRedoLogRecord(r);
+        // 虽然这两行不是原子操作，但是也没影响的，最多日志线程空转一下
+        logQueueSize.incrementAndGet();
+        r.setAddedAt(System.nanoTime());
+        logQueue.add(r);
     }
 
     void close() {
         save();
         currentChunk.close();
+        Thread t;
+        synchronized (this) {
+            t = preallocator;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    public LogSyncStatistics getStatistics() {
+        return statistics;
     }
 
-    void save() {
-        currentChunk.save();
-        if (currentChunk.logChunkSize() > logChunkSize) {
+    // 返回本次同步的redo log记录数
+    int save() {
+        int count = currentChunk.save(logQueue, logQueueSize);
+        long length = currentChunk.logChunkSize();
+        if (length > logChunkSize) {
             currentChunk.close();
-            currentChunk = new RedoLogChunk(currentChunk.getId() + 1, config);
+            currentChunk = createChunk(currentChunk.getId() + 1);
+        } else if (length > logChunkSize / 2) {
+            // 提前准备好下一个chunk文件，切换chunk时不需要在提交路径上扩展文件
+            preallocateIfNeeded();
+        }
+        return count;
+    }
+
+    private RedoLogChunk createChunk(int id) {
+        String fileName = pollRecycledFile();
+        if (fileName == null)
+            return new RedoLogChunk(id, config, this, false);
+        FileUtils.move(fileName, RedoLogChunk.getChunkFileName(config, id));
+        syncDirectory();
+        return new RedoLogChunk(id, config, this, true);
+    }
+
+    private synchronized String pollRecycledFile() {
+        return recycledFiles.poll();
+    }
+
+    // 执行检查点后，id小于currentId的chunk文件都不再需要了
+    synchronized void recycleChunkFiles(int currentId) {
+        // 还没有打开的map的pendingRedoLog引用的是chunk文件的内存映射，回收的文件会被覆盖写，
+        // 所以先把它们复制出来，正在重做的map还在读映射区域，这时只删除不回收
+        detachPendingRedoLog();
+        boolean recycle = redoingMapCount.get() == 0;
+        boolean changed = false;
+        for (int i = 0; i < currentId; i++) {
+            String chunkFileName = RedoLogChunk.getChunkFileName(config, i);
+            if (FileUtils.exists(chunkFileName)) {
+                if (recycle && recycledFiles.size() < logChunkRecycleCount) {
+                    markEmpty(chunkFileName);
+                    String fileName = getRecycledFileName(nextRecycledFileId++);
+                    FileUtils.move(chunkFileName, fileName);
+                    recycledFiles.add(fileName);
+                } else {
+                    FileUtils.delete(chunkFileName);
+                }
+                changed = true;
+            }
+        }
+        if (changed)
+            syncDirectory();
+    }
+
+    private void detachPendingRedoLog() {
+        if (pendingRedoLog.isEmpty())
+            return;
+        pendingRedoLog.replaceAll((mapName, keyValues) -> {
+            ArrayList<ByteBuffer> list = new ArrayList<>(keyValues.size());
+            for (ByteBuffer kv : keyValues) {
+                if (kv.isDirect()) {
+                    ByteBuffer src = kv.duplicate();
+                    src.rewind();
+                    ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+                    copy.put(src);
+                    copy.flip();
+                    kv = copy;
+                }
+                list.add(kv);
+            }
+            return list;
+        });
+    }
+
+    private void markEmpty(String fileName) {
+        FileStorage fileStorage = new FileStorage();
+        fileStorage.open(fileName, config);
+        try {
+            RedoLogChunk.writeEmptyHeader(fileStorage);
+        } finally {
+            fileStorage.close();
+        }
+    }
+
+    // 重命名文件后还要同步所在的目录，否则崩溃后可能还是原来的文件名
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(Paths.get(config.get("storagePath")), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 有些平台(比如Windows)不能打开目录，只能忽略
+        }
+    }
+
+    private String getRecycledFileName(int id) {
+        return config.get("storagePath") + File.separator + RECYCLED_FILE_NAME_PREFIX + id;
+    }
+
+    private synchronized void preallocateIfNeeded() {
+        if (!logChunkPreallocate || preallocator != null || !recycledFiles.isEmpty())
+            return;
+        preallocator = new Thread(this::preallocate, "RedoLogPreallocator");
+        preallocator.setDaemon(true);
+        preallocator.start();
+    }
+
+    // 写满0并同步，这样文件的块和元数据在使用前就已经分配好了，
+    // 文件头写成EMPTY_CHUNK_ID，重命名成chunk文件后崩溃了也不会被当成日志读
+    private void preallocate() {
+        String fileName = config.get("storagePath") + File.separator + PREALLOCATING_FILE_NAME;
+        try {
+            FileStorage fileStorage = new FileStorage();
+            fileStorage.open(fileName, config);
+            try {
+                long size = logChunkSize + PREALLOCATE_BUFF_SIZE;
+                ByteBuffer zeros = ByteBuffer.allocate(PREALLOCATE_BUFF_SIZE);
+                for (long pos = 0; pos < size; pos += PREALLOCATE_BUFF_SIZE) {
+                    zeros.clear();
+                    fileStorage.writeFully(pos, zeros);
+                }
+                RedoLogChunk.writeEmptyHeader(fileStorage);
+            } finally {
+                fileStorage.close();
+            }
+            synchronized (this) {
+                String recycledFileName = getRecycledFileName(nextRecycledFileId++);
+                FileUtils.move(fileName, recycledFileName);
+                recycledFiles.add(recycledFileName);
+                syncDirectory();
+            }
+        } catch (Throwable t) {
+            logger.warn("Failed to preallocate redo log chunk file", t);
+        } finally {
+            synchronized (this) {
+                preallocator = null;
+            }
         }
     }
 }
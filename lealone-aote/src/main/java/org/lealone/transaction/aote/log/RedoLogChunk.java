@@ -18,131 +18,298 @@
 package org.lealone.transaction.aote.log;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedTransferQueue;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 import org.lealone.db.DataBuffer;
 import org.lealone.storage.fs.FileStorage;
-import org.lealone.storage.fs.FileUtils;
 
 /**
  * A queue-based redo log chunk
- *  
+ *
+ * <p>
+ * chunk文件的第一个块是文件头，记录chunk id和当前的generation，
+ * 之后是一个个按SECTOR_SIZE对齐的帧，每个帧的头部包含generation、长度和CRC32校验和。
+ * 执行检查点或重用旧文件时只需要生成新的generation并重写文件头，不需要截断文件，
+ * 读取时遇到generation不同或校验和不对的帧就说明日志结束了。
+ *
  * @author zhh
  */
 class RedoLogChunk implements Comparable<RedoLogChunk> {
 
     static final String CHUNK_FILE_NAME_PREFIX = "redoLog" + RedoLog.NAME_ID_SEPARATOR;
 
-    private static String getChunkFileName(Map<String, String> config, int id) {
+    static String getChunkFileName(Map<String, String> config, int id) {
         String storagePath = config.get("storagePath");
         return storagePath + File.separator + CHUNK_FILE_NAME_PREFIX + id;
     }
 
+    static final int BLOCK_SIZE = 4 * 1024;
+    // 帧只补齐到扇区大小，小事务每次同步最多浪费不到一个扇区，
+    // 补齐到BLOCK_SIZE的话每次同步都要占用4K，chunk很快就写满了，切换chunk和预分配都会变得很频繁。
+    // 不把多次同步的帧合并到同一个块中，是因为覆盖写一个已经同步过的块时如果发生部分写，前面已经提交的帧也会被破坏，
+    // 而扇区的写入是原子的。代价是每次写入不一定是页对齐的，操作系统要在page cache中合并同一页的多次写入
+    static final int SECTOR_SIZE = 512;
+    private static final int MAGIC = 0x4C52444C; // "LRDL"，老格式的文件以记录类型(0到3)开头
+    // 预分配和被回收的文件的文件头中的chunk id，表示文件中没有任何有效的日志
+    private static final int EMPTY_CHUNK_ID = -1;
+    private static final int FRAME_HEADER_LENGTH = 8 + 4 + 4; // generation + length + crc
+
     private static final int BUFF_SIZE = 16 * 1024;
     private DataBuffer buff = DataBuffer.create(BUFF_SIZE);
 
     private final int id;
     private final FileStorage fileStorage;
     private final Map<String, String> config;
-    private final AtomicInteger logQueueSize = new AtomicInteger(0);
-    private LinkedTransferQueue<RedoLogRecord> logQueue;
+    private final RedoLog redoLog;
+    private final LogSyncStatistics statistics;
+    private ArrayList<RedoLogRecord> readRecords = new ArrayList<>(); // 打开chunk文件时读出的记录
     private long pos;
+    private long generation;
+    private boolean legacy; // 老格式的chunk文件，只读，不再追加
 
-    RedoLogChunk(int id, Map<String, String> config) {
+    /**
+     * 打开一个chunk文件，如果reuse为true，文件中原有的内容都会被忽略，比如预分配的文件或被回收的旧文件
+     */
+    RedoLogChunk(int id, Map<String, String> config, RedoLog redoLog, boolean reuse) {
         this.id = id;
         this.config = config;
+        this.redoLog = redoLog;
+        this.statistics = redoLog.getStatistics();
         String chunkFileName = getChunkFileName(config, id);
         fileStorage = new FileStorage();
         fileStorage.open(chunkFileName, config);
-        logQueue = new LinkedTransferQueue<>();
-        pos = fileStorage.size();
-        if (pos > 0)
-            read();
+        long size = fileStorage.size();
+        if (reuse || size == 0) {
+            resetGeneration();
+        } else {
+            read(size);
+        }
+        resetBuffer();
+    }
+
+    private void read(long size) {
+        ByteBuffer buffer = map(size);
+        if (buffer == null)
+            buffer = fileStorage.readFully(0, (int) size);
+        if (isZeroBlock(buffer, size)) {
+            // 还没有写入文件头的预分配文件，当成空的chunk
+            resetGeneration();
+            return;
+        }
+        if (size < 4 || buffer.getInt(0) != MAGIC) {
+            legacy = true;
+            pos = size;
+            readLegacy(buffer);
+            return;
+        }
+        if (size < BLOCK_SIZE || buffer.getInt(4) != id) {
+            // 文件头是EMPTY_CHUNK_ID或别的chunk的id(比如重命名后还没有写新的文件头就崩溃了)，
+            // 说明文件里没有这个chunk的日志
+            resetGeneration();
+            return;
+        }
+        generation = buffer.getLong(8);
+        pos = BLOCK_SIZE;
+        CRC32 crc = new CRC32();
+        while (pos + FRAME_HEADER_LENGTH <= size) {
+            int p = (int) pos;
+            if (buffer.getLong(p) != generation)
+                break;
+            int length = buffer.getInt(p + 8);
+            int checksum = buffer.getInt(p + 12);
+            if (length <= 0 || p + FRAME_HEADER_LENGTH + length > size)
+                break;
+            ByteBuffer frame = buffer.duplicate();
+            frame.position(p + FRAME_HEADER_LENGTH);
+            frame.limit(p + FRAME_HEADER_LENGTH + length);
+            crc.reset();
+            crc.update(frame.duplicate());
+            if ((int) crc.getValue() != checksum)
+                break;
+            frame = frame.slice();
+            while (frame.remaining() > 0) {
+                RedoLogRecord r = RedoLogRecord.read(frame);
+                if (r.isCheckpoint())
+                    readRecords = new ArrayList<>(); // 丢弃之前的
+                readRecords.add(r);
+            }
+            pos = align(p + FRAME_HEADER_LENGTH + length);
+        }
     }
 
-    private void read() {
-        ByteBuffer buffer = fileStorage.readFully(0, (int) pos);
+    private void readLegacy(ByteBuffer buffer) {
         while (buffer.remaining() > 0) {
             RedoLogRecord r = RedoLogRecord.read(buffer);
             if (r.isCheckpoint())
-                logQueue = new LinkedTransferQueue<>(); // 丢弃之前的
-            logQueue.add(r);
+                readRecords = new ArrayList<>(); // 丢弃之前的
+            readRecords.add(r);
         }
     }
 
-    int getId() {
-        return id;
+    private static boolean isZeroBlock(ByteBuffer buffer, long size) {
+        int len = (int) Math.min(size, BLOCK_SIZE);
+        if (len < 4)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (buffer.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 把文件头改成EMPTY_CHUNK_ID并同步，文件被重命名成新的chunk后，即使还没来得及写新的文件头就崩溃了，
+     * 重启时也只会被当成空的chunk，不会把文件中原有的内容当成日志读出来
+     */
+    static void writeEmptyHeader(FileStorage fileStorage) {
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(EMPTY_CHUNK_ID);
+        header.rewind();
+        fileStorage.writeFully(0, header);
+        fileStorage.sync();
+    }
+
+    private static long align(long length) {
+        return (length + SECTOR_SIZE - 1) / SECTOR_SIZE * SECTOR_SIZE;
+    }
+
+    // 生成新的generation并重写文件头，之前写入的帧都失效了，
+    // 文件头马上同步，之后写入的帧才能在重启后被识别出来
+    private void resetGeneration() {
+        generation = ThreadLocalRandom.current().nextLong();
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(id);
+        header.putLong(generation);
+        header.rewind();
+        fileStorage.writeFully(0, header);
+        fileStorage.sync();
+        pos = BLOCK_SIZE;
     }
 
-    int size() {
-        return logQueueSize.get();
+    private void resetBuffer() {
+        buff.reset();
+        buff.checkCapacity(FRAME_HEADER_LENGTH);
+        buff.position(FRAME_HEADER_LENGTH);
     }
 
-    void addRedoLogRecord(RedoLogRecord r) {
-        // 虽然这两行不是原子操作，但是也没影响的，最多日志线程空转一下
-        logQueueSize.incrementAndGet();
-        logQueue.add(r);
+    // 通过内存映射读取chunk文件，读出来的redo log记录只引用映射区域中的字节，不需要复制到堆上
+    private ByteBuffer map(long size) {
+        if (config.get("encryptionKey") != null)
+            return null;
+        try (FileChannel channel = FileChannel.open(Paths.get(getChunkFileName(config, id)),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    long getFileLength() {
+        return fileStorage.size();
+    }
+
+    // 文件头之后没有任何日志
+    boolean isEmpty() {
+        return !legacy && pos <= BLOCK_SIZE;
+    }
+
+    boolean isLegacy() {
+        return legacy;
+    }
+
+    int getId() {
+        return id;
     }
 
-    LinkedTransferQueue<RedoLogRecord> getAndResetRedoLogRecords() {
-        LinkedTransferQueue<RedoLogRecord> oldQueue = logQueue;
-        logQueue = new LinkedTransferQueue<>();
-        return oldQueue;
+    List<RedoLogRecord> getAndResetRedoLogRecords() {
+        List<RedoLogRecord> records = readRecords;
+        readRecords = new ArrayList<>();
+        return records;
     }
 
     void close() {
-        save();
         fileStorage.close();
     }
 
-    synchronized void save() {
-        if (logQueueSize.get() > 0) {
-            LinkedTransferQueue<RedoLogRecord> redoLogRecordQueue = getAndResetRedoLogRecords();
-            long chunkLength = 0;
-            for (RedoLogRecord r : redoLogRecordQueue) {
-                if (r.isCheckpoint()) {
-                    deleteOldChunkFiles();
-                    fileStorage.truncate(0);
-                    buff.reset();
-                    pos = 0;
-                }
-                r.write(buff);
-                if (buff.position() > BUFF_SIZE)
-                    chunkLength += write(buff);
-                logQueueSize.decrementAndGet();
-            }
-            chunkLength += write(buff);
-            if (chunkLength > 0) {
-                fileStorage.sync();
-            }
-            for (RedoLogRecord r : redoLogRecordQueue) {
-                r.setSynced(true);
+    // 把队列中的redo log记录写入chunk文件并同步，返回本次同步的记录数。
+    // 只有日志同步线程会调用，其他线程只往队列中加记录，所以队列可以一直共用，不需要在切换chunk时转移记录
+    synchronized int save(Queue<RedoLogRecord> logQueue, AtomicInteger logQueueSize) {
+        int count = logQueueSize.get();
+        if (count <= 0)
+            return 0;
+        ArrayList<RedoLogRecord> records = new ArrayList<>(count);
+        long chunkLength = 0;
+        for (int i = 0; i < count; i++) {
+            RedoLogRecord r = logQueue.poll();
+            if (r == null) // 计数器先于记录入队，记录还没有加进来
+                break;
+            records.add(r);
+            logQueueSize.decrementAndGet();
+            if (r.isCheckpoint()) {
+                redoLog.recycleChunkFiles(id);
+                resetGeneration();
+                resetBuffer();
             }
-            // 避免占用太多内存
-            if (buff.capacity() > BUFF_SIZE * 3)
-                buff = DataBuffer.create(BUFF_SIZE);
+            r.write(buff);
+            if (buff.position() > BUFF_SIZE)
+                chunkLength += write(buff);
         }
-    }
-
-    private int write(DataBuffer buff) {
-        int length = buff.position();
-        if (length > 0) {
-            fileStorage.writeFully(pos, buff.getAndFlipBuffer());
-            pos += length;
-            buff.reset();
+        chunkLength += write(buff);
+        if (chunkLength > 0) {
+            long start = System.nanoTime();
+            fileStorage.sync();
+            statistics.recordSync(System.nanoTime() - start);
+        }
+        long now = System.nanoTime();
+        for (RedoLogRecord r : records) {
+            r.setSynced(true);
+            if (!r.isCheckpoint())
+                statistics.recordCommit(now - r.getAddedAt());
+        }
+        // 避免占用太多内存
+        if (buff.capacity() > BUFF_SIZE * 3) {
+            buff = DataBuffer.create(BUFF_SIZE);
+            resetBuffer();
         }
-        return length;
+        return records.size();
     }
 
-    private void deleteOldChunkFiles() {
-        for (int i = 0; i < id; i++) {
-            String chunkFileName = getChunkFileName(config, i);
-            if (FileUtils.exists(chunkFileName))
-                FileUtils.delete(chunkFileName);
-        }
+    // 把缓冲区中的记录作为一个帧写入，帧的长度补齐到SECTOR_SIZE的整数倍，
+    // 这样每次写都是扇区对齐的，在预分配的文件中覆盖写时不会改变文件大小
+    private int write(DataBuffer buff) {
+        int end = buff.position();
+        int length = end - FRAME_HEADER_LENGTH;
+        if (length <= 0)
+            return 0;
+        ByteBuffer buffer = buff.getBuffer();
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(FRAME_HEADER_LENGTH);
+        frame.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(frame);
+        buffer.putLong(0, generation);
+        buffer.putInt(8, length);
+        buffer.putInt(12, (int) crc.getValue());
+        int alignedLength = (int) align(end);
+        buff.checkCapacity(alignedLength - end);
+        buff.position(alignedLength);
+        fileStorage.writeFully(pos, buff.getAndFlipBuffer());
+        pos += alignedLength;
+        resetBuffer();
+        return alignedLength;
     }
 
     long logChunkSize() {
@@ -18,7 +18,7 @@
 package org.lealone.transaction.aote.log;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -38,6 +38,7 @@ public abstract class RedoLogRecord {
     private static byte TYPE_DISTRIBUTED_TRANSACTION_REDO_LOG_RECORD = 3;
 
     private volatile boolean synced;
+    private long addedAt; // 加入队列的时间(System.nanoTime)，用于统计提交延迟
 
     boolean isSynced() {
         return synced;
@@ -47,6 +48,14 @@ public abstract class RedoLogRecord {
         this.synced = synced;
     }
 
+    long getAddedAt() {
+        return addedAt;
+    }
+
+    void setAddedAt(long addedAt) {
+        this.addedAt = addedAt;
+    }
+
     boolean isCheckpoint() {
         return false;
     }
@@ -55,6 +64,14 @@ public abstract class RedoLogRecord {
 
     abstract void write(DataBuffer buff);
 
+    // 不复制字节，直接引用buff中从当前位置开始的len个字节，buff可能是内存映射的chunk文件
+    static ByteBuffer slice(ByteBuffer buff, int len) {
+        ByteBuffer slice = buff.slice();
+        slice.limit(len);
+        buff.position(buff.position() + len);
+        return slice;
+    }
+
     static RedoLogRecord read(ByteBuffer buff) {
         int type = buff.get();
         if (type == TYPE_CHECKPOINT) {
@@ -143,7 +160,7 @@ public abstract class RedoLogRecord {
         public long initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog, long lastTransactionId) {
             List<ByteBuffer> logs = pendingRedoLog.get(mapName);
             if (logs != null) {
-                logs = new LinkedList<>();
+                logs = new ArrayList<>();
                 pendingRedoLog.put(mapName, logs);
             }
             return lastTransactionId;
@@ -180,13 +197,11 @@ public abstract class RedoLogRecord {
                 String mapName = ValueString.type.read(buff);
                 List<ByteBuffer> keyValues = pendingRedoLog.get(mapName);
                 if (keyValues == null) {
-                    keyValues = new LinkedList<>();
+                    keyValues = new ArrayList<>();
                     pendingRedoLog.put(mapName, keyValues);
                 }
                 int len = buff.getInt();
-                byte[] keyValue = new byte[len];
-                buff.get(keyValue);
-                keyValues.add(ByteBuffer.wrap(keyValue));
+                keyValues.add(slice(buff, len));
             }
             return transactionId > lastTransactionId ? transactionId : lastTransactionId;
         }
@@ -207,9 +222,7 @@ public abstract class RedoLogRecord {
             ByteBuffer operations;
             int len = buff.getInt(); // DataUtils.readVarInt(buff);
             if (len > 0) {
-                byte[] value = new byte[len];
-                buff.get(value);
-                operations = ByteBuffer.wrap(value);
+                operations = slice(buff, len);
             } else {
                 operations = EMPTY_BUFFER;
             }
@@ -29,6 +29,7 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.lealone.client.result.ClientResult;
 import org.lealone.client.result.UpdatableRow;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.trace.TraceObject;
@@ -281,6 +282,9 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public String getString(int columnIndex) throws SQLException {
         try {
             debugCodeCall("getString", columnIndex);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getString(columnIndex - 1);
             return get(columnIndex).getString();
         } catch (Exception e) {
             throw logAndConvert(e);
@@ -298,7 +302,11 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public String getString(String columnLabel) throws SQLException {
         try {
             debugCodeCall("getString", columnLabel);
-            return get(columnLabel).getString();
+            int columnIndex = getColumnIndex(columnLabel);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getString(columnIndex - 1);
+            return get(columnIndex).getString();
         } catch (Exception e) {
             throw logAndConvert(e);
         }
@@ -315,6 +323,9 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public int getInt(int columnIndex) throws SQLException {
         try {
             debugCodeCall("getInt", columnIndex);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getInt(columnIndex - 1);
             return get(columnIndex).getInt();
         } catch (Exception e) {
             throw logAndConvert(e);
@@ -332,7 +343,11 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public int getInt(String columnLabel) throws SQLException {
         try {
             debugCodeCall("getInt", columnLabel);
-            return get(columnLabel).getInt();
+            int columnIndex = getColumnIndex(columnLabel);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getInt(columnIndex - 1);
+            return get(columnIndex).getInt();
         } catch (Exception e) {
             throw logAndConvert(e);
         }
@@ -529,6 +544,9 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public boolean getBoolean(int columnIndex) throws SQLException {
         try {
             debugCodeCall("getBoolean", columnIndex);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getBoolean(columnIndex - 1);
             Boolean v = get(columnIndex).getBoolean();
             return v == null ? false : v.booleanValue();
         } catch (Exception e) {
@@ -548,7 +566,11 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public boolean getBoolean(String columnLabel) throws SQLException {
         try {
             debugCodeCall("getBoolean", columnLabel);
-            Boolean v = get(columnLabel).getBoolean();
+            int columnIndex = getColumnIndex(columnLabel);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getBoolean(columnIndex - 1);
+            Boolean v = get(columnIndex).getBoolean();
             return v == null ? false : v.booleanValue();
         } catch (Exception e) {
             throw logAndConvert(e);
@@ -639,6 +661,9 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public long getLong(int columnIndex) throws SQLException {
         try {
             debugCodeCall("getLong", columnIndex);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getLong(columnIndex - 1);
             return get(columnIndex).getLong();
         } catch (Exception e) {
             throw logAndConvert(e);
@@ -657,7 +682,11 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public long getLong(String columnLabel) throws SQLException {
         try {
             debugCodeCall("getLong", columnLabel);
-            return get(columnLabel).getLong();
+            int columnIndex = getColumnIndex(columnLabel);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getLong(columnIndex - 1);
+            return get(columnIndex).getLong();
         } catch (Exception e) {
             throw logAndConvert(e);
         }
@@ -711,6 +740,9 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public double getDouble(int columnIndex) throws SQLException {
         try {
             debugCodeCall("getDouble", columnIndex);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getDouble(columnIndex - 1);
             return get(columnIndex).getDouble();
         } catch (Exception e) {
             throw logAndConvert(e);
@@ -729,7 +761,11 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
     public double getDouble(String columnLabel) throws SQLException {
         try {
             debugCodeCall("getDouble", columnLabel);
-            return get(columnLabel).getDouble();
+            int columnIndex = getColumnIndex(columnLabel);
+            ClientResult r = getColumnarResult(columnIndex);
+            if (r != null)
+                return r.getDouble(columnIndex - 1);
+            return get(columnIndex).getDouble();
         } catch (Exception e) {
             throw logAndConvert(e);
         }
@@ -3135,6 +3171,20 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
         return value;
     }
 
+    // 当前记录是按列编码的并且没有被修改过时，直接从ClientResult读，不需要创建Value对象
+    private ClientResult getColumnarResult(int columnIndex) {
+        checkColumnIndex(columnIndex);
+        checkOnValidRow();
+        if (patchedRows == null && result instanceof ClientResult) {
+            ClientResult r = (ClientResult) result;
+            if (r.isColumnarRow()) {
+                wasNull = r.isNull(columnIndex - 1);
+                return r;
+            }
+        }
+        return null;
+    }
+
     private Value get(String columnLabel) {
         int columnIndex = getColumnIndex(columnLabel);
         return get(columnIndex);
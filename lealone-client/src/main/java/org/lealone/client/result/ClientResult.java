@@ -16,6 +16,7 @@ import org.lealone.db.SysProperties;
 import org.lealone.db.result.Result;
 import org.lealone.db.value.Value;
 import org.lealone.net.AsyncCallback;
+import org.lealone.net.ColumnarRowBatch;
 import org.lealone.net.TransferInputStream;
 import org.lealone.net.TransferOutputStream;
 
@@ -39,6 +40,11 @@ public abstract class ClientResult implements Result {
     protected int rowId, rowOffset;
     protected ArrayList<Value[]> result;
 
+    // 打开COLUMNAR_RESULT后每次取到的记录放在batch中，currentRow只在需要时才创建
+    protected final boolean columnar;
+    protected ColumnarRowBatch batch;
+    protected int batchRow = -1;
+
     public ClientResult(ClientSession session, TransferInputStream in, int resultId, int columnCount, int rowCount,
             int fetchSize) throws IOException {
         this.session = session;
@@ -52,6 +58,7 @@ public abstract class ClientResult implements Result {
         rowId = -1;
         result = Utils.newSmallArrayList();
         this.fetchSize = fetchSize;
+        columnar = Boolean.parseBoolean(session.getConnectionInfo().getProperty(ColumnarRowBatch.COLUMNAR_RESULT));
         fetchRows(false);
     }
 
@@ -60,6 +67,82 @@ public abstract class ClientResult implements Result {
 
     protected abstract void fetchRows(boolean sendFetch);
 
+    /**
+     * 读一次取到的记录，返回是否已经读到结果集的结束标记.
+     */
+    protected boolean readRows(int count) throws IOException {
+        rowOffset += getFetchedRowCount();
+        result.clear();
+        batch = null;
+        if (columnar) {
+            batch = ColumnarRowBatch.read(in, columns.length);
+            return batch.isEnd();
+        }
+        for (int r = 0; r < count; r++) {
+            boolean row = in.readBoolean();
+            if (!row) {
+                return true;
+            }
+            int len = columns.length;
+            Value[] values = new Value[len];
+            for (int i = 0; i < len; i++) {
+                Value v = in.readValue();
+                values[i] = v;
+            }
+            result.add(values);
+        }
+        return false;
+    }
+
+    protected int getFetchedRowCount() {
+        return batch != null ? batch.getRowCount() : result.size();
+    }
+
+    protected void setCurrentRow(int index) {
+        if (batch != null) {
+            batchRow = index;
+            currentRow = null;
+        } else {
+            currentRow = result.get(index);
+        }
+    }
+
+    protected void clearCurrentRow() {
+        batchRow = -1;
+        currentRow = null;
+    }
+
+    /**
+     * 当前记录是否在按列编码的batch中，是的话可以用getInt这类方法直接读，不需要创建Value对象.
+     */
+    public boolean isColumnarRow() {
+        return batch != null && batchRow >= 0;
+    }
+
+    public boolean isNull(int i) {
+        return batch.isNull(batchRow, i);
+    }
+
+    public int getInt(int i) {
+        return batch.getInt(batchRow, i);
+    }
+
+    public long getLong(int i) {
+        return batch.getLong(batchRow, i);
+    }
+
+    public double getDouble(int i) {
+        return batch.getDouble(batchRow, i);
+    }
+
+    public boolean getBoolean(int i) {
+        return batch.getBoolean(batchRow, i);
+    }
+
+    public String getString(int i) {
+        return batch.getString(batchRow, i);
+    }
+
     @Override
     public String getAlias(int i) {
         return columns[i].alias;
@@ -113,7 +196,7 @@ public abstract class ClientResult implements Result {
     @Override
     public void reset() {
         rowId = -1;
-        currentRow = null;
+        clearCurrentRow();
         if (session == null) {
             return;
         }
@@ -130,6 +213,9 @@ public abstract class ClientResult implements Result {
 
     @Override
     public Value[] currentRow() {
+        if (currentRow == null && isColumnarRow()) {
+            currentRow = batch.getRow(batchRow);
+        }
         return currentRow;
     }
 
@@ -182,6 +268,7 @@ public abstract class ClientResult implements Result {
     @Override
     public void close() {
         result = null;
+        batch = null;
         sendClose();
     }
 
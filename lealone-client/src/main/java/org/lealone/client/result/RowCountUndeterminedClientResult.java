@@ -21,7 +21,6 @@ import java.io.IOException;
 
 import org.lealone.client.ClientSession;
 import org.lealone.common.exceptions.DbException;
-import org.lealone.db.value.Value;
 import org.lealone.net.TransferInputStream;
 
 public class RowCountUndeterminedClientResult extends ClientResult {
@@ -37,23 +36,23 @@ public class RowCountUndeterminedClientResult extends ClientResult {
 
     @Override
     public boolean next() {
-        if (isEnd && rowId - rowOffset >= result.size() - 1) {
-            currentRow = null;
+        if (isEnd && rowId - rowOffset >= getFetchedRowCount() - 1) {
+            clearCurrentRow();
             return false;
         }
 
         rowId++;
         if (!isEnd) {
             remapIfOld();
-            if (rowId - rowOffset >= result.size()) {
+            if (rowId - rowOffset >= getFetchedRowCount()) {
                 fetchRows(true);
-                if (isEnd && result.isEmpty()) {
-                    currentRow = null;
+                if (isEnd && getFetchedRowCount() == 0) {
+                    clearCurrentRow();
                     return false;
                 }
             }
         }
-        currentRow = result.get(rowId - rowOffset);
+        setCurrentRow(rowId - rowOffset);
         return true;
 
     }
@@ -67,25 +66,11 @@ public class RowCountUndeterminedClientResult extends ClientResult {
     protected void fetchRows(boolean sendFetch) {
         session.checkClosed();
         try {
-            rowOffset += result.size();
-            result.clear();
             if (sendFetch) {
                 sendFetch(fetchSize);
             }
-            for (int r = 0; r < fetchSize; r++) {
-                boolean row = in.readBoolean();
-                if (!row) {
-                    isEnd = true;
-                    break;
-                }
-                int len = columns.length;
-                Value[] values = new Value[len];
-                for (int i = 0; i < len; i++) {
-                    Value v = in.readValue();
-                    values[i] = v;
-                }
-                result.add(values);
-            }
+            if (readRows(fetchSize))
+                isEnd = true;
 
             if (isEnd)
                 sendClose();
@@ -36,7 +36,8 @@ public class ConnectionInfo implements Cloneable {
         KNOWN_SETTINGS.addAll(SetTypes.getTypes());
 
         String[] connectionSettings = { "IGNORE_UNKNOWN_SETTINGS", "INIT", "USER", "PASSWORD", "PASSWORD_HASH",
-                "IS_LOCAL", Constants.NET_FACTORY_NAME_KEY, "NETWORK_TIMEOUT", "TRACE_ENABLED" };
+                "IS_LOCAL", Constants.NET_FACTORY_NAME_KEY, "NETWORK_TIMEOUT", "TRACE_ENABLED", "NETWORK_COMPRESSION",
+                "NETWORK_COMPRESSION_THRESHOLD", "COLUMNAR_RESULT" };
 
         for (String key : connectionSettings) {
             if (SysProperties.CHECK && KNOWN_SETTINGS.contains(key)) {
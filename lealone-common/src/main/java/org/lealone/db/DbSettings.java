@@ -94,6 +94,14 @@ public class DbSettings extends SettingsBase {
      */
     public final int analyzeSample = get("ANALYZE_SAMPLE", 10000);
 
+    /**
+     * Database setting <code>COMPILE_EXPRESSIONS</code> (default: false).<br />
+     * Compile numeric WHERE conditions and SELECT list operations to Java
+     * classes when a query is prepared. This requires the Java compiler at
+     * runtime, otherwise the expressions are interpreted.
+     */
+    public final boolean compileExpressions = get("COMPILE_EXPRESSIONS", false);
+
     /**
      * Database setting <code>DATABASE_TO_UPPER</code> (default: true).<br />
      * Database short names are converted to uppercase for the DATABASE()
@@ -164,6 +172,22 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean functionsInSchema = get("FUNCTIONS_IN_SCHEMA", true);
 
+    /**
+     * Database setting <code>HASH_AGGREGATE</code> (default: true).<br />
+     * Keep the intermediate results of simple GROUP BY aggregates in arrays
+     * indexed by group, and write sorted runs to disk if they use more memory
+     * than QUERY_MAX_MEMORY (or, if that is 0, there are more groups than
+     * MAX_MEMORY_ROWS).
+     */
+    public final boolean hashAggregate = get("HASH_AGGREGATE", true);
+
+    /**
+     * Database setting <code>HASH_JOIN</code> (default: true).<br />
+     * If an equi-join column of the inner table has no usable index, build a
+     * hash table on the inner table instead of scanning it for each outer row.
+     */
+    public final boolean hashJoin = get("HASH_JOIN", true);
+
     /**
      * Database setting <code>LARGE_RESULT_BUFFER_SIZE</code> (default: 4096).<br />
      * Buffer size for large result sets. Set this value to 0 to disable the
@@ -200,6 +224,13 @@ public class DbSettings extends SettingsBase {
      */
     public int maxQueryTimeout = get("MAX_QUERY_TIMEOUT", 0);
 
+    /**
+     * Database setting <code>MERGE_JOIN</code> (default: true).<br />
+     * If both sides of an equi-join are read in the order of the join column,
+     * read the inner index sequentially instead of searching it for each outer row.
+     */
+    public final boolean mergeJoin = get("MERGE_JOIN", true);
+
     /**
      * Database setting <code>NESTED_JOINS</code> (default: true).<br />
      * Whether nested joins should be supported.
@@ -268,6 +299,15 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeTwoEquals = get("OPTIMIZE_TWO_EQUALS", true);
 
+    /**
+     * Database setting <code>PLAN_CACHE_SIZE</code> (default: 0).<br />
+     * The maximum number of idle prepared statements kept in the database wide
+     * plan cache. When a session is closed, its cached statements are put into
+     * this cache and reused by other sessions that prepare the same SQL
+     * statement. 0 means the plan cache is disabled.
+     */
+    public final int planCacheSize = get("PLAN_CACHE_SIZE", 0);
+
     /**
      * Database setting <code>QUERY_CACHE_SIZE</code> (default: 8).<br />
      * The size of the query cache, in number of cached statements. Each session
@@ -279,12 +319,37 @@ public class DbSettings extends SettingsBase {
      */
     public final int queryCacheSize = get("QUERY_CACHE_SIZE", 8);
 
+    /**
+     * Database setting <code>QUERY_PARALLELISM</code> (default: 1).<br />
+     * The initial value of SET QUERY_PARALLELISM for new sessions, the maximum
+     * number of key ranges a table scan is split into. 1 means a query runs
+     * on one thread only.
+     */
+    public final int queryParallelism = get("QUERY_PARALLELISM", 1);
+
+    /**
+     * Database setting <code>QUERY_MAX_MEMORY</code> (default: 64 MB).<br />
+     * The initial value of SET QUERY_MAX_MEMORY for new sessions, the number
+     * of bytes the intermediate results of one query may use before they are
+     * written to disk. 0 means only MAX_MEMORY_ROWS is used.
+     */
+    public final int queryMaxMemory = get("QUERY_MAX_MEMORY", 64 * 1024 * 1024);
+
     /**
      * Database setting <code>RECOMPILE_ALWAYS</code> (default: false).<br />
      * Always recompile prepared statements.
      */
     public final boolean recompileAlways = get("RECOMPILE_ALWAYS", false);
 
+    /**
+     * Database setting <code>RESULT_CACHE_SIZE</code> (default: 0).<br />
+     * The size of the database wide query result cache in KB. Results of
+     * deterministic queries run in auto commit mode are shared by all
+     * sessions until one of the tables they read is modified. 0 means the
+     * result cache is disabled.
+     */
+    public final int resultCacheSize = get("RESULT_CACHE_SIZE", 0);
+
     /**
      * Database setting <code>ROWID</code> (default: true).<br />
      * If set, each table has a pseudo-column _ROWID_.
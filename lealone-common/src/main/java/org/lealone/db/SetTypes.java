@@ -214,7 +214,17 @@ public class SetTypes {
      */
     public static final int QUERY_STATISTICS_MAX_ENTRIES = 40;
 
-    private static final int COUNT = QUERY_STATISTICS_MAX_ENTRIES + 1;
+    /**
+     * The type of a SET QUERY_PARALLELISM statement.
+     */
+    public static final int QUERY_PARALLELISM = 41;
+
+    /**
+     * The type of a SET QUERY_MAX_MEMORY statement.
+     */
+    public static final int QUERY_MAX_MEMORY = 42;
+
+    private static final int COUNT = QUERY_MAX_MEMORY + 1;
 
     private static final ArrayList<String> TYPES = new ArrayList<>(COUNT);
 
@@ -267,6 +277,8 @@ public class SetTypes {
         list.add(BINARY_COLLATION, "BINARY_COLLATION");
         list.add(QUERY_STATISTICS, "QUERY_STATISTICS");
         list.add(QUERY_STATISTICS_MAX_ENTRIES, "QUERY_STATISTICS_MAX_ENTRIES");
+        list.add(QUERY_PARALLELISM, "QUERY_PARALLELISM");
+        list.add(QUERY_MAX_MEMORY, "QUERY_MAX_MEMORY");
 
         TYPE_NAMES.addAll(TYPES);
     }
@@ -913,6 +913,33 @@ public class DataType {
         return false;
     }
 
+    /**
+     * Check if values of the given type can be looked up in a hash table.
+     * DECIMAL的1.0和1.00比较时相等但是equals不相等，使用collation时不同的字符串也可能相等，这些都不能用hash表。
+     *
+     * @param type the value type
+     * @param compareMode the compare mode of the database
+     * @return true if Value.equals agrees with the comparison
+     */
+    public static boolean isHashable(int type, CompareMode compareMode) {
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return true;
+        case Value.STRING:
+            return CompareMode.OFF.equals(compareMode.getName());
+        default:
+            return false;
+        }
+    }
+
     /**
      * Check if the given value type supports the add operation.
      *
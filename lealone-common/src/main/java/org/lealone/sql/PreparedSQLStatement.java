@@ -49,6 +49,16 @@ public interface PreparedSQLStatement extends SQLStatement {
 
     boolean isCacheable();
 
+    /**
+     * 把空闲的语句交给另一个session使用，session为null时只解除跟原来的session的绑定.
+     *
+     * @param session the new session or null
+     * @return false if the statement can not be moved
+     */
+    default boolean moveToSession(Session session) {
+        return false;
+    }
+
     PreparedSQLStatement getWrappedStatement();
 
     double getCost();
@@ -86,6 +96,13 @@ public interface PreparedSQLStatement extends SQLStatement {
         T getResult();
 
         void setPageKeys(List<PageKey> pageKeys);
+
+        /**
+         * 让出之后还在等待其他线程的结果时返回true，调度线程会跳过它，直到被唤醒后再执行
+         */
+        default boolean isWaiting() {
+            return false;
+        }
     }
 
     default boolean yieldIfNeeded() {
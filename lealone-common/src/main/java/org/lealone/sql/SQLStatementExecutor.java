@@ -21,6 +21,13 @@ public interface SQLStatementExecutor {
 
     void executeNextStatement();
 
+    /**
+     * 当前语句需要等待时调用，最多执行一个其他session中的命令就返回，
+     * 没有可执行的命令时等到被唤醒或者超过循环间隔再返回，由调用者检查等待的条件是否已经满足。
+     * 正在当前线程中执行语句的session中的命令不会被执行，避免同一个session中的语句乱序.
+     */
+    void executeOneStatement();
+
     void executeNextStatementIfNeeded(PreparedSQLStatement current);
 
     boolean yieldIfNeeded(PreparedSQLStatement current);
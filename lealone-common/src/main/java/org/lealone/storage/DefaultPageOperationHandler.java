@@ -22,7 +22,9 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
+import org.lealone.common.exceptions.DbException;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.DateTimeUtils;
@@ -101,6 +103,7 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
         wakeUp();
     }
 
+    @Override
     public void wakeUp() {
         haveWork.release(1);
     }
@@ -124,12 +127,27 @@ public class DefaultPageOperationHandler implements PageOperationHandler, Runnab
         }
     }
 
+    @Override
+    public void runPageOperationsUntil(BooleanSupplier done) {
+        while (!done.getAsBoolean()) {
+            runTasks();
+            if (done.getAsBoolean())
+                break;
+            try {
+                haveWork.tryAcquire(loopInterval, TimeUnit.MILLISECONDS);
+                haveWork.drainPermits();
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            }
+        }
+    }
+
     private void runTasks() {
         PageOperation task = tasks.poll();
         while (task != null) {
             size.decrementAndGet();
             try {
-                task.run(this);
+                PageOperationHandlerFactory.runPageOperation(task, this);
                 // PageOperationResult result = task.run(this);
                 // if (result == PageOperationResult.SHIFTED) {
                 // shiftCount++;
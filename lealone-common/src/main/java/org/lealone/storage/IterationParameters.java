@@ -18,6 +18,7 @@
 package org.lealone.storage;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 public class IterationParameters<K> {
 
@@ -27,12 +28,17 @@ public class IterationParameters<K> {
     public int[] columnIndexes;
     public boolean allColumns;
 
+    // 由存储层的cursor在返回记录前判断，不满足条件的记录直接跳过，
+    // 对于事务map，判断的是当前事务可见的值
+    public Predicate<Object> valueFilter;
+
     public <K2> IterationParameters<K2> copy(K2 from, K2 to) {
         IterationParameters<K2> p = new IterationParameters<>();
         p.from = from;
         p.to = to;
         p.pageKeys = pageKeys;
         p.columnIndexes = columnIndexes;
+        p.valueFilter = valueFilter;
         return p;
     }
 
@@ -17,9 +17,21 @@
  */
 package org.lealone.storage;
 
+import java.util.function.BooleanSupplier;
+
 public interface PageOperationHandler {
 
     long getLoad();
 
     void handlePageOperation(PageOperation po);
+
+    void wakeUp();
+
+    /**
+     * PageOperationHandler不能阻塞等待其他线程，否则移交给它的PageOperation永远不会被执行，
+     * 所以等待期间继续执行自己队列中的PageOperation，其他线程完成后要调用wakeUp.
+     *
+     * @param done 返回true时结束等待
+     */
+    void runPageOperationsUntil(BooleanSupplier done);
 }
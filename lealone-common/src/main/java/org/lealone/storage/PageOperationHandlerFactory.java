@@ -22,6 +22,8 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.lealone.storage.PageOperation.PageOperationResult;
+
 public abstract class PageOperationHandlerFactory {
 
     protected final DefaultPageOperationHandler nodePageOperationHandler;
@@ -67,7 +69,7 @@ public abstract class PageOperationHandlerFactory {
         // 也可以提前帮此page的PageOperationHandler找到这个即将被操作的page，
         // 然后把PageOperation移交到对应的PageOperationHandler的队列中，下次处理时就不用重新再遍历btree了。
         if (t instanceof PageOperationHandler) {
-            po.run((PageOperationHandler) t);
+            runPageOperation(po, (PageOperationHandler) t);
         } else {
             // 如果当前线程不是PageOperationHandler，按配置的分配策略选出一个出来，放到它的队列中，让它去处理
             PageOperationHandler handler = getPageOperationHandler();
@@ -99,6 +101,27 @@ public abstract class PageOperationHandlerFactory {
 
     public static PageOperationHandlerFactory instance;
 
+    // 当前线程正在执行的PageOperation层数
+    private static final ThreadLocal<int[]> runningPageOperations = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * 所有PageOperationHandler都要通过这个方法执行PageOperation，
+     * 执行期间读冷page时不能让出去执行其他语句或PageOperation，否则同一个handler会嵌套修改btree.
+     */
+    public static PageOperationResult runPageOperation(PageOperation po, PageOperationHandler currentHandler) {
+        int[] count = runningPageOperations.get();
+        count[0]++;
+        try {
+            return po.run(currentHandler);
+        } finally {
+            count[0]--;
+        }
+    }
+
+    public static boolean isRunningPageOperation() {
+        return runningPageOperations.get()[0] > 0;
+    }
+
     public static PageOperationHandlerFactory create(Map<String, String> config) {
         return create(config, null);
     }
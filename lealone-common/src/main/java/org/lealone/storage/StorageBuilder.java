@@ -92,6 +92,31 @@ public abstract class StorageBuilder {
         return set("cacheSize", mb);
     }
 
+    /**
+     * Set the size of the off-heap page cache in MB. The cache keeps the
+     * serialized pages in direct memory as a second level below the read
+     * cache. The default is 0, which means disabled.
+     * 
+     * @param mb the cache size in megabytes
+     * @return this
+     */
+    public StorageBuilder offHeapCacheSize(int mb) {
+        return set("offHeapCacheSize", mb);
+    }
+
+    /**
+     * Set the number of threads used to read pages asynchronously. A scheduler
+     * thread that misses the page cache runs other statements until the read
+     * completes. The default is the number of processors, 0 means pages are
+     * read synchronously by the calling thread.
+     * 
+     * @param threads the number of threads
+     * @return this
+     */
+    public StorageBuilder pageReadThreads(int threads) {
+        return set("pageReadThreads", threads);
+    }
+
     /**
      * Compress data before writing using the LZF algorithm. This will save
      * about 50% of the disk space, but will slow down read and write
@@ -166,6 +191,17 @@ public abstract class StorageBuilder {
         return set("minFillRate", minFillRate);
     }
 
+    /**
+     * Set the maximum read rate of the background compaction, in MB per second.
+     * The default is 0, which means no limit.
+     *
+     * @param mb the read rate in megabytes per second
+     * @return this
+     */
+    public StorageBuilder compactIoRateLimit(int mb) {
+        return set("compactIoRateLimit", mb);
+    }
+
     public StorageBuilder db(Object db) {
         return set("db", db);
     }
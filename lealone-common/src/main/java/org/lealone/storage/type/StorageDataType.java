@@ -163,6 +163,16 @@ public interface StorageDataType {
         return getMemory(obj);
     }
 
+    /**
+     * 所有key都是ValueLong类型并且按long值的大小排序时返回true，
+     * 存储引擎可以用long[]保存这类key，避免为每个key创建对象
+     *
+     * @return 是否是long类型的key
+     */
+    default boolean isLongKeyType() {
+        return false;
+    }
+
     public static int getTypeId(int tag) {
         int typeId;
         if (tag <= TYPE_SERIALIZED_OBJECT) {
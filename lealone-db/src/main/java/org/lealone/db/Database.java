@@ -47,6 +47,7 @@ import org.lealone.db.constraint.Constraint;
 import org.lealone.db.index.Cursor;
 import org.lealone.db.index.Index;
 import org.lealone.db.index.IndexType;
+import org.lealone.db.result.QueryResultCache;
 import org.lealone.db.result.Row;
 import org.lealone.db.result.SearchRow;
 import org.lealone.db.schema.Schema;
@@ -167,6 +168,8 @@ public class Database implements DataHandler, DbObject, IDatabase {
     private boolean queryStatistics;
     private int queryStatisticsMaxEntries = Constants.QUERY_STATISTICS_MAX_ENTRIES;
     private QueryStatisticsData queryStatisticsData;
+    private final PlanCache planCache;
+    private final QueryResultCache resultCache;
 
     private final int id;
     private final String name;
@@ -206,6 +209,9 @@ public class Database implements DataHandler, DbObject, IDatabase {
         maxLengthInplaceLob = SysProperties.LOB_IN_DATABASE ? Constants.DEFAULT_MAX_LENGTH_INPLACE_LOB2
                 : Constants.DEFAULT_MAX_LENGTH_INPLACE_LOB;
         cacheSize = dbSettings.cacheSize;
+        planCache = dbSettings.planCacheSize > 0 ? new PlanCache(this, dbSettings.planCacheSize) : null;
+        resultCache = dbSettings.resultCacheSize > 0 ? new QueryResultCache(this, dbSettings.resultCacheSize * 1024L)
+                : null;
 
         String engineName = dbSettings.defaultSQLEngine;
         SQLEngine sqlEngine = SQLEngineManager.getInstance().getEngine(engineName);
@@ -1908,6 +1914,24 @@ public class Database implements DataHandler, DbObject, IDatabase {
         return queryStatisticsData;
     }
 
+    /**
+     * Get the plan cache shared by all sessions.
+     *
+     * @return the plan cache or null if it is disabled
+     */
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
+    /**
+     * Get the query result cache shared by all sessions.
+     *
+     * @return the result cache or null if it is disabled
+     */
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
     /**
      * Check if the database is currently opening. This is true until all stored
      * SQL statements have been executed.
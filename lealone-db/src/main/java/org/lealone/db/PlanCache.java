@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.lealone.sql.PreparedSQLStatement;
+
+/**
+ * 所有session共用的语句缓存.
+ *
+ * <p>
+ * 准备好的语句跟session绑定在一起，不能同时给多个session使用，
+ * 所以session关闭时把它缓存的空闲语句放到这里，其他session准备同样的SQL时直接拿走，不用再解析和优化。
+ * 同一条SQL在不同的用户和schema下结果可能不一样，所以用户名、当前schema和schema搜索路径也是key的一部分。
+ * 执行过DDL后整个缓存失效。
+ */
+public class PlanCache {
+
+    private final Database database;
+    private final int maxSize;
+    private final LinkedHashMap<String, Entry> entries;
+    private int statementCount;
+    private long modificationMetaId = -1;
+
+    private long hits;
+    private long misses;
+    private long parseTimeSaved;
+
+    PlanCache(Database database, int maxSize) {
+        this.database = database;
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > PlanCache.this.maxSize) {
+                    statementCount -= eldest.getValue().statements.size();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 生成缓存的key.
+     *
+     * @param session the session
+     * @param sql the SQL statement
+     * @return the key
+     */
+    public static String getKey(ServerSession session, String sql) {
+        StringBuilder buff = new StringBuilder(sql.length() + 32);
+        buff.append(session.getUser().getName()).append('\n').append(session.getCurrentSchemaName());
+        String[] path = session.getSchemaSearchPath();
+        if (path != null) {
+            for (String s : path)
+                buff.append(',').append(s);
+        }
+        return buff.append('\n').append(sql).toString();
+    }
+
+    /**
+     * 取出一个空闲的语句，没有时返回null.
+     *
+     * @param key the key
+     * @return the statement or null
+     */
+    public synchronized PreparedSQLStatement take(String key) {
+        checkModificationMetaId();
+        Entry e = entries.get(key);
+        if (e != null && !e.statements.isEmpty()) {
+            hits++;
+            parseTimeSaved += e.parseTime;
+            statementCount--;
+            return e.statements.remove(e.statements.size() - 1);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * 记录解析和优化一条语句用了多少时间，命中时累加到节省的时间中.
+     *
+     * @param key the key
+     * @param parseTime the time in nanoseconds
+     */
+    public synchronized void addParseTime(String key, long parseTime) {
+        checkModificationMetaId();
+        Entry e = entries.get(key);
+        if (e == null) {
+            e = new Entry();
+            entries.put(key, e);
+        }
+        e.parseTime = parseTime;
+    }
+
+    /**
+     * 把session不再使用的语句放回缓存，语句已经跟session解除绑定.
+     *
+     * @param key the key
+     * @param statement the statement
+     * @param modificationMetaId the meta id when the statement was prepared
+     */
+    public synchronized void release(String key, PreparedSQLStatement statement, long modificationMetaId) {
+        checkModificationMetaId();
+        if (modificationMetaId != this.modificationMetaId || statementCount >= maxSize)
+            return;
+        Entry e = entries.get(key);
+        if (e == null) {
+            e = new Entry();
+            entries.put(key, e);
+        }
+        e.statements.add(statement);
+        statementCount++;
+    }
+
+    private void checkModificationMetaId() {
+        long id = database.getModificationMetaId();
+        if (id != modificationMetaId) {
+            entries.clear();
+            statementCount = 0;
+            modificationMetaId = id;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * 命中率，0到1之间.
+     *
+     * @return the hit ratio
+     */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 命中时不用再解析和优化语句，一共节省的时间.
+     *
+     * @return the time in nanoseconds
+     */
+    public synchronized long getParseTimeSaved() {
+        return parseTimeSaved;
+    }
+
+    public synchronized int getStatementCount() {
+        return statementCount;
+    }
+
+    private static class Entry {
+        final ArrayList<PreparedSQLStatement> statements = new ArrayList<>(1);
+        long parseTime;
+    }
+}
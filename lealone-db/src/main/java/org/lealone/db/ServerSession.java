@@ -83,9 +83,12 @@ public class ServerSession extends SessionBase implements Transaction.Validator
     private final long sessionStart = System.currentTimeMillis();
     private long transactionStart;
     private long currentCommandStart;
+    private long currentCommandId;
     private HashMap<String, Value> variables;
     private HashSet<Result> temporaryResults;
     private int queryTimeout;
+    private int queryParallelism;
+    private int queryMaxMemory;
     private boolean commitOrRollbackDisabled;
     private Table waitForLock;
     private Thread waitForLockThread;
@@ -101,6 +104,8 @@ public class ServerSession extends SessionBase implements Transaction.Validator
     public ServerSession(Database database, User user, int id) {
         this.database = database;
         this.queryTimeout = database.getSettings().maxQueryTimeout;
+        this.queryParallelism = database.getSettings().queryParallelism;
+        this.queryMaxMemory = database.getSettings().queryMaxMemory;
         this.queryCacheSize = database.getSettings().queryCacheSize;
         this.user = user;
         this.id = id;
@@ -427,6 +432,9 @@ public class ServerSession extends SessionBase implements Transaction.Validator
             throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, "session closed");
         }
         PreparedSQLStatement ps;
+        PlanCache planCache = database.getPlanCache();
+        // 使用全局的语句缓存时，当前schema不同的语句不能共用，所以key中也包含了schema
+        String key = planCache != null ? PlanCache.getKey(this, sql) : sql;
         if (queryCacheSize > 0) {
             if (queryCache == null) {
                 queryCache = SmallLRUCache.newInstance(queryCacheSize);
@@ -437,18 +445,33 @@ public class ServerSession extends SessionBase implements Transaction.Validator
                     queryCache.clear();
                     modificationMetaID = newModificationMetaID;
                 }
-                ps = queryCache.get(sql);
+                ps = queryCache.get(key);
                 if (ps != null && ps.canReuse()) {
                     ps.reuse();
                     return ps;
                 }
             }
         }
-        SQLParser parser = database.createParser(this);
-        ps = parser.parse(sql).prepare();
+        ps = null;
+        if (planCache != null) {
+            ps = planCache.take(key);
+            if (ps != null) {
+                if (ps.moveToSession(this))
+                    ps.reuse();
+                else
+                    ps = null;
+            }
+        }
+        if (ps == null) {
+            long start = planCache != null ? System.nanoTime() : 0;
+            SQLParser parser = database.createParser(this);
+            ps = parser.parse(sql).prepare();
+            if (planCache != null && ps.isCacheable())
+                planCache.addParseTime(key, System.nanoTime() - start);
+        }
         if (queryCache != null) {
             if (ps.isCacheable()) {
-                queryCache.put(sql, ps);
+                queryCache.put(key, ps);
             }
         }
         ps.setLocal(isLocal());
@@ -640,6 +663,7 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         if (!closed) {
             try {
                 database.checkPowerOff();
+                releaseCachedStatements();
                 cleanTempTables(true);
                 database.removeSession(this);
             } finally {
@@ -648,6 +672,19 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         }
     }
 
+    // 把空闲的语句放到全局的语句缓存中给其他session使用
+    private void releaseCachedStatements() {
+        PlanCache planCache = database.getPlanCache();
+        if (planCache == null || queryCache == null)
+            return;
+        for (Map.Entry<String, PreparedSQLStatement> e : queryCache.entrySet()) {
+            PreparedSQLStatement ps = e.getValue();
+            if (ps.canReuse() && ps.moveToSession(null))
+                planCache.release(e.getKey(), ps, modificationMetaID);
+        }
+        queryCache = null;
+    }
+
     /**
      * Add a lock for the given table. The object is unlocked on commit or
      * rollback.
@@ -803,6 +840,7 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         // 在一个事务中可能会执行多条语句，所以记录一下其中有哪些类型
         // 注意，在执行完当前语句后会再调用一次，把currentCommand设为null，所以这里要加一下判断
         if (statement != null) {
+            currentCommandId++;
             if (statement.isDatabaseStatement())
                 containsDatabaseStatement = true;
             else if (statement.isDDL())
@@ -845,6 +883,16 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         return currentCommandStart;
     }
 
+    /**
+     * Get the id of the current command. Each execution of a statement gets a new id,
+     * so values computed once per execution can be cached with it.
+     *
+     * @return the command id
+     */
+    public long getCurrentCommandId() {
+        return currentCommandId;
+    }
+
     public boolean getAllowLiterals() {
         return allowLiterals;
     }
@@ -1012,6 +1060,15 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         return transactionStart;
     }
 
+    /**
+     * Check if the session has locked a table, that is, it may have uncommitted changes.
+     *
+     * @return true if it has
+     */
+    public boolean hasLocks() {
+        return !locks.isEmpty();
+    }
+
     public Table[] getLocks() {
         // copy the data without synchronizing
         int size = locks.size();
@@ -1106,6 +1163,22 @@ public class ServerSession extends SessionBase implements Transaction.Validator
         return queryTimeout;
     }
 
+    public void setQueryParallelism(int queryParallelism) {
+        this.queryParallelism = queryParallelism;
+    }
+
+    public int getQueryParallelism() {
+        return queryParallelism;
+    }
+
+    public void setQueryMaxMemory(int queryMaxMemory) {
+        this.queryMaxMemory = queryMaxMemory;
+    }
+
+    public int getQueryMaxMemory() {
+        return queryMaxMemory;
+    }
+
     /**
      * Set the table this session is waiting for, and the thread that is
      * waiting.
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.index;
+
+/**
+ * 按批读取记录的cursor，每一批记录按列保存在ColumnVector中.
+ *
+ * <p>
+ * 跟Cursor相比，不需要为每条记录创建Row，上层可以直接在列向量上做计算，比如聚合函数。
+ */
+public interface BatchCursor {
+
+    /**
+     * 读取下一批记录.
+     *
+     * @return 没有记录时返回false
+     */
+    boolean nextBatch();
+
+    /**
+     * 当前这一批的记录数.
+     *
+     * @return the row count
+     */
+    int getRowCount();
+
+    /**
+     * 当前这一批记录中指定列的值.
+     *
+     * @param columnId the column id
+     * @return the column vector, or null if the column was not read
+     */
+    ColumnVector getColumn(int columnId);
+}
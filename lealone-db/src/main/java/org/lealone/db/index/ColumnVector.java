@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.index;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueByte;
+import org.lealone.db.value.ValueDouble;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueShort;
+
+/**
+ * 一批记录中某一列的值.
+ *
+ * <p>
+ * 整数类型的列保存在long[]中，DOUBLE类型的列保存在double[]中，其他类型仍然保存Value，
+ * NULL值用单独的标记数组表示。
+ */
+public class ColumnVector {
+
+    private final int type;
+    private final long[] longs;
+    private final double[] doubles;
+    private final Value[] values;
+    private final boolean[] nulls;
+    private int size;
+    private boolean hasNulls;
+
+    public ColumnVector(int type, int capacity) {
+        this.type = type;
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            longs = new long[capacity];
+            doubles = null;
+            values = null;
+            break;
+        case Value.DOUBLE:
+            longs = null;
+            doubles = new double[capacity];
+            values = null;
+            break;
+        default:
+            longs = null;
+            doubles = null;
+            values = new Value[capacity];
+        }
+        nulls = new boolean[capacity];
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+        hasNulls = false;
+    }
+
+    public void add(Value v) {
+        int i = size++;
+        if (v == null || v == ValueNull.INSTANCE) {
+            nulls[i] = true;
+            hasNulls = true;
+            if (values != null)
+                values[i] = ValueNull.INSTANCE;
+            return;
+        }
+        nulls[i] = false;
+        if (v.getType() != type)
+            v = v.convertTo(type);
+        if (longs != null)
+            longs[i] = v.getLong();
+        else if (doubles != null)
+            doubles[i] = v.getDouble();
+        else
+            values[i] = v;
+    }
+
+    public boolean isLongVector() {
+        return longs != null;
+    }
+
+    public boolean isDoubleVector() {
+        return doubles != null;
+    }
+
+    /**
+     * 只有isLongVector()返回true时才能调用，NULL值对应的元素没有意义
+     */
+    public long[] getLongs() {
+        return longs;
+    }
+
+    /**
+     * 只有isDoubleVector()返回true时才能调用，NULL值对应的元素没有意义
+     */
+    public double[] getDoubles() {
+        return doubles;
+    }
+
+    public boolean hasNulls() {
+        return hasNulls;
+    }
+
+    public boolean isNull(int index) {
+        return hasNulls && nulls[index];
+    }
+
+    public Value getValue(int index) {
+        if (isNull(index))
+            return ValueNull.INSTANCE;
+        if (longs != null) {
+            long v = longs[index];
+            switch (type) {
+            case Value.BYTE:
+                return ValueByte.get((byte) v);
+            case Value.SHORT:
+                return ValueShort.get((short) v);
+            case Value.INT:
+                return ValueInt.get((int) v);
+            default:
+                return ValueLong.get(v);
+            }
+        } else if (doubles != null) {
+            return ValueDouble.get(doubles[index]);
+        } else {
+            return values[index];
+        }
+    }
+}
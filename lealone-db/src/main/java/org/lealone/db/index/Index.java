@@ -115,6 +115,34 @@ public interface Index extends SchemaObject {
 
     Cursor find(ServerSession session, IterationParameters<SearchRow> parameters);
 
+    /**
+     * Find rows and return them in batches of column vectors.
+     * Only the columns in parameters.columnIndexes are read, all columns if it is null.
+     *
+     * @param session the session
+     * @param parameters the iteration parameters
+     * @param batchSize the maximum number of rows per batch
+     * @return the batch cursor, or null if this index does not support it
+     */
+    default BatchCursor findBatch(ServerSession session, IterationParameters<SearchRow> parameters, int batchSize) {
+        return null;
+    }
+
+    /**
+     * Split a full scan into at most parallelism key ranges and return one batch cursor per range.
+     * The cursors may be read concurrently by different threads.
+     *
+     * @param session the session
+     * @param parameters the iteration parameters, the start and end must be null
+     * @param batchSize the maximum number of rows per batch
+     * @param parallelism the maximum number of ranges
+     * @return the batch cursors, or null if this index does not support it
+     */
+    default BatchCursor[] findBatch(ServerSession session, IterationParameters<SearchRow> parameters, int batchSize,
+            int parallelism) {
+        return null;
+    }
+
     /**
      * Estimate the cost to search for rows given the search mask.
      * There is one element per column in the search mask.
@@ -106,6 +106,17 @@ public class StandardDelegateIndex extends IndexBase implements StandardIndex {
         return mainIndex.find(session, parameters);
     }
 
+    @Override
+    public BatchCursor findBatch(ServerSession session, IterationParameters<SearchRow> parameters, int batchSize) {
+        return mainIndex.findBatch(session, parameters, batchSize);
+    }
+
+    @Override
+    public BatchCursor[] findBatch(ServerSession session, IterationParameters<SearchRow> parameters, int batchSize,
+            int parallelism) {
+        return mainIndex.findBatch(session, parameters, batchSize, parallelism);
+    }
+
     @Override
     public Cursor findFirstOrLast(ServerSession session, boolean first) {
         return mainIndex.findFirstOrLast(session, first);
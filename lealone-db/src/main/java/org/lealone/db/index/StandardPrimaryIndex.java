@@ -68,7 +68,7 @@ public class StandardPrimaryIndex extends IndexBase {
         for (int i = 0; i < columns.length; i++) {
             sortTypes[i] = SortOrder.ASCENDING;
         }
-        ValueDataType keyType = new ValueDataType(null, null, null);
+        ValueDataType keyType = new RowKeyDataType();
         ValueDataType valueType = new ValueDataType(database, database.getCompareMode(), sortTypes);
         VersionedValueType vvType = new VersionedValueType(valueType, columns.length);
 
@@ -270,6 +270,58 @@ public class StandardPrimaryIndex extends IndexBase {
                 minAndMaxValues[1]);
     }
 
+    @Override
+    public BatchCursor findBatch(ServerSession session, IterationParameters<SearchRow> parameters, int batchSize) {
+        StandardPrimaryIndexCursor cursor = (StandardPrimaryIndexCursor) find(session, parameters);
+        Column[] columns = table.getColumns();
+        int[] columnIds = parameters.columnIndexes;
+        if (columnIds == null) {
+            columnIds = new int[columns.length];
+            for (int i = 0; i < columnIds.length; i++) {
+                columnIds[i] = i;
+            }
+        }
+        return new StandardPrimaryIndexBatchCursor(cursor, columns, columnIds, batchSize);
+    }
+
+    // 按第一个和最后一个row key把整个key范围平均分成几段，row key通常是连续递增的，所以每一段的记录数差不多
+    @Override
+    public BatchCursor[] findBatch(ServerSession session, IterationParameters<SearchRow> parameters, int batchSize,
+            int parallelism) {
+        if (parameters.from != null || parameters.to != null || parallelism < 2)
+            return null;
+        TransactionMap<Value, VersionedValue> map = getMap(session);
+        ValueLong first = (ValueLong) map.firstKey();
+        ValueLong last = (ValueLong) map.lastKey();
+        if (first == null || last == null)
+            return null;
+        long min = first.getLong();
+        long max = last.getLong();
+        // 太少的记录不值得并行
+        long range = max - min + 1;
+        if (range <= 0 || range < (long) batchSize * parallelism)
+            return null;
+        Column[] columns = table.getColumns();
+        int[] columnIds = parameters.columnIndexes;
+        if (columnIds == null) {
+            columnIds = new int[columns.length];
+            for (int i = 0; i < columnIds.length; i++) {
+                columnIds[i] = i;
+            }
+        }
+        BatchCursor[] cursors = new BatchCursor[parallelism];
+        long step = range / parallelism;
+        for (int i = 0; i < parallelism; i++) {
+            ValueLong from = i == 0 ? MIN : ValueLong.get(min + step * i);
+            ValueLong to = i == parallelism - 1 ? MAX : ValueLong.get(min + step * (i + 1) - 1);
+            IterationParameters<Value> newParameters = parameters.copy(from, to);
+            StandardPrimaryIndexCursor cursor = new StandardPrimaryIndexCursor(session, table, this,
+                    map.entryIterator(newParameters), to);
+            cursors[i] = new StandardPrimaryIndexBatchCursor(cursor, columns, columnIds, batchSize);
+        }
+        return cursors;
+    }
+
     @Override
     public Row getRow(ServerSession session, long key) {
         return getRow(session, key, null);
@@ -477,7 +529,7 @@ public class StandardPrimaryIndex extends IndexBase {
         } else if (mainIndexColumn < 0) {
             max = ValueLong.get(last.getKey());
         } else {
-            Value value = first.getValue(mainIndexColumn);
+            Value value = last.getValue(mainIndexColumn);
             ValueLong v;
             if (value instanceof ValueLong)
                 v = (ValueLong) value;
@@ -565,6 +617,14 @@ public class StandardPrimaryIndex extends IndexBase {
             return get();
         }
 
+        // 表结构没有变化时直接返回存储层的值，不需要创建Row
+        Value[] getValueList() {
+            VersionedValue value = current.getValue();
+            if (table.getVersion() == value.version)
+                return value.value.getList();
+            return get().getValueList();
+        }
+
         @Override
         public boolean next() {
             current = it.hasNext() ? it.next() : null;
@@ -580,4 +640,50 @@ public class StandardPrimaryIndex extends IndexBase {
             throw DbException.getUnsupportedException("previous");
         }
     }
+
+    private static class StandardPrimaryIndexBatchCursor implements BatchCursor {
+
+        private final StandardPrimaryIndexCursor cursor;
+        private final int[] columnIds;
+        private final ColumnVector[] vectors; // 按列id存放，没有读取的列是null
+        private final int batchSize;
+        private int rowCount;
+
+        StandardPrimaryIndexBatchCursor(StandardPrimaryIndexCursor cursor, Column[] columns, int[] columnIds,
+                int batchSize) {
+            this.cursor = cursor;
+            this.columnIds = columnIds;
+            this.batchSize = batchSize;
+            vectors = new ColumnVector[columns.length];
+            for (int columnId : columnIds) {
+                vectors[columnId] = new ColumnVector(columns[columnId].getType(), batchSize);
+            }
+        }
+
+        @Override
+        public boolean nextBatch() {
+            for (int columnId : columnIds) {
+                vectors[columnId].reset();
+            }
+            rowCount = 0;
+            while (rowCount < batchSize && cursor.next()) {
+                Value[] data = cursor.getValueList();
+                for (int columnId : columnIds) {
+                    vectors[columnId].add(data[columnId]);
+                }
+                rowCount++;
+            }
+            return rowCount > 0;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        @Override
+        public ColumnVector getColumn(int columnId) {
+            return vectors[columnId];
+        }
+    }
 }
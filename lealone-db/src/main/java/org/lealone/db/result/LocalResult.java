@@ -9,9 +9,11 @@ package org.lealone.db.result;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.PriorityQueue;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.Utils;
+import org.lealone.db.Constants;
 import org.lealone.db.ServerSession;
 import org.lealone.db.util.ValueHashMap;
 import org.lealone.db.value.DataType;
@@ -35,6 +37,9 @@ public class LocalResult implements Result, ResultTarget {
     private ArrayList<Value[]> rows;
     private SortOrder sort;
     private ValueHashMap<Value[]> distinctRows;
+    // ORDER BY ... LIMIT时只保留排在前面的记录，堆顶是其中排在最后的那条
+    private PriorityQueue<Value[]> topRows;
+    private int topCount;
     private Value[] currentRow;
     private int offset;
     private int limit = -1;
@@ -176,12 +181,26 @@ public class LocalResult implements Result, ResultTarget {
         this.sort = sort;
     }
 
+    /**
+     * 只需要排序后的前n条记录时，用一个大小为n的堆保存，不用先保存所有记录再排序.
+     * n超过MAX_MEMORY_ROWS时还是按原来的方式转存到临时文件中排序。
+     *
+     * @param n the offset plus the limit
+     */
+    public void setTopCount(int n) {
+        if (sort == null || distinct || n <= 0 || n > maxMemoryRows)
+            return;
+        topCount = n;
+        topRows = new PriorityQueue<>(Math.min(n, 1024), (a, b) -> sort.compare(b, a));
+    }
+
     /**
      * Remove duplicate rows.
      */
     public void setDistinct() {
         distinct = true;
         distinctRows = ValueHashMap.newInstance();
+        topRows = null;
     }
 
     /**
@@ -297,11 +316,25 @@ public class LocalResult implements Result, ResultTarget {
             }
             return;
         }
+        if (topRows != null) {
+            if (topRows.size() < topCount) {
+                topRows.add(values);
+                rowCount++;
+            } else if (sort.compare(values, topRows.peek()) < 0) {
+                topRows.poll();
+                topRows.add(values);
+            }
+            return;
+        }
         rows.add(values);
         rowCount++;
         if (rows.size() > maxMemoryRows) {
             if (external == null) {
-                external = new ResultTempTable(session, expressions, false, sort);
+                // 需要排序时把每批记录排好序写成一个run，读取时多路归并，不用在临时表的索引中逐行插入
+                if (sort != null)
+                    external = new ResultDiskBuffer(session, sort, values.length);
+                else
+                    external = new ResultTempTable(session, expressions, false, sort);
             }
             addRowsToDisk();
         }
@@ -351,6 +384,9 @@ public class LocalResult implements Result, ResultTarget {
                     // lines
                 }
             }
+        } else if (topRows != null) {
+            rows = new ArrayList<>(topRows);
+            topRows = null;
         }
         if (external != null) {
             addRowsToDisk();
@@ -510,6 +546,26 @@ public class LocalResult implements Result, ResultTarget {
         return closed;
     }
 
+    /**
+     * 估算结果集占用的内存，只有所有记录都在内存中时才能估算.
+     *
+     * @return the memory in bytes, or -1 if the rows are not all in memory
+     */
+    public long getMemory() {
+        if (external != null || rows == null || rows.size() < rowCount) {
+            return -1;
+        }
+        long memory = Constants.MEMORY_OBJECT;
+        for (Value[] row : rows) {
+            memory += Constants.MEMORY_ROW + row.length * Constants.MEMORY_POINTER;
+            for (Value v : row) {
+                if (v != null)
+                    memory += v.getMemory();
+            }
+        }
+        return memory;
+    }
+
     @Override
     public int getFetchSize() {
         return 0;
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.result;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.lealone.common.util.StatementBuilder;
+import org.lealone.db.Database;
+import org.lealone.db.ServerSession;
+import org.lealone.db.table.Table;
+import org.lealone.db.value.Value;
+
+/**
+ * 所有session共用的查询结果缓存.
+ *
+ * <p>
+ * 只缓存确定性的只读查询，key是查询的计划SQL、参数值和最大行数。
+ * 放入结果时记下查询用到的每张表的修改id，取结果时只要有一张表的修改id变了就丢掉这个结果。
+ * 超过内存上限时按估算的结果集大小淘汰最久没有使用的结果。
+ */
+public class QueryResultCache {
+
+    private final Database database;
+    private final long maxMemory;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memory;
+    private long modificationMetaId = -1;
+    private long hits;
+    private long misses;
+
+    public QueryResultCache(Database database, long maxMemory) {
+        this.database = database;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * 查找缓存的结果，返回的是一个浅拷贝，多个session可以同时读取.
+     *
+     * @param session the session
+     * @param sql the plan SQL of the query
+     * @param parameters the parameter values
+     * @param maxRows the maximum number of rows
+     * @return the result or null
+     */
+    public synchronized LocalResult get(ServerSession session, String sql, Value[] parameters, int maxRows) {
+        checkModificationMetaId();
+        Key key = new Key(sql, parameters, maxRows);
+        Entry e = entries.get(key);
+        if (e != null) {
+            if (e.isValid()) {
+                LocalResult r = e.result.createShallowCopy(session);
+                if (r != null) {
+                    e.hits++;
+                    hits++;
+                    return r;
+                }
+            }
+            entries.remove(key);
+            memory -= e.memory;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * 放入一个查询结果，结果集不在内存中或者太大时不缓存.
+     *
+     * @param sql the plan SQL of the query
+     * @param parameters the parameter values
+     * @param maxRows the maximum number of rows
+     * @param result the result, must be done
+     * @param tables the tables the query depends on
+     * @param modificationIds the modification ids of the tables before the query was run
+     * @param modificationMetaId the modification meta id of the database before the query was run
+     */
+    public synchronized void put(String sql, Value[] parameters, int maxRows, LocalResult result, Table[] tables,
+            long[] modificationIds, long modificationMetaId) {
+        // 执行查询期间表结构变了，表对象可能已经不是原来的了
+        checkModificationMetaId();
+        if (modificationMetaId != this.modificationMetaId)
+            return;
+        long m = result.getMemory();
+        // 太大的结果集会挤掉很多其他的结果
+        if (m < 0 || m > maxMemory / 4)
+            return;
+        Key key = new Key(sql, parameters, maxRows);
+        Entry old = entries.remove(key);
+        if (old != null)
+            memory -= old.memory;
+        entries.put(key, new Entry(key, result, tables, modificationIds, m));
+        memory += m;
+        for (Iterator<Entry> it = entries.values().iterator(); memory > maxMemory && it.hasNext();) {
+            memory -= it.next().memory;
+            it.remove();
+        }
+    }
+
+    private void checkModificationMetaId() {
+        long id = database.getModificationMetaId();
+        if (id != modificationMetaId) {
+            entries.clear();
+            memory = 0;
+            modificationMetaId = id;
+        }
+    }
+
+    public synchronized ArrayList<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    private static class Key {
+        final String sql;
+        final Value[] parameters;
+        final int maxRows;
+        final int hash;
+
+        Key(String sql, Value[] parameters, int maxRows) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.maxRows = maxRows;
+            hash = sql.hashCode() * 31 + Arrays.hashCode(parameters) * 17 + maxRows;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key k = (Key) obj;
+            // Value.equals要求类型也相同
+            return hash == k.hash && maxRows == k.maxRows && sql.equals(k.sql)
+                    && Arrays.equals(parameters, k.parameters);
+        }
+    }
+
+    /**
+     * 一个缓存的查询结果.
+     */
+    public static class Entry {
+        private final Key key;
+        private final LocalResult result;
+        private final Table[] tables;
+        private final long[] modificationIds;
+        private final long memory;
+        private long hits;
+
+        Entry(Key key, LocalResult result, Table[] tables, long[] modificationIds, long memory) {
+            this.key = key;
+            this.result = result;
+            this.tables = tables;
+            this.modificationIds = modificationIds;
+            this.memory = memory;
+        }
+
+        boolean isValid() {
+            for (int i = 0; i < tables.length; i++) {
+                if (tables[i].getMaxDataModificationId() != modificationIds[i])
+                    return false;
+            }
+            return true;
+        }
+
+        public String getSQL() {
+            return key.sql;
+        }
+
+        public String getParameters() {
+            StatementBuilder buff = new StatementBuilder();
+            for (Value v : key.parameters) {
+                buff.appendExceptFirst(", ");
+                buff.append(v.getTraceSQL());
+            }
+            return buff.toString();
+        }
+
+        public int getRowCount() {
+            return result.getRowCount();
+        }
+
+        public long getMemory() {
+            return memory;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+    }
+}
@@ -7,7 +7,9 @@
 package org.lealone.db.result;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.Utils;
@@ -20,8 +22,9 @@ import org.lealone.storage.fs.FileStorage;
 
 /**
  * This class implements the disk buffer for the LocalResult class.
+ * It is also used to spill the groups of a hash aggregate.
  */
-class ResultDiskBuffer implements ResultExternal {
+public class ResultDiskBuffer implements ResultExternal {
 
     private static final int READ_AHEAD = 128;
 
@@ -31,10 +34,19 @@ class ResultDiskBuffer implements ResultExternal {
     private final SortOrder sort;
     private final int columnCount;
     private final int maxBufferSize;
+    private final int maxMemoryRows;
 
     private FileStorage file;
     private int rowCount;
 
+    // 读写时重复使用的字节数组
+    private byte[] readBuffer = new byte[Constants.FILE_BLOCK_SIZE];
+    private byte[] writeBuffer = new byte[Constants.FILE_BLOCK_SIZE];
+
+    // 多路归并用的败者树，losers[0]是当前最小的tape，losers[1..k-1]是内部节点上的败者
+    private int[] losers;
+    private int readAhead = READ_AHEAD;
+
     private final ResultDiskBuffer parent;
     private boolean closed;
     private int childCount;
@@ -64,9 +76,14 @@ class ResultDiskBuffer implements ResultExternal {
          * A list of rows in the buffer.
          */
         ArrayList<Value[]> buffer = Utils.newSmallArrayList();
+
+        /**
+         * The index of the next row in the buffer.
+         */
+        int bufferPos;
     }
 
-    ResultDiskBuffer(ServerSession session, SortOrder sort, int columnCount) {
+    public ResultDiskBuffer(ServerSession session, SortOrder sort, int columnCount) {
         this.parent = null;
         this.sort = sort;
         this.columnCount = columnCount;
@@ -85,6 +102,7 @@ class ResultDiskBuffer implements ResultExternal {
             mainTape.pos = FileStorage.HEADER_LENGTH;
         }
         this.maxBufferSize = db.getSettings().largeResultBufferSize;
+        this.maxMemoryRows = db.getMaxMemoryRows();
     }
 
     private ResultDiskBuffer(ResultDiskBuffer parent) {
@@ -113,6 +131,7 @@ class ResultDiskBuffer implements ResultExternal {
         sort = parent.sort;
         columnCount = parent.columnCount;
         maxBufferSize = parent.maxBufferSize;
+        maxMemoryRows = parent.maxMemoryRows;
     }
 
     @Override
@@ -143,8 +162,9 @@ class ResultDiskBuffer implements ResultExternal {
             buff.fillAligned();
             int len = buff.length();
             buff.putInt(0, len);
+            byte[] bytes = getBytes(buff, len);
             if (maxBufferSize > 0) {
-                buffer.write(buff.getBytes(), 0, len);
+                buffer.write(bytes, 0, len);
                 bufferLen += len;
                 if (bufferLen > maxBufferSize) {
                     byte[] data = buffer.toByteArray();
@@ -153,7 +173,7 @@ class ResultDiskBuffer implements ResultExternal {
                     bufferLen = 0;
                 }
             } else {
-                file.write(buff.getBytes(), 0, len);
+                file.write(bytes, 0, len);
             }
         }
         if (bufferLen > 0) {
@@ -183,28 +203,46 @@ class ResultDiskBuffer implements ResultExternal {
         if (sort != null) {
             for (ResultDiskTape tape : tapes) {
                 tape.pos = tape.start;
-                tape.buffer = Utils.newSmallArrayList();
+                tape.buffer.clear();
+                tape.bufferPos = 0;
             }
+            losers = null;
         } else {
             mainTape.pos = FileStorage.HEADER_LENGTH;
-            mainTape.buffer = Utils.newSmallArrayList();
+            mainTape.buffer.clear();
+            mainTape.bufferPos = 0;
+        }
+    }
+
+    // rowBuff使用的是direct buffer，没有byte数组，所以要复制出来
+    private byte[] getBytes(DataBuffer buff, int len) {
+        if (writeBuffer.length < len) {
+            writeBuffer = new byte[Math.max(len, writeBuffer.length * 2)];
         }
+        ByteBuffer b = buff.getBuffer().duplicate();
+        b.flip();
+        b.get(writeBuffer, 0, len);
+        return writeBuffer;
     }
 
     private void readRow(ResultDiskTape tape) {
         int min = Constants.FILE_BLOCK_SIZE;
-        DataBuffer buff = rowBuff;
-        buff.reset();
-        file.readFully(buff.getBytes(), 0, min);
+        byte[] bytes = readBuffer;
+        file.readFully(bytes, 0, min);
+        ByteBuffer buff = ByteBuffer.wrap(bytes);
         int len = buff.getInt();
-        buff.checkCapacity(len);
         if (len - min > 0) {
-            file.readFully(buff.getBytes(), min, len - min);
+            if (bytes.length < len) {
+                bytes = readBuffer = Arrays.copyOf(bytes, Math.max(len, bytes.length * 2));
+                buff = ByteBuffer.wrap(bytes);
+                buff.position(4);
+            }
+            file.readFully(bytes, min, len - min);
         }
         tape.pos += len;
         Value[] row = new Value[columnCount];
         for (int k = 0; k < columnCount; k++) {
-            row[k] = buff.readValue();
+            row[k] = DataBuffer.readValue(buff);
         }
         tape.buffer.add(row);
     }
@@ -215,45 +253,90 @@ class ResultDiskBuffer implements ResultExternal {
     }
 
     private Value[] nextUnsorted() {
-        file.seek(mainTape.pos);
-        if (mainTape.buffer.isEmpty()) {
-            for (int j = 0; mainTape.pos < mainTape.end && j < READ_AHEAD; j++) {
-                readRow(mainTape);
+        Value[] row = head(mainTape);
+        mainTape.bufferPos++;
+        return row;
+    }
+
+    // 返回tape中的下一行但是不移动位置，buffer读完时重用它读取后面的记录，tape读完时返回null
+    private Value[] head(ResultDiskTape tape) {
+        if (tape.bufferPos >= tape.buffer.size()) {
+            if (tape.pos >= tape.end) {
+                return null;
+            }
+            tape.buffer.clear();
+            tape.bufferPos = 0;
+            file.seek(tape.pos);
+            for (int j = 0; tape.pos < tape.end && j < readAhead; j++) {
+                readRow(tape);
             }
         }
-        Value[] row = mainTape.buffer.get(0);
-        mainTape.buffer.remove(0);
-        return row;
+        return tape.buffer.get(tape.bufferPos);
     }
 
     private Value[] nextSorted() {
-        int next = -1;
-        for (int i = 0, size = tapes.size(); i < size; i++) {
-            ResultDiskTape tape = tapes.get(i);
-            if (tape.buffer.isEmpty() && tape.pos < tape.end) {
-                file.seek(tape.pos);
-                for (int j = 0; tape.pos < tape.end && j < READ_AHEAD; j++) {
-                    readRow(tape);
-                }
-            }
-            if (tape.buffer.size() > 0) {
-                if (next == -1) {
-                    next = i;
-                } else if (compareTapes(tape, tapes.get(next)) < 0) {
-                    next = i;
-                }
+        if (tapes.isEmpty()) {
+            return null;
+        }
+        if (losers == null) {
+            buildLoserTree();
+        }
+        int winner = losers[0];
+        ResultDiskTape tape = tapes.get(winner);
+        Value[] row = head(tape);
+        if (row == null) {
+            return null;
+        }
+        tape.bufferPos++;
+        // 只需要沿着胜者所在的路径重新比较，每一行只要log(k)次比较
+        int k = tapes.size();
+        for (int node = (winner + k) >> 1; node > 0; node >>= 1) {
+            if (beats(losers[node], winner)) {
+                int t = losers[node];
+                losers[node] = winner;
+                winner = t;
             }
         }
-        ResultDiskTape t = tapes.get(next);
-        Value[] row = t.buffer.get(0);
-        t.buffer.remove(0);
+        losers[0] = winner;
         return row;
     }
 
-    private int compareTapes(ResultDiskTape a, ResultDiskTape b) {
-        Value[] va = a.buffer.get(0);
-        Value[] vb = b.buffer.get(0);
-        return sort.compare(va, vb);
+    // 叶子节点k+i对应第i个tape，内部节点n的两个子节点是2n和2n+1
+    private void buildLoserTree() {
+        int k = tapes.size();
+        // 所有tape的预读行数加起来不超过maxMemoryRows
+        if (maxMemoryRows > 0) {
+            readAhead = Math.max(1, Math.min(READ_AHEAD, maxMemoryRows / k));
+        }
+        losers = new int[k];
+        int[] winners = new int[k];
+        for (int node = k - 1; node > 0; node--) {
+            int left = node * 2, right = left + 1;
+            int a = left >= k ? left - k : winners[left];
+            int b = right >= k ? right - k : winners[right];
+            if (beats(b, a)) {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            winners[node] = a;
+            losers[node] = b;
+        }
+        losers[0] = k > 1 ? winners[1] : 0;
+    }
+
+    // 读完的tape比任何tape都大，相等时编号小的tape在前面，跟逐个比较时的顺序一样
+    private boolean beats(int a, int b) {
+        Value[] va = head(tapes.get(a));
+        if (va == null) {
+            return false;
+        }
+        Value[] vb = head(tapes.get(b));
+        if (vb == null) {
+            return true;
+        }
+        int comp = sort.compare(va, vb);
+        return comp < 0 || comp == 0 && a < b;
     }
 
     private synchronized void closeChild() {
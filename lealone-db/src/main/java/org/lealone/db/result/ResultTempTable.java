@@ -73,6 +73,20 @@ public class ResultTempTable implements ResultExternal {
         parent = null;
     }
 
+    /**
+     * 创建一个在keyColumn上建了索引的临时表，可以用findByKey按key查找记录.
+     *
+     * @param session the session
+     * @param expressions the column expressions
+     * @param keyColumn the index of the key column
+     * @return the temp table
+     */
+    public static ResultTempTable create(ServerSession session, IExpression[] expressions, int keyColumn) {
+        SortOrder sort = new SortOrder(session.getDatabase(), new int[] { keyColumn },
+                new int[] { SortOrder.ASCENDING }, null);
+        return new ResultTempTable(session, expressions, false, sort);
+    }
+
     private ResultTempTable(ResultTempTable parent) {
         this.parent = parent;
         this.columnCount = parent.columnCount;
@@ -274,6 +288,20 @@ public class ResultTempTable implements ResultExternal {
         resultCursor = null;
     }
 
+    /**
+     * 按key查找记录，只能用于create(session, expressions, keyColumn)创建的临时表.
+     *
+     * @param key the key
+     * @return the cursor
+     */
+    public Cursor findByKey(Value key) {
+        Value[] values = new Value[columnCount];
+        Arrays.fill(values, ValueNull.INSTANCE);
+        values[sort.getQueryColumnIndexes()[0]] = key;
+        Row row = new Row(values, Row.MEMORY_CALCULATE);
+        return index.find(session, row, row);
+    }
+
     private Row convertToRow(Value[] values) {
         if (values.length < columnCount) {
             Value[] v2 = Arrays.copyOf(values, columnCount);
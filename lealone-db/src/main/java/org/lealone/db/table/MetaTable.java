@@ -29,6 +29,7 @@ import org.lealone.db.Database;
 import org.lealone.db.DbObject;
 import org.lealone.db.DbObjectType;
 import org.lealone.db.LealoneDatabase;
+import org.lealone.db.PlanCache;
 import org.lealone.db.QueryStatisticsData;
 import org.lealone.db.ServerSession;
 import org.lealone.db.Setting;
@@ -43,6 +44,7 @@ import org.lealone.db.constraint.ConstraintReferential;
 import org.lealone.db.constraint.ConstraintUnique;
 import org.lealone.db.index.Index;
 import org.lealone.db.index.MetaIndex;
+import org.lealone.db.result.QueryResultCache;
 import org.lealone.db.result.Row;
 import org.lealone.db.result.SearchRow;
 import org.lealone.db.result.SortOrder;
@@ -101,7 +103,8 @@ public class MetaTable extends Table {
     private static final int SESSION_STATE = 27;
     private static final int QUERY_STATISTICS = 28;
     private static final int DATABASES = 29;
-    private static final int META_TABLE_TYPE_COUNT = DATABASES + 1;
+    private static final int RESULT_CACHE = 30;
+    private static final int META_TABLE_TYPE_COUNT = RESULT_CACHE + 1;
 
     private final int type;
     private final int indexColumn;
@@ -290,6 +293,10 @@ public class MetaTable extends Table {
             setObjectName("DATABASES");
             cols = createColumns("DATABASE_NAME", "RUN_MODE", "NODES");
             break;
+        case RESULT_CACHE:
+            setObjectName("RESULT_CACHE");
+            cols = createColumns("SQL_STATEMENT", "PARAMETERS", "ROW_COUNT INT", "MEMORY BIGINT", "HITS BIGINT");
+            break;
         default:
             throw DbException.throwInternalError("type=" + type);
         }
@@ -623,7 +630,23 @@ public class MetaTable extends Table {
             add(rows, "MODE", database.getMode().getName());
             add(rows, "MULTI_THREADED", "1");
             add(rows, "MVCC", database.isMultiVersion() ? "TRUE" : "FALSE");
+            add(rows, "QUERY_PARALLELISM", "" + session.getQueryParallelism());
+            add(rows, "QUERY_MAX_MEMORY", "" + session.getQueryMaxMemory());
             add(rows, "QUERY_TIMEOUT", "" + session.getQueryTimeout());
+            PlanCache planCache = database.getPlanCache();
+            if (planCache != null) {
+                add(rows, "info.PLAN_CACHE_HITS", "" + planCache.getHits());
+                add(rows, "info.PLAN_CACHE_MISSES", "" + planCache.getMisses());
+                add(rows, "info.PLAN_CACHE_HIT_RATIO", "" + planCache.getHitRatio());
+                add(rows, "info.PLAN_CACHE_PARSE_TIME_SAVED_MS", "" + planCache.getParseTimeSaved() / 1000000);
+                add(rows, "info.PLAN_CACHE_STATEMENTS", "" + planCache.getStatementCount());
+            }
+            QueryResultCache resultCache = database.getResultCache();
+            if (resultCache != null) {
+                add(rows, "info.RESULT_CACHE_HITS", "" + resultCache.getHits());
+                add(rows, "info.RESULT_CACHE_MISSES", "" + resultCache.getMisses());
+                add(rows, "info.RESULT_CACHE_MEMORY", "" + resultCache.getMemory());
+            }
             // database settings
             Map<String, String> s = database.getSettings().getSettings();
             ArrayList<String> settingNames = new ArrayList<>(s.size());
@@ -1366,6 +1389,25 @@ public class MetaTable extends Table {
             }
             break;
         }
+        case RESULT_CACHE: {
+            QueryResultCache resultCache = database.getResultCache();
+            if (resultCache != null) {
+                for (QueryResultCache.Entry entry : resultCache.getEntries()) {
+                    add(rows,
+                            // SQL_STATEMENT
+                            entry.getSQL(),
+                            // PARAMETERS
+                            entry.getParameters(),
+                            // ROW_COUNT
+                            "" + entry.getRowCount(),
+                            // MEMORY
+                            "" + entry.getMemory(),
+                            // HITS
+                            "" + entry.getHits());
+                }
+            }
+            break;
+        }
         case DATABASES: {
             List<Database> databases;
             if (session.getDatabase() == LealoneDatabase.getInstance()) {
@@ -62,7 +62,7 @@ public class StandardTable extends Table {
     private final Map<String, String> parameters;
     private final boolean globalTemporary;
 
-    private long lastModificationId;
+    private volatile long lastModificationId;
     private int changesSinceAnalyze;
     private int nextAnalyze;
     private boolean containsLargeObject;
@@ -231,6 +231,8 @@ public class StandardTable extends Table {
     public void unlock(ServerSession s) {
         if (sharedSessions.containsKey(s)) {
             sharedSessions.remove(s);
+            // 事务结束后其他session才能看到修改，缓存的查询结果要重新计算
+            lastModificationId = database.getNextModificationDataId();
         }
     }
 
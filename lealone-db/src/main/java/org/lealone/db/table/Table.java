@@ -114,6 +114,13 @@ public abstract class Table extends SchemaObjectBase {
         return version;
     }
 
+    /**
+     * 返回已经加载的版本号，还没有从数据库中读取时返回-1，不会触发读取.
+     */
+    public int getLoadedVersion() {
+        return version;
+    }
+
     public void incrementVersion() {
         synchronized (this) {
             version++;
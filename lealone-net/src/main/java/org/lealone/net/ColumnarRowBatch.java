@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueBoolean;
+import org.lealone.db.value.ValueByte;
+import org.lealone.db.value.ValueDouble;
+import org.lealone.db.value.ValueFloat;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueShort;
+import org.lealone.db.value.ValueString;
+
+/**
+ * 按列编码的一批结果集记录.
+ *
+ * <p>
+ * 客户端用连接参数COLUMNAR_RESULT=true打开，打开后COMMAND_QUERY和RESULT_FETCH_ROWS的响应包不再逐行调用writeValue，
+ * 而是先写行数和结束标记，然后每一列写一次类型、一个null位图和紧凑排列的值。
+ * 一列中所有非null值的类型相同并且是BOOLEAN、TINYINT、SMALLINT、INT、BIGINT、REAL、DOUBLE或VARCHAR时按类型编码，
+ * 否则这一列退回到逐个writeValue。
+ * 客户端读到之后只保存基本类型的数组，getInt、getLong这类方法不需要创建Value对象。
+ */
+public class ColumnarRowBatch {
+
+    public static final String COLUMNAR_RESULT = "COLUMNAR_RESULT";
+
+    private static final byte GENERIC = 0;
+    private static final byte TYPED = 1;
+
+    private final int rowCount;
+    private final boolean end;
+    private final Column[] columns;
+
+    private ColumnarRowBatch(int rowCount, boolean end, int columnCount) {
+        this.rowCount = rowCount;
+        this.end = end;
+        this.columns = new Column[columnCount];
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * 结果集是否已经没有更多记录了.
+     */
+    public boolean isEnd() {
+        return end;
+    }
+
+    public boolean isNull(int row, int col) {
+        Column c = columns[col];
+        if (c.values != null)
+            return c.values[row] == ValueNull.INSTANCE;
+        return c.nulls != null && c.nulls[row];
+    }
+
+    public int getInt(int row, int col) {
+        Column c = columns[col];
+        switch (c.type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+            return (int) c.longs[row];
+        default:
+            return getValue(row, col).getInt();
+        }
+    }
+
+    public long getLong(int row, int col) {
+        Column c = columns[col];
+        switch (c.type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return c.longs[row];
+        default:
+            return getValue(row, col).getLong();
+        }
+    }
+
+    public double getDouble(int row, int col) {
+        Column c = columns[col];
+        switch (c.type) {
+        case Value.FLOAT:
+        case Value.DOUBLE:
+            return c.doubles[row];
+        default:
+            return getValue(row, col).getDouble();
+        }
+    }
+
+    public boolean getBoolean(int row, int col) {
+        Column c = columns[col];
+        if (c.type == Value.BOOLEAN) {
+            return c.longs[row] != 0;
+        }
+        Boolean v = getValue(row, col).getBoolean();
+        return v == null ? false : v.booleanValue();
+    }
+
+    public String getString(int row, int col) {
+        Column c = columns[col];
+        if (c.type == Value.STRING) {
+            return c.strings[row];
+        }
+        return getValue(row, col).getString();
+    }
+
+    /**
+     * 只有真正需要Value对象时才创建.
+     */
+    public Value getValue(int row, int col) {
+        Column c = columns[col];
+        if (c.values != null) {
+            return c.values[row];
+        }
+        if (c.nulls != null && c.nulls[row]) {
+            return ValueNull.INSTANCE;
+        }
+        switch (c.type) {
+        case Value.BOOLEAN:
+            return ValueBoolean.get(c.longs[row] != 0);
+        case Value.BYTE:
+            return ValueByte.get((byte) c.longs[row]);
+        case Value.SHORT:
+            return ValueShort.get((short) c.longs[row]);
+        case Value.INT:
+            return ValueInt.get((int) c.longs[row]);
+        case Value.LONG:
+            return ValueLong.get(c.longs[row]);
+        case Value.FLOAT:
+            return ValueFloat.get((float) c.doubles[row]);
+        case Value.DOUBLE:
+            return ValueDouble.get(c.doubles[row]);
+        case Value.STRING:
+            return ValueString.get(c.strings[row]);
+        default:
+            return ValueNull.INSTANCE;
+        }
+    }
+
+    public Value[] getRow(int row) {
+        int len = columns.length;
+        Value[] values = new Value[len];
+        for (int i = 0; i < len; i++) {
+            values[i] = getValue(row, i);
+        }
+        return values;
+    }
+
+    private static class Column {
+        int type = -1;
+        boolean[] nulls;
+        long[] longs;
+        double[] doubles;
+        String[] strings;
+        Value[] values; // 不能按类型编码时使用
+    }
+
+    /**
+     * 读一批按列编码的记录.
+     *
+     * @param in the input stream
+     * @param columnCount the number of columns
+     * @return the batch
+     */
+    public static ColumnarRowBatch read(TransferInputStream in, int columnCount) throws IOException {
+        DataInputStream data = in.getDataInputStream();
+        int rowCount = in.readInt();
+        boolean end = in.readBoolean();
+        ColumnarRowBatch batch = new ColumnarRowBatch(rowCount, end, columnCount);
+        for (int col = 0; col < columnCount; col++) {
+            Column c = new Column();
+            batch.columns[col] = c;
+            if (data.readByte() == GENERIC) {
+                c.values = new Value[rowCount];
+                for (int r = 0; r < rowCount; r++) {
+                    c.values[r] = in.readValue();
+                }
+                continue;
+            }
+            c.type = data.readByte();
+            if (in.readBoolean()) {
+                byte[] bitmap = new byte[(rowCount + 7) / 8];
+                data.readFully(bitmap);
+                c.nulls = new boolean[rowCount];
+                for (int r = 0; r < rowCount; r++) {
+                    c.nulls[r] = (bitmap[r >> 3] & (1 << (r & 7))) != 0;
+                }
+            }
+            switch (c.type) {
+            case Value.FLOAT:
+            case Value.DOUBLE:
+                c.doubles = new double[rowCount];
+                break;
+            case Value.STRING:
+                c.strings = new String[rowCount];
+                break;
+            case Value.NULL:
+                break;
+            default:
+                c.longs = new long[rowCount];
+            }
+            for (int r = 0; r < rowCount; r++) {
+                if (c.nulls != null && c.nulls[r])
+                    continue;
+                switch (c.type) {
+                case Value.BOOLEAN:
+                    c.longs[r] = data.readBoolean() ? 1 : 0;
+                    break;
+                case Value.BYTE:
+                    c.longs[r] = data.readByte();
+                    break;
+                case Value.SHORT:
+                    c.longs[r] = data.readShort();
+                    break;
+                case Value.INT:
+                    c.longs[r] = data.readInt();
+                    break;
+                case Value.LONG:
+                    c.longs[r] = data.readLong();
+                    break;
+                case Value.FLOAT:
+                    c.doubles[r] = data.readFloat();
+                    break;
+                case Value.DOUBLE:
+                    c.doubles[r] = data.readDouble();
+                    break;
+                case Value.STRING:
+                    c.strings[r] = in.readString();
+                    break;
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 把一批记录按列写出去.
+     *
+     * @param out the output stream
+     * @param rows the rows
+     * @param columnCount the number of visible columns
+     * @param end 结果集是否已经没有更多记录了
+     */
+    public static void write(TransferOutputStream out, ArrayList<Value[]> rows, int columnCount, boolean end)
+            throws IOException {
+        DataOutputStream data = out.getDataOutputStream();
+        int rowCount = rows.size();
+        out.writeInt(rowCount).writeBoolean(end);
+        for (int col = 0; col < columnCount; col++) {
+            int type = getColumnType(rows, col);
+            if (type < 0) {
+                data.writeByte(GENERIC);
+                for (int r = 0; r < rowCount; r++) {
+                    out.writeValue(rows.get(r)[col]);
+                }
+                continue;
+            }
+            data.writeByte(TYPED);
+            data.writeByte(type);
+            byte[] bitmap = null;
+            for (int r = 0; r < rowCount; r++) {
+                if (rows.get(r)[col] == ValueNull.INSTANCE) {
+                    if (bitmap == null)
+                        bitmap = new byte[(rowCount + 7) / 8];
+                    bitmap[r >> 3] |= 1 << (r & 7);
+                }
+            }
+            out.writeBoolean(bitmap != null);
+            if (bitmap != null)
+                data.write(bitmap);
+            for (int r = 0; r < rowCount; r++) {
+                Value v = rows.get(r)[col];
+                if (v == ValueNull.INSTANCE)
+                    continue;
+                switch (type) {
+                case Value.BOOLEAN:
+                    data.writeBoolean(v.getBoolean().booleanValue());
+                    break;
+                case Value.BYTE:
+                    data.writeByte(v.getByte());
+                    break;
+                case Value.SHORT:
+                    data.writeShort(v.getShort());
+                    break;
+                case Value.INT:
+                    data.writeInt(v.getInt());
+                    break;
+                case Value.LONG:
+                    data.writeLong(v.getLong());
+                    break;
+                case Value.FLOAT:
+                    data.writeFloat(v.getFloat());
+                    break;
+                case Value.DOUBLE:
+                    data.writeDouble(v.getDouble());
+                    break;
+                case Value.STRING:
+                    out.writeString(v.getString());
+                    break;
+                }
+            }
+        }
+    }
+
+    // 返回-1表示这一列不能按类型编码，全是null时返回Value.NULL
+    private static int getColumnType(ArrayList<Value[]> rows, int col) {
+        int type = Value.NULL;
+        for (int r = 0, size = rows.size(); r < size; r++) {
+            int t = rows.get(r)[col].getType();
+            if (t == Value.NULL)
+                continue;
+            if (type == Value.NULL)
+                type = t;
+            else if (type != t)
+                return -1;
+        }
+        switch (type) {
+        case Value.NULL:
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.FLOAT:
+        case Value.DOUBLE:
+        case Value.STRING:
+            return type;
+        default:
+            return -1;
+        }
+    }
+}
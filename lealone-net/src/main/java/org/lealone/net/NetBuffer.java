@@ -29,6 +29,20 @@ public interface NetBuffer {
 
     short getUnsignedByte(int pos);
 
+    /**
+     * 从指定位置开始复制len个字节到dst中.
+     *
+     * @param pos the position in this buffer
+     * @param dst the target array
+     * @param off the offset in the target array
+     * @param len the number of bytes
+     */
+    default void getBytes(int pos, byte[] dst, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[off + i] = (byte) getUnsignedByte(pos + i);
+        }
+    }
+
     NetBuffer appendByte(byte b);
 
     NetBuffer appendBytes(byte[] bytes, int offset, int len);
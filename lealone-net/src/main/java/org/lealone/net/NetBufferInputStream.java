@@ -41,6 +41,20 @@ public class NetBufferInputStream extends InputStream {
         return buffer.getUnsignedByte(pos++);
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = Math.min(len, size - pos);
+        if (n <= 0) {
+            return -1;
+        }
+        buffer.getBytes(pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
     @Override
     public void close() throws IOException {
         buffer.recycle();
@@ -93,6 +93,9 @@ public class TcpClientConnection extends TransferConnection {
     public void writeInitPacket(final Session session) throws Exception {
         checkClosed();
         ConnectionInfo ci = session.getConnectionInfo();
+        // 通过连接属性发给server，server在响应包的最后返回协商好的压缩算法
+        String compression = ci.getProperty(NETWORK_COMPRESSION);
+        int compressionThreshold = ci.getProperty(NETWORK_COMPRESSION_THRESHOLD, DEFAULT_COMPRESSION_THRESHOLD);
         int packetId = getNextId();
         TransferOutputStream out = createTransferOutputStream(session);
         out.setSSL(ci.isSSL());
@@ -120,6 +123,9 @@ public class TcpClientConnection extends TransferConnection {
                 session.setTargetEndpoints(in.readString());
                 session.setRunMode(RunMode.valueOf(in.readString()));
                 session.setInvalid(in.readBoolean());
+                if (compression != null) {
+                    setCompression(in.readString(), compressionThreshold);
+                }
             }
         });
     }
@@ -21,11 +21,14 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.lealone.common.compress.CompressTool;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.exceptions.JdbcSQLException;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
+import org.lealone.common.util.StringUtils;
 import org.lealone.db.Session;
 import org.lealone.db.api.ErrorCode;
 
@@ -33,12 +36,131 @@ public abstract class TransferConnection extends AsyncConnection {
 
     private static final Logger logger = LoggerFactory.getLogger(TransferConnection.class);
 
+    public static final String NETWORK_COMPRESSION = "NETWORK_COMPRESSION";
+    public static final String NETWORK_COMPRESSION_THRESHOLD = "NETWORK_COMPRESSION_THRESHOLD";
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
     private NetBuffer lastBuffer;
 
+    // 在初始化协议包中协商好之后才会设置，为null时发送的协议包不压缩，
+    // 收到的协议包是否压缩只看协议包自己的标记，所以两端可以独立决定是否压缩
+    private volatile String compressionAlgorithm;
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    private final AtomicLong compressedPackets = new AtomicLong();
+    private final AtomicLong bytesBeforeCompression = new AtomicLong();
+    private final AtomicLong bytesAfterCompression = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong expandedPackets = new AtomicLong();
+    private final AtomicLong expandNanos = new AtomicLong();
+
     public TransferConnection(WritableChannel writableChannel, boolean isServer) {
         super(writableChannel, isServer);
     }
 
+    /**
+     * 检查并规范化压缩算法的名称，目前只支持LZF和DEFLATE，其他的返回NO.
+     */
+    public static String getCompressionAlgorithm(String algorithm) {
+        if (algorithm != null) {
+            algorithm = StringUtils.toUpperEnglish(algorithm.trim());
+            if ("LZF".equals(algorithm) || "DEFLATE".equals(algorithm))
+                return algorithm;
+        }
+        return "NO";
+    }
+
+    /**
+     * 设置当前连接发送协议包时用的压缩算法，超过threshold个字节的协议包才会压缩.
+     *
+     * @param algorithm LZF、DEFLATE或NO
+     * @param threshold 压缩阈值
+     */
+    public void setCompression(String algorithm, int threshold) {
+        algorithm = getCompressionAlgorithm(algorithm);
+        compressionThreshold = threshold;
+        compressionAlgorithm = "NO".equals(algorithm) ? null : algorithm;
+    }
+
+    public String getCompressionAlgorithm() {
+        return compressionAlgorithm;
+    }
+
+    public long getCompressedPackets() {
+        return compressedPackets.get();
+    }
+
+    public long getBytesBeforeCompression() {
+        return bytesBeforeCompression.get();
+    }
+
+    public long getBytesAfterCompression() {
+        return bytesAfterCompression.get();
+    }
+
+    /**
+     * 压缩后的字节数与压缩前的字节数之比，没有压缩过时返回1.
+     */
+    public double getCompressionRatio() {
+        long before = bytesBeforeCompression.get();
+        return before == 0 ? 1 : (double) bytesAfterCompression.get() / before;
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    public long getExpandedPackets() {
+        return expandedPackets.get();
+    }
+
+    public long getExpandNanos() {
+        return expandNanos.get();
+    }
+
+    /**
+     * 压缩一个还没有回填协议包长度的协议包，前4个字节是留给长度的.
+     *
+     * @param buffer 原来的协议包
+     * @param factory 用来创建新的缓冲区
+     * @return 压缩后的协议包，不需要压缩或压缩后不会更小时返回null
+     */
+    NetBuffer compressPacket(NetBuffer buffer, NetBufferFactory factory) {
+        String algorithm = compressionAlgorithm;
+        int len = buffer.length() - 4;
+        if (algorithm == null || len < compressionThreshold) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] bytes = new byte[len];
+        buffer.getBytes(4, bytes, 0, len);
+        byte[] compressed = CompressTool.getInstance().compress(bytes, algorithm);
+        compressNanos.addAndGet(System.nanoTime() - start);
+        if (compressed.length + 1 >= len) {
+            return null;
+        }
+        compressedPackets.incrementAndGet();
+        bytesBeforeCompression.addAndGet(len);
+        bytesAfterCompression.addAndGet(compressed.length + 1);
+        NetBuffer newBuffer = factory.createBuffer(compressed.length + 5);
+        newBuffer.appendInt(0).appendByte(TransferOutputStream.COMPRESSED).appendBytes(compressed, 0,
+                compressed.length);
+        return newBuffer;
+    }
+
+    // 解压后的数据不带协议包长度
+    private NetBuffer expandPacket(NetBuffer buffer, int pos, int len) {
+        long start = System.nanoTime();
+        byte[] bytes = new byte[len];
+        buffer.getBytes(pos, bytes, 0, len);
+        byte[] expanded = CompressTool.getInstance().expand(bytes);
+        NetBuffer newBuffer = writableChannel.getBufferFactory().createBuffer(expanded.length);
+        newBuffer.appendBytes(expanded, 0, expanded.length).flip();
+        expandedPackets.incrementAndGet();
+        expandNanos.addAndGet(System.nanoTime() - start);
+        return newBuffer;
+    }
+
     public TransferOutputStream createTransferOutputStream(Session session) {
         return new TransferOutputStream(this, session, writableChannel);
     }
@@ -124,32 +246,44 @@ public abstract class TransferConnection extends AsyncConnection {
             return;
         }
 
+        // 每个TransferInputStream持有一个自己的引用，处理完之后由它释放，
+        // 只有当buffer整个交给了一个TransferInputStream或留到下次时，这里才不用释放
+        boolean release = true;
         int pos = 0;
         try {
             while (true) {
+                int packetLength = getPacketLength(buffer, pos);
+                if (length - 4 < packetLength) {
+                    if (pos == 0) {
+                        lastBuffer = buffer;
+                        release = false;
+                    } else {
+                        lastBuffer = buffer.getBuffer(pos, pos + length);
+                    }
+                    break;
+                }
                 // 必须生成新的Transfer实例，不同协议包对应不同Transfer实例，
                 // 否则如果有多个CommandHandler线程时会用同一个Transfer实例写数据，这会产生并发问题。
                 TransferInputStream in;
-                if (pos == 0)
-                    in = new TransferInputStream(buffer);
-                else
-                    in = new TransferInputStream(buffer.slice(pos, pos + length));
-                int packetLength = in.readInt();
-                if (length - 4 == packetLength) {
-                    handlePacket(in);
-                    break;
-                } else if (length - 4 > packetLength) {
-                    handlePacket(in);
-                    pos = pos + packetLength + 4;
-                    length = length - (packetLength + 4);
-                    // 有可能剩下的不够4个字节了
-                    if (length < 4) {
-                        lastBuffer = buffer.getBuffer(pos, pos + length);
-                        break;
+                if (buffer.getUnsignedByte(pos + 4) == TransferOutputStream.COMPRESSED) {
+                    in = new TransferInputStream(expandPacket(buffer, pos + 5, packetLength - 1));
+                } else {
+                    if (pos == 0 && length - 4 == packetLength) {
+                        in = new TransferInputStream(buffer);
+                        release = false;
                     } else {
-                        continue;
+                        in = new TransferInputStream(buffer.slice(pos, pos + packetLength + 4));
                     }
-                } else {
+                    in.readInt();
+                }
+                handlePacket(in);
+                pos = pos + packetLength + 4;
+                length = length - (packetLength + 4);
+                if (length == 0) {
+                    break;
+                }
+                // 有可能剩下的不够4个字节了
+                if (length < 4) {
                     lastBuffer = buffer.getBuffer(pos, pos + length);
                     break;
                 }
@@ -159,9 +293,17 @@ public abstract class TransferConnection extends AsyncConnection {
                 logger.error("Failed to handle packet", e);
             else
                 throw DbException.convert(e);
+        } finally {
+            if (release)
+                buffer.recycle();
         }
     }
 
+    private static int getPacketLength(NetBuffer buffer, int pos) {
+        return (buffer.getUnsignedByte(pos) << 24) | (buffer.getUnsignedByte(pos + 1) << 16)
+                | (buffer.getUnsignedByte(pos + 2) << 8) | buffer.getUnsignedByte(pos + 3);
+    }
+
     private void handlePacket(TransferInputStream in) throws IOException {
         boolean isRequest = in.readByte() == TransferOutputStream.REQUEST;
         int packetId = in.readInt();
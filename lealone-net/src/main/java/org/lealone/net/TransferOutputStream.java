@@ -48,6 +48,8 @@ public class TransferOutputStream implements NetOutputStream {
 
     public static final byte REQUEST = 1;
     public static final byte RESPONSE = 2;
+    // 压缩过的协议包，后面跟着CompressTool.compress的结果，解压后才是REQUEST或RESPONSE协议包
+    public static final byte COMPRESSED = 3;
 
     private final TransferConnection conn;
     private final Session session;
@@ -57,7 +59,7 @@ public class TransferOutputStream implements NetOutputStream {
     public TransferOutputStream(TransferConnection conn, Session session, WritableChannel writableChannel) {
         this.conn = conn;
         this.session = session;
-        resettableOutputStream = new ResettableBufferOutputStream(writableChannel, BUFFER_SIZE);
+        resettableOutputStream = new ResettableBufferOutputStream(conn, writableChannel, BUFFER_SIZE);
         out = new DataOutputStream(resettableOutputStream);
     }
 
@@ -471,12 +473,22 @@ public class TransferOutputStream implements NetOutputStream {
 
     private static class ResettableBufferOutputStream extends NetBufferOutputStream {
 
-        ResettableBufferOutputStream(WritableChannel writableChannel, int initialSizeHint) {
+        private final TransferConnection conn;
+
+        ResettableBufferOutputStream(TransferConnection conn, WritableChannel writableChannel, int initialSizeHint) {
             super(writableChannel, initialSizeHint);
+            this.conn = conn;
         }
 
         @Override
         public void flush() throws IOException {
+            if (conn != null) {
+                NetBuffer compressed = conn.compressPacket(buffer, writableChannel.getBufferFactory());
+                if (compressed != null) {
+                    buffer.recycle();
+                    buffer = compressed;
+                }
+            }
             writePacketLength();
             buffer.flip();
             writableChannel.write(buffer);
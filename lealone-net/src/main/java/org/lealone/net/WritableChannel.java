@@ -35,4 +35,22 @@ public interface WritableChannel {
 
     NetBufferFactory getBufferFactory();
 
+    /**
+     * 负责读写这个通道的网络事件循环的编号，只有一个事件循环时返回-1.
+     *
+     * @return the index of the event loop
+     */
+    default int getEventLoopIndex() {
+        return -1;
+    }
+
+    /**
+     * 服务器的网络事件循环个数.
+     *
+     * @return the count of event loops
+     */
+    default int getEventLoopCount() {
+        return 1;
+    }
+
 }
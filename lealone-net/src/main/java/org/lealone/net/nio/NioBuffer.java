@@ -26,8 +26,21 @@ public class NioBuffer implements NetBuffer {
 
     private DataBuffer dataBuffer;
 
+    // 从NioBufferAllocator分配的缓冲区才有，slice出来的NioBuffer和原来的共用同一个chunk
+    private final NioBufferAllocator.Chunk chunk;
+    private boolean recycled;
+
     public NioBuffer(DataBuffer dataBuffer) {
+        this(dataBuffer, null);
+    }
+
+    NioBuffer(DataBuffer dataBuffer, NioBufferAllocator.Chunk chunk) {
         this.dataBuffer = dataBuffer;
+        this.chunk = chunk;
+    }
+
+    public boolean isPooled() {
+        return chunk != null;
     }
 
     public ByteBuffer getAndFlipBuffer() {
@@ -39,7 +52,12 @@ public class NioBuffer implements NetBuffer {
     }
 
     @Override
-    public NioBuffer appendBuffer(NetBuffer buff) {
+    public NetBuffer appendBuffer(NetBuffer buff) {
+        // 协议包被分在两次读到的数据中时，不再复制两边的数据，而是组合成一个NioCompositeBuffer
+        if (isPooled() && (buff instanceof NioCompositeBuffer
+                || buff instanceof NioBuffer && ((NioBuffer) buff).isPooled())) {
+            return new NioCompositeBuffer(this).appendBuffer(buff);
+        }
         if (buff instanceof NioBuffer) {
             DataBuffer newDataBuffer = ((NioBuffer) buff).dataBuffer;
             if (dataBuffer.limit() == 0) {
@@ -70,11 +88,16 @@ public class NioBuffer implements NetBuffer {
     @Override
     public NioBuffer slice(int start, int end) {
         DataBuffer newDataBuffer = dataBuffer.slice(start, end);
-        return new NioBuffer(newDataBuffer);
+        if (chunk != null)
+            chunk.retain();
+        return new NioBuffer(newDataBuffer, chunk);
     }
 
     @Override
     public NioBuffer getBuffer(int start, int end) {
+        // 有引用计数时不用复制
+        if (chunk != null)
+            return slice(start, end);
         DataBuffer newDataBuffer = dataBuffer.getBuffer(start, end);
         return new NioBuffer(newDataBuffer);
     }
@@ -84,6 +107,13 @@ public class NioBuffer implements NetBuffer {
         return dataBuffer.getUnsignedByte(pos);
     }
 
+    @Override
+    public void getBytes(int pos, byte[] dst, int off, int len) {
+        ByteBuffer buff = dataBuffer.getBuffer().duplicate();
+        buff.position(pos);
+        buff.get(dst, off, len);
+    }
+
     @Override
     public NioBuffer appendByte(byte b) {
         dataBuffer.put(b);
@@ -110,7 +140,15 @@ public class NioBuffer implements NetBuffer {
 
     @Override
     public void recycle() {
-        dataBuffer.close();
+        if (chunk != null) {
+            // 同一个NioBuffer只释放一次引用
+            if (!recycled) {
+                recycled = true;
+                chunk.release();
+            }
+        } else {
+            dataBuffer.close();
+        }
     }
 
     @Override
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.net.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.DataBuffer;
+
+/**
+ * 每个NioEventLoopAdapter一个，用来分配从socket读数据的缓冲区.
+ *
+ * <p>
+ * 缓冲区的大小是固定的，带有引用计数，slice出来的NioBuffer和原来的共用同一块内存，
+ * 所有引用都调用recycle之后才放回池中，所以多个协议包可以安全地共用一次读到的数据，不需要复制。
+ * 分配只在事件循环线程中进行，回收可能在其他线程中进行。
+ */
+public class NioBufferAllocator {
+
+    public static final int BUFFER_SIZE = 8 * 1024;
+
+    private final int maxPoolSize;
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger poolSize = new AtomicInteger();
+
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong poolHits = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+
+    public NioBufferAllocator(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * 分配一个引用计数为1的缓冲区.
+     *
+     * @return the buffer
+     */
+    public NioBuffer allocate() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            allocations.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        } else {
+            poolHits.incrementAndGet();
+            poolSize.decrementAndGet();
+            buffer.clear();
+        }
+        return new NioBuffer(DataBuffer.create(buffer), new Chunk(this, buffer));
+    }
+
+    private void release(ByteBuffer buffer) {
+        releases.incrementAndGet();
+        if (poolSize.incrementAndGet() <= maxPoolSize) {
+            pool.offer(buffer);
+        } else {
+            poolSize.decrementAndGet();
+        }
+    }
+
+    /**
+     * 新创建的缓冲区个数.
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    /**
+     * 直接从池中取到缓冲区的次数.
+     */
+    public long getPoolHits() {
+        return poolHits.get();
+    }
+
+    /**
+     * 引用计数变成0的次数.
+     */
+    public long getReleases() {
+        return releases.get();
+    }
+
+    public int getPoolSize() {
+        return poolSize.get();
+    }
+
+    @Override
+    public String toString() {
+        return "NioBufferAllocator[allocations=" + getAllocations() + ", poolHits=" + getPoolHits() + ", releases="
+                + getReleases() + ", poolSize=" + getPoolSize() + "]";
+    }
+
+    /**
+     * 从池中分配的一块内存，所有共用它的NioBuffer都持有一个引用.
+     */
+    static class Chunk {
+
+        private final NioBufferAllocator allocator;
+        private final ByteBuffer buffer;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        Chunk(NioBufferAllocator allocator, ByteBuffer buffer) {
+            this.allocator = allocator;
+            this.buffer = buffer;
+        }
+
+        void retain() {
+            for (;;) {
+                int count = refCount.get();
+                if (count <= 0) {
+                    throw DbException.throwInternalError("refCount=" + count);
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return;
+                }
+            }
+        }
+
+        void release() {
+            int count = refCount.decrementAndGet();
+            if (count == 0) {
+                allocator.release(buffer);
+            } else if (count < 0) {
+                throw DbException.throwInternalError("refCount=" + count);
+            }
+        }
+    }
+}
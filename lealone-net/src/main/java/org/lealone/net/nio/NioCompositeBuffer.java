@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.net.nio;
+
+import java.util.ArrayList;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.net.NetBuffer;
+
+/**
+ * 由多次读到的NioBuffer组成的只读缓冲区，一个协议包跨越多个缓冲区时不需要把数据复制到一起.
+ *
+ * <p>
+ * 每个段都持有自己的引用，recycle时逐个释放。
+ */
+public class NioCompositeBuffer implements NetBuffer {
+
+    private final ArrayList<NioBuffer> segments = new ArrayList<>();
+    // offsets[i]是第i个段在整个缓冲区中的开始位置
+    private int[] offsets = new int[4];
+    private int length;
+
+    // 按顺序读时不用每次都查找段
+    private int lastSegment;
+
+    NioCompositeBuffer(NioBuffer first) {
+        addSegment(first);
+    }
+
+    private void addSegment(NioBuffer buff) {
+        int len = buff.length();
+        if (len == 0) {
+            buff.recycle();
+            return;
+        }
+        int size = segments.size();
+        if (size == offsets.length) {
+            int[] newOffsets = new int[size * 2];
+            System.arraycopy(offsets, 0, newOffsets, 0, size);
+            offsets = newOffsets;
+        }
+        offsets[size] = length;
+        segments.add(buff);
+        length += len;
+    }
+
+    private int findSegment(int pos) {
+        int i = lastSegment;
+        if (pos >= offsets[i] && (i + 1 == segments.size() || pos < offsets[i + 1])) {
+            return i;
+        }
+        int low = 0, high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= pos)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        lastSegment = low;
+        return low;
+    }
+
+    @Override
+    public NioCompositeBuffer appendBuffer(NetBuffer buff) {
+        if (buff instanceof NioCompositeBuffer) {
+            NioCompositeBuffer c = (NioCompositeBuffer) buff;
+            for (NioBuffer b : c.segments) {
+                addSegment(b);
+            }
+            c.segments.clear();
+        } else {
+            addSegment((NioBuffer) buff);
+        }
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public NetBuffer slice(int start, int end) {
+        int first = findSegment(start);
+        int last = end > start ? findSegment(end - 1) : first;
+        if (first == last) {
+            int offset = offsets[first];
+            return segments.get(first).slice(start - offset, end - offset);
+        }
+        NioCompositeBuffer c = null;
+        for (int i = first; i <= last; i++) {
+            NioBuffer b = segments.get(i);
+            int offset = offsets[i];
+            int s = Math.max(start, offset) - offset;
+            int e = Math.min(end, offset + b.length()) - offset;
+            if (c == null)
+                c = new NioCompositeBuffer(b.slice(s, e));
+            else
+                c.addSegment(b.slice(s, e));
+        }
+        lastSegment = first;
+        return c;
+    }
+
+    @Override
+    public NetBuffer getBuffer(int start, int end) {
+        return slice(start, end);
+    }
+
+    @Override
+    public short getUnsignedByte(int pos) {
+        int i = findSegment(pos);
+        return segments.get(i).getUnsignedByte(pos - offsets[i]);
+    }
+
+    @Override
+    public void getBytes(int pos, byte[] dst, int off, int len) {
+        while (len > 0) {
+            int i = findSegment(pos);
+            NioBuffer b = segments.get(i);
+            int p = pos - offsets[i];
+            int n = Math.min(len, b.length() - p);
+            b.getBytes(p, dst, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public NetBuffer appendByte(byte b) {
+        throw DbException.getUnsupportedException("appendByte");
+    }
+
+    @Override
+    public NetBuffer appendBytes(byte[] bytes, int offset, int len) {
+        throw DbException.getUnsupportedException("appendBytes");
+    }
+
+    @Override
+    public NetBuffer appendInt(int i) {
+        throw DbException.getUnsupportedException("appendInt");
+    }
+
+    @Override
+    public NetBuffer setByte(int pos, byte b) {
+        throw DbException.getUnsupportedException("setByte");
+    }
+
+    @Override
+    public NetBuffer flip() {
+        throw DbException.getUnsupportedException("flip");
+    }
+
+    @Override
+    public void recycle() {
+        for (NioBuffer b : segments) {
+            b.recycle();
+        }
+        segments.clear();
+    }
+}
@@ -26,15 +26,14 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.DateTimeUtils;
-import org.lealone.db.DataBuffer;
 import org.lealone.net.AsyncConnection;
 import org.lealone.net.nio.NioNetServer.Attachment;
 
@@ -47,13 +46,37 @@ public class NioEventLoopAdapter implements NioEventLoop {
     private final AtomicBoolean selecting = new AtomicBoolean(false);
     private Selector selector;
     private final long loopInterval;
+    private final NioBufferAllocator bufferAllocator;
+
+    // 一次gathering write最多写多少个缓冲区
+    private final ByteBuffer[] writeBuffers;
+
+    // 大于0时启用写合并，第一个待写的缓冲区进入队列之后最多再等这么多毫秒才真正去写，
+    // 在这期间其他请求的响应也能在同一次gathering write中写出去
+    private final long writeFlushDelay;
+    private final int writeFlushBytes;
+    private final AtomicLong firstPendingWriteTime = new AtomicLong();
+    private final AtomicLong pendingWriteBytes = new AtomicLong();
 
     public NioEventLoopAdapter(Map<String, String> config, String loopIntervalKey, long loopIntervalDefaultValue)
             throws IOException {
         loopInterval = DateTimeUtils.getLoopInterval(config, loopIntervalKey, loopIntervalDefaultValue);
+        bufferAllocator = new NioBufferAllocator(getIntValue(config, "nio_buffer_pool_size", 256));
+        writeBuffers = new ByteBuffer[Math.max(1, getIntValue(config, "nio_write_gathering_size", 64))];
+        writeFlushDelay = getIntValue(config, "nio_write_flush_delay", 0);
+        writeFlushBytes = getIntValue(config, "nio_write_flush_bytes", 64 * 1024);
         selector = Selector.open();
     }
 
+    private static int getIntValue(Map<String, String> config, String key, int defaultValue) {
+        String value = config == null ? null : config.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public NioBufferAllocator getBufferAllocator() {
+        return bufferAllocator;
+    }
+
     @Override
     public NioEventLoop getDefaultNioEventLoopImpl() {
         return this;
@@ -71,7 +94,22 @@ public class NioEventLoopAdapter implements NioEventLoop {
 
     @Override
     public void select(long timeout) throws IOException {
-        tryRegisterWriteOperation(selector);
+        if (writeFlushDelay > 0) {
+            long firstTime = firstPendingWriteTime.get();
+            if (firstTime != 0) {
+                long elapsed = (System.nanoTime() - firstTime) / 1000000;
+                if (elapsed >= writeFlushDelay || pendingWriteBytes.get() >= writeFlushBytes) {
+                    // 先重置再注册OP_WRITE，这之后加入的缓冲区会重新唤醒事件循环
+                    firstPendingWriteTime.set(0);
+                    pendingWriteBytes.set(0);
+                    tryRegisterWriteOperation(selector);
+                } else {
+                    timeout = Math.min(timeout, writeFlushDelay - elapsed);
+                }
+            }
+        } else {
+            tryRegisterWriteOperation(selector);
+        }
         if (selecting.compareAndSet(false, true)) {
             selector.select(timeout);
             selecting.set(false);
@@ -86,7 +124,7 @@ public class NioEventLoopAdapter implements NioEventLoop {
         // 只要发现nio-event-loop线程正在进行select，那么就唤醒它，并释放publicKeys锁。
         while (true) {
             if (selecting.compareAndSet(false, true)) {
-                channel.register(selector, SelectionKey.OP_CONNECT, att);
+                channel.register(selector, ops, att);
                 selecting.set(false);
                 selector.wakeup();
                 break;
@@ -113,7 +151,16 @@ public class NioEventLoopAdapter implements NioEventLoop {
         ConcurrentLinkedQueue<NioBuffer> queue = channels.get(channel);
         if (queue != null) {
             queue.add(nioBuffer);
-            wakeup();
+            if (writeFlushDelay > 0) {
+                // 只有第一个待写的缓冲区需要唤醒事件循环，让它按剩余的延迟时间去select，
+                // 待写的数据已经够多时也马上唤醒
+                long bytes = pendingWriteBytes.addAndGet(nioBuffer.length());
+                if (firstPendingWriteTime.compareAndSet(0, System.nanoTime()) || bytes >= writeFlushBytes) {
+                    wakeup();
+                }
+            } else {
+                wakeup();
+            }
         }
     }
 
@@ -131,10 +178,43 @@ public class NioEventLoopAdapter implements NioEventLoop {
         }
     }
 
-    private long totalReadBytes;
-    private long totalWrittenBytes;
+    // 只由事件循环线程更新，其他线程读到的值不要求精确
+    private volatile long totalReadBytes;
+    private volatile long totalWrittenBytes;
+    private volatile long writeCount; // 调用channel.write的次数
     private final boolean isDebugEnabled = logger.isDebugEnabled();
 
+    public int getSocketChannelCount() {
+        return channels.size();
+    }
+
+    public long getTotalReadBytes() {
+        return totalReadBytes;
+    }
+
+    public long getTotalWrittenBytes() {
+        return totalWrittenBytes;
+    }
+
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * 平均每次调用channel.write写出的字节数.
+     */
+    public long getBytesPerWrite() {
+        long count = writeCount;
+        return count == 0 ? 0 : totalWrittenBytes / count;
+    }
+
+    @Override
+    public String toString() {
+        return "NioEventLoopAdapter[channels=" + getSocketChannelCount() + ", readBytes=" + totalReadBytes
+                + ", writtenBytes=" + totalWrittenBytes + ", writeCount=" + writeCount + ", bytesPerWrite="
+                + getBytesPerWrite() + ", " + bufferAllocator + "]";
+    }
+
     @Override
     public void read(SelectionKey key, NioEventLoop nioEventLoop) {
         Attachment attachment = (Attachment) key.attachment();
@@ -142,13 +222,14 @@ public class NioEventLoopAdapter implements NioEventLoop {
         SocketChannel channel = (SocketChannel) key.channel();
         try {
             while (true) {
-                DataBuffer dataBuffer = DataBuffer.create();
-                ByteBuffer buffer = dataBuffer.getBuffer();
-                int capacity = dataBuffer.capacity();
+                NioBuffer nioBuffer = bufferAllocator.allocate();
+                ByteBuffer buffer = nioBuffer.getByteBuffer();
+                int capacity = buffer.capacity();
                 int readBytes = channel.read(buffer);
                 if (readBytes > 0) {
                     attachment.endOfStreamCount = 0;
                 } else {
+                    nioBuffer.recycle();
                     // 客户端非正常关闭时，可能会触发JDK的bug，导致run方法死循环，selector.select不会阻塞
                     // netty框架在下面这个方法的代码中有自己的不同解决方案
                     // io.netty.channel.nio.NioEventLoop.processSelectedKey
@@ -161,11 +242,10 @@ public class NioEventLoopAdapter implements NioEventLoop {
                     break;
                 }
                 buffer.flip();
+                totalReadBytes += readBytes;
                 if (isDebugEnabled) {
-                    totalReadBytes += readBytes;
                     logger.debug(("total read bytes: " + totalReadBytes));
                 }
-                NioBuffer nioBuffer = new NioBuffer(dataBuffer);
                 conn.handle(nioBuffer);
                 // 说明没读满，可以直接退出循环了
                 if (readBytes < capacity)
@@ -180,27 +260,51 @@ public class NioEventLoopAdapter implements NioEventLoop {
     public void write(SelectionKey key) {
         SocketChannel channel = (SocketChannel) key.channel();
         try {
-            Queue<NioBuffer> queue = channels.get(channel);
-            for (NioBuffer nioBuffer : queue) {
-                ByteBuffer buffer = nioBuffer.getByteBuffer();
-                int remaining = buffer.remaining();
-                // 一定要用while循环来写，否则会丢数据！
-                while (remaining > 0) {
-                    int writtenBytes = channel.write(buffer);
-                    if (writtenBytes <= 0) {
-                        if (key.isValid()) {
-                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                        }
-                        return;
-                    }
-                    remaining -= writtenBytes;
+            ConcurrentLinkedQueue<NioBuffer> queue = channels.get(channel);
+            if (queue == null) {
+                return;
+            }
+            ByteBuffer[] buffers = writeBuffers;
+            // 只有事件循环线程会从队列中删除缓冲区，所以队列头部的缓冲区就是当前收集到的缓冲区
+            while (true) {
+                int count = 0;
+                for (NioBuffer nioBuffer : queue) {
+                    buffers[count++] = nioBuffer.getByteBuffer();
+                    if (count == buffers.length)
+                        break;
+                }
+                if (count == 0)
+                    break;
+                long writtenBytes;
+                try {
+                    writtenBytes = channel.write(buffers, 0, count);
+                } finally {
+                    writeCount++;
+                }
+                if (writtenBytes > 0) {
+                    totalWrittenBytes += writtenBytes;
                     if (isDebugEnabled) {
-                        totalWrittenBytes += writtenBytes;
                         logger.debug(("total written bytes: " + totalWrittenBytes));
                     }
                 }
-                queue.remove(nioBuffer);
-                nioBuffer.recycle();
+                boolean full = false;
+                for (int i = 0; i < count; i++) {
+                    if (buffers[i].hasRemaining()) {
+                        full = true;
+                        break;
+                    }
+                    queue.poll().recycle();
+                }
+                for (int i = 0; i < count; i++) {
+                    buffers[i] = null;
+                }
+                // socket的发送缓冲区满了，等下次可写时再继续写
+                if (full) {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                    return;
+                }
             }
 
             // 还是要检测key是否是有效的，否则会抛CancelledKeyException
@@ -240,6 +344,9 @@ public class NioEventLoopAdapter implements NioEventLoop {
     }
 
     public void close() {
+        if (isDebugEnabled) {
+            logger.debug(toString());
+        }
         try {
             Selector selector = this.selector;
             this.selector = null;
@@ -36,6 +36,9 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
     private ServerSocketChannel serverChannel;
     private NioEventLoopAdapter nioEventLoopAdapter;
 
+    // 第一个事件循环还负责accept，其他的只负责读写分给它们的连接
+    private ServerEventLoop[] eventLoops;
+
     @Override
     public synchronized void start() {
         if (isStarted())
@@ -43,12 +46,27 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
         logger.info("Starting nio net server");
         try {
             nioEventLoopAdapter = new NioEventLoopAdapter(config, "server_nio_event_loop_interval", 1000); // 默认1秒
+            int loopCount = 1;
+            if (config.containsKey("server_nio_event_loop_count"))
+                loopCount = Math.max(1, Integer.parseInt(config.get("server_nio_event_loop_count")));
+            eventLoops = new ServerEventLoop[loopCount];
+            eventLoops[0] = new ServerEventLoop(0, nioEventLoopAdapter);
+            for (int i = 1; i < loopCount; i++) {
+                eventLoops[i] = new ServerEventLoop(i,
+                        new NioEventLoopAdapter(config, "server_nio_event_loop_interval", 1000));
+            }
             serverChannel = ServerSocketChannel.open();
             serverChannel.socket().bind(new InetSocketAddress(getHost(), getPort()));
             serverChannel.configureBlocking(false);
             serverChannel.register(nioEventLoopAdapter.getSelector(), SelectionKey.OP_ACCEPT);
             super.start();
             String name = "ServerNioEventLoopService-" + getPort();
+            for (int i = 1; i < loopCount; i++) {
+                ServerEventLoop loop = eventLoops[i];
+                ConcurrentUtils.submitTask(name + "-" + i, () -> {
+                    loop.run();
+                });
+            }
             if (runInMainThread()) {
                 Thread t = Thread.currentThread();
                 if (t.getName().equals("main"))
@@ -71,38 +89,7 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
     }
 
     private void run() {
-        for (;;) {
-            try {
-                nioEventLoopAdapter.select();
-                if (isStopped())
-                    break;
-                Set<SelectionKey> keys = nioEventLoopAdapter.getSelector().selectedKeys();
-                try {
-                    for (SelectionKey key : keys) {
-                        if (key.isValid()) {
-                            int readyOps = key.readyOps();
-                            if ((readyOps & SelectionKey.OP_READ) != 0) {
-                                read(key, this);
-                            } else if ((readyOps & SelectionKey.OP_WRITE) != 0) {
-                                write(key);
-                            } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
-                                accept();
-                            } else {
-                                key.cancel();
-                            }
-                        } else {
-                            key.cancel();
-                        }
-                    }
-                } finally {
-                    keys.clear();
-                }
-                if (isStopped())
-                    break;
-            } catch (Throwable e) {
-                logger.warn(Thread.currentThread().getName() + " run exception", e);
-            }
-        }
+        eventLoops[0].run();
     }
 
     static class Attachment {
@@ -113,32 +100,60 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
     private void accept() {
         SocketChannel channel = null;
         AsyncConnection conn = null;
+        ServerEventLoop loop = null;
         try {
             channel = serverChannel.accept();
             channel.configureBlocking(false);
-            nioEventLoopAdapter.addSocketChannel(channel);
-            NioWritableChannel writableChannel = new NioWritableChannel(channel, this);
+            loop = getLeastLoadedEventLoop();
+            loop.addSocketChannel(channel);
+            // 只有一个事件循环时不需要让连接上的session固定用某个调度器
+            int index = eventLoops.length > 1 ? loop.index : -1;
+            NioWritableChannel writableChannel = new NioWritableChannel(channel, loop, index,
+                    eventLoops.length);
             conn = createConnection(writableChannel, true);
 
             Attachment attachment = new Attachment();
             attachment.conn = conn;
-            channel.register(nioEventLoopAdapter.getSelector(), SelectionKey.OP_READ, attachment);
+            if (loop.index == 0)
+                channel.register(nioEventLoopAdapter.getSelector(), SelectionKey.OP_READ, attachment);
+            else
+                loop.register(channel, SelectionKey.OP_READ, attachment); // 其他事件循环可能正阻塞在select上
         } catch (Throwable e) {
             if (conn != null) {
                 removeConnection(conn);
             }
-            closeChannel(channel);
+            if (loop != null)
+                loop.closeChannel(channel);
+            else
+                closeChannel(channel);
             logger.warn(getName() + " failed to accept", e);
         }
     }
 
+    // 选择连接数最少的事件循环，个数相同时选编号小的
+    private ServerEventLoop getLeastLoadedEventLoop() {
+        ServerEventLoop loop = eventLoops[0];
+        int min = loop.getSocketChannelCount();
+        for (int i = 1; i < eventLoops.length; i++) {
+            int count = eventLoops[i].getSocketChannelCount();
+            if (count < min) {
+                min = count;
+                loop = eventLoops[i];
+            }
+        }
+        return loop;
+    }
+
     @Override
     public synchronized void stop() {
         if (isStopped())
             return;
         logger.info("Stopping nio net server");
         super.stop();
-        nioEventLoopAdapter.close();
+        for (ServerEventLoop loop : eventLoops) {
+            logger.info("Event loop " + loop.index + ": " + loop.adapter);
+            loop.adapter.close();
+        }
         if (serverChannel != null) {
             try {
                 serverChannel.close();
@@ -165,4 +180,72 @@ public class NioNetServer extends NetServerBase implements NioEventLoop {
         }
         closeChannel(channel);
     }
+
+    /**
+     * 每个事件循环一个Selector，只有第一个事件循环处理accept.
+     */
+    private class ServerEventLoop implements NioEventLoop {
+
+        private final int index;
+        private final NioEventLoopAdapter adapter;
+
+        ServerEventLoop(int index, NioEventLoopAdapter adapter) {
+            this.index = index;
+            this.adapter = adapter;
+        }
+
+        @Override
+        public NioEventLoop getDefaultNioEventLoopImpl() {
+            return adapter;
+        }
+
+        int getSocketChannelCount() {
+            return adapter.getSocketChannelCount();
+        }
+
+        @Override
+        public void handleException(AsyncConnection conn, SocketChannel channel, Exception e) {
+            if (conn != null) {
+                removeConnection(conn);
+            }
+            closeChannel(channel);
+        }
+
+        void run() {
+            for (;;) {
+                try {
+                    adapter.select();
+                    if (isStopped())
+                        break;
+                    Set<SelectionKey> keys = adapter.getSelector().selectedKeys();
+                    try {
+                        for (SelectionKey key : keys) {
+                            if (key.isValid()) {
+                                int readyOps = key.readyOps();
+                                if ((readyOps & SelectionKey.OP_READ) != 0) {
+                                    read(key, this);
+                                } else if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                                    write(key);
+                                } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+                                    accept();
+                                } else {
+                                    key.cancel();
+                                }
+                            } else {
+                                key.cancel();
+                            }
+                        }
+                    } finally {
+                        keys.clear();
+                    }
+                    if (isStopped())
+                        break;
+                } catch (Throwable e) {
+                    if (isStopped())
+                        break;
+                    logger.warn(Thread.currentThread().getName() + " run exception", e);
+                }
+            }
+        }
+    }
 }
@@ -31,10 +31,19 @@ public class NioWritableChannel implements WritableChannel {
     private final NioEventLoop nioEventLoop;
     private final String host;
     private final int port;
+    private final int eventLoopIndex;
+    private final int eventLoopCount;
 
     public NioWritableChannel(SocketChannel channel, NioEventLoop nioEventLoop) throws IOException {
+        this(channel, nioEventLoop, -1, 1);
+    }
+
+    public NioWritableChannel(SocketChannel channel, NioEventLoop nioEventLoop, int eventLoopIndex,
+            int eventLoopCount) throws IOException {
         this.channel = channel;
         this.nioEventLoop = nioEventLoop;
+        this.eventLoopIndex = eventLoopIndex;
+        this.eventLoopCount = eventLoopCount;
         SocketAddress sa = channel.getRemoteAddress();
         if (sa instanceof InetSocketAddress) {
             InetSocketAddress address = (InetSocketAddress) sa;
@@ -73,6 +82,16 @@ public class NioWritableChannel implements WritableChannel {
         return channel;
     }
 
+    @Override
+    public int getEventLoopIndex() {
+        return eventLoopIndex;
+    }
+
+    @Override
+    public int getEventLoopCount() {
+        return eventLoopCount;
+    }
+
     @Override
     public NetBufferFactory getBufferFactory() {
         return NioBufferFactory.getInstance();
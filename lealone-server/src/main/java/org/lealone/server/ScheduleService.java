@@ -30,6 +30,8 @@ public class ScheduleService {
 
     private static Scheduler[] schedulers;
     private static final AtomicInteger index = new AtomicInteger(0);
+    // 每个事件循环在分给它的调度器中轮流选择
+    private static AtomicInteger[] loopIndexes;
 
     static void init(Map<String, String> config) {
         int schedulerCount;
@@ -39,8 +41,10 @@ public class ScheduleService {
             schedulerCount = Math.max(1, Runtime.getRuntime().availableProcessors());
 
         schedulers = new Scheduler[schedulerCount];
+        loopIndexes = new AtomicInteger[schedulerCount];
         for (int i = 0; i < schedulerCount; i++) {
             schedulers[i] = new Scheduler(i, config);
+            loopIndexes[i] = new AtomicInteger(0);
         }
 
         SQLEngineManager.getInstance().setSQLStatementExecutors(schedulers);
@@ -72,4 +76,24 @@ public class ScheduleService {
     static Scheduler getScheduler() {
         return schedulers[index.getAndIncrement() % schedulers.length];
     }
+
+    /**
+     * 按编号把调度器分给各个网络事件循环，编号满足s % eventLoopCount == eventLoopIndex的调度器都属于这个事件循环，
+     * 事件循环上的新session在这些调度器中轮流选择；事件循环比调度器多时，多个事件循环共用一个调度器.
+     *
+     * @param eventLoopIndex the index of the event loop, -1 means any scheduler
+     * @param eventLoopCount the count of event loops
+     * @return the scheduler
+     */
+    static Scheduler getScheduler(int eventLoopIndex, int eventLoopCount) {
+        if (eventLoopIndex < 0 || eventLoopCount <= 1)
+            return getScheduler();
+        int schedulerCount = schedulers.length;
+        if (eventLoopCount >= schedulerCount)
+            return schedulers[eventLoopIndex % schedulerCount];
+        // 分给这个事件循环的调度器个数
+        int count = (schedulerCount - eventLoopIndex + eventLoopCount - 1) / eventLoopCount;
+        int i = (loopIndexes[eventLoopIndex].getAndIncrement() & Integer.MAX_VALUE) % count;
+        return schedulers[eventLoopIndex + i * eventLoopCount];
+    }
 }
@@ -17,6 +17,7 @@
  */
 package org.lealone.server;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -24,6 +25,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import org.lealone.common.concurrent.ScheduledExecutors;
 import org.lealone.common.logging.Logger;
@@ -35,10 +37,12 @@ import org.lealone.db.async.AsyncPeriodicTask;
 import org.lealone.db.async.AsyncTask;
 import org.lealone.db.async.AsyncTaskHandler;
 import org.lealone.net.TransferConnection;
+import org.lealone.net.WritableChannel;
 import org.lealone.sql.PreparedSQLStatement;
 import org.lealone.sql.SQLStatementExecutor;
 import org.lealone.storage.PageOperation;
 import org.lealone.storage.PageOperationHandler;
+import org.lealone.storage.PageOperationHandlerFactory;
 import org.lealone.transaction.Transaction;
 
 public class Scheduler extends Thread
@@ -81,7 +85,8 @@ public class Scheduler extends Thread
         long last;
 
         SessionInfo(TcpServerConnection conn, Session session, int sessionId, int sessionTimeout) {
-            scheduler = ScheduleService.getScheduler();
+            WritableChannel channel = conn.getWritableChannel();
+            scheduler = ScheduleService.getScheduler(channel.getEventLoopIndex(), channel.getEventLoopCount());
             preparedCommands = new ConcurrentLinkedQueue<>();
             this.conn = conn;
             this.session = session;
@@ -100,11 +105,12 @@ public class Scheduler extends Thread
             // 那么就不需要放到队列中了直接执行即可。
             // TODO 如果command的优先级很低，立即执行它是否合适？
             if (scheduler == Thread.currentThread()) {
-                // 同一个session中的上一个事务还在执行中，不能立刻执行它
-                if (command.si.session.getStatus() == SessionStatus.COMMITTING_TRANSACTION) {
+                // 同一个session中的上一个事务还在执行中，或者上一条语句还没有执行完，不能立刻执行它
+                if (command.si.session.getStatus() == SessionStatus.COMMITTING_TRANSACTION
+                        || scheduler.executingSessions.contains(this)) {
                     preparedCommands.add(command);
                 } else {
-                    command.execute();
+                    scheduler.execute(command);
                 }
                 return;
             }
@@ -132,6 +138,7 @@ public class Scheduler extends Thread
     }
 
     private final ConcurrentLinkedQueue<PageOperation> pageOperationQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pageOperationCount = new AtomicInteger();
     private final CopyOnWriteArrayList<SessionInfo> sessions = new CopyOnWriteArrayList<>();
 
     private final ConcurrentLinkedQueue<AsyncTask> minPriorityQueue = new ConcurrentLinkedQueue<>();
@@ -141,6 +148,9 @@ public class Scheduler extends Thread
     // 这个只增不删所以用CopyOnWriteArrayList
     private final CopyOnWriteArrayList<AsyncTask> periodicQueue = new CopyOnWriteArrayList<>();
 
+    // 正在当前线程中执行命令的session，语句等待时嵌套执行其他命令要跳过它们，否则同一个session中的语句会乱序
+    private final ArrayList<SessionInfo> executingSessions = new ArrayList<>();
+
     private final Semaphore haveWork = new Semaphore(1);
     private final long loopInterval;
     private boolean stop;
@@ -187,15 +197,35 @@ public class Scheduler extends Thread
         }
     }
 
+    @Override
+    public void runPageOperationsUntil(BooleanSupplier done) {
+        while (!done.getAsBoolean()) {
+            runPageOperationTasks();
+            if (done.getAsBoolean())
+                break;
+            try {
+                haveWork.tryAcquire(loopInterval, TimeUnit.MILLISECONDS);
+                haveWork.drainPermits();
+            } catch (InterruptedException e) {
+                handleInterruptedException(e);
+            }
+        }
+    }
+
+    // 只执行进入这个方法前已经在队列中的PageOperation，分块执行的PageOperation放回队列后等下一轮再执行，
+    // 这样调度线程可以先去执行其他session的命令
     private void runPageOperationTasks() {
-        PageOperation po = pageOperationQueue.poll();
-        while (po != null) {
+        int count = pageOperationCount.get();
+        while (count-- > 0) {
+            PageOperation po = pageOperationQueue.poll();
+            if (po == null)
+                break;
+            pageOperationCount.decrementAndGet();
             try {
-                po.run(this);
+                PageOperationHandlerFactory.runPageOperation(po, this);
             } catch (Throwable e) {
                 logger.warn("Failed to run page operation: " + po, e);
             }
-            po = pageOperationQueue.poll();
         }
     }
 
@@ -213,6 +243,7 @@ public class Scheduler extends Thread
 
     @Override
     public void handlePageOperation(PageOperation po) {
+        pageOperationCount.incrementAndGet();
         pageOperationQueue.add(po);
         wakeUp();
     }
@@ -284,10 +315,11 @@ public class Scheduler extends Thread
                 }
             }
             try {
-                c.execute();
+                execute(c);
+                // 其他调度线程交过来的PageOperation不能一直等到没有命令时才执行
+                runPageOperationTasks();
                 // 说明没有新的命令了，一直在轮循
                 if (last == c) {
-                    runPageOperationTasks();
                     runQueueTasks(maxPriorityQueue);
                     runQueueTasks(normPriorityQueue);
                 }
@@ -298,6 +330,40 @@ public class Scheduler extends Thread
         }
     }
 
+    @Override
+    public void executeOneStatement() {
+        PreparedCommand c = getNextBestCommand(PreparedSQLStatement.MIN_PRIORITY, true);
+        if (c == null) {
+            runPageOperationTasks();
+            runQueueTasks(maxPriorityQueue);
+            runQueueTasks(normPriorityQueue);
+            c = getNextBestCommand(PreparedSQLStatement.MIN_PRIORITY, true);
+            if (c == null) {
+                try {
+                    haveWork.tryAcquire(loopInterval, TimeUnit.MILLISECONDS);
+                    haveWork.drainPermits();
+                } catch (InterruptedException e) {
+                    handleInterruptedException(e);
+                }
+                return;
+            }
+        }
+        try {
+            execute(c);
+        } catch (Throwable e) {
+            c.conn.sendError(c.si.session, c.packetId, e);
+        }
+    }
+
+    private void execute(PreparedCommand c) {
+        executingSessions.add(c.si);
+        try {
+            c.execute();
+        } finally {
+            executingSessions.remove(executingSessions.size() - 1);
+        }
+    }
+
     @Override
     public void executeNextStatementIfNeeded(PreparedSQLStatement current) {
         // 如果出来各高优化级的命令，最多只抢占3次，避免堆栈溢出
@@ -314,7 +380,7 @@ public class Scheduler extends Thread
 
             hasHigherPriorityCommand = true;
             try {
-                c.execute();
+                execute(c);
             } catch (Throwable e) {
                 c.conn.sendError(c.si.session, c.packetId, e);
             }
@@ -345,9 +411,11 @@ public class Scheduler extends Thread
         ConcurrentLinkedQueue<PreparedCommand> bestQueue = null;
 
         for (SessionInfo si : sessions) {
+            if (!executingSessions.isEmpty() && executingSessions.contains(si))
+                continue;
             ConcurrentLinkedQueue<PreparedCommand> preparedCommands = si.preparedCommands;
             PreparedCommand pc = preparedCommands.peek();
-            if (pc == null)
+            if (pc == null || pc.yieldable.isWaiting())
                 continue;
 
             if (checkStatus) {
@@ -47,6 +47,7 @@ import org.lealone.db.result.Result;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueLob;
 import org.lealone.db.value.ValueLong;
+import org.lealone.net.ColumnarRowBatch;
 import org.lealone.net.TransferConnection;
 import org.lealone.net.TransferInputStream;
 import org.lealone.net.TransferOutputStream;
@@ -130,12 +131,30 @@ public class TcpServerConnection extends TransferConnection {
             out.writeString(session.getTargetEndpoints());
             out.writeString(session.getRunMode().toString());
             out.writeBoolean(session.isInvalid());
+            // 只有客户端要求压缩时才多写这个字段，老的客户端不受影响
+            String compression = ci.getProperty(NETWORK_COMPRESSION);
+            if (compression != null) {
+                compression = getNetworkCompression(compression);
+                out.writeString(compression);
+            }
             out.flush();
+            // 初始化响应包本身不压缩
+            if (compression != null) {
+                setCompression(compression,
+                        ci.getProperty(NETWORK_COMPRESSION_THRESHOLD, DEFAULT_COMPRESSION_THRESHOLD));
+            }
         } catch (Throwable e) {
             sendError(null, packetId, e);
         }
     }
 
+    private String getNetworkCompression(String compression) {
+        String allow = tcpServer.getConfig().get("allow_network_compression");
+        if (allow != null && !Boolean.parseBoolean(allow))
+            return "NO";
+        return getCompressionAlgorithm(compression);
+    }
+
     private ConnectionInfo createConnectionInfo(TransferInputStream in) throws IOException {
         String dbName = in.readString();
         String originalURL = in.readString();
@@ -266,6 +285,10 @@ public class TcpServerConnection extends TransferConnection {
     }
 
     private static void writeRow(TransferOutputStream out, Result result, int count) throws IOException {
+        if (isColumnarResult(out.getSession())) {
+            writeColumnarRows(out, result, count);
+            return;
+        }
         try {
             int visibleColumnCount = result.getVisibleColumnCount();
             for (int i = 0; i < count; i++) {
@@ -288,6 +311,32 @@ public class TcpServerConnection extends TransferConnection {
         }
     }
 
+    private static boolean isColumnarResult(Session session) {
+        ConnectionInfo ci = session == null ? null : session.getConnectionInfo();
+        return ci != null && Boolean.parseBoolean(ci.getProperty(ColumnarRowBatch.COLUMNAR_RESULT));
+    }
+
+    private static void writeColumnarRows(TransferOutputStream out, Result result, int count) throws IOException {
+        int visibleColumnCount = result.getVisibleColumnCount();
+        ArrayList<Value[]> rows = new ArrayList<>(Math.max(0, Math.min(count, 1024)));
+        boolean end = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (result.next()) {
+                    rows.add(result.currentRow());
+                } else {
+                    end = true;
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            // 跟按行写时一样，已经取到的记录加上结束标记，后面跟一个异常包
+            ColumnarRowBatch.write(out, rows, visibleColumnCount, true);
+            throw DbException.convert(e);
+        }
+        ColumnarRowBatch.write(out, rows, visibleColumnCount, end);
+    }
+
     private static int getStatus(Session session) {
         if (session.isClosed()) {
             return Session.STATUS_CLOSED;
@@ -500,7 +549,8 @@ public class TcpServerConnection extends TransferConnection {
                     logger.error("Failed to handle request, packetId: " + packetId + ", operation: " + operation, e);
                     sendError(si.session, packetId, e);
                 } finally {
-                    // in.closeInputStream(); // 到这里输入流已经读完，及时释放NetBuffer
+                    // 到这里输入流已经读完，及时释放NetBuffer，读到的数据都复制出来了，可以放回池中
+                    in.closeInputStream();
                 }
             });
         }
@@ -7,6 +7,7 @@ package org.lealone.sql;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -19,6 +20,7 @@ import org.lealone.db.CommandParameter;
 import org.lealone.db.CommandUpdateResult;
 import org.lealone.db.Constants;
 import org.lealone.db.Database;
+import org.lealone.db.DbObject;
 import org.lealone.db.ServerSession;
 import org.lealone.db.SysProperties;
 import org.lealone.db.api.DatabaseEventListener;
@@ -27,9 +29,12 @@ import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
 import org.lealone.db.result.Result;
 import org.lealone.db.table.StandardTable;
+import org.lealone.db.table.Table;
+import org.lealone.db.table.TableType;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueNull;
 import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.ExpressionVisitor;
 import org.lealone.sql.expression.Parameter;
 import org.lealone.sql.optimizer.TableFilter;
 import org.lealone.sql.router.SQLRouter;
@@ -345,6 +350,30 @@ public abstract class StatementBase implements PreparedSQLStatement, ParsedSQLSt
         this.create = false;
     }
 
+    /**
+     * 检查语句用到的表是否都是普通的表，视图和元数据表的索引跟创建它的session绑定，
+     * 用到它们的语句不能交给其他session使用.
+     *
+     * @param table the table of the statement, may be null
+     * @param expressions the expressions of the statement, may contain null
+     * @return true if only standard tables are used
+     */
+    protected static boolean isStandardTablesOnly(Table table, Iterable<Expression> expressions) {
+        HashSet<DbObject> dependencies = new HashSet<>();
+        if (table != null)
+            dependencies.add(table);
+        ExpressionVisitor visitor = ExpressionVisitor.getDependenciesVisitor(dependencies);
+        for (Expression e : expressions) {
+            if (e != null)
+                e.isEverything(visitor);
+        }
+        for (DbObject obj : dependencies) {
+            if (obj instanceof Table && ((Table) obj).getTableType() != TableType.STANDARD_TABLE)
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Set the session for this statement.
      *
@@ -6,8 +6,11 @@
  */
 package org.lealone.sql.dml;
 
+import java.util.Collections;
+
 import org.lealone.common.util.StringUtils;
 import org.lealone.db.ServerSession;
+import org.lealone.db.Session;
 import org.lealone.db.api.Trigger;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
@@ -52,6 +55,15 @@ public class Delete extends ManipulationStatement {
         return true;
     }
 
+    @Override
+    public boolean moveToSession(Session session) {
+        if (!isStandardTablesOnly(tableFilter.getTable(), Collections.singletonList(condition)))
+            return false;
+        setSession((ServerSession) session);
+        tableFilter.setSession((ServerSession) session);
+        return true;
+    }
+
     public void setLimit(Expression limit) {
         this.limitExpr = limit;
     }
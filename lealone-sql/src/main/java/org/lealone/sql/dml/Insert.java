@@ -7,10 +7,12 @@
 package org.lealone.sql.dml;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.StatementBuilder;
 import org.lealone.db.ServerSession;
+import org.lealone.db.Session;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.api.Trigger;
 import org.lealone.db.async.AsyncHandler;
@@ -57,6 +59,17 @@ public class Insert extends ManipulationStatement implements ResultTarget {
         return true;
     }
 
+    @Override
+    public boolean moveToSession(Session session) {
+        ArrayList<Expression> expressions = new ArrayList<>();
+        for (Expression[] row : list)
+            Collections.addAll(expressions, row);
+        if (!isStandardTablesOnly(table, expressions) || query != null && !query.moveToSession(session))
+            return false;
+        setSession((ServerSession) session);
+        return true;
+    }
+
     public void setTable(Table table) {
         this.table = table;
     }
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.StatementBuilder;
@@ -18,41 +19,54 @@ import org.lealone.common.util.Utils;
 import org.lealone.db.CommandParameter;
 import org.lealone.db.Constants;
 import org.lealone.db.Database;
+import org.lealone.db.DbObject;
 import org.lealone.db.ServerSession;
+import org.lealone.db.Session;
 import org.lealone.db.SysProperties;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.api.Trigger;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
+import org.lealone.db.index.BatchCursor;
 import org.lealone.db.index.Cursor;
 import org.lealone.db.index.Index;
 import org.lealone.db.index.IndexConditionType;
 import org.lealone.db.index.IndexType;
 import org.lealone.db.result.LocalResult;
+import org.lealone.db.result.QueryResultCache;
 import org.lealone.db.result.Result;
+import org.lealone.db.result.ResultDiskBuffer;
 import org.lealone.db.result.ResultTarget;
 import org.lealone.db.result.SearchRow;
 import org.lealone.db.result.SortOrder;
 import org.lealone.db.table.Column;
 import org.lealone.db.table.IndexColumn;
 import org.lealone.db.table.Table;
+import org.lealone.db.table.TableType;
 import org.lealone.db.util.ValueHashMap;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueArray;
 import org.lealone.db.value.ValueNull;
 import org.lealone.sql.PreparedSQLStatement;
 import org.lealone.sql.SQLStatement;
+import org.lealone.sql.SQLStatementExecutor;
 import org.lealone.sql.expression.Calculator;
+import org.lealone.sql.expression.CompiledExpression;
 import org.lealone.sql.expression.Expression;
 import org.lealone.sql.expression.ExpressionColumn;
 import org.lealone.sql.expression.ExpressionVisitor;
 import org.lealone.sql.expression.Parameter;
 import org.lealone.sql.expression.SelectOrderBy;
+import org.lealone.sql.expression.aggregate.Aggregate;
+import org.lealone.sql.expression.aggregate.AggregateArray;
 import org.lealone.sql.expression.condition.Comparison;
 import org.lealone.sql.expression.condition.ConditionAndOr;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.Optimizer;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.storage.PageOperation;
+import org.lealone.storage.PageOperationHandler;
+import org.lealone.storage.PageOperationHandlerFactory;
 
 /**
  * This class represents a simple SELECT statement.
@@ -71,6 +85,9 @@ import org.lealone.sql.optimizer.TableFilter;
  */
 public class Select extends Query {
 
+    // 按批读取列值时每一批的最大记录数
+    private static final int BATCH_SIZE = 1024;
+
     private TableFilter topTableFilter;
     private final ArrayList<TableFilter> filters = Utils.newSmallArrayList();
     private final ArrayList<TableFilter> topFilters = Utils.newSmallArrayList();
@@ -88,8 +105,11 @@ public class Select extends Query {
     private double cost;
     private boolean isQuickAggregateQuery, isDistinctQuery, isDistinctQueryForMultiFields;
     private boolean sortUsingIndex;
+    private CompiledExpression compiledCondition;
+    private CompiledExpression[] compiledExpressions;
 
     private final ResultCache resultCache = new ResultCache();
+    private Boolean movable;
     private QueryOperator queryOperator;
 
     public Select(ServerSession session) {
@@ -106,6 +126,39 @@ public class Select extends Query {
         return !isForUpdate;
     }
 
+    @Override
+    public boolean moveToSession(Session session) {
+        if (movable == null) {
+            ArrayList<Expression> list = new ArrayList<>(expressions);
+            list.add(condition);
+            list.add(having);
+            for (TableFilter f : filters) {
+                list.add(f.getJoinCondition());
+                list.add(f.getFilterCondition());
+            }
+            movable = isStandardTablesOnly(null, list);
+            for (TableFilter f : filters) {
+                if (f.getTable().getTableType() != TableType.STANDARD_TABLE)
+                    movable = false;
+            }
+        }
+        if (!movable)
+            return false;
+        // 上一次的结果是按原来的session的事务读到的，不能复用
+        resultCache.closeLastResult();
+        resultCache.lastResult = null;
+        setSession((ServerSession) session);
+        return true;
+    }
+
+    @Override
+    public void setSession(ServerSession currentSession) {
+        super.setSession(currentSession);
+        for (int i = 0, size = filters.size(); i < size; i++) {
+            filters.get(i).setSession(currentSession);
+        }
+    }
+
     public void setExpressions(ArrayList<Expression> expressions) {
         this.expressions = expressions;
     }
@@ -413,11 +466,40 @@ public class Select extends Query {
         }
         expressionArray = new Expression[expressions.size()];
         expressions.toArray(expressionArray);
+        if (session.getDatabase().getSettings().compileExpressions) {
+            compileExpressions();
+        }
         isPrepared = true;
 
         return this;
     }
 
+    // 把WHERE条件和SELECT字段列表中的数值运算编译成Java类，不支持的部分仍然解释执行
+    private void compileExpressions() {
+        if (condition != null) {
+            compiledCondition = CompiledExpression.compileCondition(session, condition);
+        }
+        CompiledExpression[] compiled = null;
+        for (int i = 0, size = expressions.size(); i < size; i++) {
+            CompiledExpression c = CompiledExpression.compile(session, expressions.get(i));
+            if (c != null) {
+                if (compiled == null)
+                    compiled = new CompiledExpression[size];
+                compiled[i] = c;
+            }
+        }
+        compiledExpressions = compiled;
+    }
+
+    private boolean isConditionTrue() {
+        if (condition == null)
+            return true;
+        // 准备之后条件又被修改时不能再用编译好的类
+        if (compiledCondition != null && compiledCondition.getExpression() == condition)
+            return compiledCondition.isTrue(session);
+        return Boolean.TRUE.equals(condition.getBooleanValue(session));
+    }
+
     private void optimizeDistinct() {
         // 1.1. distinct 单字段
         if (expressions.size() == 1) {
@@ -984,9 +1066,16 @@ public class Select extends Query {
         if (isForUpdate) {
             buff.append("\nFOR UPDATE");
         }
+        if (compiledCondition != null || compiledExpressions != null) {
+            buff.append("\n/* compiled */");
+        }
         if (isQuickAggregateQuery) {
             buff.append("\n/* direct lookup */");
         }
+        if (queryOperator instanceof QueryParallelBatchAggregate) {
+            buff.append("\n/* parallel: ").append(((QueryParallelBatchAggregate) queryOperator).cursors.length)
+                    .append(" */");
+        }
         if (isDistinctQuery) {
             buff.append("\n/* distinct */");
         }
@@ -996,6 +1085,12 @@ public class Select extends Query {
         if (isGroupQuery) {
             if (isGroupSortedQuery) {
                 buff.append("\n/* group sorted */");
+            } else if (!isDistributed && isHashAggregateQuery()) {
+                buff.append("\n/* hash aggregate");
+                if (queryOperator instanceof QueryHashAggregate) {
+                    ((QueryHashAggregate) queryOperator).appendStatistics(buff);
+                }
+                buff.append(" */");
             }
         }
         // buff.append("\n/* cost: " + cost + " */");
@@ -1261,6 +1356,14 @@ public class Select extends Query {
         if (sort != null && (!sortUsingIndex || distinct)) {
             result = createLocalResult(result);
             result.setSortOrder(sort);
+            // 有limit时只需要保留排在前面的offset+limit条记录
+            if (limitRows > 0 && !distinct) {
+                long topCount = limitRows;
+                if (offsetExpr != null)
+                    topCount += Math.max(0, offsetExpr.getValue(session).getInt());
+                if (topCount <= Integer.MAX_VALUE)
+                    result.setTopCount((int) topCount);
+            }
         }
         if (distinct && (!isDistinctQuery && !isDistinctQueryForMultiFields)) {
             result = createLocalResult(result);
@@ -1299,7 +1402,19 @@ public class Select extends Query {
                 if (isGroupSortedQuery) {
                     queryOperator = new QueryGroupSorted();
                 } else {
-                    queryOperator = new QueryGroup();
+                    int[] batchColumnIndexes = getBatchColumnIndexes();
+                    BatchCursor[] batchCursors = createParallelBatchCursors(batchColumnIndexes);
+                    BatchCursor batchCursor = batchCursors == null && batchColumnIndexes != null
+                            ? topTableFilter.findBatch(batchColumnIndexes, BATCH_SIZE)
+                            : null;
+                    if (batchCursors != null)
+                        queryOperator = new QueryParallelBatchAggregate(batchCursors);
+                    else if (batchCursor != null)
+                        queryOperator = new QueryBatchAggregate(batchCursor);
+                    else if (isHashAggregateQuery())
+                        queryOperator = new QueryHashAggregate();
+                    else
+                        queryOperator = new QueryGroup();
                     to = result;
                 }
             } else if (isDistinctQuery) {
@@ -1328,6 +1443,59 @@ public class Select extends Query {
         return old != null ? old : new LocalResult(session, expressionArray, visibleColumnCount);
     }
 
+    // 没有where、group by和having的单表聚合查询，如果所有表达式都是能在列向量上计算的聚合函数，
+    // 就按批读取需要的列，不用为每条记录创建Row和计算表达式，列存储的表只会读取这些列对应的page
+    // 可以按批读取时返回需要读取的列，否则返回null
+    private int[] getBatchColumnIndexes() {
+        if (condition != null || having != null || groupIndex != null || isForUpdate || distinct
+                || getSampleSizeValue(session) > 0)
+            return null;
+        int[] columnIndexes = new int[expressions.size()];
+        int count = 0;
+        for (Expression e : expressions) {
+            if (!(e instanceof Aggregate) || !((Aggregate) e).isBatchable(topTableFilter))
+                return null;
+            int columnId = ((Aggregate) e).getBatchColumnId();
+            if (columnId >= 0 && !contains(columnIndexes, count, columnId))
+                columnIndexes[count++] = columnId;
+        }
+        return Arrays.copyOf(columnIndexes, count);
+    }
+
+    // 并行度不能超过PageOperationHandler的个数，当前线程也会执行其中一段
+    private BatchCursor[] createParallelBatchCursors(int[] columnIndexes) {
+        PageOperationHandlerFactory factory = PageOperationHandlerFactory.instance;
+        int parallelism = session.getQueryParallelism();
+        if (columnIndexes == null || parallelism < 2 || factory == null)
+            return null;
+        parallelism = Math.min(parallelism, factory.getPageOperationHandlerCount() + 1);
+        if (parallelism < 2)
+            return null;
+        return topTableFilter.findBatch(columnIndexes, BATCH_SIZE, parallelism);
+    }
+
+    // 有group by、没有having，并且除了group by字段外都是可以用AggregateArray计算的聚合函数
+    private boolean isHashAggregateQuery() {
+        if (groupIndex == null || groupByExpression == null || havingIndex >= 0 || !session.getDatabase().getSettings().hashAggregate)
+            return false;
+        for (int i = 0, size = expressions.size(); i < size; i++) {
+            if (groupByExpression[i])
+                continue;
+            Expression e = expressions.get(i).getNonAliasExpression();
+            if (!(e instanceof Aggregate) || ((Aggregate) e).createAggregateArray() == null)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value)
+                return true;
+        }
+        return false;
+    }
+
     @Override
     public YieldableBase<Result> createYieldableQuery(int maxRows, boolean scrollable,
             AsyncHandler<AsyncResult<Result>> asyncHandler) {
@@ -1353,7 +1521,15 @@ public class Select extends Query {
 
         @Override
         protected void stopInternal() {
+            if (resultCache.useCache)
+                return;
             statement.queryOperator.stop();
+            if (statement.queryOperator.loopEnd) {
+                resultCache.lastResult = statement.queryOperator.localResult;
+                resultCache.putSharedResult();
+            } else {
+                resultCache.pendingShared = null;
+            }
         }
 
         @Override
@@ -1374,6 +1550,11 @@ public class Select extends Query {
             return true;
         }
 
+        @Override
+        public boolean isWaiting() {
+            return statement.queryOperator != null && statement.queryOperator.isWaiting();
+        }
+
         private boolean query() {
             statement.queryOperator.run();
             if (statement.queryOperator.loopEnd)
@@ -1389,6 +1570,9 @@ public class Select extends Query {
         protected LocalResult lastResult;
         private Value[] lastParameters;
         private boolean cacheableChecked;
+        private Table[] sharedTables;
+        private String sharedSQL;
+        private Runnable pendingShared;
 
         private Value[] getParameterValues() {
             ArrayList<Parameter> list = getParameters();
@@ -1411,6 +1595,12 @@ public class Select extends Query {
         }
 
         private LocalResult getResult(int limit, ResultTarget target, boolean async) {
+            QueryResultCache shared = session.getDatabase().getResultCache();
+            // 有未提交的修改时查询结果只对当前session可见，不能给其他session使用
+            if (shared != null && target == null && !noCache && session.isAutoCommit() && !session.hasLocks()
+                    && isSharedCacheable()) {
+                return getSharedResult(shared, limit, async);
+            }
             if (noCache || !session.getDatabase().getOptimizeReuseResults()) {
                 useCache = false;
                 return queryWithoutCache(limit, target, async);
@@ -1441,6 +1631,64 @@ public class Select extends Query {
             }
         }
 
+        private boolean isSharedCacheable() {
+            if (sharedTables == null) {
+                sharedTables = new Table[0];
+                if (isForUpdate || !isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)
+                        || !isEverything(ExpressionVisitor.INDEPENDENT_VISITOR)
+                        || getMaxDataModificationId() == Long.MAX_VALUE)
+                    return false;
+                HashSet<DbObject> dependencies = new HashSet<>();
+                isEverything(ExpressionVisitor.getDependenciesVisitor(dependencies));
+                ArrayList<Table> tables = new ArrayList<>();
+                for (DbObject obj : dependencies) {
+                    if (obj instanceof Table)
+                        tables.add((Table) obj);
+                }
+                sharedTables = tables.toArray(new Table[0]);
+                sharedSQL = getPlanSQL();
+            }
+            return sharedSQL != null;
+        }
+
+        private LocalResult getSharedResult(QueryResultCache shared, int limit, boolean async) {
+            Value[] params = getParameterValues();
+            closeLastResult();
+            lastResult = shared.get(session, sharedSQL, params, limit);
+            if (lastResult != null) {
+                lastResult.reset();
+                useCache = true;
+                return lastResult;
+            }
+            useCache = false;
+            // 先记下修改id，执行查询期间表被修改了，放进去的结果下次就会失效
+            long modificationMetaId = session.getDatabase().getModificationMetaId();
+            long[] modificationIds = new long[sharedTables.length];
+            for (int i = 0; i < sharedTables.length; i++) {
+                modificationIds[i] = sharedTables[i].getMaxDataModificationId();
+            }
+            pendingShared = () -> {
+                if (lastResult != null)
+                    shared.put(sharedSQL, params, limit, lastResult, sharedTables, modificationIds,
+                            modificationMetaId);
+            };
+            LocalResult r = queryWithoutCache(limit, null, async);
+            if (!async) {
+                lastResult = r;
+                putSharedResult();
+            }
+            return r;
+        }
+
+        // 异步执行时，查询结束后才能放入结果
+        private void putSharedResult() {
+            if (pendingShared != null) {
+                Runnable r = pendingShared;
+                pendingShared = null;
+                r.run();
+            }
+        }
+
         private boolean sameResultAsLast(ServerSession s, Value[] params, Value[] lastParams, long lastEval) {
             if (!cacheableChecked) {
                 long max = getMaxDataModificationId();
@@ -1505,7 +1753,13 @@ public class Select extends Query {
         void run() {
         }
 
+        // 等待其他线程的结果时返回true，调度线程不用反复执行run
+        boolean isWaiting() {
+            return false;
+        }
+
         void stop() {
+            topTableFilter.endQuery();
             if (offsetExpr != null) {
                 localResult.setOffset(offsetExpr.getValue(session).getInt());
             }
@@ -1529,7 +1783,7 @@ public class Select extends Query {
         void run() {
             while (topTableFilter.next()) {
                 boolean yieldIfNeeded = setCurrentRowNumber(rowNumber + 1);
-                if (condition == null || Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                if (isConditionTrue()) {
                     if (isForUpdate) {
                         // 锁记录失败
                         if (!topTableFilter.lockRow())
@@ -1537,6 +1791,10 @@ public class Select extends Query {
                     }
                     Value[] row = new Value[columnCount];
                     for (int i = 0; i < columnCount; i++) {
+                        if (compiledExpressions != null && compiledExpressions[i] != null) {
+                            row[i] = compiledExpressions[i].getValue(session);
+                            continue;
+                        }
                         Expression expr = expressions.get(i);
                         row[i] = expr.getValue(session);
                     }
@@ -1667,7 +1925,7 @@ public class Select extends Query {
         void run() {
             while (topTableFilter.next()) {
                 boolean yieldIfNeeded = setCurrentRowNumber(rowNumber + 1);
-                if (condition == null || Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                if (isConditionTrue()) {
                     Value key;
                     rowNumber++;
                     if (groupIndex == null) {
@@ -1734,6 +1992,421 @@ public class Select extends Query {
         }
     }
 
+    // 在列向量上计算聚合函数，结果只有一行
+    private class QueryBatchAggregate extends QueryOperator {
+        final BatchCursor cursor;
+
+        QueryBatchAggregate(BatchCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        void start() {
+            super.start();
+            currentGroup = new HashMap<>();
+            currentGroupRowId++;
+        }
+
+        @Override
+        void run() {
+            while (cursor.nextBatch()) {
+                rowNumber += cursor.getRowCount();
+                for (int i = 0; i < columnCount; i++) {
+                    Aggregate a = (Aggregate) expressions.get(i);
+                    a.updateAggregate(session, cursor);
+                }
+                setCurrentRowNumber(rowNumber);
+                if (async && yieldIfNeeded())
+                    return;
+            }
+            Value[] row = new Value[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = expressions.get(i).getValue(session);
+            }
+            result.addRow(row);
+            loopEnd = true;
+        }
+    }
+
+    // 聚合函数的中间结果按分组号保存在AggregateArray中，不用为每个分组创建HashMap和AggregateData，
+    // 内存中的分组数达到MAX_MEMORY_ROWS时，把所有分组按key排序后写到临时文件，清空内存后继续，
+    // 最后按key的顺序把临时文件中的中间结果读出来合并，相同key的分组是连续的，合并完一个就可以输出一个
+    private class QueryHashAggregate extends QueryOperator {
+        Aggregate[] aggregates; // 相同的聚合函数只计算一次
+        AggregateArray[] arrays;
+        int[] arrayIndexes; // 每个字段对应的arrays下标，group by字段是-1
+        int keyLength;
+        int stateLength;
+        long maxMemory;
+        int maxMemoryRows;
+
+        ValueHashMap<Integer> groups;
+        ArrayList<Value[]> keys;
+        int groupCount;
+
+        SortOrder spillSort;
+        ResultDiskBuffer spilled;
+        int spilledRows;
+        int spilledRuns;
+
+        int peakGroups;
+        long peakMemory;
+        long memory;
+
+        @Override
+        void start() {
+            super.start();
+            currentGroup = null;
+            ArrayList<Aggregate> list = new ArrayList<>();
+            arrayIndexes = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                arrayIndexes[i] = -1;
+                if (groupByExpression[i])
+                    continue;
+                Aggregate a = (Aggregate) expressions.get(i).getNonAliasExpression();
+                int index = -1;
+                for (int j = 0, size = list.size(); j < size; j++) {
+                    if (list.get(j) == a) {
+                        index = j;
+                        break;
+                    }
+                }
+                if (index < 0) {
+                    index = list.size();
+                    list.add(a);
+                }
+                arrayIndexes[i] = index;
+            }
+            aggregates = list.toArray(new Aggregate[list.size()]);
+            arrays = new AggregateArray[aggregates.length];
+            for (int i = 0; i < arrays.length; i++) {
+                arrays[i] = aggregates[i].createAggregateArray();
+                stateLength += arrays[i].getStateSize();
+            }
+            keyLength = groupIndex.length;
+            maxMemory = session.getQueryMaxMemory();
+            maxMemoryRows = session.getDatabase().getMaxMemoryRows();
+            groups = ValueHashMap.newInstance();
+            keys = new ArrayList<>();
+        }
+
+        @Override
+        void run() {
+            Database db = session.getDatabase();
+            while (topTableFilter.next()) {
+                boolean yieldIfNeeded = setCurrentRowNumber(rowNumber + 1);
+                if (isConditionTrue()) {
+                    rowNumber++;
+                    Value[] keyValues = new Value[keyLength];
+                    for (int i = 0; i < keyLength; i++) {
+                        keyValues[i] = expressions.get(groupIndex[i]).getValue(session);
+                    }
+                    ValueArray key = ValueArray.get(keyValues);
+                    Integer group = groups.get(key);
+                    if (group == null) {
+                        if (isMemoryFull()) {
+                            spill();
+                        }
+                        group = addGroup(key, keyValues);
+                    }
+                    for (int i = 0; i < arrays.length; i++) {
+                        arrays[i].add(db, group, aggregates[i].getOnValue(session));
+                    }
+                    if (async && yieldIfNeeded)
+                        return;
+                    if (sampleSize > 0 && rowNumber >= sampleSize) {
+                        break;
+                    }
+                }
+            }
+            if (spilled == null) {
+                addGroupRows();
+            } else {
+                mergeSpilledGroups();
+            }
+            loopEnd = true;
+        }
+
+        @Override
+        void stop() {
+            closeSpilled();
+            super.stop();
+        }
+
+        // 按分组占用的字节数判断，没有设置QUERY_MAX_MEMORY时才按MAX_MEMORY_ROWS判断
+        private boolean isMemoryFull() {
+            if (groupCount == 0)
+                return false;
+            if (maxMemory > 0)
+                return memory >= maxMemory;
+            return maxMemoryRows > 0 && groupCount >= maxMemoryRows;
+        }
+
+        private int addGroup(ValueArray key, Value[] keyValues) {
+            int group = groupCount++;
+            groups.put(key, group);
+            keys.add(keyValues);
+            for (AggregateArray array : arrays) {
+                array.ensureCapacity(groupCount);
+                memory += array.getMemoryPerGroup();
+            }
+            memory += key.getMemory();
+            if (groupCount > peakGroups)
+                peakGroups = groupCount;
+            if (memory > peakMemory)
+                peakMemory = memory;
+            return group;
+        }
+
+        private void clearGroups() {
+            for (AggregateArray array : arrays) {
+                array.clear(groupCount);
+            }
+            groups = ValueHashMap.newInstance();
+            keys.clear();
+            groupCount = 0;
+            memory = 0;
+        }
+
+        private void addGroupRows() {
+            Database db = session.getDatabase();
+            for (int group = 0; group < groupCount; group++) {
+                Value[] keyValues = keys.get(group);
+                Value[] row = new Value[columnCount];
+                for (int j = 0; j < keyLength; j++) {
+                    row[groupIndex[j]] = keyValues[j];
+                }
+                for (int j = 0; j < columnCount; j++) {
+                    if (arrayIndexes[j] >= 0)
+                        row[j] = arrays[arrayIndexes[j]].getValue(db, group);
+                }
+                if (isHavingNullOrFalse(row)) {
+                    continue;
+                }
+                row = keepOnlyDistinct(row, columnCount);
+                result.addRow(row);
+            }
+        }
+
+        // 每次转存都是一个按key排好序的run，格式是key的值加上每个聚合函数的中间结果
+        private void spill() {
+            if (spilled == null) {
+                int[] indexes = new int[keyLength];
+                for (int i = 0; i < keyLength; i++) {
+                    indexes[i] = i;
+                }
+                spillSort = new SortOrder(session.getDatabase(), indexes, new int[keyLength], null);
+                spilled = new ResultDiskBuffer(session, spillSort, keyLength + stateLength);
+            }
+            ArrayList<Value[]> rows = new ArrayList<>(groupCount);
+            for (int group = 0; group < groupCount; group++) {
+                Value[] row = new Value[keyLength + stateLength];
+                System.arraycopy(keys.get(group), 0, row, 0, keyLength);
+                int offset = keyLength;
+                for (AggregateArray array : arrays) {
+                    array.writeState(group, row, offset);
+                    offset += array.getStateSize();
+                }
+                rows.add(row);
+            }
+            spilled.addRows(rows);
+            spilledRows += rows.size();
+            spilledRuns++;
+            clearGroups();
+        }
+
+        private void mergeSpilledGroups() {
+            if (groupCount > 0)
+                spill();
+            spilled.done();
+            spilled.reset();
+            Database db = session.getDatabase();
+            Value[] runKey = null;
+            for (int i = 0; i < spilledRows; i++) {
+                if ((i & 4095) == 4095) {
+                    session.checkCanceled();
+                }
+                Value[] row = spilled.next();
+                // 比较结果相同但是equals不同的key也在同一批中合并输出
+                if (runKey == null || spillSort.compare(runKey, row) != 0) {
+                    addGroupRows();
+                    clearGroups();
+                    runKey = row;
+                }
+                Value[] keyValues = Arrays.copyOf(row, keyLength);
+                ValueArray key = ValueArray.get(keyValues);
+                Integer group = groups.get(key);
+                if (group == null) {
+                    group = addGroup(key, keyValues);
+                }
+                int offset = keyLength;
+                for (AggregateArray array : arrays) {
+                    array.mergeState(db, group, row, offset);
+                    offset += array.getStateSize();
+                }
+            }
+            addGroupRows();
+            clearGroups();
+            closeSpilled();
+        }
+
+        private void closeSpilled() {
+            if (spilled != null) {
+                spilled.close();
+                spilled = null;
+            }
+        }
+
+        void appendStatistics(StatementBuilder buff) {
+            if (peakGroups == 0)
+                return;
+            buff.append(": peak groups ").append(peakGroups).append(", peak memory ").append(peakMemory)
+                    .append(" bytes");
+            if (spilledRuns > 0) {
+                buff.append(", spilled rows ").append(spilledRows).append(", runs ").append(spilledRuns);
+            }
+        }
+    }
+
+    // 每一段在一个PageOperationHandler线程中计算聚合函数的部分结果，最后在当前线程中合并，结果只有一行
+    // 只用于没有where条件、也没有group by的批量聚合，各个段算出部分结果后再合并
+    private class QueryParallelBatchAggregate extends QueryOperator {
+        final BatchCursor[] cursors;
+        CountDownLatch latch;
+        BatchAggregateFragment[] fragments;
+        // 异步执行时当前语句所在的调度线程，最后一个执行完的段负责唤醒它
+        SQLStatementExecutor waiter;
+
+        QueryParallelBatchAggregate(BatchCursor[] cursors) {
+            this.cursors = cursors;
+        }
+
+        @Override
+        void start() {
+            super.start();
+            currentGroup = new HashMap<>();
+            currentGroupRowId++;
+        }
+
+        @Override
+        void run() {
+            if (fragments == null)
+                startFragments();
+            if (latch.getCount() > 0) {
+                // 调度线程同时也是PageOperationHandler，不能阻塞等待其他段，先让出线程，
+                // 在isWaiting()返回false之前调度线程不会再执行这条语句
+                if (async)
+                    return;
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw DbException.convert(e);
+                }
+            }
+            for (BatchAggregateFragment fragment : fragments) {
+                if (fragment.error != null)
+                    throw DbException.convert(fragment.error);
+            }
+            for (BatchAggregateFragment fragment : fragments) {
+                rowNumber += fragment.rowCount;
+                for (int i = 0; i < columnCount; i++) {
+                    Aggregate a = (Aggregate) expressions.get(i);
+                    a.mergePartialAggregate(session, fragment.partials[i]);
+                }
+            }
+            setCurrentRowNumber(rowNumber);
+            Value[] row = new Value[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = expressions.get(i).getValue(session);
+            }
+            result.addRow(row);
+            loopEnd = true;
+        }
+
+        @Override
+        boolean isWaiting() {
+            return waiter != null && latch.getCount() > 0;
+        }
+
+        private void startFragments() {
+            int size = cursors.length;
+            latch = new CountDownLatch(size);
+            fragments = new BatchAggregateFragment[size];
+            for (int i = 0; i < size; i++) {
+                fragments[i] = new BatchAggregateFragment(cursors[i], this);
+            }
+            PageOperationHandlerFactory factory = PageOperationHandlerFactory.instance;
+            Thread current = Thread.currentThread();
+            if (current instanceof PageOperationHandler) {
+                if (async && current instanceof SQLStatementExecutor) {
+                    // 所有段都交给PageOperationHandler分块执行，包括当前调度线程自己
+                    waiter = (SQLStatementExecutor) current;
+                    for (BatchAggregateFragment fragment : fragments)
+                        factory.getPageOperationHandler().handlePageOperation(fragment);
+                } else {
+                    // 同步执行时调度线程不能等待，所有段都在当前线程中执行
+                    for (BatchAggregateFragment fragment : fragments)
+                        fragment.run(null);
+                }
+                return;
+            }
+            // 非PageOperationHandler线程可以等待，当前线程执行第一个段
+            for (int i = 1; i < size; i++) {
+                factory.getPageOperationHandler().handlePageOperation(fragments[i]);
+            }
+            fragments[0].run(null);
+        }
+
+        void onFragmentDone() {
+            latch.countDown();
+            if (latch.getCount() == 0 && waiter != null)
+                waiter.wakeUp();
+        }
+    }
+
+    private class BatchAggregateFragment implements PageOperation {
+        // 在PageOperationHandler中每次最多处理这么多批记录，然后放回队列，让它有机会执行其他session的操作
+        static final int MAX_BATCHES_PER_RUN = 16;
+
+        final BatchCursor cursor;
+        final QueryParallelBatchAggregate parent;
+        final Object[] partials;
+        int rowCount;
+        Throwable error;
+
+        BatchAggregateFragment(BatchCursor cursor, QueryParallelBatchAggregate parent) {
+            this.cursor = cursor;
+            this.parent = parent;
+            int columnCount = expressions.size();
+            partials = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                partials[i] = ((Aggregate) expressions.get(i)).createPartialAggregate();
+            }
+        }
+
+        @Override
+        public PageOperationResult run(PageOperationHandler currentHandler) {
+            try {
+                int batches = 0;
+                while (cursor.nextBatch()) {
+                    rowCount += cursor.getRowCount();
+                    for (int i = 0; i < partials.length; i++) {
+                        Aggregate a = (Aggregate) expressions.get(i);
+                        a.updatePartialAggregate(session, partials[i], cursor);
+                    }
+                    if (currentHandler != null && ++batches >= MAX_BATCHES_PER_RUN) {
+                        currentHandler.handlePageOperation(this);
+                        return PageOperationResult.SUCCEEDED;
+                    }
+                }
+            } catch (Throwable e) {
+                error = e;
+            }
+            parent.onFragmentDone();
+            return PageOperationResult.SUCCEEDED;
+        }
+    }
+
     private class QueryGroupSorted extends QueryOperator {
         Value[] previousKeyValues;
 
@@ -1747,7 +2420,7 @@ public class Select extends Query {
         void run() {
             while (topTableFilter.next()) {
                 boolean yieldIfNeeded = setCurrentRowNumber(rowNumber + 1);
-                if (condition == null || Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                if (isConditionTrue()) {
                     rowNumber++;
                     Value[] keyValues = new Value[groupIndex.length];
                     // update group
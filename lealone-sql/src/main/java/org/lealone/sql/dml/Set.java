@@ -287,6 +287,20 @@ public class Set extends ManipulationStatement {
             database.setOptimizeReuseResults(getIntValue() != 0);
             break;
         }
+        case SetTypes.QUERY_PARALLELISM: {
+            if (getIntValue() < 1) {
+                throw DbException.getInvalidValueException("QUERY_PARALLELISM", getIntValue());
+            }
+            session.setQueryParallelism(getIntValue());
+            break;
+        }
+        case SetTypes.QUERY_MAX_MEMORY: {
+            if (getIntValue() < 0) {
+                throw DbException.getInvalidValueException("QUERY_MAX_MEMORY", getIntValue());
+            }
+            session.setQueryMaxMemory(getIntValue());
+            break;
+        }
         case SetTypes.QUERY_TIMEOUT: {
             if (getIntValue() < 0) {
                 throw DbException.getInvalidValueException("QUERY_TIMEOUT", getIntValue());
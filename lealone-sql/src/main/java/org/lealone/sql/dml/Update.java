@@ -15,6 +15,7 @@ import org.lealone.common.util.StatementBuilder;
 import org.lealone.common.util.StringUtils;
 import org.lealone.common.util.Utils;
 import org.lealone.db.ServerSession;
+import org.lealone.db.Session;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.api.Trigger;
 import org.lealone.db.async.AsyncHandler;
@@ -65,6 +66,17 @@ public class Update extends ManipulationStatement {
         return true;
     }
 
+    @Override
+    public boolean moveToSession(Session session) {
+        ArrayList<Expression> list = new ArrayList<>(expressionMap.values());
+        list.add(condition);
+        if (!isStandardTablesOnly(tableFilter.getTable(), list))
+            return false;
+        setSession((ServerSession) session);
+        tableFilter.setSession((ServerSession) session);
+        return true;
+    }
+
     public void setLimit(Expression limit) {
         this.limitExpr = limit;
     }
@@ -0,0 +1,623 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+import org.lealone.common.util.SmallLRUCache;
+import org.lealone.db.ServerSession;
+import org.lealone.db.util.SourceCompiler;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueByte;
+import org.lealone.db.value.ValueDecimal;
+import org.lealone.db.value.ValueDouble;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueShort;
+import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.sql.expression.condition.ConditionAndOr;
+import org.lealone.sql.expression.condition.ConditionNot;
+
+/**
+ * 把表达式树中的数值比较、数值运算和AND/OR/NOT编译成一个Java类，在局部变量中用long和double计算，
+ * 不用在每个节点上调用getValue和创建Value对象.
+ *
+ * <p>
+ * 字段和参数的值每行读取一次放到数组中；不支持的布尔子表达式通过IntSupplier回调解释执行；
+ * 溢出、除0或者值的类型跟编译时不一样时，这一行整个表达式改用解释执行，所以结果和异常都跟原来一样。
+ */
+public class CompiledExpression {
+
+    private static final String PACKAGE = "org.lealone.sql.expression.compiled";
+    private static final AtomicInteger NEXT_CLASS_ID = new AtomicInteger();
+    // 生成的代码相同时共用一个类
+    private static final SmallLRUCache<String, Class<?>> CLASSES = SmallLRUCache.newInstance(256);
+    private static volatile boolean compilerUnavailable;
+
+    private final Expression expression;
+    private final int type;
+    private final Expression[] inputs;
+    private final int[] inputTypes;
+    private final boolean[] doubleInputs;
+    private final long[] longs;
+    private final double[] doubles;
+    private final boolean[] nulls;
+    private final Object[] arguments;
+    private final ToIntFunction<Object[]> function;
+    // 语句可能交给其他session使用，所以不在条件中固定session，每次计算时再设置
+    private ServerSession session;
+
+    private CompiledExpression(Expression expression, Generator g,
+            ToIntFunction<Object[]> function) {
+        this.expression = expression;
+        this.type = expression.getType();
+        this.function = function;
+        int size = g.inputs.size();
+        inputs = g.inputs.toArray(new Expression[size]);
+        inputTypes = new int[size];
+        doubleInputs = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            inputTypes[i] = g.inputTypes.get(i);
+            doubleInputs[i] = g.doubleInputs.get(i);
+        }
+        // 最后一个位置存放数值表达式的结果
+        longs = new long[size + 1];
+        doubles = new double[size + 1];
+        nulls = new boolean[size];
+        IntSupplier[] conditions = new IntSupplier[g.conditions.size()];
+        for (int i = 0; i < conditions.length; i++) {
+            Expression e = g.conditions.get(i);
+            conditions[i] = () -> {
+                Value v = e.getValue(session);
+                return v == ValueNull.INSTANCE ? -1 : (v.getBoolean().booleanValue() ? 1 : 0);
+            };
+        }
+        arguments = new Object[] { longs, doubles, nulls, conditions };
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * 编译WHERE条件，没有可以编译的部分或者编译失败时返回null.
+     *
+     * @param session the session
+     * @param condition the condition
+     * @return the compiled condition or null
+     */
+    public static CompiledExpression compileCondition(ServerSession session, Expression condition) {
+        if (!(condition instanceof Comparison || condition instanceof ConditionAndOr
+                || condition instanceof ConditionNot))
+            return null;
+        Generator g = new Generator(session);
+        try {
+            String result = g.condition(condition);
+            g.line("return " + result + ";");
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        return create(condition, g);
+    }
+
+    /**
+     * 编译SELECT字段列表中的数值运算，不是数值运算或者编译失败时返回null.
+     *
+     * @param session the session
+     * @param expression the expression
+     * @return the compiled expression or null
+     */
+    public static CompiledExpression compile(ServerSession session, Expression expression) {
+        if (!(expression.getNonAliasExpression() instanceof Operation))
+            return null;
+        Generator g = new Generator(session);
+        try {
+            Num result = g.numeric(expression.getNonAliasExpression());
+            g.line("if (" + result.isNull + ")");
+            g.line("    return 0;");
+            g.line((result.isDouble ? "d[d.length - 1] = " : "l[l.length - 1] = ") + result.value + ";");
+            g.line("return 1;");
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        return create(expression, g);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompiledExpression create(Expression expression, Generator g) {
+        if (g.compiledNodes == 0 || compilerUnavailable)
+            return null;
+        String body = g.body.toString();
+        Class<?> clazz;
+        synchronized (CLASSES) {
+            clazz = CLASSES.get(body);
+            if (clazz == null) {
+                String className = "Expression" + NEXT_CLASS_ID.incrementAndGet() + "_"
+                        + Long.toHexString(System.nanoTime());
+                try {
+                    SourceCompiler compiler = new SourceCompiler();
+                    compiler.setSource(PACKAGE + "." + className, getSource(className, body));
+                    clazz = compiler.getClass(PACKAGE + "." + className);
+                } catch (Throwable t) {
+                    // 运行时没有Java编译器，以后都不再尝试
+                    compilerUnavailable = true;
+                    return null;
+                }
+                CLASSES.put(body, clazz);
+            }
+        }
+        try {
+            ToIntFunction<Object[]> function = (ToIntFunction<Object[]>) clazz.getDeclaredConstructor()
+                    .newInstance();
+            return new CompiledExpression(expression, g, function);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String getSource(String className, String body) {
+        StringBuilder buff = new StringBuilder();
+        buff.append("package ").append(PACKAGE).append(";\n");
+        buff.append("public class ").append(className)
+                .append(" implements java.util.function.ToIntFunction<Object[]> {\n");
+        buff.append("    @Override\n");
+        buff.append("    public int applyAsInt(Object[] a) {\n");
+        buff.append("        long[] l = (long[]) a[0];\n");
+        buff.append("        double[] d = (double[]) a[1];\n");
+        buff.append("        boolean[] n = (boolean[]) a[2];\n");
+        buff.append("        java.util.function.IntSupplier[] s = (java.util.function.IntSupplier[]) a[3];\n");
+        buff.append(body);
+        buff.append("    }\n");
+        // 跟ValueInt、ValueShort、ValueByte一样检查范围，超出时由解释执行抛出异常
+        buff.append("    private static long toInt(long v) {\n");
+        buff.append("        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw new ArithmeticException();\n");
+        buff.append("        return v;\n");
+        buff.append("    }\n");
+        buff.append("    private static long toShort(long v) {\n");
+        buff.append("        if (v < Short.MIN_VALUE || v > Short.MAX_VALUE) throw new ArithmeticException();\n");
+        buff.append("        return v;\n");
+        buff.append("    }\n");
+        buff.append("    private static long toByte(long v) {\n");
+        buff.append("        if (v < Byte.MIN_VALUE || v > Byte.MAX_VALUE) throw new ArithmeticException();\n");
+        buff.append("        return v;\n");
+        buff.append("    }\n");
+        buff.append("    private static double divide(double x, double y) {\n");
+        buff.append("        if (y == 0) throw new ArithmeticException();\n");
+        buff.append("        return x / y;\n");
+        buff.append("    }\n");
+        buff.append("    private static double modulus(double x, double y) {\n");
+        buff.append("        if (y == 0) throw new ArithmeticException();\n");
+        buff.append("        return x % y;\n");
+        buff.append("    }\n");
+        buff.append("}\n");
+        return buff.toString();
+    }
+
+    /**
+     * 计算条件是否为true.
+     *
+     * @param session the session
+     * @return true if the condition is true
+     */
+    public boolean isTrue(ServerSession session) {
+        if (readInputs(session)) {
+            try {
+                return function.applyAsInt(arguments) == 1;
+            } catch (ArithmeticException e) {
+                // 解释执行会抛出同样的错误
+            }
+        }
+        return Boolean.TRUE.equals(expression.getBooleanValue(session));
+    }
+
+    /**
+     * 计算数值表达式的值.
+     *
+     * @param session the session
+     * @return the value
+     */
+    public Value getValue(ServerSession session) {
+        if (readInputs(session)) {
+            try {
+                if (function.applyAsInt(arguments) == 0)
+                    return ValueNull.INSTANCE;
+                long v = longs[longs.length - 1];
+                switch (type) {
+                case Value.BYTE:
+                    return ValueByte.get((byte) v);
+                case Value.SHORT:
+                    return ValueShort.get((short) v);
+                case Value.INT:
+                    return ValueInt.get((int) v);
+                case Value.LONG:
+                    return ValueLong.get(v);
+                case Value.DECIMAL:
+                    return ValueDecimal.get(BigDecimal.valueOf(v));
+                case Value.DOUBLE:
+                    return ValueDouble.get(doubles[doubles.length - 1]);
+                }
+            } catch (ArithmeticException e) {
+                // 解释执行会抛出同样的错误
+            }
+        }
+        return expression.getValue(session);
+    }
+
+    private boolean readInputs(ServerSession session) {
+        this.session = session;
+        for (int i = 0, size = inputs.length; i < size; i++) {
+            Value v = inputs[i].getValue(session);
+            int t = v.getType();
+            if (t == Value.NULL) {
+                nulls[i] = true;
+                continue;
+            }
+            // 字段值的类型跟定义的不一样时按原来的方式转换
+            if (inputTypes[i] != Value.UNKNOWN && t != inputTypes[i])
+                return false;
+            switch (t) {
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+            case Value.LONG:
+                if (doubleInputs[i])
+                    doubles[i] = v.getLong();
+                else
+                    longs[i] = v.getLong();
+                break;
+            case Value.DOUBLE:
+                if (!doubleInputs[i])
+                    return false;
+                doubles[i] = v.getDouble();
+                break;
+            default:
+                return false;
+            }
+            nulls[i] = false;
+        }
+        return true;
+    }
+
+    private static boolean isLongType(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isLongDecimal(Value v) {
+        BigDecimal d = v.getBigDecimal();
+        return d.scale() == 0 && d.unscaledValue().bitLength() < 64;
+    }
+
+    private static boolean isNumericType(int type) {
+        return isLongType(type) || type == Value.DOUBLE;
+    }
+
+    // 一个数值节点的结果
+    private static class Num {
+        final String value;
+        final String isNull;
+        final boolean isDouble;
+
+        Num(String value, String isNull, boolean isDouble) {
+            this.value = value;
+            this.isNull = isNull;
+            this.isDouble = isDouble;
+        }
+
+        String toDouble() {
+            return isDouble ? value : "(double) " + value;
+        }
+    }
+
+    private static class Generator {
+        private static final UnsupportedOperationException UNSUPPORTED = new UnsupportedOperationException();
+
+        final ServerSession session;
+        final StringBuilder body = new StringBuilder();
+        final ArrayList<Expression> inputs = new ArrayList<>();
+        final ArrayList<Integer> inputTypes = new ArrayList<>();
+        final ArrayList<Boolean> doubleInputs = new ArrayList<>();
+        final ArrayList<Expression> conditions = new ArrayList<>();
+        String indent = "        ";
+        int nextLocal;
+        int compiledNodes;
+
+        Generator(ServerSession session) {
+            this.session = session;
+        }
+
+        void line(String s) {
+            body.append(indent).append(s).append('\n');
+        }
+
+        // 返回一个int类型的局部变量名，1是true，0是false，-1是null
+        String condition(Expression e) {
+            if (e instanceof ConditionAndOr) {
+                ConditionAndOr c = (ConditionAndOr) e;
+                boolean and = c.getAndOrType() == ConditionAndOr.AND;
+                String t = "t" + nextLocal++;
+                line("int " + t + " = " + condition(c.getExpression(true)) + ";");
+                // 跟ConditionAndOr一样，左边能确定结果时不计算右边
+                line("if (" + t + (and ? " != 0" : " != 1") + ") {");
+                String oldIndent = indent;
+                indent += "    ";
+                String r = condition(c.getExpression(false));
+                line(t + " = " + r + (and ? " == 0 ? 0 : (" : " == 1 ? 1 : (") + t + " == -1 || " + r
+                        + " == -1 ? -1 : " + (and ? "1" : "0") + ");");
+                indent = oldIndent;
+                line("}");
+                return t;
+            } else if (e instanceof ConditionNot) {
+                String c = condition(((ConditionNot) e).getCondition());
+                String t = "t" + nextLocal++;
+                line("int " + t + " = " + c + " == -1 ? -1 : 1 - " + c + ";");
+                return t;
+            } else if (e instanceof Comparison) {
+                int length = body.length();
+                int inputCount = inputs.size();
+                try {
+                    return comparison((Comparison) e);
+                } catch (UnsupportedOperationException ex) {
+                    // 比较的不是数值，整个Comparison解释执行
+                    body.setLength(length);
+                    while (inputs.size() > inputCount) {
+                        int last = inputs.size() - 1;
+                        inputs.remove(last);
+                        inputTypes.remove(last);
+                        doubleInputs.remove(last);
+                    }
+                }
+            }
+            if (e.getType() != Value.BOOLEAN || !e.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR))
+                throw UNSUPPORTED;
+            String t = "t" + nextLocal++;
+            line("int " + t + " = s[" + conditions.size() + "].getAsInt();");
+            conditions.add(e);
+            return t;
+        }
+
+        private String comparison(Comparison c) {
+            int compareType = c.getCompareType();
+            Expression left = c.getExpression(true);
+            Expression right = c.getExpression(false);
+            String t = "t" + nextLocal++;
+            if (compareType == Comparison.IS_NULL || compareType == Comparison.IS_NOT_NULL) {
+                Num a = numeric(left);
+                line("int " + t + " = " + a.isNull + (compareType == Comparison.IS_NULL ? " ? 1 : 0;" : " ? 0 : 1;"));
+                compiledNodes++;
+                return t;
+            }
+            String op;
+            switch (compareType) {
+            case Comparison.EQUAL:
+            case Comparison.EQUAL_NULL_SAFE:
+                op = "==";
+                break;
+            case Comparison.NOT_EQUAL:
+            case Comparison.NOT_EQUAL_NULL_SAFE:
+                op = "!=";
+                break;
+            case Comparison.BIGGER_EQUAL:
+                op = ">=";
+                break;
+            case Comparison.BIGGER:
+                op = ">";
+                break;
+            case Comparison.SMALLER_EQUAL:
+                op = "<=";
+                break;
+            case Comparison.SMALLER:
+                op = "<";
+                break;
+            default:
+                throw UNSUPPORTED;
+            }
+            // 参数的类型要到执行时才知道，按另一边的类型比较，执行时类型不符就解释执行
+            Num a, b;
+            if (left instanceof Parameter && right instanceof Parameter) {
+                throw UNSUPPORTED;
+            } else if (left instanceof Parameter) {
+                b = numeric(right);
+                a = input(left, Value.UNKNOWN, b.isDouble);
+            } else if (right instanceof Parameter) {
+                a = numeric(left);
+                b = input(right, Value.UNKNOWN, a.isDouble);
+            } else {
+                a = numeric(left);
+                b = numeric(right);
+            }
+            String compare;
+            if (a.isDouble || b.isDouble)
+                compare = "Double.compare(" + a.toDouble() + ", " + b.toDouble() + ") " + op + " 0";
+            else
+                compare = a.value + " " + op + " " + b.value;
+            String ifNull;
+            if (compareType == Comparison.EQUAL_NULL_SAFE)
+                ifNull = "(" + a.isNull + " && " + b.isNull + " ? 1 : 0)";
+            else if (compareType == Comparison.NOT_EQUAL_NULL_SAFE)
+                ifNull = "(" + a.isNull + " && " + b.isNull + " ? 0 : 1)";
+            else
+                ifNull = "-1";
+            line("int " + t + " = " + a.isNull + " || " + b.isNull + " ? " + ifNull + " : (" + compare
+                    + " ? 1 : 0);");
+            compiledNodes++;
+            return t;
+        }
+
+        Num numeric(Expression e) {
+            if (e.isConstant()) {
+                Value v = e.getValue(session);
+                int t = v.getType();
+                if (isLongType(t) || t == Value.DECIMAL && isLongDecimal(v))
+                    return new Num("(" + v.getLong() + "L)", "false", false);
+                else if (t == Value.DOUBLE)
+                    return new Num("Double.longBitsToDouble(" + Double.doubleToRawLongBits(v.getDouble()) + "L)",
+                            "false", true);
+                throw UNSUPPORTED;
+            } else if (e instanceof ExpressionColumn) {
+                int t = e.getType();
+                if (!isNumericType(t))
+                    throw UNSUPPORTED;
+                return input(e, t, t == Value.DOUBLE);
+            } else if (e instanceof Operation) {
+                return operation((Operation) e);
+            }
+            throw UNSUPPORTED;
+        }
+
+        private Num input(Expression e, int type, boolean isDouble) {
+            int i = -1;
+            for (int j = 0, size = inputs.size(); j < size; j++) {
+                if (inputs.get(j) == e && doubleInputs.get(j) == isDouble) {
+                    i = j;
+                    break;
+                }
+            }
+            if (i < 0) {
+                i = inputs.size();
+                inputs.add(e);
+                inputTypes.add(type);
+                doubleInputs.add(isDouble);
+            }
+            return new Num((isDouble ? "d[" : "l[") + i + "]", "n[" + i + "]", isDouble);
+        }
+
+        private Num operation(Operation o) {
+            int type = o.getType();
+            int opType = o.getOperationType();
+            if (!isNumericType(type) && type != Value.DECIMAL || opType == Operation.CONCAT)
+                throw UNSUPPORTED;
+            Num a = numeric(o.getExpression(true));
+            Num b = opType == Operation.NEGATE ? null : numeric(o.getExpression(false));
+            String x, y;
+            String value;
+            if (type == Value.DOUBLE) {
+                x = a.toDouble();
+                y = b == null ? null : b.toDouble();
+                switch (opType) {
+                case Operation.PLUS:
+                    value = x + " + " + y;
+                    break;
+                case Operation.MINUS:
+                    value = x + " - " + y;
+                    break;
+                case Operation.MULTIPLY:
+                    value = x + " * " + y;
+                    break;
+                case Operation.DIVIDE:
+                    value = "divide(" + x + ", " + y + ")";
+                    break;
+                case Operation.MODULUS:
+                    value = "modulus(" + x + ", " + y + ")";
+                    break;
+                case Operation.NEGATE:
+                    value = "-" + x;
+                    break;
+                default:
+                    throw UNSUPPORTED;
+                }
+            } else {
+                if (a.isDouble || b != null && b.isDouble)
+                    throw UNSUPPORTED;
+                x = a.value;
+                y = b == null ? null : b.value;
+                // 整数之间的+、-、*、%结果是DECIMAL，没有超出long的范围时跟用BigDecimal计算的结果一样
+                if (type == Value.LONG || type == Value.DECIMAL) {
+                    if (type == Value.DECIMAL && opType == Operation.DIVIDE)
+                        throw UNSUPPORTED;
+                    switch (opType) {
+                    case Operation.PLUS:
+                        value = "Math.addExact(" + x + ", " + y + ")";
+                        break;
+                    case Operation.MINUS:
+                        value = "Math.subtractExact(" + x + ", " + y + ")";
+                        break;
+                    case Operation.MULTIPLY:
+                        value = "Math.multiplyExact(" + x + ", " + y + ")";
+                        break;
+                    case Operation.DIVIDE:
+                        value = x + " / " + y;
+                        break;
+                    case Operation.MODULUS:
+                        value = x + " % " + y;
+                        break;
+                    case Operation.NEGATE:
+                        value = "Math.negateExact(" + x + ")";
+                        break;
+                    default:
+                        throw UNSUPPORTED;
+                    }
+                } else {
+                    // 操作数都在对应类型的范围内，用long计算不会溢出
+                    String check, cast;
+                    if (type == Value.INT) {
+                        check = "toInt";
+                        cast = "(int)";
+                    } else if (type == Value.SHORT) {
+                        check = "toShort";
+                        cast = "(short)";
+                    } else {
+                        check = "toByte";
+                        cast = "(byte)";
+                    }
+                    switch (opType) {
+                    case Operation.PLUS:
+                        value = check + "(" + x + " + " + y + ")";
+                        break;
+                    case Operation.MINUS:
+                        value = check + "(" + x + " - " + y + ")";
+                        break;
+                    case Operation.MULTIPLY:
+                        value = check + "(" + x + " * " + y + ")";
+                        break;
+                    case Operation.DIVIDE:
+                        // 跟ValueInt一样，MIN_VALUE / -1不检查溢出
+                        value = cast + " (" + x + " / " + y + ")";
+                        break;
+                    case Operation.MODULUS:
+                        value = x + " % " + y;
+                        break;
+                    case Operation.NEGATE:
+                        value = check + "(-" + x + ")";
+                        break;
+                    default:
+                        throw UNSUPPORTED;
+                    }
+                }
+            }
+            int k = nextLocal++;
+            String isNull = b == null ? a.isNull : a.isNull + " || " + b.isNull;
+            line("boolean n" + k + " = " + isNull + ";");
+            line((type == Value.DOUBLE ? "double" : "long") + " v" + k + " = n" + k + " ? 0 : " + value + ";");
+            compiledNodes++;
+            return new Num("v" + k, "n" + k, type == Value.DOUBLE);
+        }
+    }
+}
@@ -395,4 +395,19 @@ public class Operation extends Expression {
         return left.getCost() + 1 + (right == null ? 0 : right.getCost());
     }
 
+    public int getOperationType() {
+        return opType;
+    }
+
+    /**
+     * Get the left or the right sub-expression of this operation.
+     *
+     * @param getLeft true to get the left sub-expression, false to get the right
+     *            sub-expression.
+     * @return the sub-expression, the right one is null for NEGATE
+     */
+    public Expression getExpression(boolean getLeft) {
+        return getLeft ? left : right;
+    }
+
 }
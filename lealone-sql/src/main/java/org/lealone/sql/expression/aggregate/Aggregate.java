@@ -15,6 +15,8 @@ import org.lealone.common.util.StatementBuilder;
 import org.lealone.common.util.StringUtils;
 import org.lealone.db.ServerSession;
 import org.lealone.db.api.ErrorCode;
+import org.lealone.db.index.BatchCursor;
+import org.lealone.db.index.ColumnVector;
 import org.lealone.db.index.Cursor;
 import org.lealone.db.index.Index;
 import org.lealone.db.result.SearchRow;
@@ -279,6 +281,109 @@ public class Aggregate extends Expression {
         data.add(session.getDatabase(), dataType, distinct, v);
     }
 
+    /**
+     * 创建按分组号保存中间结果的AggregateArray，不支持时返回null.
+     *
+     * @return the aggregate array or null
+     */
+    public AggregateArray createAggregateArray() {
+        return AggregateArray.create(type, dataType, distinct);
+    }
+
+    /**
+     * 计算当前行的参数值，COUNT(*)返回null
+     *
+     * @param session the session
+     * @return the value or null
+     */
+    public Value getOnValue(ServerSession session) {
+        return on == null ? null : on.getValue(session);
+    }
+
+    /**
+     * 是否可以直接在列向量上计算，只支持不带distinct的COUNT、SUM、AVG、MIN、MAX，并且参数是filter中的字段.
+     *
+     * @param filter the table filter
+     * @return true if updateAggregate(session, cursor) can be used
+     */
+    public boolean isBatchable(TableFilter filter) {
+        if (distinct)
+            return false;
+        switch (type) {
+        case COUNT_ALL:
+            return true;
+        case COUNT:
+        case SUM:
+        case AVG:
+        case MIN:
+        case MAX:
+            return on instanceof ExpressionColumn && ((ExpressionColumn) on).getTableFilter() == filter;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * 返回参数对应的列id，COUNT(*)返回-1
+     */
+    public int getBatchColumnId() {
+        return on == null ? -1 : ((ExpressionColumn) on).getColumn().getColumnId();
+    }
+
+    /**
+     * 用当前这一批记录更新聚合结果，只有isBatchable返回true时才能调用.
+     *
+     * @param session the session
+     * @param cursor the batch cursor
+     */
+    public void updateAggregate(ServerSession session, BatchCursor cursor) {
+        HashMap<Expression, Object> group = select.getCurrentGroup();
+        AggregateData data = (AggregateData) group.get(this);
+        if (data == null) {
+            data = AggregateData.create(type);
+            group.put(this, data);
+        }
+        ColumnVector vector = on == null ? null : cursor.getColumn(getBatchColumnId());
+        data.add(session.getDatabase(), dataType, vector, cursor.getRowCount());
+    }
+
+    /**
+     * 并行执行时每个分片单独计算的部分结果，只能传给updatePartialAggregate和mergePartialAggregate.
+     *
+     * @return the partial result
+     */
+    public Object createPartialAggregate() {
+        return AggregateData.create(type);
+    }
+
+    /**
+     * 用一个分片当前这一批记录更新这个分片的部分结果，只有isBatchable返回true时才能调用，可以在其他线程中执行.
+     *
+     * @param session the session
+     * @param partial the partial result
+     * @param cursor the batch cursor of the fragment
+     */
+    public void updatePartialAggregate(ServerSession session, Object partial, BatchCursor cursor) {
+        ColumnVector vector = on == null ? null : cursor.getColumn(getBatchColumnId());
+        ((AggregateData) partial).add(session.getDatabase(), dataType, vector, cursor.getRowCount());
+    }
+
+    /**
+     * 把一个分片的部分结果合并到当前分组中.
+     *
+     * @param session the session
+     * @param partial the partial result
+     */
+    public void mergePartialAggregate(ServerSession session, Object partial) {
+        HashMap<Expression, Object> group = select.getCurrentGroup();
+        AggregateData data = (AggregateData) group.get(this);
+        if (data == null) {
+            data = AggregateData.create(type);
+            group.put(this, data);
+        }
+        data.merge(session.getDatabase(), (AggregateData) partial);
+    }
+
     @Override
     public void mergeAggregate(ServerSession session, Value v) {
         HashMap<Expression, Object> group = select.getCurrentGroup();
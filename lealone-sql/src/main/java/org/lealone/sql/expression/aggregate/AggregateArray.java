@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression.aggregate;
+
+import java.util.Arrays;
+
+import org.lealone.db.Database;
+import org.lealone.db.value.DataType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * 一个聚合函数在所有分组上的中间结果，按分组号保存在数组中，
+ * 不需要像AggregateData那样为每个分组创建一个对象.
+ *
+ * <p>
+ * 中间结果可以转换成固定个数的Value写到临时文件，之后再合并回来。
+ * 计算方式跟AggregateDataDefault一样，所以结果也一样。
+ */
+public abstract class AggregateArray {
+
+    protected final int dataType;
+
+    AggregateArray(int dataType) {
+        this.dataType = dataType;
+    }
+
+    /**
+     * 为聚合函数创建对应的AggregateArray，只支持不带distinct的COUNT、SUM、AVG、MIN、MAX，其他的返回null.
+     *
+     * @param aggregateType the type of the aggregate operation
+     * @param dataType the datatype of the computed result
+     * @param distinct if distinct is used
+     * @return the aggregate array or null
+     */
+    static AggregateArray create(int aggregateType, int dataType, boolean distinct) {
+        if (distinct) {
+            return null;
+        }
+        switch (aggregateType) {
+        case Aggregate.COUNT_ALL:
+        case Aggregate.COUNT:
+            return new CountArray(dataType);
+        case Aggregate.SUM:
+        case Aggregate.MIN:
+        case Aggregate.MAX:
+            return new ValueArray(aggregateType, dataType);
+        case Aggregate.AVG:
+            return new AvgArray(dataType);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * 确保可以保存groupCount个分组.
+     *
+     * @param groupCount the number of groups
+     */
+    public abstract void ensureCapacity(int groupCount);
+
+    /**
+     * 清除所有分组的中间结果.
+     *
+     * @param groupCount the number of groups in use
+     */
+    public abstract void clear(int groupCount);
+
+    /**
+     * Add a value to a group.
+     *
+     * @param database the database
+     * @param group the group id
+     * @param v the value, null for COUNT(*)
+     */
+    public abstract void add(Database database, int group, Value v);
+
+    /**
+     * Get the aggregate result of a group.
+     *
+     * @param database the database
+     * @param group the group id
+     * @return the value
+     */
+    public abstract Value getValue(Database database, int group);
+
+    /**
+     * 中间结果需要用几个Value表示.
+     */
+    public abstract int getStateSize();
+
+    /**
+     * 每个分组大概占用的内存.
+     */
+    public abstract int getMemoryPerGroup();
+
+    /**
+     * 把一个分组的中间结果写到row中从offset开始的位置.
+     *
+     * @param group the group id
+     * @param row the row
+     * @param offset the offset
+     */
+    public abstract void writeState(int group, Value[] row, int offset);
+
+    /**
+     * 把writeState写出的中间结果合并到一个分组中.
+     *
+     * @param database the database
+     * @param group the group id
+     * @param row the row
+     * @param offset the offset
+     */
+    public abstract void mergeState(Database database, int group, Value[] row, int offset);
+
+    private static int newCapacity(int length, int groupCount) {
+        return Math.max(groupCount, Math.max(16, length + (length >> 1)));
+    }
+
+    private static Value sum(Value sum, Value v, int sumType) {
+        if (sum == null) {
+            return v.convertTo(sumType);
+        }
+        return sum.add(v.convertTo(sum.getType()));
+    }
+
+    private static class CountArray extends AggregateArray {
+
+        private long[] counts = new long[0];
+
+        CountArray(int dataType) {
+            super(dataType);
+        }
+
+        @Override
+        public void ensureCapacity(int groupCount) {
+            if (groupCount > counts.length) {
+                counts = Arrays.copyOf(counts, newCapacity(counts.length, groupCount));
+            }
+        }
+
+        @Override
+        public void clear(int groupCount) {
+            Arrays.fill(counts, 0, groupCount, 0);
+        }
+
+        @Override
+        public void add(Database database, int group, Value v) {
+            if (v != ValueNull.INSTANCE) {
+                counts[group]++;
+            }
+        }
+
+        @Override
+        public Value getValue(Database database, int group) {
+            return ValueLong.get(counts[group]).convertTo(dataType);
+        }
+
+        @Override
+        public int getStateSize() {
+            return 1;
+        }
+
+        @Override
+        public int getMemoryPerGroup() {
+            return 8;
+        }
+
+        @Override
+        public void writeState(int group, Value[] row, int offset) {
+            row[offset] = ValueLong.get(counts[group]);
+        }
+
+        @Override
+        public void mergeState(Database database, int group, Value[] row, int offset) {
+            counts[group] += row[offset].getLong();
+        }
+    }
+
+    // SUM、MIN、MAX只需要保存当前值
+    private static class ValueArray extends AggregateArray {
+
+        private final int aggregateType;
+        private Value[] values = new Value[0];
+
+        ValueArray(int aggregateType, int dataType) {
+            super(dataType);
+            this.aggregateType = aggregateType;
+        }
+
+        @Override
+        public void ensureCapacity(int groupCount) {
+            if (groupCount > values.length) {
+                values = Arrays.copyOf(values, newCapacity(values.length, groupCount));
+            }
+        }
+
+        @Override
+        public void clear(int groupCount) {
+            Arrays.fill(values, 0, groupCount, null);
+        }
+
+        @Override
+        public void add(Database database, int group, Value v) {
+            if (v == ValueNull.INSTANCE) {
+                return;
+            }
+            Value value = values[group];
+            switch (aggregateType) {
+            case Aggregate.SUM:
+                values[group] = sum(value, v, dataType);
+                break;
+            case Aggregate.MIN:
+                if (value == null || database.compare(v, value) < 0) {
+                    values[group] = v;
+                }
+                break;
+            default:
+                if (value == null || database.compare(v, value) > 0) {
+                    values[group] = v;
+                }
+            }
+        }
+
+        @Override
+        public Value getValue(Database database, int group) {
+            Value v = values[group];
+            return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
+        }
+
+        @Override
+        public int getStateSize() {
+            return 1;
+        }
+
+        @Override
+        public int getMemoryPerGroup() {
+            return 8;
+        }
+
+        @Override
+        public void writeState(int group, Value[] row, int offset) {
+            Value v = values[group];
+            row[offset] = v == null ? ValueNull.INSTANCE : v;
+        }
+
+        @Override
+        public void mergeState(Database database, int group, Value[] row, int offset) {
+            add(database, group, row[offset]);
+        }
+    }
+
+    // AVG要保存非NULL值的个数和累加值
+    private static class AvgArray extends AggregateArray {
+
+        private final int sumType;
+        private long[] counts = new long[0];
+        private Value[] sums = new Value[0];
+
+        AvgArray(int dataType) {
+            super(dataType);
+            sumType = DataType.getAddProofType(dataType);
+        }
+
+        @Override
+        public void ensureCapacity(int groupCount) {
+            if (groupCount > counts.length) {
+                int capacity = newCapacity(counts.length, groupCount);
+                counts = Arrays.copyOf(counts, capacity);
+                sums = Arrays.copyOf(sums, capacity);
+            }
+        }
+
+        @Override
+        public void clear(int groupCount) {
+            Arrays.fill(counts, 0, groupCount, 0);
+            Arrays.fill(sums, 0, groupCount, null);
+        }
+
+        @Override
+        public void add(Database database, int group, Value v) {
+            if (v != ValueNull.INSTANCE) {
+                counts[group]++;
+                sums[group] = sum(sums[group], v, sumType);
+            }
+        }
+
+        @Override
+        public Value getValue(Database database, int group) {
+            Value sum = sums[group];
+            if (sum == null) {
+                return ValueNull.INSTANCE;
+            }
+            return Aggregate.divide(sum, counts[group]).convertTo(dataType);
+        }
+
+        @Override
+        public int getStateSize() {
+            return 2;
+        }
+
+        @Override
+        public int getMemoryPerGroup() {
+            return 16;
+        }
+
+        @Override
+        public void writeState(int group, Value[] row, int offset) {
+            Value sum = sums[group];
+            row[offset] = ValueLong.get(counts[group]);
+            row[offset + 1] = sum == null ? ValueNull.INSTANCE : sum;
+        }
+
+        @Override
+        public void mergeState(Database database, int group, Value[] row, int offset) {
+            Value sum = row[offset + 1];
+            if (sum != ValueNull.INSTANCE) {
+                counts[group] += row[offset].getLong();
+                sums[group] = sum(sums[group], sum, sumType);
+            }
+        }
+    }
+}
@@ -5,7 +5,9 @@
  */
 package org.lealone.sql.expression.aggregate;
 
+import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Database;
+import org.lealone.db.index.ColumnVector;
 import org.lealone.db.value.Value;
 
 /**
@@ -45,6 +47,20 @@ abstract class AggregateData {
      */
     abstract void add(Database database, int dataType, boolean distinct, Value v);
 
+    /**
+     * Add a batch of values to this aggregate (distinct is not used).
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param vector the values, null for COUNT(*)
+     * @param rowCount the number of rows in the batch
+     */
+    void add(Database database, int dataType, ColumnVector vector, int rowCount) {
+        for (int i = 0; i < rowCount; i++) {
+            add(database, dataType, false, vector.getValue(i));
+        }
+    }
+
     /**
      * Get the aggregate result.
      *
@@ -57,5 +73,15 @@ abstract class AggregateData {
 
     abstract void merge(Database database, int dataType, boolean distinct, Value v);
 
+    /**
+     * 合并另一个分片用add(database, dataType, vector, rowCount)得到的部分结果(不使用distinct).
+     *
+     * @param database the database
+     * @param other the partial result of the same aggregate type
+     */
+    void merge(Database database, AggregateData other) {
+        throw DbException.throwInternalError();
+    }
+
     abstract Value getMergedValue(Database database, int dataType, boolean distinct);
 }
\ No newline at end of file
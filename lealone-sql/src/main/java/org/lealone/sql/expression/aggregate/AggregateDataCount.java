@@ -6,6 +6,7 @@
 package org.lealone.sql.expression.aggregate;
 
 import org.lealone.db.Database;
+import org.lealone.db.index.ColumnVector;
 import org.lealone.db.util.ValueHashMap;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueLong;
@@ -33,6 +34,18 @@ class AggregateDataCount extends AggregateData {
         }
     }
 
+    @Override
+    void add(Database database, int dataType, ColumnVector vector, int rowCount) {
+        if (!vector.hasNulls()) {
+            count += rowCount;
+            return;
+        }
+        for (int i = 0; i < rowCount; i++) {
+            if (!vector.isNull(i))
+                count++;
+        }
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
@@ -51,6 +64,11 @@ class AggregateDataCount extends AggregateData {
         count += v.getLong();
     }
 
+    @Override
+    void merge(Database database, AggregateData other) {
+        count += ((AggregateDataCount) other).count;
+    }
+
     @Override
     Value getMergedValue(Database database, int dataType, boolean distinct) {
         return ValueLong.get(count);
@@ -7,6 +7,7 @@ package org.lealone.sql.expression.aggregate;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Database;
+import org.lealone.db.index.ColumnVector;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueLong;
 import org.lealone.db.value.ValueNull;
@@ -26,6 +27,11 @@ class AggregateDataCountAll extends AggregateData {
         count++;
     }
 
+    @Override
+    void add(Database database, int dataType, ColumnVector vector, int rowCount) {
+        count += rowCount;
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
@@ -40,6 +46,11 @@ class AggregateDataCountAll extends AggregateData {
         count += v.getLong();
     }
 
+    @Override
+    void merge(Database database, AggregateData other) {
+        count += ((AggregateDataCountAll) other).count;
+    }
+
     @Override
     Value getMergedValue(Database database, int dataType, boolean distinct) {
         return ValueLong.get(count);
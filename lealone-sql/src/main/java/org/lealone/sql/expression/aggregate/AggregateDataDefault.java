@@ -7,6 +7,7 @@ package org.lealone.sql.expression.aggregate;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Database;
+import org.lealone.db.index.ColumnVector;
 import org.lealone.db.util.ValueHashMap;
 import org.lealone.db.value.DataType;
 import org.lealone.db.value.Value;
@@ -125,6 +126,101 @@ class AggregateDataDefault extends AggregateData {
         }
     }
 
+    // 整数和DOUBLE类型的列直接在基本类型数组上计算，其他情况逐个调用add
+    @Override
+    void add(Database database, int dataType, ColumnVector vector, int rowCount) {
+        switch (aggregateType) {
+        case Aggregate.SUM:
+        case Aggregate.AVG: {
+            int sumType = aggregateType == Aggregate.SUM ? dataType : DataType.getAddProofType(dataType);
+            if (vector.isLongVector()) {
+                addLongs(sumType, vector, rowCount);
+                return;
+            } else if (vector.isDoubleVector() && sumType == Value.DOUBLE) {
+                addDoubles(vector, rowCount);
+                return;
+            }
+            break;
+        }
+        case Aggregate.MIN:
+        case Aggregate.MAX:
+            if (vector.isLongVector()) {
+                addMinOrMax(database, vector, rowCount);
+                return;
+            }
+            break;
+        }
+        super.add(database, dataType, vector, rowCount);
+    }
+
+    private void addLongs(int sumType, ColumnVector vector, int rowCount) {
+        long[] longs = vector.getLongs();
+        long sum = 0;
+        int n = 0;
+        for (int i = 0; i < rowCount; i++) {
+            if (vector.isNull(i))
+                continue;
+            long x = longs[i];
+            long r = sum + x;
+            // 溢出时先把已经累加的部分加到value中，再从当前值重新开始累加
+            if (((sum ^ r) & (x ^ r)) < 0) {
+                addSum(sumType, sum, n);
+                r = x;
+                n = 0;
+            }
+            sum = r;
+            n++;
+        }
+        addSum(sumType, sum, n);
+    }
+
+    private void addSum(int sumType, long sum, int n) {
+        if (n == 0)
+            return;
+        count += n;
+        Value v = ValueLong.get(sum);
+        if (value == null) {
+            value = v.convertTo(sumType);
+        } else {
+            value = value.add(v.convertTo(value.getType()));
+        }
+    }
+
+    // 按顺序累加，跟逐个调用add的结果一样
+    private void addDoubles(ColumnVector vector, int rowCount) {
+        double[] doubles = vector.getDoubles();
+        double sum = value == null ? 0 : value.getDouble();
+        int n = 0;
+        for (int i = 0; i < rowCount; i++) {
+            if (vector.isNull(i))
+                continue;
+            sum += doubles[i];
+            n++;
+        }
+        if (n > 0) {
+            count += n;
+            value = ValueDouble.get(sum);
+        }
+    }
+
+    private void addMinOrMax(Database database, ColumnVector vector, int rowCount) {
+        long[] longs = vector.getLongs();
+        boolean min = aggregateType == Aggregate.MIN;
+        int index = -1;
+        for (int i = 0; i < rowCount; i++) {
+            if (vector.isNull(i))
+                continue;
+            count++;
+            if (index < 0 || (min ? longs[i] < longs[index] : longs[i] > longs[index]))
+                index = i;
+        }
+        if (index >= 0) {
+            Value v = vector.getValue(index);
+            if (value == null || (min ? database.compare(v, value) < 0 : database.compare(v, value) > 0))
+                value = v;
+        }
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
@@ -264,6 +360,37 @@ class AggregateDataDefault extends AggregateData {
         }
     }
 
+    @Override
+    void merge(Database database, AggregateData other) {
+        AggregateDataDefault data = (AggregateDataDefault) other;
+        if (data.value == null) {
+            return;
+        }
+        count += data.count;
+        if (value == null) {
+            value = data.value;
+            return;
+        }
+        switch (aggregateType) {
+        case Aggregate.SUM:
+        case Aggregate.AVG:
+            value = value.add(data.value.convertTo(value.getType()));
+            break;
+        case Aggregate.MIN:
+            if (database.compare(data.value, value) < 0) {
+                value = data.value;
+            }
+            break;
+        case Aggregate.MAX:
+            if (database.compare(data.value, value) > 0) {
+                value = data.value;
+            }
+            break;
+        default:
+            DbException.throwInternalError("type=" + aggregateType);
+        }
+    }
+
     @Override
     Value getMergedValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
@@ -275,6 +275,10 @@ public class ConditionAndOr extends Condition {
         return left.getCost() + right.getCost();
     }
 
+    public int getAndOrType() {
+        return andOrType;
+    }
+
     /**
      * Get the left or the right sub-expression of this condition.
      *
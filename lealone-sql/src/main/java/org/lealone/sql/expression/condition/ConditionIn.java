@@ -7,10 +7,13 @@
 package org.lealone.sql.expression.condition;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import org.lealone.common.util.StatementBuilder;
 import org.lealone.db.Database;
 import org.lealone.db.ServerSession;
+import org.lealone.db.table.Column;
+import org.lealone.db.value.DataType;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueBoolean;
 import org.lealone.db.value.ValueNull;
@@ -27,11 +30,22 @@ import org.lealone.sql.optimizer.TableFilter;
  */
 public class ConditionIn extends Condition {
 
+    /**
+     * 值列表中的元素个数达到这个数时，每次执行语句只算一次值列表，然后查hash表.
+     */
+    private static final int HASH_THRESHOLD = 8;
+
     private final Database database;
     private Expression left;
     private final ArrayList<Expression> valueList;
     private int queryLevel;
 
+    // 值列表中只有参数和常量时才能用hash表，每次执行语句时参数值都可能不一样，所以要重新创建
+    private boolean hashable;
+    private InValueSet valueSet;
+    private ServerSession valueSetSession;
+    private long valueSetCommandId;
+
     /**
      * Create a new IN(..) condition.
      *
@@ -51,6 +65,14 @@ public class ConditionIn extends Condition {
         if (l == ValueNull.INSTANCE) {
             return l;
         }
+        if (hashable) {
+            InValueSet set = getValueSet(session);
+            boolean result = set.contains(l.convertTo(set.getType()));
+            if (!result && set.hasNull()) {
+                return ValueNull.INSTANCE;
+            }
+            return ValueBoolean.get(result);
+        }
         boolean result = false;
         boolean hasNull = false;
         for (Expression e : valueList) {
@@ -71,6 +93,21 @@ public class ConditionIn extends Condition {
         return ValueBoolean.get(result);
     }
 
+    private InValueSet getValueSet(ServerSession session) {
+        long commandId = session.getCurrentCommandId();
+        if (valueSet == null || valueSetSession != session || valueSetCommandId != commandId) {
+            int type = left.getType();
+            InValueSet set = new InValueSet(type, valueList.size());
+            for (Expression e : valueList) {
+                set.add(e.getValue(session).convertTo(type));
+            }
+            valueSet = set;
+            valueSetSession = session;
+            valueSetCommandId = commandId;
+        }
+        return valueSet;
+    }
+
     @Override
     public void mapColumns(ColumnResolver resolver, int level) {
         left.mapColumns(resolver, level);
@@ -111,17 +148,29 @@ public class ConditionIn extends Condition {
             return expr;
         }
         if (allValuesConstant && !allValuesNull) {
-            int leftType = left.getType();
-            if (leftType == Value.UNKNOWN) {
+            // ConditionInConstantSet也是用hash表查找的
+            if (!DataType.isHashable(left.getType(), database.getCompareMode())) {
                 return this;
             }
             Expression expr = new ConditionInConstantSet(session, left, valueList);
             expr = expr.optimize(session);
             return expr;
         }
+        hashable = size >= HASH_THRESHOLD && DataType.isHashable(left.getType(), database.getCompareMode())
+                && isIndependentOfRows();
         return this;
     }
 
+    // 值列表中不能引用任何字段，也不能有rand()和序列这样的表达式
+    private boolean isIndependentOfRows() {
+        if (!areAllValues(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+            return false;
+        }
+        HashSet<Column> columns = new HashSet<>();
+        areAllValues(ExpressionVisitor.getColumnsVisitor(columns));
+        return columns.isEmpty();
+    }
+
     @Override
     public void createIndexConditions(ServerSession session, TableFilter filter) {
         if (!(left instanceof ExpressionColumn)) {
@@ -207,6 +256,9 @@ public class ConditionIn extends Condition {
         Expression add = other.getIfEquals(left);
         if (add != null) {
             valueList.add(add);
+            // 调用者会重新optimize
+            hashable = false;
+            valueSet = null;
             return this;
         }
         return null;
@@ -7,7 +7,6 @@
 package org.lealone.sql.expression.condition;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.StatementBuilder;
@@ -27,14 +26,14 @@ import org.lealone.sql.optimizer.TableFilter;
  * constant and of the same type.
  * <p>
  * Checking using a HashSet is has time complexity O(1), instead of O(n) for
- * checking using an array.
+ * checking using an array. Integer values are kept in a primitive hash set.
  */
 public class ConditionInConstantSet extends Condition {
 
     private Expression left;
     private int queryLevel;
     private final ArrayList<Expression> valueList;
-    private final HashSet<Value> valueSet;
+    private final InValueSet valueSet;
 
     /**
      * Create a new IN(..) condition.
@@ -46,8 +45,8 @@ public class ConditionInConstantSet extends Condition {
     public ConditionInConstantSet(ServerSession session, Expression left, ArrayList<Expression> valueList) {
         this.left = left;
         this.valueList = valueList;
-        this.valueSet = new HashSet<Value>(valueList.size());
         int type = left.getType();
+        this.valueSet = new InValueSet(type, valueList.size());
         for (Expression expression : valueList) {
             valueSet.add(expression.getValue(session).convertTo(type));
         }
@@ -61,8 +60,7 @@ public class ConditionInConstantSet extends Condition {
         }
         boolean result = valueSet.contains(x);
         if (!result) {
-            boolean setHasNull = valueSet.contains(ValueNull.INSTANCE);
-            if (setHasNull) {
+            if (valueSet.hasNull()) {
                 return ValueNull.INSTANCE;
             }
         }
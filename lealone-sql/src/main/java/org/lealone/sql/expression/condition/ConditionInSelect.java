@@ -11,6 +11,7 @@ import org.lealone.common.util.StringUtils;
 import org.lealone.db.Database;
 import org.lealone.db.ServerSession;
 import org.lealone.db.api.ErrorCode;
+import org.lealone.db.value.DataType;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueBoolean;
 import org.lealone.db.value.ValueNull;
@@ -34,6 +35,12 @@ public class ConditionInSelect extends Condition {
     private final boolean all;
     private final int compareType;
 
+    // 不相关子查询的结果在一次语句执行中不会变，只算一次然后放到hash表中
+    private InValueSet valueSet;
+    private boolean valueSetEmpty;
+    private ServerSession valueSetSession;
+    private long valueSetCommandId;
+
     public ConditionInSelect(Database database, Expression left, Query query, boolean all, int compareType) {
         this.database = database;
         this.left = left;
@@ -44,6 +51,10 @@ public class ConditionInSelect extends Condition {
 
     @Override
     public Value getValue(ServerSession session) {
+        if (!all && (compareType == Comparison.EQUAL || compareType == Comparison.EQUAL_NULL_SAFE)
+                && session.getDatabase().getSettings().optimizeInSelect && useValueSet(session)) {
+            return getValueHashed(session);
+        }
         query.setSession(session);
         SubqueryResult rows = new SubqueryResult(query, 0); // query.query(0);
         session.addTemporaryResult(rows);
@@ -73,6 +84,59 @@ public class ConditionInSelect extends Condition {
         return ValueBoolean.get(false);
     }
 
+    private boolean useValueSet(ServerSession session) {
+        if (valueSetSession == session && valueSetCommandId == session.getCurrentCommandId()) {
+            return valueSet != null || valueSetEmpty;
+        }
+        valueSet = null;
+        valueSetEmpty = false;
+        valueSetSession = session;
+        valueSetCommandId = session.getCurrentCommandId();
+        query.setSession(session);
+        if (!query.isEverything(ExpressionVisitor.INDEPENDENT_VISITOR)
+                || !query.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+            return false;
+        }
+        SubqueryResult rows = new SubqueryResult(query, 0);
+        session.addTemporaryResult(rows);
+        int rowCount = rows.getRowCount();
+        if (rowCount == 0) {
+            valueSetEmpty = true;
+            return true;
+        }
+        int dataType = rows.getColumnType(0);
+        if (!DataType.isHashable(dataType, database.getCompareMode())) {
+            return false;
+        }
+        InValueSet set = new InValueSet(dataType, rowCount);
+        while (rows.next()) {
+            set.add(rows.currentRow()[0].convertTo(dataType));
+        }
+        valueSet = set;
+        return true;
+    }
+
+    private Value getValueHashed(ServerSession session) {
+        if (valueSetEmpty) {
+            return ValueBoolean.get(false);
+        }
+        Value l = left.getValue(session);
+        if (l == ValueNull.INSTANCE) {
+            return l;
+        }
+        int dataType = valueSet.getType();
+        if (dataType == Value.NULL) {
+            return ValueBoolean.get(false);
+        }
+        if (valueSet.contains(l.convertTo(dataType))) {
+            return ValueBoolean.get(true);
+        }
+        if (valueSet.hasNull()) {
+            return ValueNull.INSTANCE;
+        }
+        return ValueBoolean.get(false);
+    }
+
     private Value getValueSlow(SubqueryResult rows, Value l) {
         // this only returns the correct result if the result has at least one
         // row, and if l is not null
@@ -102,4 +102,8 @@ public class ConditionNot extends Condition {
         return condition.getCost();
     }
 
+    public Expression getCondition() {
+        return condition;
+    }
+
 }
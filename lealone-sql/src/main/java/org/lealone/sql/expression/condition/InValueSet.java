@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression.condition;
+
+import java.util.HashSet;
+
+import org.lealone.db.value.DataType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * IN条件用的值集合.
+ *
+ * <p>
+ * 所有值都要先转换成同一种类型，TINYINT、SMALLINT、INT和BIGINT的值直接放到一个开放寻址的long数组中，
+ * 不需要创建Value对象，也不用调用Value.hashCode和equals；其他类型用HashSet。
+ * 只有Value.equals和比较的结果一致的类型才能放到集合中，见{@link DataType#isHashable}。
+ */
+class InValueSet {
+
+    private final int type;
+    private final HashSet<Value> values;
+
+    // 0是空位，值0单独记录
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    private boolean hasNull;
+
+    InValueSet(int type, int expectedSize) {
+        this.type = type;
+        if (isPrimitive(type)) {
+            values = null;
+            int len = 16;
+            while (len < expectedSize * 2) {
+                len <<= 1;
+            }
+            keys = new long[len];
+            mask = len - 1;
+        } else {
+            values = new HashSet<>(expectedSize);
+        }
+    }
+
+    static boolean isPrimitive(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    int getType() {
+        return type;
+    }
+
+    /**
+     * 加入一个值，值的类型必须已经转换成了集合的类型.
+     *
+     * @param v the value
+     */
+    void add(Value v) {
+        if (v == ValueNull.INSTANCE) {
+            hasNull = true;
+        } else if (values != null) {
+            values.add(v);
+        } else {
+            add(v.getLong());
+        }
+    }
+
+    /**
+     * 检查集合中是否有这个值，值不能是NULL，类型必须已经转换成了集合的类型.
+     *
+     * @param v the value
+     * @return true if the set contains the value
+     */
+    boolean contains(Value v) {
+        if (values != null) {
+            return values.contains(v);
+        }
+        long key = v.getLong();
+        if (key == 0) {
+            return containsZero;
+        }
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return true;
+            } else if (k == 0) {
+                return false;
+            }
+        }
+    }
+
+    boolean hasNull() {
+        return hasNull;
+    }
+
+    private void add(long key) {
+        if (key == 0) {
+            containsZero = true;
+            return;
+        }
+        if (insert(keys, mask, key)) {
+            if (++size * 2 > keys.length) {
+                rehash();
+            }
+        }
+    }
+
+    private void rehash() {
+        long[] newKeys = new long[keys.length * 2];
+        int newMask = newKeys.length - 1;
+        for (long k : keys) {
+            if (k != 0) {
+                insert(newKeys, newMask, k);
+            }
+        }
+        keys = newKeys;
+        mask = newMask;
+    }
+
+    private static boolean insert(long[] keys, int mask, long key) {
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return false;
+            } else if (k == 0) {
+                keys[i] = key;
+                return true;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression.condition;
+
+import java.util.ArrayList;
+import java.util.function.Predicate;
+
+import org.lealone.db.Database;
+import org.lealone.db.ServerSession;
+import org.lealone.db.index.VersionedValue;
+import org.lealone.db.table.Table;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.ExpressionColumn;
+import org.lealone.sql.expression.Parameter;
+import org.lealone.sql.optimizer.TableFilter;
+
+/**
+ * 下推到存储层cursor的过滤条件，在构造Row和计算表达式之前跳过不满足条件的记录.
+ *
+ * <p>
+ * 只下推WHERE条件中用AND连接的"列 比较运算符 常量或参数"，比如 f1 > 10 AND f2 = ?，
+ * 其他条件仍然由TableFilter判断，TableFilter也会对存储层返回的记录再判断一次完整的条件，
+ * 所以这里只是一个提前过滤，不会改变查询结果。
+ */
+public class StoragePredicate implements Predicate<Object> {
+
+    private final Database database;
+    private final Table table;
+    private final int[] columnIds;
+    private final int[] compareTypes;
+    private final int[] leftTypes;
+    private final int[] dataTypes;
+    private final Expression[] rightExpressions;
+    private final Value[] rightValues;
+    private int tableVersion;
+
+    private StoragePredicate(ServerSession session, Table table, ArrayList<Comparison> comparisons) {
+        database = session.getDatabase();
+        this.table = table;
+        int size = comparisons.size();
+        columnIds = new int[size];
+        compareTypes = new int[size];
+        leftTypes = new int[size];
+        dataTypes = new int[size];
+        rightExpressions = new Expression[size];
+        rightValues = new Value[size];
+        for (int i = 0; i < size; i++) {
+            Comparison c = comparisons.get(i);
+            ExpressionColumn left = (ExpressionColumn) c.getExpression(true);
+            Expression right = c.getExpression(false);
+            columnIds[i] = left.getColumn().getColumnId();
+            compareTypes[i] = c.getCompareType();
+            rightExpressions[i] = right;
+            leftTypes[i] = left.getType();
+            dataTypes[i] = leftTypes[i];
+        }
+    }
+
+    /**
+     * 从TableFilter的过滤条件中找出可以下推的部分，没有时返回null.
+     *
+     * @param session the session
+     * @param filter the table filter
+     * @param conditions the conditions, may contain null
+     * @return the predicate or null
+     */
+    public static StoragePredicate create(ServerSession session, TableFilter filter, Expression... conditions) {
+        ArrayList<Comparison> comparisons = new ArrayList<>();
+        for (Expression condition : conditions) {
+            if (condition != null)
+                collect(filter, condition, comparisons);
+        }
+        if (comparisons.isEmpty())
+            return null;
+        return new StoragePredicate(session, filter.getTable(), comparisons);
+    }
+
+    private static void collect(TableFilter filter, Expression e, ArrayList<Comparison> comparisons) {
+        if (e instanceof ConditionAndOr) {
+            ConditionAndOr c = (ConditionAndOr) e;
+            if (c.getAndOrType() == ConditionAndOr.AND) {
+                collect(filter, c.getExpression(true), comparisons);
+                collect(filter, c.getExpression(false), comparisons);
+            }
+        } else if (e instanceof Comparison) {
+            Comparison c = (Comparison) e;
+            if (c.getCompareType() > Comparison.IS_NOT_NULL && (c.getCompareType() & Comparison.NULL_SAFE) == 0)
+                return;
+            Expression left = c.getExpression(true);
+            Expression right = c.getExpression(false);
+            if (!(left instanceof ExpressionColumn))
+                return;
+            ExpressionColumn column = (ExpressionColumn) left;
+            if (column.getTableFilter() != filter || column.getColumn().getColumnId() < 0)
+                return;
+            // filterCondition和fullCondition可能包含同一个Comparison
+            if ((right == null || right.isConstant() || right instanceof Parameter) && !comparisons.contains(c))
+                comparisons.add(c);
+        }
+    }
+
+    /**
+     * 每次查找前计算参数的值.
+     *
+     * @param session the session
+     * @return this
+     */
+    public StoragePredicate bind(ServerSession session) {
+        // 读取版本号时会查询另一张表，所以这里不触发读取，没有加载时不做过滤
+        tableVersion = table.getLoadedVersion();
+        for (int i = 0, size = rightExpressions.length; i < size; i++) {
+            Expression right = rightExpressions[i];
+            if (right != null) {
+                // 参数的类型每次执行时可能不一样，跟Comparison一样按两边的类型确定比较时的类型
+                Value r = right.getValue(session);
+                dataTypes[i] = Value.getHigherOrder(leftTypes[i], r.getType());
+                rightValues[i] = r.convertTo(dataTypes[i]);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public boolean test(Object v) {
+        if (!(v instanceof VersionedValue))
+            return true;
+        VersionedValue vv = (VersionedValue) v;
+        // 表结构变了，字段的位置可能不一样，交给TableFilter判断
+        if (vv.version != tableVersion)
+            return true;
+        Value[] data = vv.value.getList();
+        for (int i = 0, size = columnIds.length; i < size; i++) {
+            int columnId = columnIds[i];
+            if (columnId >= data.length)
+                return true;
+            Value l = data[columnId];
+            if (l == null) // 没有读取的列
+                continue;
+            if (!test(i, l))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean test(int i, Value l) {
+        int compareType = compareTypes[i];
+        switch (compareType) {
+        case Comparison.IS_NULL:
+            return l == ValueNull.INSTANCE;
+        case Comparison.IS_NOT_NULL:
+            return l != ValueNull.INSTANCE;
+        }
+        boolean nullSafe = (compareType & Comparison.NULL_SAFE) != 0;
+        Value r = rightValues[i];
+        if (!nullSafe && (l == ValueNull.INSTANCE || r == ValueNull.INSTANCE))
+            return false;
+        if (l.getType() != dataTypes[i])
+            l = l.convertTo(dataTypes[i]);
+        return Comparison.compareNotNull(database, l, r, compareType);
+    }
+}
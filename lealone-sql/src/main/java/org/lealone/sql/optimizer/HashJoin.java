@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.lealone.db.Database;
+import org.lealone.db.ServerSession;
+import org.lealone.db.index.Cursor;
+import org.lealone.db.index.Index;
+import org.lealone.db.result.ResultTempTable;
+import org.lealone.db.result.Row;
+import org.lealone.db.result.SearchRow;
+import org.lealone.db.table.Column;
+import org.lealone.db.table.Table;
+import org.lealone.db.table.TableType;
+import org.lealone.db.value.DataType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.ExpressionColumn;
+import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.storage.IterationParameters;
+
+/**
+ * 连接字段上没有索引时，在内表上建一个hash表，外表的每一行只需要查一次hash表，不用每次都扫描整个内表.
+ *
+ * <p>
+ * hash表在每次查询第一次查找时创建，按key的hash值分成多个分区。
+ * 内存中的记录数超过MAX_MEMORY_ROWS时，把最大的分区转存到按key建了索引的临时表中，
+ * 这个分区之后的记录也都写到临时表，查找时从临时表中按key读取。
+ */
+class HashJoin {
+
+    private static final int PARTITION_COUNT = 16;
+
+    private final Table table;
+    private final IndexCondition condition;
+    private final Column column;
+
+    private ArrayList<HashMap<Value, ArrayList<Row>>> partitions;
+    private ResultTempTable[] spilledPartitions;
+    private int memoryRows;
+    private boolean built;
+
+    HashJoin(Table table, IndexCondition condition) {
+        this.table = table;
+        this.condition = condition;
+        this.column = condition.getColumn();
+    }
+
+    IndexCondition getCondition() {
+        return condition;
+    }
+
+    /**
+     * 检查等值条件能否用hash表来查找，只支持equals和compareTo结果一致的类型.
+     *
+     * @param session the session
+     * @param table the inner table
+     * @param condition the index condition
+     * @return true if it can
+     */
+    static boolean canUseHashJoin(ServerSession session, Table table, IndexCondition condition) {
+        if (table.getTableType() != TableType.STANDARD_TABLE || condition.getCompareType() != Comparison.EQUAL)
+            return false;
+        Expression expression = condition.getExpression();
+        // 常量条件直接用索引或扫描一次就可以了
+        if (expression == null || expression.isConstant() || !condition.isEvaluatable())
+            return false;
+        Column column = condition.getColumn();
+        if (column == null || column.getColumnId() < 0)
+            return false;
+        return DataType.isHashable(column.getType(), session.getDatabase().getCompareMode());
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * 扫描整个内表创建hash表.
+     *
+     * @param session the session
+     * @param index the scan index
+     * @param parameters the iteration parameters, the start and end must be null
+     */
+    void build(ServerSession session, Index index, IterationParameters<SearchRow> parameters) {
+        close();
+        int columnId = column.getColumnId();
+        int[] columnIndexes = addColumnIndex(parameters, columnId);
+        partitions = new ArrayList<>(PARTITION_COUNT);
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            partitions.add(new HashMap<>());
+        }
+        spilledPartitions = new ResultTempTable[PARTITION_COUNT];
+        int maxMemoryRows = session.getDatabase().getMaxMemoryRows();
+        Cursor cursor = index.find(session, parameters);
+        int count = 0;
+        while (cursor.next()) {
+            if ((++count & 4095) == 0) {
+                session.checkCanceled();
+            }
+            Row row = cursor.get(columnIndexes);
+            Value key = row.getValue(columnId);
+            // 等值条件不会匹配NULL
+            if (key == null || key == ValueNull.INSTANCE)
+                continue;
+            int p = getPartition(key);
+            if (spilledPartitions[p] != null) {
+                spilledPartitions[p].addRow(toSpilledValues(row));
+                continue;
+            }
+            partitions.get(p).computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+            if (++memoryRows > maxMemoryRows && maxMemoryRows > 0) {
+                spillLargestPartition(session);
+            }
+        }
+        built = true;
+    }
+
+    /**
+     * 按外表当前行的值查找内表中的记录.
+     *
+     * @param session the session
+     * @return the cursor
+     */
+    Cursor find(ServerSession session) {
+        Value key = condition.getCurrentValue(session);
+        if (key == ValueNull.INSTANCE)
+            return new RowListCursor(null);
+        key = column.convert(key);
+        int p = getPartition(key);
+        if (spilledPartitions[p] == null)
+            return new RowListCursor(partitions.get(p).get(key));
+        Database db = session.getDatabase();
+        int columnId = column.getColumnId();
+        int columnCount = table.getColumns().length;
+        ArrayList<Row> rows = new ArrayList<>();
+        Cursor cursor = spilledPartitions[p].findByKey(key);
+        while (cursor.next()) {
+            Value[] values = cursor.get().getValueList();
+            if (!db.areEqual(key, values[columnId]))
+                continue;
+            Row row = new Row(Arrays.copyOf(values, columnCount), 0);
+            row.setKey(values[columnCount].getLong());
+            rows.add(row);
+        }
+        return new RowListCursor(rows);
+    }
+
+    /**
+     * 释放hash表和临时表，下次查询时重新创建.
+     */
+    void close() {
+        if (spilledPartitions != null) {
+            for (ResultTempTable t : spilledPartitions) {
+                if (t != null)
+                    t.close();
+            }
+        }
+        partitions = null;
+        spilledPartitions = null;
+        memoryRows = 0;
+        built = false;
+    }
+
+    /**
+     * 确保连接字段会被读取.
+     *
+     * @param parameters the iteration parameters
+     * @param columnId the column id
+     * @return the new column indexes
+     */
+    static int[] addColumnIndex(IterationParameters<SearchRow> parameters, int columnId) {
+        int[] columnIndexes = parameters.columnIndexes;
+        if (columnIndexes != null && Arrays.binarySearch(columnIndexes, columnId) < 0) {
+            columnIndexes = Arrays.copyOf(columnIndexes, columnIndexes.length + 1);
+            columnIndexes[columnIndexes.length - 1] = columnId;
+            Arrays.sort(columnIndexes);
+            parameters.columnIndexes = columnIndexes;
+        }
+        return columnIndexes;
+    }
+
+    private static int getPartition(Value key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return h & (PARTITION_COUNT - 1);
+    }
+
+    private void spillLargestPartition(ServerSession session) {
+        int largest = -1;
+        int largestRows = 0;
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            if (spilledPartitions[i] != null)
+                continue;
+            int rows = 0;
+            for (ArrayList<Row> list : partitions.get(i).values())
+                rows += list.size();
+            if (rows > largestRows) {
+                largest = i;
+                largestRows = rows;
+            }
+        }
+        if (largest < 0)
+            return;
+        Database db = session.getDatabase();
+        Column[] columns = table.getColumns();
+        int columnCount = columns.length;
+        // 最后一列存放row key
+        Expression[] expressions = new Expression[columnCount + 1];
+        for (int i = 0; i < columnCount; i++) {
+            expressions[i] = new ExpressionColumn(db, columns[i]);
+        }
+        expressions[columnCount] = new ExpressionColumn(db, new Column("_ROWID_", Value.LONG));
+        ResultTempTable spilled = ResultTempTable.create(session, expressions, column.getColumnId());
+        for (ArrayList<Row> list : partitions.get(largest).values()) {
+            for (Row row : list)
+                spilled.addRow(toSpilledValues(row));
+        }
+        partitions.set(largest, null);
+        spilledPartitions[largest] = spilled;
+        memoryRows -= largestRows;
+    }
+
+    private Value[] toSpilledValues(Row row) {
+        int columnCount = table.getColumns().length;
+        Value[] values = new Value[columnCount + 1];
+        Value[] list = row.getValueList();
+        for (int i = 0; i < columnCount; i++) {
+            Value v = i < list.length ? list[i] : null;
+            values[i] = v == null ? ValueNull.INSTANCE : v;
+        }
+        values[columnCount] = ValueLong.get(row.getKey());
+        return values;
+    }
+}
@@ -104,6 +104,15 @@ public class IndexCondition {
         return expression.getValue(session);
     }
 
+    /**
+     * Get the expression.
+     *
+     * @return the expression, or null for IN(..) conditions
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     /**
      * Get the current value list of the expression. The value list is of the
      * same type as the column, distinct, and sorted.
@@ -13,8 +13,10 @@ import java.util.Map;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.ServerSession;
+import org.lealone.db.index.BatchCursor;
 import org.lealone.db.index.Cursor;
 import org.lealone.db.index.Index;
+import org.lealone.db.index.IndexType;
 import org.lealone.db.result.Result;
 import org.lealone.db.result.Row;
 import org.lealone.db.result.SearchRow;
@@ -35,6 +37,13 @@ import org.lealone.storage.PageKey;
  */
 public class IndexCursor implements Cursor {
 
+    /**
+     * 唯一索引上的整数IN列表至少有这么多个值，并且最大值和最小值之差不超过值个数的IN_LIST_RANGE_DENSITY倍时，
+     * 只做一次范围查找，边读边和排好序的值列表归并，不再对每个值从根节点开始查找一次.
+     */
+    private static final int IN_LIST_RANGE_THRESHOLD = 8;
+    private static final int IN_LIST_RANGE_DENSITY = 4;
+
     private final TableFilter tableFilter;
     private Table table;
     private Index index;
@@ -46,8 +55,11 @@ public class IndexCursor implements Cursor {
     private Column inColumn;
     private int inListIndex;
     private Value[] inList;
+    private boolean inListRange;
     private Result inResult;
     private HashSet<Value> inResultTested;
+    private HashJoin hashJoin;
+    private MergeJoin mergeJoin;
 
     public IndexCursor(TableFilter filter) {
         this.tableFilter = filter;
@@ -76,27 +88,124 @@ public class IndexCursor implements Cursor {
      * @param indexConditions the index conditions
      */
     public void find(ServerSession s, ArrayList<IndexCondition> indexConditions) {
+        if (hashJoin != null) {
+            findByHashJoin(s);
+            return;
+        } else if (mergeJoin != null) {
+            findByMergeJoin(s);
+            return;
+        }
         parseIndexConditions(s, indexConditions);
         if (inColumn != null) {
             return;
         }
         if (!alwaysFalse) {
-            Select select = tableFilter.getSelect();
-            int[] columnIndexes = null;
-            if (select != null) {
-                columnIndexes = tableFilter.createColumnIndexes(select.getReferencedColumns());
-            } else {
-                columnIndexes = tableFilter.getColumnIndexes(); // update和delete在prepare阶段就设置好了
-            }
-            IterationParameters<SearchRow> parameters = IterationParameters.create(start, end, pageKeys, columnIndexes);
-            cursor = index.find(tableFilter.getSession(), parameters);
+            cursor = index.find(tableFilter.getSession(), createIterationParameters());
+        }
+    }
+
+    private IterationParameters<SearchRow> createIterationParameters() {
+        Select select = tableFilter.getSelect();
+        int[] columnIndexes = null;
+        if (select != null) {
+            columnIndexes = tableFilter.createColumnIndexes(select.getReferencedColumns());
+        } else {
+            columnIndexes = tableFilter.getColumnIndexes(); // update和delete在prepare阶段就设置好了
+        }
+        IterationParameters<SearchRow> parameters = IterationParameters.create(start, end, pageKeys, columnIndexes);
+        parameters.valueFilter = tableFilter.getStoragePredicate();
+        return parameters;
+    }
+
+    // 第一次查找时扫描整个表创建hash表，之后每次查找只需要查hash表
+    private void findByHashJoin(ServerSession s) {
+        resetConditions();
+        if (!hashJoin.isBuilt()) {
+            hashJoin.build(tableFilter.getSession(), index, createIterationParameters());
+        }
+        cursor = hashJoin.find(s);
+    }
+
+    // 接着上一次查找的位置往后读
+    private void findByMergeJoin(ServerSession s) {
+        resetConditions();
+        cursor = mergeJoin.find(tableFilter.getSession(), index, first -> {
+            start = first;
+            return createIterationParameters();
+        });
+    }
+
+    private void resetConditions() {
+        alwaysFalse = false;
+        start = end = null;
+        inList = null;
+        inListRange = false;
+        inColumn = null;
+        inResult = null;
+        inResultTested = null;
+    }
+
+    void setHashJoin(HashJoin hashJoin) {
+        endQuery();
+        this.hashJoin = hashJoin;
+    }
+
+    HashJoin getHashJoin() {
+        return hashJoin;
+    }
+
+    void setMergeJoin(MergeJoin mergeJoin) {
+        this.mergeJoin = mergeJoin;
+    }
+
+    MergeJoin getMergeJoin() {
+        return mergeJoin;
+    }
+
+    /**
+     * 查询结束时释放hash表，merge join下次从头读.
+     */
+    void endQuery() {
+        if (hashJoin != null) {
+            hashJoin.close();
+        }
+        if (mergeJoin != null) {
+            mergeJoin.reset();
         }
     }
 
+    /**
+     * 按批读取整个索引的记录，index不支持时返回null.
+     *
+     * @param s the session
+     * @param columnIndexes the columns to read
+     * @param batchSize the maximum number of rows per batch
+     * @return the batch cursor or null
+     */
+    public BatchCursor findBatch(ServerSession s, int[] columnIndexes, int batchSize) {
+        IterationParameters<SearchRow> parameters = IterationParameters.create(null, null, pageKeys, columnIndexes);
+        return index.findBatch(s, parameters, batchSize);
+    }
+
+    /**
+     * 按key的范围把整个索引分成几段，每一段一个BatchCursor，index不支持时返回null.
+     *
+     * @param s the session
+     * @param columnIndexes the columns to read
+     * @param batchSize the maximum number of rows per batch
+     * @param parallelism the maximum number of ranges
+     * @return the batch cursors or null
+     */
+    public BatchCursor[] findBatch(ServerSession s, int[] columnIndexes, int batchSize, int parallelism) {
+        IterationParameters<SearchRow> parameters = IterationParameters.create(null, null, pageKeys, columnIndexes);
+        return index.findBatch(s, parameters, batchSize, parallelism);
+    }
+
     public void parseIndexConditions(ServerSession session, ArrayList<IndexCondition> indexConditions) {
         alwaysFalse = false;
         start = end = null;
         inList = null;
+        inListRange = false;
         inColumn = null;
         inResult = null;
         inResultTested = null;
@@ -264,6 +373,9 @@ public class IndexCursor implements Cursor {
                 }
             }
             if (cursor.next()) {
+                if (inListRange && !isInList(cursor.getSearchRow())) {
+                    continue;
+                }
                 return true;
             }
             cursor = null;
@@ -272,6 +384,14 @@ public class IndexCursor implements Cursor {
 
     private void nextCursor() {
         if (inList != null) {
+            if (inListRange) {
+                // 范围查找已经读完
+                return;
+            }
+            if (inListIndex == 0 && isDenseInList()) {
+                findInListRange();
+                return;
+            }
             while (inListIndex < inList.length) {
                 Value v = inList[inListIndex++];
                 if (v != ValueNull.INSTANCE) {
@@ -306,6 +426,67 @@ public class IndexCursor implements Cursor {
         cursor = index.find(tableFilter.getSession(), start, start);
     }
 
+    private boolean isDenseInList() {
+        int len = inList.length;
+        // 值列表已经排好序，NULL在最前面
+        while (inListIndex < len && inList[inListIndex] == ValueNull.INSTANCE) {
+            inListIndex++;
+        }
+        int count = len - inListIndex;
+        if (count < IN_LIST_RANGE_THRESHOLD || !isIntegerType(inColumn.getType())) {
+            return false;
+        }
+        IndexType indexType = index.getIndexType();
+        if (indexType.isHash() || indexType.isScan() || !(indexType.isUnique() || indexType.isPrimaryKey())) {
+            return false;
+        }
+        IndexColumn[] cols = index.getIndexColumns();
+        if (cols == null || cols.length != 1 || cols[0].column != inColumn
+                || (cols[0].sortType & SortOrder.DESCENDING) != 0 || inColumn.getColumnId() < 0) {
+            return false;
+        }
+        long min = inList[inListIndex].getLong();
+        long max = inList[len - 1].getLong();
+        // 用double避免溢出
+        return (double) max - min < (double) count * IN_LIST_RANGE_DENSITY;
+    }
+
+    private static boolean isIntegerType(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private void findInListRange() {
+        int id = inColumn.getColumnId();
+        start = table.getTemplateRow();
+        start.setValue(id, inColumn.convert(inList[inListIndex]));
+        end = table.getTemplateRow();
+        end.setValue(id, inColumn.convert(inList[inList.length - 1]));
+        inListRange = true;
+        cursor = index.find(tableFilter.getSession(), start, end);
+    }
+
+    // 索引按升序返回记录，值列表也是升序的，所以只需要往后移动值列表的位置
+    private boolean isInList(SearchRow row) {
+        Value v = row.getValue(inColumn.getColumnId());
+        if (v == null || v == ValueNull.INSTANCE) {
+            return false;
+        }
+        long key = v.getLong();
+        int len = inList.length;
+        while (inListIndex < len && inList[inListIndex].getLong() < key) {
+            inListIndex++;
+        }
+        return inListIndex < len && inList[inListIndex].getLong() == key;
+    }
+
     @Override
     public boolean previous() {
         throw DbException.throwInternalError();
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+import java.util.function.Function;
+
+import org.lealone.db.Database;
+import org.lealone.db.ServerSession;
+import org.lealone.db.index.Cursor;
+import org.lealone.db.index.Index;
+import org.lealone.db.index.StandardPrimaryIndex;
+import org.lealone.db.result.Row;
+import org.lealone.db.result.SearchRow;
+import org.lealone.db.result.SortOrder;
+import org.lealone.db.table.Column;
+import org.lealone.db.table.IndexColumn;
+import org.lealone.db.table.Table;
+import org.lealone.db.table.TableType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.ExpressionColumn;
+import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.storage.IterationParameters;
+
+/**
+ * 内表和外表都按连接字段的顺序读取时，内表只用一个cursor顺序往后读，不需要每次都从B-tree的根节点开始查找.
+ *
+ * <p>
+ * 外表的key变小(比如外表本身是另一个join的内表)或者要跳过的记录太多时，
+ * 会重新从B-tree中查找，所以外表的key不是递增的也不会影响结果。
+ */
+class MergeJoin {
+
+    // 跳过的记录太多时，重新从B-tree中查找比顺序往后读更快
+    private static final int MAX_SKIP_ROWS = 64;
+
+    private final IndexCondition condition;
+    private final Column column;
+
+    private Cursor cursor;
+    private boolean cursorEnd;
+    // cursor当前指向的记录还没有被使用，它的key比lastKey大
+    private boolean hasCurrent;
+    private int[] columnIndexes;
+    private Value lastKey;
+    private ArrayList<Row> lastRows;
+
+    MergeJoin(IndexCondition condition) {
+        this.condition = condition;
+        this.column = condition.getColumn();
+    }
+
+    IndexCondition getCondition() {
+        return condition;
+    }
+
+    /**
+     * 查找可以用merge join的等值条件: 内表的索引和外表的索引都是按连接字段升序排列的.
+     *
+     * @param filter the inner table filter
+     * @param index the index of the inner table
+     * @param indexConditions the index conditions of the inner table
+     * @param outerIndexes returns the index used by an outer table filter
+     * @return the index condition or null
+     */
+    static IndexCondition getMergeJoinCondition(TableFilter filter, Index index,
+            ArrayList<IndexCondition> indexConditions, Function<TableFilter, Index> outerIndexes) {
+        for (IndexCondition condition : indexConditions) {
+            // 规划阶段排在后面的表没有索引，所以这里不需要检查条件是否可以计算
+            if (condition.getCompareType() != Comparison.EQUAL) {
+                continue;
+            }
+            Column column = condition.getColumn();
+            Expression expression = condition.getExpression();
+            if (column == null || !(expression instanceof ExpressionColumn) || !isSortedBy(index, column)) {
+                continue;
+            }
+            // 类型不同时转换后的顺序可能不一样
+            ExpressionColumn outerColumn = (ExpressionColumn) expression;
+            TableFilter outer = outerColumn.getTableFilter();
+            if (outer == null || outer == filter || outerColumn.getType() != column.getType()) {
+                continue;
+            }
+            if (isSortedBy(outerIndexes.apply(outer), outerColumn.getColumn())) {
+                return condition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 估算merge join时外表每一行的代价，用来跟每次都从B-tree中查找的nested loop join比较.
+     *
+     * <p>
+     * 内表总共只顺序读一遍，外表相邻两个key之间平均要跳过gap条记录。
+     * 假设跳过的记录数服从均值为gap的指数分布，跳过超过MAX_SKIP_ROWS条记录时会重新查找一次，
+     * 概率是exp(-MAX_SKIP_ROWS / gap)，其余情况下平均顺序读min(gap, MAX_SKIP_ROWS)条记录。
+     *
+     * @param session the session
+     * @param table the inner table
+     * @param condition the merge join condition
+     * @param lookupCost the cost of one lookup in the index of the inner table
+     * @return the cost for each row of the outer table
+     */
+    static double getCost(ServerSession session, Table table, IndexCondition condition, double lookupCost) {
+        TableFilter outer = ((ExpressionColumn) condition.getExpression()).getTableFilter();
+        long innerRows = table.getRowCountApproximation();
+        long outerRows = Math.max(outer.getTable().getRowCountApproximation(), 1);
+        long distinctRows = innerRows * condition.getColumn().getSelectivity() / 100;
+        // 每个key匹配的记录数
+        double matchedRows = (double) innerRows / Math.max(distinctRows, 1);
+        double gap = Math.max((double) innerRows / outerRows - matchedRows, 0);
+        double readRows = matchedRows;
+        double reopenRate = 0;
+        if (gap > 0) {
+            reopenRate = Math.exp(-MAX_SKIP_ROWS / gap);
+            readRows += gap * (1 - reopenRate);
+        }
+        return Math.max(1 + readRows + reopenRate * lookupCost, 1);
+    }
+
+    private static boolean isSortedBy(Index index, Column column) {
+        if (index == null || index.getIndexType().isHash() || column.getColumnId() < 0
+                || index.getTable().getTableType() != TableType.STANDARD_TABLE) {
+            return false;
+        }
+        // 按row key排序，用整数类型的字段做主键时row key就是主键字段的值
+        if (index instanceof StandardPrimaryIndex) {
+            return ((StandardPrimaryIndex) index).getMainIndexColumn() == column.getColumnId();
+        }
+        IndexColumn[] indexColumns = index.getIndexColumns();
+        return indexColumns != null && indexColumns.length > 0 && indexColumns[0].column == column
+                && (indexColumns[0].sortType & SortOrder.DESCENDING) == 0;
+    }
+
+    /**
+     * 按外表当前行的值查找内表中的记录.
+     *
+     * @param session the session
+     * @param index the index of the inner table
+     * @param parameters creates the iteration parameters for the given start row
+     * @return the cursor
+     */
+    Cursor find(ServerSession session, Index index, Function<SearchRow, IterationParameters<SearchRow>> parameters) {
+        Value key = condition.getCurrentValue(session);
+        if (key == ValueNull.INSTANCE) {
+            return new RowListCursor(null);
+        }
+        key = column.convert(key);
+        Database db = session.getDatabase();
+        if (lastKey != null) {
+            int comp = db.compare(key, lastKey);
+            if (comp == 0) {
+                return new RowListCursor(lastRows);
+            } else if (comp < 0) {
+                cursor = null; // 外表的key变小了，只能重新查找
+            }
+        }
+        if (cursor == null) {
+            open(session, index, parameters, key);
+        }
+        int columnId = column.getColumnId();
+        ArrayList<Row> rows = new ArrayList<>();
+        int skipped = 0;
+        while (!cursorEnd) {
+            if (!hasCurrent) {
+                if (!cursor.next()) {
+                    cursorEnd = true;
+                    break;
+                }
+                hasCurrent = true;
+            }
+            Value v = cursor.getSearchRow().getValue(columnId);
+            int comp = v == null || v == ValueNull.INSTANCE ? -1 : db.compare(v, key);
+            if (comp > 0) {
+                break;
+            }
+            hasCurrent = false;
+            if (comp == 0) {
+                rows.add(cursor.get(columnIndexes));
+            } else if (++skipped > MAX_SKIP_ROWS) {
+                open(session, index, parameters, key);
+                skipped = 0;
+            }
+        }
+        lastKey = key;
+        lastRows = rows;
+        return new RowListCursor(rows);
+    }
+
+    private void open(ServerSession session, Index index, Function<SearchRow, IterationParameters<SearchRow>> parameters,
+            Value key) {
+        SearchRow start = index.getTable().getTemplateRow();
+        start.setValue(column.getColumnId(), key);
+        IterationParameters<SearchRow> p = parameters.apply(start);
+        columnIndexes = HashJoin.addColumnIndex(p, column.getColumnId());
+        cursor = index.find(session, p);
+        cursorEnd = false;
+        hasCurrent = false;
+    }
+
+    /**
+     * 每次查询开始时从头读.
+     */
+    void reset() {
+        cursor = null;
+        cursorEnd = false;
+        hasCurrent = false;
+        columnIndexes = null;
+        lastKey = null;
+        lastRows = null;
+    }
+}
@@ -108,9 +108,13 @@ public class Plan {
         boolean invalidPlan = false;
         int level = 1;
         for (TableFilter tableFilter : allFilters) {
-            PlanItem item = tableFilter.getBestPlanItem(session, level++);
+            // 排在前面的表已经选好了索引，用来判断能否使用merge join
+            PlanItem item = tableFilter.getBestPlanItem(session, level++, f -> {
+                PlanItem outer = planItems.get(f);
+                return outer == null ? null : outer.getIndex();
+            });
             planItems.put(tableFilter, item);
-            cost += cost * item.cost;
+            cost += cost * item.cost + item.buildCost;
             setEvaluatable(tableFilter, true);
             Expression on = tableFilter.getJoinCondition();
             if (on != null) {
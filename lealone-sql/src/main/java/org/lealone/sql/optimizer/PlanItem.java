@@ -19,6 +19,12 @@ public class PlanItem {
      */
     double cost;
 
+    /**
+     * 只在查询开始时执行一次的代价，比如hash join创建hash表的代价，包括所有join的.
+     */
+    double buildCost;
+
+    private IndexCondition hashJoinCondition;
     private Index index;
     private PlanItem joinPlan;
     private PlanItem nestedJoinPlan;
@@ -31,6 +37,14 @@ public class PlanItem {
         return index;
     }
 
+    IndexCondition getHashJoinCondition() {
+        return hashJoinCondition;
+    }
+
+    void setHashJoinCondition(IndexCondition hashJoinCondition) {
+        this.hashJoinCondition = hashJoinCondition;
+    }
+
     PlanItem getJoinPlan() {
         return joinPlan;
     }
@@ -12,6 +12,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.StatementBuilder;
@@ -21,6 +22,7 @@ import org.lealone.db.ServerSession;
 import org.lealone.db.Session;
 import org.lealone.db.SysProperties;
 import org.lealone.db.auth.Right;
+import org.lealone.db.index.BatchCursor;
 import org.lealone.db.index.Index;
 import org.lealone.db.result.Row;
 import org.lealone.db.result.SearchRow;
@@ -35,6 +37,7 @@ import org.lealone.sql.dml.Select;
 import org.lealone.sql.expression.Expression;
 import org.lealone.sql.expression.ExpressionColumn;
 import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.sql.expression.condition.StoragePredicate;
 import org.lealone.storage.PageKey;
 
 /**
@@ -112,6 +115,10 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
 
     private int[] columnIndexes;
 
+    // 从过滤条件中提取出来的可以下推到存储层的条件，在第一次查找时创建
+    private StoragePredicate storagePredicate;
+    private boolean storagePredicateCreated;
+
     /**
      * Create a new table filter object.
      *
@@ -165,6 +172,19 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
      * @return the best plan item
      */
     public PlanItem getBestPlanItem(ServerSession s, int level) {
+        return getBestPlanItem(s, level, null);
+    }
+
+    /**
+     * Get the best plan item (index, cost) to use use for the current join
+     * order.
+     *
+     * @param s the session
+     * @param level 1 for the first table in a join, 2 for the second, and so on
+     * @param outerIndexes returns the index used by an outer table filter, null means unknown
+     * @return the best plan item
+     */
+    PlanItem getBestPlanItem(ServerSession s, int level, Function<TableFilter, Index> outerIndexes) {
         PlanItem item;
         if (indexConditions.isEmpty()) {
             item = new PlanItem();
@@ -196,6 +216,15 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             // This is to ensure joins without indexes run quickly:
             // x (x.a=10); y (x.b=y.b) - see issue 113
             item.cost -= item.cost * indexConditions.size() / 100 / level;
+            if (item.getIndex() == table.getScanIndex(s) && s.getDatabase().getSettings().hashJoin) {
+                setHashJoinPlan(s, item);
+            }
+            if (item.getHashJoinCondition() == null && outerIndexes != null) {
+                IndexCondition condition = getMergeJoinCondition(item.getIndex(), outerIndexes);
+                if (condition != null) {
+                    item.cost = Math.min(item.cost, MergeJoin.getCost(s, table, condition, item.cost));
+                }
+            }
         }
         if (nestedJoin != null) {
             setEvaluatable(nestedJoin);
@@ -203,6 +232,7 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
             item.cost += item.cost * item.getNestedJoinPlan().cost;
+            item.buildCost += item.getNestedJoinPlan().buildCost;
         }
         if (join != null) {
             setEvaluatable(join);
@@ -210,10 +240,48 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
             item.cost += item.cost * item.getJoinPlan().cost;
+            item.buildCost += item.getJoinPlan().buildCost;
         }
         return item;
     }
 
+    /**
+     * 查找可以用merge join的等值连接条件，没有时返回null.
+     *
+     * @param index the index of this table filter
+     * @param outerIndexes returns the index used by an outer table filter
+     * @return the index condition or null
+     */
+    IndexCondition getMergeJoinCondition(Index index, Function<TableFilter, Index> outerIndexes) {
+        if (!session.getDatabase().getSettings().mergeJoin) {
+            return null;
+        }
+        return MergeJoin.getMergeJoinCondition(this, index, indexConditions, outerIndexes);
+    }
+
+    // 只能扫描整个表时，如果有跟前面的表做等值连接的条件，可以改用hash join:
+    // 每次查找的代价跟唯一索引差不多，但是查询开始时要扫描一次整个表来创建hash表，放不下时还要写到临时表中。
+    // 创建hash表时每条记录的代价要比查找一次hash表的代价大，这样优化器会把记录数少的表放在内层用来创建hash表
+    private void setHashJoinPlan(ServerSession s, PlanItem item) {
+        for (IndexCondition condition : indexConditions) {
+            if (HashJoin.canUseHashJoin(s, table, condition)) {
+                long rowCount = table.getRowCountApproximation();
+                long distinctRows = rowCount * condition.getColumn().getSelectivity() / 100;
+                if (distinctRows <= 0) {
+                    distinctRows = 1;
+                }
+                double scanCost = table.getScanIndex(s).getCost(s, null, null);
+                double probeCost = 1 + Math.max(rowCount / distinctRows, 1);
+                if (probeCost < item.cost) {
+                    item.cost = probeCost;
+                    item.buildCost = scanCost * (probeCost + (rowCount > s.getDatabase().getMaxMemoryRows() ? 3 : 2));
+                    item.setHashJoinCondition(condition);
+                }
+                return;
+            }
+        }
+    }
+
     private void setEvaluatable(TableFilter join) {
         if (session.getDatabase().getSettings().nestedJoins) {
             setEvaluatable(true);
@@ -245,6 +313,12 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             return;
         }
         setIndex(item.getIndex());
+        IndexCondition hashJoinCondition = item.getHashJoinCondition();
+        cursor.setHashJoin(hashJoinCondition == null ? null : new HashJoin(table, hashJoinCondition));
+        // 外表在这之前已经设置好了索引
+        IndexCondition mergeJoinCondition = hashJoinCondition == null ? getMergeJoinCondition(item.getIndex(),
+                TableFilter::getIndex) : null;
+        cursor.setMergeJoin(mergeJoinCondition == null ? null : new MergeJoin(mergeJoinCondition));
         if (nestedJoin != null) {
             if (item.getNestedJoinPlan() != null) {
                 nestedJoin.setPlanItem(item.getNestedJoinPlan());
@@ -304,6 +378,7 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
     public void startQuery(ServerSession s) {
         this.session = s;
         scanCount = 0;
+        cursor.endQuery(); // 上一次查询可能没有正常结束
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -312,6 +387,19 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         }
     }
 
+    /**
+     * End the query. This will release the hash tables of hash joins.
+     */
+    public void endQuery() {
+        cursor.endQuery();
+        if (nestedJoin != null) {
+            nestedJoin.endQuery();
+        }
+        if (join != null) {
+            join.endQuery();
+        }
+    }
+
     /**
      * Reset to the current position.
      */
@@ -689,6 +777,11 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             buff.append('\n');
             StatementBuilder planBuff = new StatementBuilder();
             planBuff.append(index.getPlanSQL());
+            if (cursor.getHashJoin() != null) {
+                planBuff.append(" (HASH JOIN ON ").append(cursor.getHashJoin().getCondition().getSQL()).append(')');
+            } else if (cursor.getMergeJoin() != null) {
+                planBuff.append(" (MERGE JOIN ON ").append(cursor.getMergeJoin().getCondition().getSQL()).append(')');
+            }
             if (indexConditions.size() > 0) {
                 planBuff.append(": ");
                 for (IndexCondition condition : indexConditions) {
@@ -759,7 +852,7 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
      *
      * @param session the new session
      */
-    void setSession(ServerSession session) {
+    public void setSession(ServerSession session) {
         this.session = session;
     }
 
@@ -785,6 +878,51 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         return filterCondition;
     }
 
+    /**
+     * Read all rows of this table in batches of column vectors.
+     * This is only possible if there are no index conditions and no joins.
+     *
+     * @param columnIndexes the columns to read
+     * @param batchSize the maximum number of rows per batch
+     * @return the batch cursor, or null if not supported
+     */
+    public BatchCursor findBatch(int[] columnIndexes, int batchSize) {
+        if (!indexConditions.isEmpty() || join != null || nestedJoin != null || filterCondition != null)
+            return null;
+        return cursor.findBatch(session, columnIndexes, batchSize);
+    }
+
+    /**
+     * Read all rows of this table in key ranges that can be scanned in parallel.
+     * This is only possible if there are no index conditions and no joins.
+     *
+     * @param columnIndexes the columns to read
+     * @param batchSize the maximum number of rows per batch
+     * @param parallelism the maximum number of ranges
+     * @return one batch cursor per range, or null if not supported
+     */
+    public BatchCursor[] findBatch(int[] columnIndexes, int batchSize, int parallelism) {
+        if (!indexConditions.isEmpty() || join != null || nestedJoin != null || filterCondition != null)
+            return null;
+        return cursor.findBatch(session, columnIndexes, batchSize, parallelism);
+    }
+
+    /**
+     * Get the part of the filter condition that can be evaluated by the storage cursor.
+     *
+     * @return the predicate bound to the current parameter values, or null
+     */
+    public StoragePredicate getStoragePredicate() {
+        if (!storagePredicateCreated) {
+            // 最后一个表不会把fullCondition加到filterCondition中，而是由Select判断，
+            // 只要不是外连接，fullCondition中只涉及当前表的条件也可以提前在存储层判断
+            Expression condition = joinOuter || joinOuterIndirect ? null : fullCondition;
+            storagePredicate = StoragePredicate.create(session, this, filterCondition, condition);
+            storagePredicateCreated = true;
+        }
+        return storagePredicate == null ? null : storagePredicate.bind(session);
+    }
+
     /**
      * Remove the filter condition.
      */
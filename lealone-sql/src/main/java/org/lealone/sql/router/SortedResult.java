@@ -32,6 +32,8 @@ public class SortedResult extends DelegatedResult {
     private final SortOrder sort;
     private final Result[] results;
     private final int limit;
+    private final int limitRows;
+    private final int offset;
     private final int size;
     private int rowCount = -1;
     private Value[] currentRow;
@@ -57,17 +59,16 @@ public class SortedResult extends DelegatedResult {
             }
         }
 
-        int offset;
         if (select.getOffset() != null) {
-            offset = select.getOffset().getValue(session).getInt();
+            offset = Math.max(0, select.getOffset().getValue(session).getInt());
         } else {
             offset = 0;
         }
+        this.limitRows = limitRows;
 
-        if (limitRows >= 0)
-            rowCount = limitRows;
-
-        limit = limitRows + offset;
+        // 每个节点执行的SQL中的limit已经加上了offset，节点上按top-N只保留这么多条记录，
+        // 这里归并时同样只需要读取前offset+limit条
+        limit = limitRows < 0 ? -1 : limitRows + offset;
 
         for (int i = 0; i < offset; i++)
             next();
@@ -116,7 +117,8 @@ public class SortedResult extends DelegatedResult {
             }
         }
         currentRow = row;
-        currentRows[next] = null;
+        if (next >= 0)
+            currentRows[next] = null;
         return currentRow != null;
     }
 
@@ -149,6 +151,9 @@ public class SortedResult extends DelegatedResult {
                     c += results[i].getRowCount();
                 }
             }
+            c = Math.max(0, c - offset);
+            if (limitRows >= 0)
+                c = Math.min(c, limitRows);
             rowCount = c;
             return c;
         } else {
@@ -17,12 +17,25 @@
  */
 package org.lealone.test.aose;
 
+import java.util.HashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
+import org.lealone.db.index.RowKeyDataType;
+import org.lealone.db.index.ValueDataType;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueString;
+import org.lealone.server.Scheduler;
+import org.lealone.sql.PreparedSQLStatement;
+import org.lealone.sql.SQLStatementExecutor;
 import org.lealone.storage.StorageMapCursor;
 import org.lealone.storage.aose.AOStorage;
+import org.lealone.storage.aose.AOStorageBuilder;
 import org.lealone.storage.aose.btree.BTreeMap;
+import org.lealone.storage.aose.btree.BTreeStorage;
 import org.lealone.test.TestBase;
 
 public class BTreeMapTest extends TestBase {
@@ -37,9 +50,14 @@ public class BTreeMapTest extends TestBase {
         testSyncOperations();
         testAsyncOperations();
         testCompact();
+        testBackgroundCompaction();
         testSplit();
         testRemove();
         testSave();
+        testSaveInBatches();
+        testLongKeyLeafPage();
+        testOffHeapCache();
+        testAsyncPageRead();
         // }
     }
 
@@ -226,6 +244,60 @@ public class BTreeMapTest extends TestBase {
         map.save();
     }
 
+    // 更新大部分记录后第一个chunk的填充率很低，后台压缩线程会移动剩下的page然后删除这个chunk
+    void testBackgroundCompaction() {
+        String storagePath = joinDirs("aose_compaction");
+        deleteFileRecursive(storagePath);
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.pageSplitSize(1024).minFillRate(50).storagePath(storagePath);
+        AOStorage storage = builder.openStorage();
+        storage.getPageOperationHandlerFactory().startHandlers();
+        String name = "BTreeMapTest_testBackgroundCompaction";
+        int count = 5000;
+        try {
+            BTreeMap<Integer, String> map = storage.openBTreeMap(name);
+            for (int i = 1; i <= count; i++) {
+                map.put(i, "value-" + i);
+            }
+            map.save();
+            long firstChunkBytes = map.getBTreeStorage().getLastCheckpointBytes();
+
+            for (int i = 1; i <= count * 4 / 5; i++) {
+                map.put(i, "value-" + i + "-a");
+            }
+            map.save(); // 有page被删除了，触发后台压缩
+
+            BTreeStorage btreeStorage = map.getBTreeStorage();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (btreeStorage.getCompactionBytesReclaimed() < firstChunkBytes
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(btreeStorage.getCompactionBytesReclaimed() >= firstChunkBytes);
+            assertTrue(btreeStorage.getCompactionPagesMoved() > 0);
+            assertTrue(btreeStorage.getWriteAmplification() > 1.0);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            storage.close();
+        }
+
+        // 被移动的page重新打开后还能读到
+        storage = builder.openStorage();
+        storage.getPageOperationHandlerFactory().startHandlers();
+        try {
+            BTreeMap<Integer, String> map = storage.openBTreeMap(name);
+            assertEquals(count, map.size());
+            for (int i = 1; i <= count; i++) {
+                String expected = i <= count * 4 / 5 ? "value-" + i + "-a" : "value-" + i;
+                assertEquals(expected, map.get(i));
+            }
+            map.remove();
+        } finally {
+            storage.close();
+        }
+    }
+
     void testSplit() {
         openMap();
         map.clear();
@@ -315,4 +387,254 @@ public class BTreeMapTest extends TestBase {
         map.save();
         map.printPage();
     }
+
+    void testSaveInBatches() {
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put("checkpointBatchSize", "1"); // 1K
+        String name = "BTreeMapTest_testSaveInBatches";
+        BTreeMap<Integer, String> map = storage.openBTreeMap(name, null, null, parameters);
+        map.clear();
+        int count = 5000;
+        for (int i = 1; i <= count; i++) {
+            map.put(i, "value-" + i);
+        }
+        map.save();
+        assertSavedInBatches(map);
+
+        // 分批写入的chunk重新打开后所有page都能读出来
+        map.close();
+        map = storage.openBTreeMap(name, null, null, parameters);
+        assertEquals(count, map.size());
+        for (int i = 1; i <= count; i++) {
+            assertEquals("value-" + i, map.get(i));
+        }
+
+        for (int i = 1; i <= count; i += 3) {
+            map.put(i, "value-" + i + "-a");
+        }
+        map.save();
+        assertSavedInBatches(map);
+        map.close();
+
+        map = storage.openBTreeMap(name, null, null, parameters);
+        assertEquals(count, map.size());
+        for (int i = 1; i <= count; i++) {
+            String expected = (i - 1) % 3 == 0 ? "value-" + i + "-a" : "value-" + i;
+            assertEquals(expected, map.get(i));
+        }
+        map.remove();
+    }
+
+    // 写chunk header之前已经有多批page写到文件中了，剩下的chunk body和header最后再写
+    private void assertSavedInBatches(BTreeMap<Integer, String> map) {
+        BTreeStorage btreeStorage = map.getBTreeStorage();
+        assertTrue(btreeStorage.getLastCheckpointBatchCount() > 1);
+        assertTrue(btreeStorage.getLastCheckpointBatchBytes() > 0);
+        assertTrue(btreeStorage.getLastCheckpointBatchBytes() < btreeStorage.getLastCheckpointBytes());
+    }
+
+    // row key是long类型时leaf page用long[]保存key
+    void testLongKeyLeafPage() {
+        String name = "BTreeMapTest_testLongKeyLeafPage";
+        ValueDataType valueType = new ValueDataType(null, null, null);
+        BTreeMap<ValueLong, ValueString> map = storage.openBTreeMap(name, new RowKeyDataType(), valueType, null);
+        map.clear();
+        int count = 5000;
+        // 倒序插入，让新key总是插入到page的开头
+        for (int i = count; i >= 1; i--) {
+            map.put(ValueLong.get(i), ValueString.get("value-" + i));
+        }
+        assertEquals(count, map.size());
+        assertEquals(ValueLong.get(1), map.firstKey());
+        assertEquals(ValueLong.get(count), map.lastKey());
+        assertEquals(ValueLong.get(101), map.higherKey(ValueLong.get(100)));
+        assertEquals(ValueLong.get(99), map.lowerKey(ValueLong.get(100)));
+
+        for (int i = 1; i <= count; i += 2) {
+            map.remove(ValueLong.get(i));
+        }
+        assertEquals(count / 2, map.size());
+        assertNull(map.get(ValueLong.get(1)));
+        assertEquals(ValueString.get("value-2"), map.get(ValueLong.get(2)));
+        map.save();
+        map.close();
+
+        map = storage.openBTreeMap(name, new RowKeyDataType(), valueType, null);
+        assertEquals(count / 2, map.size());
+        StorageMapCursor<ValueLong, ValueString> cursor = map.cursor(ValueLong.get(1001));
+        long expected = 1002;
+        while (cursor.hasNext()) {
+            ValueLong key = cursor.next();
+            assertEquals(expected, key.getLong());
+            assertEquals(ValueString.get("value-" + expected), cursor.getValue());
+            expected += 2;
+        }
+        assertEquals(count + 2, expected);
+        map.remove();
+    }
+
+    void testOffHeapCache() {
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.pageSplitSize(1024).cacheSize(0).offHeapCacheSize(4); // 禁用LIRS缓存，只用堆外缓存
+        builder.storagePath(joinDirs("aose_offheap"));
+        AOStorage storage = builder.openStorage();
+        storage.getPageOperationHandlerFactory().startHandlers();
+        try {
+            assertEquals(4L * 1024 * 1024, storage.getOffHeapPageCache().getCapacity());
+            String name = "BTreeMapTest_testOffHeapCache";
+            BTreeMap<Integer, String> map = storage.openBTreeMap(name);
+            map.clear();
+            int count = 2000;
+            for (int i = 1; i <= count; i++) {
+                map.put(i, "value-" + i);
+            }
+            map.save();
+            map.close();
+
+            // 重新打开后第一次读page都不会命中，然后被放入堆外缓存
+            map = storage.openBTreeMap(name);
+            map.printPage(true);
+            long misses = map.getBTreeStorage().getOffHeapCacheMissCount();
+            assertTrue(misses > 0);
+            assertEquals(0, map.getBTreeStorage().getOffHeapCacheHitCount());
+
+            // printPage不会把读到的page挂到树上，所以再次读取时会从堆外缓存中命中(root page除外)
+            map.printPage(true);
+            assertEquals(misses - 1, map.getBTreeStorage().getOffHeapCacheHitCount());
+            assertEquals(misses, map.getBTreeStorage().getOffHeapCacheMissCount());
+
+            for (int i = 1; i <= count; i++) {
+                assertEquals("value-" + i, map.get(i));
+            }
+            map.remove();
+        } finally {
+            storage.close();
+        }
+    }
+
+    // 模拟调度线程，等待page时会调用executeOneStatement
+    private static class TestSQLStatementExecutor extends Thread implements SQLStatementExecutor {
+
+        final AtomicLong executeCount = new AtomicLong();
+        Throwable error;
+
+        TestSQLStatementExecutor(Runnable target) {
+            super(target);
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } catch (Throwable t) {
+                error = t;
+            }
+        }
+
+        @Override
+        public void executeNextStatement() {
+        }
+
+        @Override
+        public void executeOneStatement() {
+            executeCount.incrementAndGet();
+            Thread.yield();
+        }
+
+        @Override
+        public void executeNextStatementIfNeeded(PreparedSQLStatement current) {
+        }
+
+        @Override
+        public boolean yieldIfNeeded(PreparedSQLStatement current) {
+            return false;
+        }
+
+        @Override
+        public void wakeUp() {
+        }
+    }
+
+    void testAsyncPageRead() {
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.pageSplitSize(1024).cacheSize(0).pageReadThreads(2);
+        builder.storagePath(joinDirs("aose_async_read"));
+        AOStorage storage = builder.openStorage();
+        storage.getPageOperationHandlerFactory().startHandlers();
+        try {
+            String name = "BTreeMapTest_testAsyncPageRead";
+            BTreeMap<Integer, String> map = storage.openBTreeMap(name);
+            map.clear();
+            int count = 2000;
+            for (int i = 1; i <= count; i++) {
+                map.put(i, "value-" + i);
+            }
+            map.save();
+            map.close();
+
+            BTreeMap<Integer, String> map2 = storage.openBTreeMap(name);
+            TestSQLStatementExecutor executor = new TestSQLStatementExecutor(() -> {
+                for (int i = 1; i <= count; i++) {
+                    assertEquals("value-" + i, map2.get(i));
+                }
+            });
+            executor.start();
+            executor.join();
+            assertNull(executor.error);
+            // 冷page都在I/O线程中读取，调度线程在等待期间转去执行其他语句
+            assertTrue(storage.getPageReader().getReadCount() > 0);
+            assertTrue(executor.executeCount.get() > 0);
+
+            // 在真实的调度线程中读取，循环间隔设得很大，page读完后没有唤醒调度线程的话就会超时
+            HashMap<String, String> config = new HashMap<>();
+            config.put("scheduler_loop_interval", "10000");
+            Scheduler scheduler = new Scheduler(0, config);
+            scheduler.start();
+            long yieldCount = storage.getPageReader().getYieldCount();
+            CountDownLatch latch = new CountDownLatch(1);
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            scheduler.handle(() -> {
+                try {
+                    for (int i = 1; i <= count; i++) {
+                        assertEquals("value-" + i, map2.get(i));
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                } finally {
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertNull(error.get());
+            assertTrue(storage.getPageReader().getYieldCount() > yieldCount);
+            map2.close();
+
+            // 调度线程执行put这样的PageOperation时读冷page要同步读，不能让出去嵌套执行其他语句或PageOperation
+            BTreeMap<Integer, String> map3 = storage.openBTreeMap(name);
+            yieldCount = storage.getPageReader().getYieldCount();
+            CountDownLatch latch2 = new CountDownLatch(1);
+            scheduler.handle(() -> {
+                try {
+                    for (int i = 1; i <= count; i++) {
+                        assertEquals("value-" + i, map3.put(i, "value-" + i + "-2"));
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                } finally {
+                    latch2.countDown();
+                }
+            });
+            assertTrue(latch2.await(10, TimeUnit.SECONDS));
+            assertNull(error.get());
+            assertEquals(yieldCount, storage.getPageReader().getYieldCount());
+            for (int i = 1; i <= count; i++) {
+                assertEquals("value-" + i + "-2", map3.get(i));
+            }
+            map3.remove();
+        } catch (InterruptedException e) {
+            fail();
+        } finally {
+            storage.close();
+        }
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.aote;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.lealone.storage.Storage;
+import org.lealone.test.TestBase;
+import org.lealone.transaction.Transaction;
+import org.lealone.transaction.TransactionMap;
+import org.lealone.transaction.aote.AMTransactionEngine;
+import org.lealone.transaction.aote.log.LogSyncService;
+import org.lealone.transaction.aote.log.LogSyncStatistics;
+
+public class LogSyncServiceTest extends TestBase {
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        Map<String, String> config = AMTransactionEngineTest.getDefaultConfig();
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_GROUP_COMMIT);
+        config.put("redo_log_record_sync_threshold", "8");
+        AMTransactionEngine te = new AMTransactionEngine();
+        te.init(config);
+        Storage storage = AMTransactionEngineTest.getStorage();
+
+        int threadCount = 8;
+        int commitsPerThread = 50;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < commitsPerThread; j++) {
+                    Transaction t = te.beginTransaction(false);
+                    TransactionMap<String, String> map = t.openMap("testGroupCommit", storage);
+                    map.put("key-" + id + "-" + j, "value" + j);
+                    t.commit();
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+
+        LogSyncStatistics statistics = te.getLogSyncService().getStatistics();
+        assertTrue(statistics.getCommitCount() >= threadCount * commitsPerThread);
+        assertTrue(statistics.getSyncCount() > 0);
+        assertTrue(statistics.getSyncCount() <= statistics.getCommitCount());
+        assertTrue(statistics.getCommitLatencyP50Micros() > 0);
+        assertTrue(statistics.getCommitLatencyP99Micros() >= statistics.getCommitLatencyP50Micros());
+
+        Transaction t = te.beginTransaction(false);
+        TransactionMap<String, String> map = t.openMap("testGroupCommit", storage);
+        assertEquals(threadCount * commitsPerThread, map.size());
+        map.remove();
+        t.commit();
+        te.close();
+    }
+
+    // 多个事务同时加入记录时也要唤醒日志同步线程，否则提交要等满整个循环间隔
+    @Test
+    public void testConcurrentWakeUp() throws Exception {
+        Map<String, String> config = AMTransactionEngineTest.getDefaultConfig();
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_GROUP_COMMIT);
+        config.put("log_sync_service_loop_interval", "10000");
+        AMTransactionEngine te = new AMTransactionEngine();
+        te.init(config);
+        Storage storage = AMTransactionEngineTest.getStorage();
+
+        int threadCount = 4;
+        int commitsPerThread = 20;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < commitsPerThread; j++) {
+                    Transaction t = te.beginTransaction(false);
+                    TransactionMap<String, String> map = t.openMap("testConcurrentWakeUp", storage);
+                    map.put("key-" + id + "-" + j, "value" + j);
+                    t.commit();
+                }
+            });
+        }
+        long start = System.currentTimeMillis();
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertTrue(System.currentTimeMillis() - start < 10000);
+
+        Transaction t = te.beginTransaction(false);
+        TransactionMap<String, String> map = t.openMap("testConcurrentWakeUp", storage);
+        assertEquals(threadCount * commitsPerThread, map.size());
+        map.remove();
+        t.commit();
+        te.close();
+    }
+}
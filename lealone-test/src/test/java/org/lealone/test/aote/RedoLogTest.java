@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.aote;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lealone.db.Constants;
+import org.lealone.server.Scheduler;
+import org.lealone.storage.Storage;
+import org.lealone.storage.StorageBuilder;
+import org.lealone.storage.StorageEngine;
+import org.lealone.storage.StorageEngineManager;
+import org.lealone.test.TestBase;
+import org.lealone.transaction.Transaction;
+import org.lealone.transaction.TransactionMap;
+import org.lealone.transaction.aote.AMTransactionEngine;
+import org.lealone.transaction.aote.log.LogSyncService;
+
+public class RedoLogTest extends TestBase {
+
+    private static Storage getStorage(String dir) {
+        return getStorage("redo", dir);
+    }
+
+    private static Storage getStorage(String baseDir, String dir) {
+        StorageEngine se = StorageEngineManager.getStorageEngine(Constants.DEFAULT_STORAGE_ENGINE_NAME);
+        StorageBuilder storageBuilder = se.getStorageBuilder();
+        storageBuilder.storagePath(joinDirs(baseDir, dir));
+        return storageBuilder.openStorage();
+    }
+
+    private static Map<String, String> getConfig() {
+        return getConfig("redo");
+    }
+
+    private static Map<String, String> getConfig(String baseDir) {
+        Map<String, String> config = new HashMap<>();
+        config.put("base_dir", joinDirs(baseDir));
+        config.put("redo_log_dir", "redo_log");
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_INSTANT);
+        return config;
+    }
+
+    @Test
+    public void testRedo() throws Exception {
+        int count = 3000;
+        AMTransactionEngine te = new AMTransactionEngine();
+        te.init(getConfig());
+        Storage storage = getStorage("data1");
+        Transaction t = te.beginTransaction(false);
+        TransactionMap<String, String> map = t.openMap("testRedo", storage);
+        for (int i = 0; i < count; i++)
+            map.put("key" + i, "value" + i);
+        t.commit();
+        t = te.beginTransaction(false);
+        map = t.openMap("testRedo", storage);
+        for (int i = 0; i < count; i += 2)
+            map.put("key" + i, "value" + i + "-a");
+        for (int i = 0; i < count; i += 3)
+            map.remove("key" + i);
+        t.commit();
+
+        // 模拟崩溃: 只关闭日志同步服务，不执行检查点，redo log中的记录都保留下来
+        LogSyncService logSyncService = te.getLogSyncService();
+        logSyncService.close();
+        logSyncService.join();
+
+        // 在新的存储上重做，所有数据都只来自redo log
+        AMTransactionEngine te2 = new AMTransactionEngine();
+        te2.init(getConfig());
+        Storage storage2 = getStorage("data2");
+        t = te2.beginTransaction(false);
+        map = t.openMap("testRedo", storage2);
+        assertEquals(count - count / 3, map.size());
+        for (int i = 0; i < count; i++) {
+            String value = map.get("key" + i);
+            if (i % 3 == 0)
+                assertNull(value);
+            else if (i % 2 == 0)
+                assertEquals("value" + i + "-a", value);
+            else
+                assertEquals("value" + i, value);
+        }
+        assertTrue(te2.getLogSyncService().getRedoLog().getReplayedRecordCount() > count);
+        t.commit();
+        te2.close();
+        storage2.close();
+    }
+
+    @Test
+    public void testRecycle() throws Exception {
+        Map<String, String> config = getConfig("redo_recycle");
+        config.put("log_chunk_size", String.valueOf(8 * 1024));
+        AMTransactionEngine te = new AMTransactionEngine();
+        te.init(config);
+        Storage storage = getStorage("redo_recycle", "data1");
+        writeRedoLog(te, storage, "testRecycle1");
+        te.checkpoint();
+
+        File redoLogDir = new File(joinDirs("redo_recycle", "redo_log"));
+        assertTrue(redoLogDir.list((dir, name) -> name.startsWith("recycledRedoLog")).length > 0);
+
+        // 重用回收的文件，旧文件中的内容不能被重做
+        writeRedoLog(te, storage, "testRecycle2");
+        LogSyncService logSyncService = te.getLogSyncService();
+        logSyncService.close();
+        logSyncService.join();
+
+        AMTransactionEngine te2 = new AMTransactionEngine();
+        te2.init(getConfig("redo_recycle"));
+        Storage storage2 = getStorage("redo_recycle", "data2");
+        Transaction t = te2.beginTransaction(false);
+        assertEquals(0, t.openMap("testRecycle1", storage2).size());
+        TransactionMap<String, String> map = t.openMap("testRecycle2", storage2);
+        assertEquals(100, map.size());
+        for (int i = 0; i < 100; i++)
+            assertEquals("value" + i, map.get("key" + i));
+        t.commit();
+        te2.close();
+        storage2.close();
+    }
+
+    @Test
+    public void testCrashAfterRename() throws Exception {
+        AMTransactionEngine te = new AMTransactionEngine();
+        te.init(getConfig("redo_rename"));
+        Storage storage = getStorage("redo_rename", "data1");
+        writeRedoLog(te, storage, "testCrashAfterRename");
+        LogSyncService logSyncService = te.getLogSyncService();
+        logSyncService.close();
+        logSyncService.join();
+
+        // 模拟预分配的文件刚被重命名成下一个chunk，还没有写文件头就崩溃了
+        File redoLogDir = new File(joinDirs("redo_rename", "redo_log"));
+        String[] names = redoLogDir.list((dir, name) -> name.startsWith("redoLog"));
+        int lastId = 0;
+        for (String name : names)
+            lastId = Math.max(lastId, Integer.parseInt(name.substring("redoLog".length() + 1)));
+        File next = new File(redoLogDir, "redoLog" + Constants.NAME_SEPARATOR + (lastId + 1));
+        try (RandomAccessFile file = new RandomAccessFile(next, "rw")) {
+            file.setLength(64 * 1024);
+        }
+
+        AMTransactionEngine te2 = new AMTransactionEngine();
+        te2.init(getConfig("redo_rename"));
+        Storage storage2 = getStorage("redo_rename", "data2");
+        Transaction t = te2.beginTransaction(false);
+        TransactionMap<String, String> map = t.openMap("testCrashAfterRename", storage2);
+        assertEquals(100, map.size());
+        t.commit();
+        te2.close();
+        storage2.close();
+    }
+
+    // 调度线程也是PageOperationHandler，在它里面打开map时交给其他线程提交重做操作，调度线程等待期间不能阻塞
+    @Test
+    public void testRedoInScheduler() throws Exception {
+        AMTransactionEngine te = new AMTransactionEngine();
+        te.init(getConfig("redo_scheduler"));
+        Storage storage = getStorage("redo_scheduler", "data1");
+        writeRedoLog(te, storage, "testRedoInScheduler");
+        LogSyncService logSyncService = te.getLogSyncService();
+        logSyncService.close();
+        logSyncService.join();
+
+        AMTransactionEngine te2 = new AMTransactionEngine();
+        te2.init(getConfig("redo_scheduler"));
+        Storage storage2 = getStorage("redo_scheduler", "data2");
+        Scheduler scheduler = new Scheduler(0, new HashMap<>());
+        scheduler.start();
+        Transaction t = te2.beginTransaction(false);
+        AtomicInteger size = new AtomicInteger(-1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.handle(() -> {
+            try {
+                TransactionMap<String, String> map = t.openMap("testRedoInScheduler", storage2);
+                size.set((int) map.size());
+            } catch (Throwable e) {
+                error.set(e);
+            } finally {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertEquals(100, size.get());
+        assertTrue(te2.getLogSyncService().getRedoLog().getReplayedRecordCount() >= 100);
+        t.commit();
+        te2.close();
+        storage2.close();
+    }
+
+    private static void writeRedoLog(AMTransactionEngine te, Storage storage, String mapName) {
+        // 每次提交至少写一个扇区，足够切换好几个chunk
+        for (int i = 0; i < 100; i++) {
+            Transaction t = te.beginTransaction(false);
+            TransactionMap<String, String> map = t.openMap(mapName, storage);
+            map.put("key" + i, "value" + i);
+            t.commit();
+        }
+    }
+}
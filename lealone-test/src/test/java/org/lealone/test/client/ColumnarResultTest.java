@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.test.TestBase;
+
+// 打开COLUMNAR_RESULT后结果集按列编码传输，分多次fetch时也能正确读出每种类型和null
+public class ColumnarResultTest extends TestBase {
+
+    @Test
+    public void run() throws Exception {
+        addConnectionParameter("COLUMNAR_RESULT", "true");
+        try (Connection conn = getConnection(LealoneDatabase.NAME); Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS ColumnarResultTest");
+            stmt.execute("CREATE TABLE IF NOT EXISTS ColumnarResultTest "
+                    + "(f1 int primary key, f2 bigint, f3 double, f4 varchar, f5 boolean, f6 decimal)");
+            try (PreparedStatement ps = conn
+                    .prepareStatement("INSERT INTO ColumnarResultTest VALUES(?, ?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= 100; i++) {
+                    ps.setInt(1, i);
+                    if (i % 10 == 0)
+                        ps.setNull(2, java.sql.Types.BIGINT);
+                    else
+                        ps.setLong(2, i * 1000L);
+                    ps.setDouble(3, i + 0.5);
+                    ps.setString(4, i % 7 == 0 ? null : "v" + i);
+                    ps.setBoolean(5, i % 2 == 0);
+                    ps.setBigDecimal(6, new BigDecimal(i + ".25"));
+                    ps.executeUpdate();
+                }
+            }
+
+            stmt.setFetchSize(30);
+            int count = 0;
+            try (ResultSet rs = stmt.executeQuery("SELECT * FROM ColumnarResultTest ORDER BY f1")) {
+                while (rs.next()) {
+                    int i = ++count;
+                    assertEquals(i, rs.getInt(1));
+                    assertEquals(i % 10 == 0 ? 0 : i * 1000L, rs.getLong("f2"));
+                    assertEquals(i % 10 == 0, rs.wasNull());
+                    assertEquals(i + 0.5, rs.getDouble(3), 0.0);
+                    assertEquals(i % 7 == 0 ? null : "v" + i, rs.getString(4));
+                    assertEquals(i % 2 == 0, rs.getBoolean(5));
+                    assertEquals(new BigDecimal(i + ".25"), rs.getBigDecimal(6));
+                    assertEquals(Integer.valueOf(i), rs.getObject(1));
+                }
+            }
+            assertEquals(100, count);
+
+            try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM ColumnarResultTest WHERE f1 < 0")) {
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1));
+            }
+        }
+    }
+}
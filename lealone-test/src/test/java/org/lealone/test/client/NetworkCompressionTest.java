@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.test.TestBase;
+
+// 大的结果集和批量参数在协商好压缩算法之后压缩传输
+public class NetworkCompressionTest extends TestBase {
+
+    @Test
+    public void run() throws Exception {
+        run("LZF");
+        run("DEFLATE");
+    }
+
+    private void run(String algorithm) throws Exception {
+        addConnectionParameter("NETWORK_COMPRESSION", algorithm);
+        addConnectionParameter("NETWORK_COMPRESSION_THRESHOLD", "64");
+        try (Connection conn = getConnection(LealoneDatabase.NAME); Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS NetworkCompressionTest");
+            stmt.execute("CREATE TABLE IF NOT EXISTS NetworkCompressionTest (f1 int primary key, f2 varchar)");
+            String value = "abcdefghijklmnopqrstuvwxyz0123456789";
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO NetworkCompressionTest VALUES(?, ?)")) {
+                for (int i = 1; i <= 200; i++) {
+                    ps.setInt(1, i);
+                    ps.setString(2, value + i);
+                    ps.addBatch();
+                }
+                assertEquals(200, ps.executeBatch().length);
+            }
+            int count = 0;
+            try (ResultSet rs = stmt.executeQuery("SELECT f1, f2 FROM NetworkCompressionTest ORDER BY f1")) {
+                while (rs.next()) {
+                    count++;
+                    assertEquals(count, rs.getInt(1));
+                    assertEquals(value + count, rs.getString(2));
+                }
+            }
+            assertEquals(200, count);
+        }
+    }
+}
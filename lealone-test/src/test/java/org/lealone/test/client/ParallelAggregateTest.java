@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.test.TestBase;
+
+// 多个客户端同时执行并行聚合，调度线程不能阻塞等待分到其他调度线程上的段，否则会互相等待
+public class ParallelAggregateTest extends TestBase {
+
+    @Test
+    public void run() throws Exception {
+        int rowCount = 5000;
+        try (Connection conn = getConnection(LealoneDatabase.NAME); Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS ParallelAggregateTest");
+            stmt.execute("CREATE TABLE IF NOT EXISTS ParallelAggregateTest (f1 int primary key, f2 int)");
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO ParallelAggregateTest VALUES(?, ?)")) {
+                for (int i = 1; i <= rowCount; i++) {
+                    ps.setInt(1, i);
+                    ps.setInt(2, i % 10);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+
+        int threadCount = Runtime.getRuntime().availableProcessors() * 2;
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                try (Connection conn = getConnection(LealoneDatabase.NAME);
+                        Statement stmt = conn.createStatement()) {
+                    stmt.execute("SET QUERY_PARALLELISM 4");
+                    for (int j = 0; j < 10; j++) {
+                        try (ResultSet rs = stmt
+                                .executeQuery("SELECT count(*), sum(f2) FROM ParallelAggregateTest")) {
+                            assertTrue(rs.next());
+                            assertEquals(rowCount, rs.getInt(1));
+                            assertEquals(rowCount / 10 * 45, rs.getInt(2));
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads) {
+            t.join(60 * 1000);
+            assertFalse(t.isAlive());
+        }
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.misc;
+
+import java.io.DataInputStream;
+
+import org.junit.Test;
+import org.lealone.net.NetBuffer;
+import org.lealone.net.NetBufferInputStream;
+import org.lealone.net.nio.NioBuffer;
+import org.lealone.net.nio.NioBufferAllocator;
+import org.lealone.test.TestBase;
+
+// 协议包跨越两次读到的数据时不复制，所有引用都释放后缓冲区才放回池中
+public class NioBufferTest extends TestBase {
+
+    @Test
+    public void run() throws Exception {
+        NioBufferAllocator allocator = new NioBufferAllocator(4);
+        NioBuffer b1 = allocator.allocate();
+        b1.getByteBuffer().putInt(123).putInt(456).put((byte) 7);
+        b1.getByteBuffer().flip();
+        NioBuffer b2 = allocator.allocate();
+        b2.getByteBuffer().put((byte) 8).putInt(789);
+        b2.getByteBuffer().flip();
+        assertEquals(2, allocator.getAllocations());
+
+        NetBuffer first = b1.slice(4, 9);
+        NetBuffer composite = first.appendBuffer(b2);
+        assertEquals(10, composite.length());
+        NetBuffer packet = composite.slice(4, 10);
+        composite.recycle();
+        assertEquals(0, allocator.getReleases());
+
+        DataInputStream in = new DataInputStream(new NetBufferInputStream(packet));
+        byte[] bytes = new byte[2];
+        in.readFully(bytes);
+        assertEquals(7, bytes[0]);
+        assertEquals(8, bytes[1]);
+        assertEquals(789, in.readInt());
+
+        b1.recycle();
+        assertEquals(0, allocator.getReleases());
+        in.close();
+        assertEquals(2, allocator.getReleases());
+        assertEquals(2, allocator.getPoolSize());
+
+        allocator.allocate().recycle();
+        assertEquals(1, allocator.getPoolHits());
+        assertEquals(2, allocator.getAllocations());
+    }
+}
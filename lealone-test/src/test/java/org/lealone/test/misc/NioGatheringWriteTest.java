@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.misc;
+
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+
+import org.junit.Test;
+import org.lealone.net.nio.NioBuffer;
+import org.lealone.net.nio.NioBufferAllocator;
+import org.lealone.net.nio.NioEventLoopAdapter;
+import org.lealone.test.TestBase;
+
+// 队列中的多个缓冲区用一次gathering write写出去
+public class NioGatheringWriteTest extends TestBase {
+
+    @Test
+    public void run() throws Exception {
+        NioEventLoopAdapter adapter = new NioEventLoopAdapter(new HashMap<>(), "loop_interval", 100);
+        NioBufferAllocator allocator = adapter.getBufferAllocator();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+            SocketChannel peer = server.accept();
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(adapter.getSelector(), 0);
+            adapter.addSocketChannel(channel);
+            for (int i = 0; i < 3; i++) {
+                NioBuffer buffer = allocator.allocate();
+                buffer.getByteBuffer().putInt(i);
+                buffer.getByteBuffer().flip();
+                adapter.addNioBuffer(channel, buffer);
+            }
+            adapter.write(key);
+            assertEquals(1, adapter.getWriteCount());
+            assertEquals(12, adapter.getTotalWrittenBytes());
+            assertEquals(12, adapter.getBytesPerWrite());
+            assertEquals(3, allocator.getReleases());
+
+            DataInputStream in = new DataInputStream(peer.socket().getInputStream());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i, in.readInt());
+            }
+            adapter.closeChannel(channel);
+            peer.close();
+        } finally {
+            adapter.close();
+        }
+    }
+}
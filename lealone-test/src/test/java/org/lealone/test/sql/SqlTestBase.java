@@ -21,11 +21,14 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 
 import org.junit.After;
 import org.junit.Before;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.JdbcUtils;
+import org.lealone.db.Constants;
+import org.lealone.db.DbSettings;
 import org.lealone.db.LealoneDatabase;
 import org.lealone.db.RunMode;
 import org.lealone.db.api.ErrorCode;
@@ -277,4 +280,39 @@ public class SqlTestBase extends TestBase {
         }
         return count;
     }
+
+    public static interface SqlTestTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * 把MAX_MEMORY_ROWS设成很小的值再执行测试，让排序、聚合和连接的中间结果转存到磁盘，执行完后恢复默认值.
+     * 同时关掉QUERY_MAX_MEMORY，只按记录数判断.
+     */
+    public void runWithMaxMemoryRows(int maxMemoryRows, SqlTestTask task) throws Exception {
+        executeUpdate("SET MAX_MEMORY_ROWS " + maxMemoryRows);
+        executeUpdate("SET QUERY_MAX_MEMORY 0");
+        try {
+            task.run();
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS " + Constants.DEFAULT_MAX_MEMORY_ROWS);
+            executeUpdate("SET QUERY_MAX_MEMORY " + DbSettings.getDefaultSettings().queryMaxMemory);
+        }
+    }
+
+    // 每条记录的所有字段用逗号连起来，方便比较两个查询的结果
+    public ArrayList<String> getRows(String sql) throws Exception {
+        ArrayList<String> rows = new ArrayList<>();
+        ResultSet rs = stmt.executeQuery(sql);
+        int count = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            StringBuilder buff = new StringBuilder();
+            for (int i = 1; i <= count; i++) {
+                buff.append(rs.getString(i)).append(',');
+            }
+            rows.add(buff.toString());
+        }
+        rs.close();
+        return rows;
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.lealone.storage.aose.AOStorageEngine;
+import org.lealone.storage.aose.btree.PageStorageMode;
+import org.lealone.test.sql.SqlTestBase;
+
+// 没有where条件的聚合查询会按批读取列值，结果要跟逐行计算的一样
+public class BatchAggregateTest extends SqlTestBase {
+
+    public BatchAggregateTest() {
+        super("BatchAggregateTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        testAggregate("BatchAggregateTest_row", PageStorageMode.ROW_STORAGE.name());
+        testAggregate("BatchAggregateTest_column", PageStorageMode.COLUMN_STORAGE.name());
+    }
+
+    private void testAggregate(String tableName, String pageStorageMode) throws Exception {
+        executeUpdate("drop table IF EXISTS " + tableName);
+        executeUpdate("create table IF NOT EXISTS " + tableName
+                + "(pk int primary key, f1 int, f2 bigint, f3 double, f4 varchar, f5 decimal) Engine "
+                + AOStorageEngine.NAME + " PARAMETERS(pageStorageMode='" + pageStorageMode + "')");
+        int rowCount = 3000; // 超过一批的记录数
+        for (int i = 1; i <= rowCount; i++) {
+            if (i % 5 == 0) {
+                executeUpdate("insert into " + tableName + "(pk) values(" + i + ")");
+            } else {
+                executeUpdate("insert into " + tableName + " values(" + i + ", " + (i % 100 - 50) + ", "
+                        + (Long.MAX_VALUE / 2 - i) + ", " + (i * 0.1) + ", 'v" + i + "', " + i + ".5)");
+            }
+        }
+        executeUpdate("checkpoint");
+
+        String select = "select count(*), count(f1), sum(f1), avg(f1), min(f1), max(f1),"
+                + " sum(f2), avg(f2), min(f2), max(f2), sum(f3), avg(f3), min(f3), max(f3),"
+                + " count(f4), min(f4), max(f4), sum(f5), min(f5) from " + tableName;
+        // pk >= 0不会过滤掉任何记录，但是有where条件时逐行计算
+        String[] expected = getRow(select + " where pk >= 0");
+        String[] actual = getRow(select);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(select, expected[i], actual[i]);
+        }
+        assertEquals(Integer.toString(rowCount), actual[0]);
+        assertEquals(Integer.toString(rowCount - rowCount / 5), actual[1]);
+
+        // 空表
+        executeUpdate("delete from " + tableName);
+        actual = getRow(select);
+        assertEquals("0", actual[0]);
+        assertNull(actual[2]);
+        assertNull(actual[4]);
+    }
+
+    private String[] getRow(String sql) throws Exception {
+        ResultSet rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        int count = rs.getMetaData().getColumnCount();
+        String[] row = new String[count];
+        for (int i = 0; i < count; i++) {
+            row[i] = rs.getString(i + 1);
+        }
+        rs.close();
+        return row;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// WHERE条件和SELECT字段列表中的数值运算编译成Java类后，结果和异常要跟解释执行的一样
+public class CompiledExpressionTest extends SqlTestBase {
+
+    private static final int ROW_COUNT = 1000;
+
+    public CompiledExpressionTest() {
+        super("CompiledExpressionTest");
+        addConnectionParameter("COMPILE_EXPRESSIONS", "true");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS CompiledExpressionTest");
+        executeUpdate("create table IF NOT EXISTS CompiledExpressionTest"
+                + "(pk int primary key, a int, b bigint, c double, d varchar)");
+        PreparedStatement ps = conn.prepareStatement("insert into CompiledExpressionTest values(?, ?, ?, ?, ?)");
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            ps.setInt(1, i);
+            ps.setObject(2, a(i));
+            ps.setLong(3, b(i));
+            ps.setObject(4, c(i));
+            ps.setString(5, "x" + i);
+            ps.executeUpdate();
+        }
+        ps.close();
+
+        testCondition("a > 10 and b <= 1500", i -> a(i) != null && a(i) > 10 && b(i) <= 1500);
+        testCondition("a + b * 2 > 3000 or c < 5.5",
+                i -> a(i) != null && a(i) + b(i) * 2 > 3000 || c(i) != null && c(i) < 5.5);
+        testCondition("not (a = 3) and c is not null", i -> a(i) != null && a(i) != 3 && c(i) != null);
+        testCondition("a % 4 = 1 and c / 2 >= 10 and d like 'x1%'", i -> a(i) != null && a(i) % 4 == 1
+                && c(i) != null && c(i) / 2 >= 10 && ("x" + i).startsWith("x1"));
+        testCondition("a - 1 >= c", i -> a(i) != null && c(i) != null && a(i) - 1 >= c(i));
+        testCondition("-a < -40 or a is null", i -> a(i) == null || -a(i) < -40);
+
+        sql = "explain select pk from CompiledExpressionTest where a > 10 and b <= 1500";
+        assertTrue(getStringValue(1, true).contains("compiled"));
+
+        // 参数的类型执行时才知道
+        ps = conn.prepareStatement("select count(*) from CompiledExpressionTest where a <> ? and c > ?");
+        ps.setInt(1, 7);
+        ps.setInt(2, 100);
+        assertEquals(count(i -> a(i) != null && a(i) != 7 && c(i) != null && c(i) > 100), getCount(ps));
+        ps.setLong(1, 8);
+        ps.setDouble(2, 100.5);
+        assertEquals(count(i -> a(i) != null && a(i) != 8 && c(i) != null && c(i) > 100.5), getCount(ps));
+        ps.setString(1, "9");
+        assertEquals(count(i -> a(i) != null && a(i) != 9 && c(i) != null && c(i) > 100.5), getCount(ps));
+        ps.close();
+
+        testProjection();
+
+        // 超出long的范围时解释执行，结果跟BigDecimal计算的一样
+        sql = "select b * 4611686018427387904 from CompiledExpressionTest where pk = 1";
+        assertEquals(BigInteger.valueOf(3).shiftLeft(62).toString(), getStringValue(1, true));
+        // 除0时的异常跟解释执行一样
+        assertError("select pk from CompiledExpressionTest where a % (b - 3) > 0");
+        sql = "select count(*) from CompiledExpressionTest where pk > 1 and a % (b - 3) >= 0";
+        assertEquals(count(i -> i > 1 && a(i) != null), getIntValue(1, true));
+    }
+
+    private static Integer a(int i) {
+        return i % 7 == 0 ? null : i % 50;
+    }
+
+    private static long b(int i) {
+        return i * 3L;
+    }
+
+    private static Double c(int i) {
+        return i % 5 == 0 ? null : i * 0.25;
+    }
+
+    private static int count(IntPredicate p) {
+        int count = 0;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            if (p.test(i))
+                count++;
+        }
+        return count;
+    }
+
+    private void testCondition(String condition, IntPredicate p) throws Exception {
+        sql = "select count(*) from CompiledExpressionTest where " + condition;
+        assertEquals(condition, count(p), getIntValue(1, true));
+    }
+
+    private int getCount(PreparedStatement ps) throws Exception {
+        ResultSet rs = ps.executeQuery();
+        assertTrue(rs.next());
+        int count = rs.getInt(1);
+        rs.close();
+        return count;
+    }
+
+    private void testProjection() throws Exception {
+        ResultSet rs = stmt.executeQuery("select pk, a * 3 - b, c * 2 + a, -b from CompiledExpressionTest order by pk");
+        int i = 0;
+        while (rs.next()) {
+            i++;
+            assertEquals(i, rs.getInt(1));
+            Integer a = a(i);
+            Double c = c(i);
+            if (a == null) {
+                assertNull(rs.getObject(2));
+            } else {
+                assertEquals(a * 3 - b(i), rs.getLong(2));
+            }
+            if (a == null || c == null) {
+                assertNull(rs.getObject(3));
+            } else {
+                assertEquals(c * 2 + a, rs.getDouble(3), 0);
+            }
+            assertEquals(-b(i), rs.getLong(4));
+        }
+        rs.close();
+        assertEquals(ROW_COUNT, i);
+    }
+
+    private void assertError(String sql) {
+        try {
+            stmt.executeQuery(sql);
+            fail(sql);
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+}
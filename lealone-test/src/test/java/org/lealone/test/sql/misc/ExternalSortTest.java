@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 结果集超过MAX_MEMORY_ROWS时分成多个有序的run写到临时文件，再用败者树多路归并
+public class ExternalSortTest extends SqlTestBase {
+
+    public ExternalSortTest() {
+        super("ExternalSortTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS ExternalSortTest");
+        executeUpdate("create table IF NOT EXISTS ExternalSortTest(pk int primary key, f1 int, f2 varchar)");
+        int rowCount = 3000;
+        ArrayList<long[]> rows = new ArrayList<>(rowCount);
+        PreparedStatement ps = conn.prepareStatement("insert into ExternalSortTest values(?, ?, ?)");
+        for (int i = 1; i <= rowCount; i++) {
+            // 打乱顺序，并且有重复值和null
+            int f1 = (i * 7919) % 500;
+            ps.setInt(1, i);
+            if (i % 11 == 0) {
+                ps.setNull(2, Types.INTEGER);
+                rows.add(new long[] { Long.MIN_VALUE, i });
+            } else {
+                ps.setInt(2, f1);
+                rows.add(new long[] { f1, i });
+            }
+            ps.setString(3, "v" + f1);
+            ps.executeUpdate();
+        }
+        ps.close();
+        // 按f1降序、pk升序，null是最小的值，降序时排在最后
+        Collections.sort(rows, (a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+
+        // 有7个run时tape的个数不是2的幂
+        runWithMaxMemoryRows(450, () -> {
+            testOrderBy(rows, 0, rowCount);
+            testOrderBy(rows, 1234, 567);
+        });
+        runWithMaxMemoryRows(1, () -> testOrderBy(rows, 100, 10));
+        // 只有一个run
+        runWithMaxMemoryRows(2999, () -> testOrderBy(rows, 0, rowCount));
+        testOrderBy(rows, 0, rowCount);
+    }
+
+    private void testOrderBy(ArrayList<long[]> expected, int offset, int limit) throws Exception {
+        String sql = "select pk, f1, f2 from ExternalSortTest order by f1 desc, pk";
+        if (offset > 0 || limit < expected.size())
+            sql += " limit " + limit + " offset " + offset;
+        ResultSet rs = stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            long[] row = expected.get(offset + count);
+            assertEquals(row[1], rs.getLong(1));
+            if (row[0] == Long.MIN_VALUE) {
+                rs.getInt(2);
+                assertTrue(rs.wasNull());
+            } else {
+                assertEquals(row[0], rs.getLong(2));
+            }
+            count++;
+        }
+        rs.close();
+        assertEquals(Math.min(limit, expected.size() - offset), count);
+    }
+}
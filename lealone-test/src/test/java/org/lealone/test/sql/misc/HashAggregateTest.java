@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.lealone.db.DbSettings;
+import org.lealone.test.sql.SqlTestBase;
+
+// 简单的group by聚合查询使用hash aggregate，分组占用的内存超过QUERY_MAX_MEMORY(没有设置时按MAX_MEMORY_ROWS)时
+// 要转存到临时文件，结果不能有变化
+public class HashAggregateTest extends SqlTestBase {
+
+    public HashAggregateTest() {
+        super("HashAggregateTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS HashAggregateTest");
+        executeUpdate("create table IF NOT EXISTS HashAggregateTest"
+                + "(pk int primary key, g int, h varchar, f1 int, f2 bigint, f3 double, f4 varchar, f5 decimal)");
+        for (int i = 1; i <= 2000; i++) {
+            String g = i % 97 == 0 ? "null" : Integer.toString(i % 300);
+            if (i % 5 == 0) {
+                executeUpdate("insert into HashAggregateTest(pk, g, h) values(" + i + ", " + g + ", 'h" + (i % 3)
+                        + "')");
+            } else {
+                executeUpdate("insert into HashAggregateTest values(" + i + ", " + g + ", 'h" + (i % 3) + "', "
+                        + (i % 100 - 50) + ", " + (Long.MAX_VALUE / 4 - i) + ", " + (i * 0.1) + ", 'v" + i + "', "
+                        + i + ".5)");
+            }
+        }
+
+        testGroupBy();
+        // 只能放下50个分组，其他的要转存到临时文件
+        runWithMaxMemoryRows(50, () -> {
+            testGroupBy();
+            sql = "explain analyze select g, count(*) from HashAggregateTest group by g";
+            String plan = getStringValue(1, true);
+            assertTrue(plan.contains("hash aggregate"));
+            assertTrue(plan.contains("spilled rows"));
+        });
+        // 只有4K字节，同样要转存到临时文件
+        executeUpdate("SET QUERY_MAX_MEMORY 4096");
+        try {
+            testGroupBy();
+            sql = "explain analyze select g, count(*) from HashAggregateTest group by g";
+            assertTrue(getStringValue(1, true).contains("spilled rows"));
+        } finally {
+            executeUpdate("SET QUERY_MAX_MEMORY " + DbSettings.getDefaultSettings().queryMaxMemory);
+        }
+    }
+
+    private void testGroupBy() throws Exception {
+        String aggregates = "count(*), count(f1), sum(f1), avg(f1), min(f1), max(f1), sum(f2), avg(f2),"
+                + " sum(f3), avg(f3), min(f4), max(f4), sum(f5), avg(f5)";
+        testGroupBy("select g, " + aggregates + " from HashAggregateTest group by g", "g", 301);
+        testGroupBy("select h, g, " + aggregates + " from HashAggregateTest where pk > 100 group by g, h", "h, g",
+                -1);
+        // order by中的聚合函数跟select字段中的是同一个
+        testGroupBy("select g, count(*) c from HashAggregateTest group by g", "c desc, g", 301);
+
+        sql = "explain select g, count(*) from HashAggregateTest group by g";
+        assertTrue(getStringValue(1, true).contains("hash aggregate"));
+        // 有having或者不是聚合函数时不使用hash aggregate
+        sql = "explain select g, count(*) + 1 from HashAggregateTest group by g";
+        assertFalse(getStringValue(1, true).contains("hash aggregate"));
+    }
+
+    // having count(*) > 0不会过滤掉任何分组，但是有having时使用原来的方式计算
+    private void testGroupBy(String select, String orderBy, int expectedRowCount) throws Exception {
+        ArrayList<String> expected = getRows(select + " having count(*) > 0 order by " + orderBy);
+        ArrayList<String> actual = getRows(select + " order by " + orderBy);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(select, expected.get(i), actual.get(i));
+        }
+        if (expectedRowCount >= 0)
+            assertEquals(expectedRowCount, actual.size());
+    }
+}
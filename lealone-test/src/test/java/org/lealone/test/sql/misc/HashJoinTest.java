@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 连接字段上没有索引时使用hash join
+public class HashJoinTest extends SqlTestBase {
+
+    public HashJoinTest() {
+        super("HashJoinTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS HashJoinTest1");
+        executeUpdate("drop table IF EXISTS HashJoinTest2");
+        executeUpdate("create table IF NOT EXISTS HashJoinTest1(pk int primary key, a int, b varchar)");
+        executeUpdate("create table IF NOT EXISTS HashJoinTest2(pk int primary key, a int, c varchar)");
+        for (int i = 1; i <= 100; i++) {
+            String a = i % 25 == 0 ? "null" : Integer.toString(i % 10);
+            executeUpdate("insert into HashJoinTest1 values(" + i + ", " + a + ", 'b" + i + "')");
+        }
+        for (int i = 1; i <= 30; i++) {
+            String a = i % 7 == 0 ? "null" : Integer.toString(i % 15);
+            executeUpdate("insert into HashJoinTest2 values(" + i + ", " + a + ", 'c" + i + "')");
+        }
+
+        testJoin();
+        // 只能放下5条记录，其他的要转存到临时表中
+        runWithMaxMemoryRows(5, this::testJoin);
+    }
+
+    private void testJoin() throws Exception {
+        sql = "select count(*) from HashJoinTest1 t1, HashJoinTest2 t2 where t1.a = t2.a";
+        assertEquals(172, getIntValue(1, true));
+        sql = "select sum(t1.pk + t2.pk) from HashJoinTest1 t1 join HashJoinTest2 t2 on t1.a = t2.a";
+        assertEquals(10850, getIntValue(1, true));
+        sql = "select count(*) from HashJoinTest1 t1 join HashJoinTest2 t2 on t1.a = t2.a where t2.pk > 10";
+        assertEquals(94, getIntValue(1, true));
+        // 外连接的左表中没有匹配的记录也要返回，包括连接字段是null的记录
+        sql = "select count(*) from HashJoinTest1 t1 left join HashJoinTest2 t2 on t1.a = t2.a";
+        assertEquals(176, getIntValue(1, true));
+
+        sql = "select t2.c from HashJoinTest1 t1 join HashJoinTest2 t2 on t1.a = t2.a where t1.pk = 3";
+        ResultSet rs = stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            String c = rs.getString(1);
+            assertTrue(c.equals("c3") || c.equals("c18"));
+            count++;
+        }
+        rs.close();
+        assertEquals(2, count);
+
+        sql = "explain select count(*) from HashJoinTest1 t1 left join HashJoinTest2 t2 on t1.a = t2.a";
+        assertTrue(getStringValue(1, true).contains("HASH JOIN"));
+    }
+}
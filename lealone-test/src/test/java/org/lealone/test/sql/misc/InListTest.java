@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 大的IN列表和不相关的IN子查询用hash表求值，唯一索引上密集的IN列表用一次范围查找
+public class InListTest extends SqlTestBase {
+
+    public InListTest() {
+        super("InListTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS InListTest");
+        executeUpdate("drop table IF EXISTS InListDecimalTest");
+        // 修改collation时数据库中不能有表
+        testCollation();
+
+        executeUpdate("create table IF NOT EXISTS InListTest(pk int primary key, f1 int, f2 varchar)");
+        for (int i = 1; i <= 100; i++) {
+            executeUpdate("insert into InListTest values(" + i + ", " + (i % 10) + ", 'v" + i + "')");
+        }
+        executeUpdate("insert into InListTest values(101, null, null)");
+
+        testParameters();
+        testIndexRange();
+        testDecimal();
+
+        // 不相关子查询
+        sql = "select count(*) from InListTest where pk in(select f1 from InListTest)";
+        assertEquals(9, getIntValue(1, true));
+        sql = "select count(*) from InListTest where pk not in(select f1 from InListTest where f1 is not null)";
+        assertEquals(92, getIntValue(1, true));
+        // 子查询的结果中有NULL时NOT IN总是返回NULL
+        sql = "select count(*) from InListTest where pk not in(select f1 from InListTest)";
+        assertEquals(0, getIntValue(1, true));
+        sql = "select count(*) from InListTest where f2 in(select f2 from InListTest where pk < 5)";
+        assertEquals(4, getIntValue(1, true));
+        // 相关子查询
+        sql = "select count(*) from InListTest t where pk in(select pk from InListTest where f1 = t.f1 and pk < 20)";
+        assertEquals(19, getIntValue(1, true));
+    }
+
+    private void testParameters() throws Exception {
+        StringBuilder buff = new StringBuilder("select count(*) from InListTest where f1 + 0 in(");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0)
+                buff.append(", ");
+            buff.append('?');
+        }
+        buff.append(')');
+        PreparedStatement ps = conn.prepareStatement(buff.toString());
+        for (int i = 1; i <= 10; i++) {
+            ps.setInt(i, 1);
+        }
+        assertEquals(10, getCount(ps));
+        // 再次执行时参数值变了，hash表要重新创建
+        for (int i = 1; i <= 10; i++) {
+            ps.setInt(i, i % 3);
+        }
+        assertEquals(30, getCount(ps));
+        ps.setNull(10, java.sql.Types.INTEGER);
+        assertEquals(30, getCount(ps));
+        ps.close();
+
+        sql = "select count(*) from InListTest where f2 || '' in('v1', 'v2', 'v3', 'v4', 'v5', 'v6', 'v7', 'v8', 'x')";
+        assertEquals(8, getIntValue(1, true));
+    }
+
+    // 使用collation时不同的字符串也可能相等，不能用hash表
+    private void testCollation() throws Exception {
+        executeUpdate("SET COLLATION ENGLISH STRENGTH PRIMARY");
+        try {
+            PreparedStatement ps = conn
+                    .prepareStatement("select cast(? as varchar) in('A', 'B', 'C', 'D', 'E', 'F', 'G', ?)");
+            ps.setString(1, "a");
+            ps.setString(2, "x");
+            assertTrue(getBoolean(ps));
+            ps.close();
+            // 值列表中全是常量
+            ps = conn.prepareStatement("select cast(? as varchar) in('A', 'B')");
+            ps.setString(1, "b");
+            assertTrue(getBoolean(ps));
+            ps.close();
+        } finally {
+            executeUpdate("SET COLLATION OFF");
+        }
+    }
+
+    // DECIMAL的1.0和1.00是相等的，但是Value.equals不相等
+    private void testDecimal() throws Exception {
+        executeUpdate("create table IF NOT EXISTS InListDecimalTest(pk int primary key, d decimal(10, 2))");
+        executeUpdate("insert into InListDecimalTest values(1, 1.00)");
+        executeUpdate("insert into InListDecimalTest values(2, 2.50)");
+        executeUpdate("insert into InListDecimalTest values(3, 3.75)");
+
+        sql = "select count(*) from InListDecimalTest where d in(1.0, 2.5)";
+        assertEquals(2, getIntValue(1, true));
+
+        StringBuilder buff = new StringBuilder("select count(*) from InListDecimalTest where d in(");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0)
+                buff.append(", ");
+            buff.append('?');
+        }
+        buff.append(')');
+        PreparedStatement ps = conn.prepareStatement(buff.toString());
+        for (int i = 1; i <= 10; i++) {
+            ps.setBigDecimal(i, new BigDecimal("1.0"));
+        }
+        ps.setBigDecimal(10, new BigDecimal("3.750"));
+        assertEquals(2, getCount(ps));
+        ps.close();
+    }
+
+    private void testIndexRange() throws Exception {
+        StringBuilder buff = new StringBuilder();
+        for (int i = 10; i <= 40; i += 2) {
+            if (buff.length() > 0)
+                buff.append(", ");
+            buff.append(i);
+        }
+        sql = "select count(*) from InListTest where pk in(" + buff + ")";
+        assertEquals(16, getIntValue(1, true));
+        sql = "select count(*) from InListTest where pk in(" + buff + ", null, 200, 300)";
+        assertEquals(16, getIntValue(1, true));
+        sql = "select sum(pk) from InListTest where pk in(1, 2, 3, 4, 5, 6, 7, 8, 9, 10) and f1 > 5";
+        assertEquals(6 + 7 + 8 + 9, getIntValue(1, true));
+    }
+
+    private boolean getBoolean(PreparedStatement ps) throws Exception {
+        try (ResultSet rs = ps.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getBoolean(1);
+        }
+    }
+
+    private int getCount(PreparedStatement ps) throws Exception {
+        try (ResultSet rs = ps.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 两个表都按连接字段的顺序读取时使用merge join
+public class MergeJoinTest extends SqlTestBase {
+
+    public MergeJoinTest() {
+        super("MergeJoinTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS MergeJoinTest1");
+        executeUpdate("drop table IF EXISTS MergeJoinTest2");
+        executeUpdate("drop table IF EXISTS MergeJoinTest3");
+        executeUpdate("create table IF NOT EXISTS MergeJoinTest1(pk int primary key, f1 int)");
+        executeUpdate("create table IF NOT EXISTS MergeJoinTest2(pk int primary key, ts int)");
+        executeUpdate("create index IF NOT EXISTS MergeJoinTest2_ts on MergeJoinTest2(ts)");
+        executeUpdate("create table IF NOT EXISTS MergeJoinTest3(pk int primary key)");
+        // 后面几个key之间的间隔比较大，内表要跳过很多记录
+        for (int i = 1; i <= 36; i++) {
+            int pk = i <= 30 ? i * 10 : (i - 27) * 100;
+            executeUpdate("insert into MergeJoinTest1 values(" + pk + ", " + i % 3 + ")");
+        }
+        // 每个ts有两条记录，中间还有NULL
+        for (int i = 1; i <= 1200; i++) {
+            String ts = i % 7 == 0 ? "null" : Integer.toString(i / 2);
+            executeUpdate("insert into MergeJoinTest2 values(" + i + ", " + ts + ")");
+        }
+        for (int i = 1; i <= 3; i++) {
+            executeUpdate("insert into MergeJoinTest3 values(" + i + ")");
+        }
+
+        sql = "select count(*) from MergeJoinTest1 t1 join MergeJoinTest2 t2 on t1.pk = t2.pk";
+        assertEquals(36, getIntValue(1, true));
+        sql = "select count(*) from MergeJoinTest1 t1 join MergeJoinTest2 t2 on t1.pk = t2.ts";
+        assertEquals(55, getIntValue(1, true));
+        sql = "select sum(t2.ts) from MergeJoinTest1 t1 join MergeJoinTest2 t2 on t1.pk = t2.ts";
+        assertEquals(9750, getIntValue(1, true));
+        sql = "select count(*) from MergeJoinTest1 t1 left join MergeJoinTest2 t2 on t1.pk = t2.ts";
+        assertEquals(58, getIntValue(1, true));
+        sql = "explain select count(*) from MergeJoinTest1 t1 left join MergeJoinTest2 t2 on t1.pk = t2.ts";
+        assertTrue(getStringValue(1, true).contains("MERGE JOIN"));
+
+        // 外表每次从头读时key会变小
+        sql = "select count(*) from MergeJoinTest3 t3 cross join MergeJoinTest1 t1"
+                + " left join MergeJoinTest2 t2 on t1.pk = t2.ts";
+        assertEquals(174, getIntValue(1, true));
+        sql = "select count(*) from MergeJoinTest3 t3, MergeJoinTest1 t1, MergeJoinTest2 t2"
+                + " where t1.pk = t2.ts and t3.pk <= 2";
+        assertEquals(110, getIntValue(1, true));
+    }
+}
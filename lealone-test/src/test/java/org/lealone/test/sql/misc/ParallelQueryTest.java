@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 按key的范围把表分成几段并行计算聚合函数，结果要跟单线程计算的一样
+public class ParallelQueryTest extends SqlTestBase {
+
+    public ParallelQueryTest() {
+        super("ParallelQueryTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS ParallelQueryTest");
+        executeUpdate("create table IF NOT EXISTS ParallelQueryTest"
+                + "(pk int primary key, f1 int, f2 bigint, f3 double, f4 varchar, f5 decimal)");
+        int rowCount = 20000;
+        PreparedStatement ps = conn.prepareStatement("insert into ParallelQueryTest values(?, ?, ?, ?, ?, ?)");
+        for (int i = 1; i <= rowCount; i++) {
+            ps.setInt(1, i);
+            if (i % 5 == 0)
+                ps.setNull(2, Types.INTEGER);
+            else
+                ps.setInt(2, i % 100 - 50);
+            ps.setLong(3, i * 3L);
+            ps.setDouble(4, i * 0.5);
+            ps.setString(5, "v" + i);
+            ps.setBigDecimal(6, new BigDecimal(i + ".25"));
+            ps.executeUpdate();
+        }
+        ps.close();
+
+        String select = "select count(*), count(f1), sum(f1), avg(f1), min(f1), max(f1), sum(f2), avg(f2),"
+                + " min(f3), max(f3), count(f4), min(f4), max(f4), sum(f5), avg(f5) from ParallelQueryTest";
+        try {
+            executeUpdate("SET QUERY_PARALLELISM 4");
+            // pk >= 0不会过滤掉任何记录，但是有where条件时逐行计算
+            String[] expected = getRow(select + " where pk >= 0");
+            String[] actual = getRow(select);
+            assertRowEquals(select, expected, actual);
+            assertEquals(Integer.toString(rowCount), actual[0]);
+            sql = "explain analyze " + select;
+            assertTrue(getStringValue(1, true).contains("parallel"));
+
+            // 未提交的更新只对当前事务可见，每一段都要用当前事务读取
+            conn.setAutoCommit(false);
+            executeUpdate("delete from ParallelQueryTest where pk > 15000");
+            executeUpdate("update ParallelQueryTest set f1 = 1000 where pk = 1");
+            expected = getRow(select + " where pk >= 0");
+            actual = getRow(select);
+            assertRowEquals(select, expected, actual);
+            assertEquals("15000", actual[0]);
+            assertEquals("1000", actual[5]);
+            conn.rollback();
+            conn.setAutoCommit(true);
+            assertEquals(Integer.toString(rowCount), getRow(select)[0]);
+
+            executeUpdate("SET QUERY_PARALLELISM 1");
+            sql = "explain analyze " + select;
+            assertFalse(getStringValue(1, true).contains("parallel"));
+        } finally {
+            executeUpdate("SET QUERY_PARALLELISM 1");
+        }
+    }
+
+    private void assertRowEquals(String sql, String[] expected, String[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(sql, expected[i], actual[i]);
+        }
+    }
+
+    private String[] getRow(String sql) throws Exception {
+        ResultSet rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        int count = rs.getMetaData().getColumnCount();
+        String[] row = new String[count];
+        for (int i = 0; i < count; i++) {
+            row[i] = rs.getString(i + 1);
+        }
+        rs.close();
+        return row;
+    }
+}
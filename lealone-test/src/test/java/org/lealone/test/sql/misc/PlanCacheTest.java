@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// session关闭后它缓存的语句给其他session使用
+public class PlanCacheTest extends SqlTestBase {
+
+    public PlanCacheTest() {
+        super("PlanCacheTest");
+        addConnectionParameter("PLAN_CACHE_SIZE", "16");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS PlanCacheTest");
+        executeUpdate("create table IF NOT EXISTS PlanCacheTest(pk int primary key, f1 int)");
+        for (int i = 1; i <= 10; i++) {
+            executeUpdate("insert into PlanCacheTest values(" + i + ", " + i * 10 + ")");
+        }
+
+        // 每个连接都是一个新的session
+        for (int i = 1; i <= 5; i++) {
+            try (Connection c = getConnection()) {
+                assertEquals(i * 10, query(c, "select f1 from PlanCacheTest where pk = ?", i));
+                assertEquals(1, update(c, "update PlanCacheTest set f1 = f1 + 1 where pk = ?", i));
+                assertEquals(i * 10 + 1, query(c, "select f1 from PlanCacheTest where pk = ?", i));
+            }
+        }
+        assertTrue(getSetting("info.PLAN_CACHE_HITS") >= 8);
+
+        // 不同schema中的同名表不能共用语句
+        executeUpdate("create schema IF NOT EXISTS PlanCacheTestSchema");
+        executeUpdate("create table IF NOT EXISTS PlanCacheTestSchema.PlanCacheTest(pk int primary key, f1 int)");
+        executeUpdate("insert into PlanCacheTestSchema.PlanCacheTest values(1, 100)");
+        try (Connection c = getConnection()) {
+            assertEquals(11, query(c, "select f1 from PlanCacheTest where pk = ?", 1));
+        }
+        try (Connection c = getConnection()) {
+            try (Statement s = c.createStatement()) {
+                s.executeUpdate("set schema PlanCacheTestSchema");
+            }
+            assertEquals(100, query(c, "select f1 from PlanCacheTest where pk = ?", 1));
+        }
+        try (Connection c = getConnection()) {
+            assertEquals(11, query(c, "select f1 from PlanCacheTest where pk = ?", 1));
+        }
+
+        // 执行DDL后缓存失效，新加的字段要能查到
+        executeUpdate("alter table PlanCacheTest add column f2 int default 7");
+        try (Connection c = getConnection()) {
+            assertEquals(7, query(c, "select f2 from PlanCacheTest where pk = ?", 1));
+        }
+        try (Connection c = getConnection()) {
+            assertEquals(7, query(c, "select f2 from PlanCacheTest where pk = ?", 2));
+        }
+        assertTrue(getSetting("info.PLAN_CACHE_MISSES") > 0);
+    }
+
+    private int query(Connection c, String sql, int pk) throws Exception {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setInt(1, pk);
+            try (ResultSet rs = ps.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private int update(Connection c, String sql, int pk) throws Exception {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setInt(1, pk);
+            return ps.executeUpdate();
+        }
+    }
+
+    private long getSetting(String name) throws Exception {
+        sql = "select value from information_schema.settings where name = '" + name + "'";
+        return Long.parseLong(getStringValue(1, true));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// WHERE条件中的简单比较会下推到存储层的cursor，查询结果不能有变化
+public class PredicatePushdownTest extends SqlTestBase {
+
+    public PredicatePushdownTest() {
+        super("PredicatePushdownTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS PredicatePushdownTest");
+        executeUpdate("create table IF NOT EXISTS PredicatePushdownTest(pk int primary key, f1 int, f2 varchar)");
+        for (int i = 1; i <= 100; i++) {
+            String f2 = i % 10 == 0 ? "null" : "'v" + (i % 3) + "'";
+            executeUpdate("insert into PredicatePushdownTest values(" + i + ", " + (i % 7) + ", " + f2 + ")");
+        }
+
+        sql = "select count(*) from PredicatePushdownTest where f1 = 3";
+        assertEquals(14, getIntValue(1, true));
+        sql = "select count(*) from PredicatePushdownTest where f1 >= 5 and f2 = 'v1'";
+        assertEquals(8, getIntValue(1, true));
+        sql = "select count(*) from PredicatePushdownTest where f2 is null";
+        assertEquals(10, getIntValue(1, true));
+        sql = "select count(*) from PredicatePushdownTest where f2 <> 'v0'";
+        assertEquals(60, getIntValue(1, true));
+        // OR和函数不会下推，仍然由TableFilter判断
+        sql = "select count(*) from PredicatePushdownTest where f1 = 3 or f2 is null";
+        assertEquals(22, getIntValue(1, true));
+        sql = "select count(*) from PredicatePushdownTest where pk > 50 and f1 < 2 and abs(f1) = 1";
+        assertEquals(7, getIntValue(1, true));
+
+        // 参数每次执行时都不一样
+        PreparedStatement ps = conn.prepareStatement("select count(*) from PredicatePushdownTest where f1 = ?");
+        for (int i = 0; i < 7; i++) {
+            ps.setInt(1, i);
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(i == 1 || i == 2 ? 15 : 14, rs.getInt(1));
+            rs.close();
+        }
+        ps.close();
+
+        // 外连接的ON条件不能在存储层过滤掉左表的记录
+        sql = "select count(*) from PredicatePushdownTest t1 left join PredicatePushdownTest t2"
+                + " on t1.pk = t2.pk and t2.f1 = 100 where t1.pk <= 10";
+        assertEquals(10, getIntValue(1, true));
+
+        // 未提交的更新只对当前事务可见
+        conn.setAutoCommit(false);
+        executeUpdate("update PredicatePushdownTest set f1 = 100 where pk = 1");
+        sql = "select count(*) from PredicatePushdownTest where f1 = 100";
+        assertEquals(1, getIntValue(1, true));
+        conn.rollback();
+        conn.setAutoCommit(true);
+        assertEquals(0, getIntValue(1, true));
+    }
+}
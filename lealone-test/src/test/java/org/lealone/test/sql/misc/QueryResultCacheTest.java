@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 不同session执行相同的查询时共用查询结果，表被修改后结果失效
+public class QueryResultCacheTest extends SqlTestBase {
+
+    public QueryResultCacheTest() {
+        super("QueryResultCacheTest");
+        addConnectionParameter("RESULT_CACHE_SIZE", "1024");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS QueryResultCacheTest");
+        executeUpdate("create table IF NOT EXISTS QueryResultCacheTest(pk int primary key, f1 int)");
+        for (int i = 1; i <= 10; i++) {
+            executeUpdate("insert into QueryResultCacheTest values(" + i + ", " + i * 10 + ")");
+        }
+
+        String sql = "select sum(f1) from QueryResultCacheTest where pk <= ?";
+        for (int i = 1; i <= 5; i++) {
+            try (Connection c = getConnection()) {
+                assertEquals(550, query(c, sql, 10));
+                assertEquals(150, query(c, sql, 5));
+            }
+        }
+        assertTrue(getSetting("info.RESULT_CACHE_HITS") >= 8);
+
+        // 修改表后不能再用旧的结果
+        executeUpdate("update QueryResultCacheTest set f1 = f1 + 1 where pk = 1");
+        try (Connection c = getConnection()) {
+            assertEquals(551, query(c, sql, 10));
+        }
+
+        // 未提交的修改只对当前session可见
+        try (Connection c1 = getConnection(); Connection c2 = getConnection()) {
+            c1.setAutoCommit(false);
+            try (Statement s = c1.createStatement()) {
+                s.executeUpdate("update QueryResultCacheTest set f1 = f1 + 1 where pk = 2");
+            }
+            assertEquals(552, query(c1, sql, 10));
+            assertEquals(551, query(c2, sql, 10));
+            c1.commit();
+            assertEquals(552, query(c2, sql, 10));
+        }
+
+        sql = "select sql_statement from information_schema.result_cache";
+        assertTrue(getStringValue(1, true).length() > 0);
+    }
+
+    private int query(Connection c, String sql, int pk) throws Exception {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setInt(1, pk);
+            try (ResultSet rs = ps.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private long getSetting(String name) throws Exception {
+        sql = "select value from information_schema.settings where name = '" + name + "'";
+        return Long.parseLong(getStringValue(1, true));
+    }
+}
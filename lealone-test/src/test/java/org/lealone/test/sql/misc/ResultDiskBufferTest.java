@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.lealone.db.Constants;
+import org.lealone.test.sql.SqlTestBase;
+
+// LocalResult转存到ResultDiskBuffer时DataBuffer用的是direct buffer，不能直接调用getBytes()读写记录
+public class ResultDiskBufferTest extends SqlTestBase {
+
+    public ResultDiskBufferTest() {
+        super("ResultDiskBufferTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS ResultDiskBufferTest");
+        executeUpdate("create table IF NOT EXISTS ResultDiskBufferTest(pk int primary key, f1 varchar, f2 decimal)");
+        int rowCount = 200;
+        PreparedStatement ps = conn.prepareStatement("insert into ResultDiskBufferTest values(?, ?, ?)");
+        for (int i = 1; i <= rowCount; i++) {
+            ps.setInt(1, i);
+            // 记录的长度都超过了一个文件块，有的还超过了rowBuff的初始大小
+            ps.setString(2, i % 10 == 0 ? null : getString(i));
+            ps.setBigDecimal(3, new BigDecimal(i + ".25"));
+            ps.executeUpdate();
+        }
+        ps.close();
+
+        runWithMaxMemoryRows(10, () -> testOrderBy(rowCount));
+    }
+
+    private void testOrderBy(int rowCount) throws Exception {
+        ResultSet rs = stmt.executeQuery("select pk, f1, f2 from ResultDiskBufferTest order by pk desc");
+        int count = 0;
+        while (rs.next()) {
+            int pk = rowCount - count;
+            assertEquals(pk, rs.getInt(1));
+            assertEquals(pk % 10 == 0 ? null : getString(pk), rs.getString(2));
+            assertEquals(pk + ".25", rs.getBigDecimal(3).toString());
+            count++;
+        }
+        rs.close();
+        assertEquals(rowCount, count);
+    }
+
+    private static String getString(int i) {
+        StringBuilder buff = new StringBuilder();
+        int length = i % 3 == 0 ? 3 * Constants.DEFAULT_PAGE_SIZE : i;
+        while (buff.length() < length) {
+            buff.append("v").append(i);
+        }
+        return buff.toString();
+    }
+}
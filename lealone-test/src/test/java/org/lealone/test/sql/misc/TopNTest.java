@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// ORDER BY ... LIMIT只用一个堆保留排在前面的记录，结果要跟排序全部记录后再截取的一样
+public class TopNTest extends SqlTestBase {
+
+    public TopNTest() {
+        super("TopNTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("SET OPTIMIZE_REUSE_RESULTS 0");
+        executeUpdate("drop table IF EXISTS TopNTest");
+        executeUpdate("create table IF NOT EXISTS TopNTest(pk int primary key, f1 int, f2 varchar)");
+        PreparedStatement ps = conn.prepareStatement("insert into TopNTest values(?, ?, ?)");
+        for (int i = 1; i <= 3000; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, (i * 7919) % 500);
+            ps.setString(3, "v" + (i % 37));
+            ps.executeUpdate();
+        }
+        ps.close();
+
+        testTopN();
+        // offset+limit超过MAX_MEMORY_ROWS时按原来的方式转存到临时文件中排序
+        runWithMaxMemoryRows(30, this::testTopN);
+    }
+
+    private void testTopN() throws Exception {
+        testTopN("select pk, f1 from TopNTest order by f1 desc, pk", 0, 50);
+        testTopN("select pk, f1 from TopNTest order by f1, pk desc", 20, 10);
+        testTopN("select pk, f1, f2 from TopNTest where pk > 1000 order by f2, f1 desc, pk", 5, 1);
+        testTopN("select pk from TopNTest order by f1, pk", 2990, 100);
+        testTopN("select f2, count(*), max(f1) from TopNTest group by f2 order by max(f1), f2", 3, 7);
+    }
+
+    private void testTopN(String select, int offset, int limit) throws Exception {
+        ArrayList<String> all = getRows(select);
+        ArrayList<String> top = getRows(select + " limit " + limit + " offset " + offset);
+        int end = Math.min(all.size(), offset + limit);
+        assertEquals(select, all.subList(Math.min(offset, end), end), top);
+    }
+}